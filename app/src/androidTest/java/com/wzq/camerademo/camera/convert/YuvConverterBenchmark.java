@@ -0,0 +1,95 @@
+package com.wzq.camerademo.camera.convert;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the Java and native converters on synthetic 720p and 1080p frames laid out
+ * like camera output (padded rows, interleaved VU). Results go to logcat under
+ * {@value #TAG}:
+ * <pre>adb shell am instrument -w -e class com.wzq.camerademo.camera.convert.YuvConverterBenchmark \
+ *     com.wzq.camerademo.test/androidx.test.runner.AndroidJUnitRunner</pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class YuvConverterBenchmark {
+    private final static String TAG = "YuvConverterBenchmark";
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 30;
+
+    @Test
+    public void benchmark720p() {
+        benchmark(1280, 720);
+    }
+
+    @Test
+    public void benchmark1080p() {
+        benchmark(1920, 1080);
+    }
+
+    private void benchmark(int width, int height) {
+        assertTrue("native-lib is not packaged", NativeYuvConverter.isAvailable());
+        final YuvPlanes planes = semiPlanar(width, height);
+        final YuvConverter java = new JavaYuvConverter();
+        final YuvConverter nativeConverter = new NativeYuvConverter();
+        final ByteBuffer nv21 = ByteBuffer.allocateDirect(YuvPlanes.nv21Size(width, height));
+        final ByteBuffer rgba = ByteBuffer.allocateDirect(YuvPlanes.rgbaSize(width, height));
+
+        final String size = width + "x" + height;
+        final long javaNv21 = measure(java, planes, nv21, false);
+        final long nativeNv21 = measure(nativeConverter, planes, nv21, false);
+        final long javaRgba = measure(java, planes, rgba, true);
+        final long nativeRgba = measure(nativeConverter, planes, rgba, true);
+        report(size + " NV21", javaNv21, nativeNv21);
+        report(size + " RGBA", javaRgba, nativeRgba);
+    }
+
+    /**
+     * @return median run time in nanoseconds
+     */
+    private static long measure(YuvConverter converter, YuvPlanes planes, ByteBuffer out, boolean rgba) {
+        final long[] runs = new long[MEASURED_RUNS];
+        for (int i = -WARMUP_RUNS; i < MEASURED_RUNS; i++) {
+            final long start = System.nanoTime();
+            if (rgba) {
+                converter.toRgba(planes, out);
+            } else {
+                converter.toNv21(planes, out);
+            }
+            if (i >= 0) {
+                runs[i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(runs);
+        return runs[MEASURED_RUNS / 2];
+    }
+
+    private static void report(String name, long javaNanos, long nativeNanos) {
+        Log.i(TAG, String.format("%s: java %.2f ms, native %.2f ms, speedup %.1fx", name,
+                javaNanos / 1e6, nativeNanos / 1e6, (double) javaNanos / nativeNanos));
+    }
+
+    private static YuvPlanes semiPlanar(int width, int height) {
+        final int rowStride = (width + 63) & ~63;
+        final ByteBuffer y = ByteBuffer.allocateDirect(rowStride * height);
+        final ByteBuffer vu = ByteBuffer.allocateDirect(rowStride * height / 2);
+        for (int i = 0; i < y.capacity(); i++) {
+            y.put(i, (byte) (i * 7));
+        }
+        for (int i = 0; i < vu.capacity(); i++) {
+            vu.put(i, (byte) (i * 13));
+        }
+        vu.position(1);
+        final ByteBuffer u = vu.slice();
+        vu.position(0);
+        return new YuvPlanes().set(width, height, y, rowStride, u, vu, rowStride, 2);
+    }
+}
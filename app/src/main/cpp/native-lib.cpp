@@ -1,6 +1,8 @@
 #include <jni.h>
 #include <string>
 
+#include "yuv_convert.h"
+
 extern "C" JNIEXPORT jstring JNICALL
 Java_com_wzq_camerademo_MainActivity_stringFromJNI(
         JNIEnv* env,
@@ -8,3 +10,66 @@ Java_com_wzq_camerademo_MainActivity_stringFromJNI(
     std::string hello = "Hello from C++";
     return env->NewStringUTF(hello.c_str());
 }
+
+namespace {
+
+uint8_t* DirectAddress(JNIEnv* env, jobject buffer) {
+    return buffer == nullptr ? nullptr : static_cast<uint8_t*>(env->GetDirectBufferAddress(buffer));
+}
+
+// Resolves the plane addresses; the Java side has already checked sizes and strides.
+bool GetPlanes(JNIEnv* env, jobject y, jint y_row_stride, jobject u, jobject v,
+               jint uv_row_stride, jint uv_pixel_stride, jint width, jint height,
+               camerademo::YuvPlanes* planes) {
+    planes->y = DirectAddress(env, y);
+    planes->u = DirectAddress(env, u);
+    planes->v = DirectAddress(env, v);
+    planes->y_row_stride = y_row_stride;
+    planes->uv_row_stride = uv_row_stride;
+    planes->uv_pixel_stride = uv_pixel_stride;
+    planes->width = width;
+    planes->height = height;
+    if (planes->y == nullptr || planes->u == nullptr || planes->v == nullptr) {
+        env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"), "planes must be direct buffers");
+        return false;
+    }
+    return true;
+}
+
+uint8_t* GetOutput(JNIEnv* env, jobject out) {
+    uint8_t* address = DirectAddress(env, out);
+    if (address == nullptr) {
+        env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"), "output must be a direct buffer");
+    }
+    return address;
+}
+
+}  // namespace
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_wzq_camerademo_camera_convert_NativeYuvConverter_nativeToNv21(
+        JNIEnv* env, jclass,
+        jobject y, jint yRowStride, jobject u, jobject v, jint uvRowStride, jint uvPixelStride,
+        jint width, jint height, jobject out) {
+    camerademo::YuvPlanes planes;
+    if (!GetPlanes(env, y, yRowStride, u, v, uvRowStride, uvPixelStride, width, height, &planes)) return;
+    uint8_t* output = GetOutput(env, out);
+    if (output == nullptr) return;
+    camerademo::YuvToNv21(planes, output);
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_wzq_camerademo_camera_convert_NativeYuvConverter_nativeToRgb(
+        JNIEnv* env, jclass,
+        jobject y, jint yRowStride, jobject u, jobject v, jint uvRowStride, jint uvPixelStride,
+        jint width, jint height, jobject out, jboolean packedArgb) {
+    camerademo::YuvPlanes planes;
+    if (!GetPlanes(env, y, yRowStride, u, v, uvRowStride, uvPixelStride, width, height, &planes)) return;
+    uint8_t* output = GetOutput(env, out);
+    if (output == nullptr) return;
+    if (packedArgb) {
+        camerademo::YuvToArgb8888(planes, reinterpret_cast<uint32_t*>(output));
+    } else {
+        camerademo::YuvToRgba(planes, output);
+    }
+}
@@ -0,0 +1,50 @@
+#include <jni.h>
+
+#include <atomic>
+#include <cstdint>
+#include <cstdlib>
+
+namespace {
+
+// Rows handed to the converters start on a cache line.
+constexpr size_t kAlignment = 64;
+
+std::atomic<int64_t> g_allocated_bytes(0);
+
+}  // namespace
+
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_wzq_camerademo_camera_io_NativeBufferAllocator_nativeAllocate(
+        JNIEnv* env, jclass, jint capacity) {
+    void* memory = nullptr;
+    if (posix_memalign(&memory, kAlignment, static_cast<size_t>(capacity)) != 0) {
+        env->ThrowNew(env->FindClass("java/lang/OutOfMemoryError"), "native buffer allocation failed");
+        return nullptr;
+    }
+    jobject buffer = env->NewDirectByteBuffer(memory, capacity);
+    if (buffer == nullptr) {
+        // exception pending
+        free(memory);
+        return nullptr;
+    }
+    g_allocated_bytes += capacity;
+    return buffer;
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_com_wzq_camerademo_camera_io_NativeBufferAllocator_nativeFree(
+        JNIEnv* env, jclass, jobject buffer) {
+    void* memory = env->GetDirectBufferAddress(buffer);
+    if (memory == nullptr) {
+        env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"), "not a direct buffer");
+        return;
+    }
+    g_allocated_bytes -= env->GetDirectBufferCapacity(buffer);
+    free(memory);
+}
+
+extern "C" JNIEXPORT jlong JNICALL
+Java_com_wzq_camerademo_camera_io_NativeBufferAllocator_nativeAllocatedBytes(
+        JNIEnv*, jclass) {
+    return g_allocated_bytes.load();
+}
@@ -0,0 +1,114 @@
+#include "yuv_convert.h"
+
+#include <cstring>
+
+namespace camerademo {
+
+namespace {
+
+// Full-range BT.601 (JFIF) in 16.16 fixed point. Must match JavaYuvConverter exactly.
+constexpr int kFixShift = 16;
+constexpr int kFixHalf = 1 << (kFixShift - 1);
+constexpr int kVToR = 91881;   // 1.402
+constexpr int kUToG = 22554;   // 0.344136
+constexpr int kVToG = 46802;   // 0.714136
+constexpr int kUToB = 116130;  // 1.772
+
+inline uint8_t Clamp(int value) {
+    return static_cast<uint8_t>(value < 0 ? 0 : (value > 255 ? 255 : value));
+}
+
+// Converts one row of pixels; Writer stores (r, g, b) for pixel x.
+template <typename Writer>
+inline void ConvertRow(const uint8_t* y_row, const uint8_t* u_row, const uint8_t* v_row,
+                       int32_t uv_pixel_stride, int32_t width, Writer write) {
+    for (int32_t x = 0; x < width; x += 2) {
+        const int32_t uv = (x >> 1) * uv_pixel_stride;
+        const int cb = u_row[uv] - 128;
+        const int cr = v_row[uv] - 128;
+        const int r_offset = (kVToR * cr + kFixHalf) >> kFixShift;
+        const int g_offset = (kUToG * cb + kVToG * cr + kFixHalf) >> kFixShift;
+        const int b_offset = (kUToB * cb + kFixHalf) >> kFixShift;
+        // both pixels of the pair share the chroma sample
+        const int32_t end = x + 1 < width ? x + 2 : x + 1;
+        for (int32_t i = x; i < end; i++) {
+            const int luma = y_row[i];
+            write(i, Clamp(luma + r_offset), Clamp(luma - g_offset), Clamp(luma + b_offset));
+        }
+    }
+}
+
+template <typename Writer>
+inline void ConvertImage(const YuvPlanes& in, Writer write_row) {
+    for (int32_t row = 0; row < in.height; row++) {
+        const uint8_t* y_row = in.y + static_cast<intptr_t>(row) * in.y_row_stride;
+        const intptr_t uv_offset = static_cast<intptr_t>(row >> 1) * in.uv_row_stride;
+        write_row(row, y_row, in.u + uv_offset, in.v + uv_offset);
+    }
+}
+
+}  // namespace
+
+void YuvToNv21(const YuvPlanes& in, uint8_t* out) {
+    const int32_t width = in.width;
+    const int32_t height = in.height;
+    for (int32_t row = 0; row < height; row++) {
+        std::memcpy(out + static_cast<intptr_t>(row) * width,
+                    in.y + static_cast<intptr_t>(row) * in.y_row_stride, width);
+    }
+    uint8_t* vu = out + static_cast<intptr_t>(width) * height;
+    const int32_t chroma_width = (width + 1) / 2;
+    const int32_t chroma_height = (height + 1) / 2;
+
+    // Most HALs already deliver NV21 (V then U, pixel stride 2), so whole chroma rows can
+    // be copied; the last U byte of the last row lies outside the V plane and is copied
+    // separately.
+    if (in.uv_pixel_stride == 2 && in.u == in.v + 1) {
+        const int32_t row_bytes = chroma_width * 2;
+        for (int32_t row = 0; row < chroma_height; row++) {
+            const uint8_t* src = in.v + static_cast<intptr_t>(row) * in.uv_row_stride;
+            uint8_t* dst = vu + static_cast<intptr_t>(row) * row_bytes;
+            std::memcpy(dst, src, row_bytes - 1);
+            dst[row_bytes - 1] = in.u[static_cast<intptr_t>(row) * in.uv_row_stride + row_bytes - 2];
+        }
+        return;
+    }
+
+    for (int32_t row = 0; row < chroma_height; row++) {
+        const intptr_t row_start = static_cast<intptr_t>(row) * in.uv_row_stride;
+        const uint8_t* u = in.u + row_start;
+        const uint8_t* v = in.v + row_start;
+        for (int32_t col = 0; col < chroma_width; col++) {
+            const int32_t index = col * in.uv_pixel_stride;
+            *vu++ = v[index];
+            *vu++ = u[index];
+        }
+    }
+}
+
+void YuvToRgba(const YuvPlanes& in, uint8_t* out) {
+    ConvertImage(in, [&](int32_t row, const uint8_t* y_row, const uint8_t* u_row, const uint8_t* v_row) {
+        uint8_t* dst = out + static_cast<intptr_t>(row) * in.width * 4;
+        ConvertRow(y_row, u_row, v_row, in.uv_pixel_stride, in.width,
+                   [dst](int32_t x, uint8_t r, uint8_t g, uint8_t b) {
+                       uint8_t* pixel = dst + x * 4;
+                       pixel[0] = r;
+                       pixel[1] = g;
+                       pixel[2] = b;
+                       pixel[3] = 0xff;
+                   });
+    });
+}
+
+void YuvToArgb8888(const YuvPlanes& in, uint32_t* out) {
+    ConvertImage(in, [&](int32_t row, const uint8_t* y_row, const uint8_t* u_row, const uint8_t* v_row) {
+        uint32_t* dst = out + static_cast<intptr_t>(row) * in.width;
+        ConvertRow(y_row, u_row, v_row, in.uv_pixel_stride, in.width,
+                   [dst](int32_t x, uint8_t r, uint8_t g, uint8_t b) {
+                       dst[x] = 0xff000000u | (static_cast<uint32_t>(r) << 16)
+                                | (static_cast<uint32_t>(g) << 8) | b;
+                   });
+    });
+}
+
+}  // namespace camerademo
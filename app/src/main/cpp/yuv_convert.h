@@ -0,0 +1,32 @@
+#ifndef CAMERADEMO_YUV_CONVERT_H
+#define CAMERADEMO_YUV_CONVERT_H
+
+#include <cstdint>
+
+namespace camerademo {
+
+// A YUV_420_888 image as handed out by android.media.Image: three planes with their own
+// strides. U and V share the same row and pixel stride.
+struct YuvPlanes {
+    const uint8_t* y;
+    const uint8_t* u;
+    const uint8_t* v;
+    int32_t y_row_stride;
+    int32_t uv_row_stride;
+    int32_t uv_pixel_stride;
+    int32_t width;
+    int32_t height;
+};
+
+// Tightly packed NV21: width*height luma bytes followed by interleaved V/U.
+void YuvToNv21(const YuvPlanes& in, uint8_t* out);
+
+// R, G, B, A bytes per pixel.
+void YuvToRgba(const YuvPlanes& in, uint8_t* out);
+
+// One 0xAARRGGBB word per pixel in native byte order.
+void YuvToArgb8888(const YuvPlanes& in, uint32_t* out);
+
+}  // namespace camerademo
+
+#endif  // CAMERADEMO_YUV_CONVERT_H
@@ -1,6 +1,8 @@
 package com.wzq.camerademo;
 
 import androidx.appcompat.app.AppCompatActivity;
+import android.graphics.Bitmap;
+import android.graphics.Point;
 import android.graphics.SurfaceTexture;
 import android.os.Bundle;
 import android.util.Log;
@@ -8,14 +10,22 @@ import android.view.TextureView;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.wzq.camerademo.camera.CameraManager;
+import com.wzq.camerademo.camera.CameraSwitchListener;
+import com.wzq.camerademo.camera.pipeline.Burst;
+import com.wzq.camerademo.camera.pipeline.BurstCallback;
 
-public class CameraActivity extends AppCompatActivity implements View.OnClickListener {
+import java.util.Arrays;
+
+public class CameraActivity extends AppCompatActivity implements View.OnClickListener, View.OnLongClickListener {
     private static final String TAG = "CameraActivity";
+    private static final int BURST_COUNT = 5;
 
     private TextureView mTextureView;
+    private ImageView mSwitchFrameView;
     private TextView mTextView;
 
     private Button mSwitchCameraButton;
@@ -28,14 +38,21 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
         setContentView(R.layout.camera);
         getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN, WindowManager.LayoutParams.FLAG_FULLSCREEN);
         initView();
-        mCameraManager = new CameraManager(this);
-        mCameraManager.configure(1280, 720, true, mTextureView);
+        mCameraManager = new CameraManager(this, ((CameraApplication) getApplication()).getCameraStartup());
+        // the preview fills the screen, so the display size stands in for the view size
+        final Point displaySize = new Point();
+        getWindowManager().getDefaultDisplay().getSize(displaySize);
+        mCameraManager.setFastSwitchEnabled(true);
+        mCameraManager.setCameraSwitchListener(mSwitchListener);
+        mCameraManager.configure(displaySize.x, displaySize.y, true, mTextureView);
     }
 
     @Override
     protected void onResume() {
         super.onResume();
         mTextureView.setSurfaceTextureListener(mTextureListener);
+        // the device opens while the view creates its surface
+        mCameraManager.startCamera();
     }
 
     @Override
@@ -44,8 +61,15 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
         mCameraManager.stopCamera();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mCameraManager.release();
+    }
+
     private void initView() {
         mTextureView = findViewById(R.id.texture_view);
+        mSwitchFrameView = findViewById(R.id.switch_frame);
         mTextView = findViewById(R.id.message_text);
         mTextView.setOnClickListener(this);
         mSwitchCameraButton = findViewById(R.id.switch_camera);
@@ -53,13 +77,14 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
 
         mCapturePictureButton = findViewById(R.id.capture_picture);
         mCapturePictureButton.setOnClickListener(this);
+        mCapturePictureButton.setOnLongClickListener(this);
     }
 
     private TextureView.SurfaceTextureListener mTextureListener = new TextureView.SurfaceTextureListener() {
         @Override
         public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
             Log.d(TAG, "onSurfaceTextureAvailable");
-            mCameraManager.startCamera();
+            mCameraManager.onPreviewSurfaceAvailable();
         }
 
         @Override
@@ -78,6 +103,48 @@ public class CameraActivity extends AppCompatActivity implements View.OnClickLis
         }
     };
 
+    private CameraSwitchListener mSwitchListener = new CameraSwitchListener() {
+        @Override
+        public void onSwitchStarted(Bitmap lastFrame) {
+            if (lastFrame == null) return;
+            mSwitchFrameView.setImageBitmap(lastFrame);
+            mSwitchFrameView.setVisibility(View.VISIBLE);
+        }
+
+        @Override
+        public void onSwitchCompleted(final long latencyNanos) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    mSwitchFrameView.setVisibility(View.GONE);
+                    mSwitchFrameView.setImageBitmap(null);
+                    Log.d(TAG, "switch latency " + latencyNanos / 1000000 + "ms, "
+                            + mCameraManager.getSwitchLatency());
+                }
+            });
+        }
+    };
+
+    private BurstCallback mBurstCallback = new BurstCallback() {
+        @Override
+        public void onBurstCompleted(Burst burst) {
+            final long[] latencies = burst.getFrameLatenciesNanos();
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] /= 1000000;
+            }
+            Log.d(TAG, "burst " + burst.getId() + " done, failed " + burst.getFailedCount()
+                    + ", latency ms " + Arrays.toString(latencies));
+        }
+    };
+
+    @Override
+    public boolean onLongClick(View v) {
+        if (v.getId() == R.id.capture_picture) {
+            return mCameraManager.captureBurst(BURST_COUNT, mBurstCallback);
+        }
+        return false;
+    }
+
     @Override
     public void onClick(View v) {
         switch (v.getId()) {
@@ -0,0 +1,21 @@
+package com.wzq.camerademo;
+
+import android.app.Application;
+
+import com.wzq.camerademo.camera.CameraStartup;
+
+public class CameraApplication extends Application {
+    private CameraStartup mCameraStartup;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // native-lib and the camera list are ready by the time the camera screen opens
+        mCameraStartup = new CameraStartup(this);
+        mCameraStartup.start();
+    }
+
+    public CameraStartup getCameraStartup() {
+        return mCameraStartup;
+    }
+}
@@ -8,6 +8,7 @@ import androidx.core.content.ContextCompat;
 import android.Manifest;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
@@ -15,17 +16,14 @@ import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.TextView;
 
+import com.wzq.camerademo.camera.CameraStartup;
+
 import java.util.ArrayList;
 import java.util.List;
 
 public class MainActivity extends AppCompatActivity implements View.OnClickListener {
     private static final String TAG = "MainActivity";
 
-    // Used to load the 'native-lib' library on application startup.
-    static {
-        System.loadLibrary("native-lib");
-    }
-
     private String[] mPermissions = new String[]{
             Manifest.permission.CAMERA,
             Manifest.permission.WRITE_EXTERNAL_STORAGE,
@@ -39,14 +37,34 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN, WindowManager.LayoutParams.FLAG_FULLSCREEN);
-        // Example of a call to a native method
-        TextView tv = findViewById(R.id.sample_text);
-        tv.setText(stringFromJNI());
+        // Example of a call to a native method, once the library loaded in the background
+        final TextView tv = findViewById(R.id.sample_text);
+        final CameraStartup startup = ((CameraApplication) getApplication()).getCameraStartup();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean loaded = startup.awaitNativeLibrary();
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (loaded) {
+                            tv.setText(stringFromJNI());
+                        }
+                    }
+                });
+            }
+        });
 
         mCameraButton = findViewById(R.id.jump_camera);
         mCameraButton.setOnClickListener(this);
 
-        requestRunTimePermission(mPermissions, mListener);
+        // after the first frame is drawn
+        tv.post(new Runnable() {
+            @Override
+            public void run() {
+                requestRunTimePermission(mPermissions, mListener);
+            }
+        });
     }
 
     /**
@@ -0,0 +1,68 @@
+package com.wzq.camerademo.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.wzq.camerademo.camera.process.ArgbImage;
+import com.wzq.camerademo.camera.process.ImageCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link ImageCodec} for JPEG captures. Decodes into the bitmap of the previous capture
+ * where it fits and encodes from a bitmap kept while the size stays the same, so a series
+ * of captures does not allocate a 48MB bitmap each. Only used from one thread.
+ */
+public class BitmapImageCodec implements ImageCodec {
+    private final static int JPEG_QUALITY = 92;
+
+    private Bitmap mDecodeBitmap;
+    private Bitmap mEncodeBitmap;
+
+    @Override
+    public ArgbImage decode(File file, int[] pixels) throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        options.inBitmap = mDecodeBitmap;
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // the capture is larger than the bitmap to reuse
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        }
+        if (bitmap == null) {
+            throw new IOException("cannot decode " + file);
+        }
+        mDecodeBitmap = bitmap;
+        final ArgbImage image = ArgbImage.reuse(pixels, bitmap.getWidth(), bitmap.getHeight());
+        bitmap.getPixels(image.getPixels(), 0, image.getWidth(), 0, 0, image.getWidth(), image.getHeight());
+        return image;
+    }
+
+    @Override
+    public void encode(ArgbImage image, File file) throws IOException {
+        if (mEncodeBitmap == null || mEncodeBitmap.getWidth() != image.getWidth()
+                || mEncodeBitmap.getHeight() != image.getHeight()) {
+            if (mEncodeBitmap != null) {
+                mEncodeBitmap.recycle();
+            }
+            mEncodeBitmap = Bitmap.createBitmap(image.getWidth(), image.getHeight(), Bitmap.Config.ARGB_8888);
+        }
+        mEncodeBitmap.setPixels(image.getPixels(), 0, image.getWidth(), 0, 0, image.getWidth(), image.getHeight());
+        final OutputStream output = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            if (!mEncodeBitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output)) {
+                throw new IOException("cannot encode " + file);
+            }
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.wzq.camerademo.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.wzq.camerademo.camera.thumb.ExifThumbnail;
+import com.wzq.camerademo.camera.thumb.ThumbnailCache;
+import com.wzq.camerademo.camera.thumb.ThumbnailCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link ThumbnailCodec} for JPEG captures. Takes the EXIF thumbnail when it is big enough
+ * and otherwise decodes the capture subsampled, so a 12MP JPEG is never decoded at full
+ * size. Thumbnails are kept as RGB_565 bitmaps, half the memory of ARGB_8888.
+ */
+public class BitmapThumbnailCodec implements ThumbnailCodec<Bitmap> {
+    private final static int JPEG_QUALITY = 85;
+
+    @Override
+    public byte[] encode(File source, int maxSize) throws IOException {
+        final byte[] exif = ExifThumbnail.read(source);
+        if (exif != null) {
+            final BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(exif, 0, exif.length, bounds);
+            // a little soft in a grid cell is fine, decoding the capture is not
+            if (Math.max(bounds.outWidth, bounds.outHeight) >= maxSize / 2) {
+                return exif;
+            }
+        }
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("cannot decode " + source);
+        }
+        final int width = options.outWidth;
+        final int height = options.outHeight;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = ThumbnailCache.sampleSizeFor(width, height, maxSize);
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = BitmapFactory.decodeFile(source.getPath(), options);
+        if (bitmap == null) {
+            throw new IOException("cannot decode " + source);
+        }
+        final float scale = (float) maxSize / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (scale < 1) {
+            final Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * scale),
+                    Math.round(bitmap.getHeight() * scale), true);
+            bitmap.recycle();
+            bitmap = scaled;
+        }
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output)) {
+                throw new IOException("cannot encode thumbnail of " + source);
+            }
+        } finally {
+            bitmap.recycle();
+        }
+        return output.toByteArray();
+    }
+
+    @Override
+    public Bitmap decode(byte[] thumbnail) throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        final Bitmap bitmap = BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+        if (bitmap == null) {
+            throw new IOException("cannot decode thumbnail");
+        }
+        return bitmap;
+    }
+
+    @Override
+    public int sizeOf(Bitmap thumbnail) {
+        return thumbnail.getByteCount();
+    }
+}
@@ -0,0 +1,777 @@
+package com.wzq.camerademo.camera;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+import android.view.TextureView;
+
+import androidx.annotation.NonNull;
+import androidx.core.app.ActivityCompat;
+
+import com.wzq.camerademo.camera.backend.BackendDevice;
+import com.wzq.camerademo.camera.backend.BackendImage;
+import com.wzq.camerademo.camera.backend.BackendSession;
+import com.wzq.camerademo.camera.backend.CameraBackend;
+import com.wzq.camerademo.camera.backend.CaptureCallback;
+import com.wzq.camerademo.camera.backend.DeviceCallback;
+import com.wzq.camerademo.camera.backend.FrameResult;
+import com.wzq.camerademo.camera.backend.FrameResultListener;
+import com.wzq.camerademo.camera.backend.ImageListener;
+import com.wzq.camerademo.camera.backend.PreviewCallback;
+import com.wzq.camerademo.camera.backend.SessionCallback;
+import com.wzq.camerademo.camera.backend.SessionConfig;
+import com.wzq.camerademo.camera.capture.PrecaptureSequence;
+import com.wzq.camerademo.camera.governor.FrameRateRange;
+import com.wzq.camerademo.camera.info.CameraInfo;
+import com.wzq.camerademo.camera.info.CameraInfoCache;
+import com.wzq.camerademo.camera.journal.FrameJournal;
+import com.wzq.camerademo.camera.journal.FrameRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link CameraBackend} on top of camera2. Device, session, capture and analysis image
+ * callbacks are delivered on {@code handler}, JPEG images on {@code jpegHandler} so that
+ * copying them out never delays the preview.
+ *
+ * <p>The preview surface and the image readers are kept from one session to the next
+ * while their sizes stay the same, and only closed by {@link #release()}.
+ */
+public class Camera2Backend implements CameraBackend {
+    private final static String TAG = "Camera2Backend";
+    // about a second of preview frames
+    private final static int PRECAPTURE_TIMEOUT_FRAMES = 30;
+
+    private final Context mContext;
+    private final android.hardware.camera2.CameraManager mCameraManager;
+    private final TextureView mTextureView;
+    private final Handler mHandler;
+    private final Handler mJpegHandler;
+
+    // only touched on mHandler, while no session is being configured
+    private Surface mSurface;
+    private SurfaceTexture mSurfaceTexture;
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
+    private ImageReader mJpegImageReader;
+    private ImageReader mAnalysisImageReader;
+    private volatile ImageListener mImageListener;
+    private volatile FrameResultListener mFrameResultListener;
+    private volatile FrameJournal mFrameJournal;
+    private volatile CameraInfoCache mCameraInfoCache;
+    // reused for every journaled frame, only touched on mHandler
+    private final FrameRecord mFrameRecord = new FrameRecord();
+    private boolean mZslEnabled;
+    private Surface mRecordingSurface;
+    private boolean mRecording;
+
+    public Camera2Backend(Context context, android.hardware.camera2.CameraManager cameraManager,
+                          TextureView textureView, Handler handler, Handler jpegHandler) {
+        mContext = context;
+        mCameraManager = cameraManager;
+        mTextureView = textureView;
+        mHandler = handler;
+        mJpegHandler = jpegHandler;
+    }
+
+    @Override
+    public List<CameraInfo> queryCameras() throws IOException {
+        return new Camera2InfoSource(mCameraManager).queryCameras();
+    }
+
+    @Override
+    public void openDevice(final String cameraId, final DeviceCallback callback) {
+        if (ActivityCompat.checkSelfPermission(mContext, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+            Log.e(TAG, "no camera permission");
+            postOpenFailure(callback);
+            return;
+        }
+        try {
+            mCameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
+                private Device mDevice;
+
+                private Device wrap(CameraDevice camera) {
+                    if (mDevice == null) {
+                        mDevice = new Device(camera);
+                    }
+                    return mDevice;
+                }
+
+                @Override
+                public void onOpened(@NonNull CameraDevice camera) {
+                    callback.onOpened(wrap(camera));
+                }
+
+                @Override
+                public void onClosed(@NonNull CameraDevice camera) {
+                    callback.onClosed(wrap(camera));
+                }
+
+                @Override
+                public void onDisconnected(@NonNull CameraDevice camera) {
+                    callback.onDisconnected(wrap(camera));
+                }
+
+                @Override
+                public void onError(@NonNull CameraDevice camera, int error) {
+                    callback.onError(wrap(camera), error);
+                }
+            }, mHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+            postOpenFailure(callback);
+        } catch (SecurityException e) {
+            e.printStackTrace();
+            postOpenFailure(callback);
+        }
+    }
+
+    /**
+     * The video encoder's input surface for sessions with recording enabled; null once the
+     * encoder is gone. Call on {@code handler} before the session using it is configured.
+     * The surface stays owned by the encoder.
+     */
+    public void setRecordingSurface(Surface surface) {
+        mRecordingSurface = surface;
+    }
+
+    /**
+     * Every preview result is appended to {@code journal} from now on; null stops journaling.
+     * The caller keeps ownership and closes it after clearing it here.
+     */
+    public void setFrameJournal(FrameJournal journal) {
+        mFrameJournal = journal;
+    }
+
+    /**
+     * Where opened devices look up what they support, so the preview thread does not ask
+     * the camera service; cameras it does not list are still read from their characteristics.
+     */
+    public void setCameraInfoCache(CameraInfoCache cache) {
+        mCameraInfoCache = cache;
+    }
+
+    /**
+     * Closes the readers and the preview surface. Call once the devices are closed and no
+     * more callbacks can arrive on either handler.
+     */
+    @Override
+    public void release() {
+        if (mJpegImageReader != null) {
+            mJpegImageReader.close();
+            mJpegImageReader = null;
+        }
+        if (mAnalysisImageReader != null) {
+            mAnalysisImageReader.close();
+            mAnalysisImageReader = null;
+        }
+        if (mSurface != null) {
+            mSurface.release();
+            mSurface = null;
+            mSurfaceTexture = null;
+        }
+    }
+
+    /**
+     * Creates the preview surface and the readers for {@code config}, keeping the ones that
+     * still fit, and returns every surface of the session.
+     */
+    private List<Surface> prepareOutputs(SessionConfig config) {
+        mImageListener = config.getImageListener();
+        mFrameResultListener = config.getFrameResultListener();
+        mZslEnabled = config.isZslEnabled();
+        mRecording = config.isRecordingEnabled() && mRecordingSurface != null;
+        if (config.isRecordingEnabled() && mRecordingSurface == null) {
+            Log.e(TAG, "recording enabled without an encoder surface");
+        }
+        final SurfaceTexture surfaceTexture = mTextureView.getSurfaceTexture();
+        if (mSurface == null || surfaceTexture != mSurfaceTexture
+                || mSurfaceWidth != config.getPreviewWidth() || mSurfaceHeight != config.getPreviewHeight()) {
+            if (mSurface != null) {
+                mSurface.release();
+            }
+            surfaceTexture.setDefaultBufferSize(config.getPreviewWidth(), config.getPreviewHeight());
+            mSurface = new Surface(surfaceTexture);
+            mSurfaceTexture = surfaceTexture;
+            mSurfaceWidth = config.getPreviewWidth();
+            mSurfaceHeight = config.getPreviewHeight();
+        }
+        if (mJpegImageReader != null && (mJpegImageReader.getWidth() != config.getJpegWidth()
+                || mJpegImageReader.getHeight() != config.getJpegHeight()
+                || mJpegImageReader.getMaxImages() != config.getMaxJpegImages())) {
+            mJpegImageReader.close();
+            mJpegImageReader = null;
+        }
+        if (mJpegImageReader == null) {
+            mJpegImageReader = ImageReader.newInstance(config.getJpegWidth(), config.getJpegHeight(), ImageFormat.JPEG, config.getMaxJpegImages());
+            mJpegImageReader.setOnImageAvailableListener(mOnJpegImageAvailableListener, mJpegHandler);
+        }
+        if (mAnalysisImageReader != null && (!config.hasAnalysisStream()
+                || mAnalysisImageReader.getWidth() != config.getAnalysisWidth()
+                || mAnalysisImageReader.getHeight() != config.getAnalysisHeight())) {
+            mAnalysisImageReader.close();
+            mAnalysisImageReader = null;
+        }
+        if (mAnalysisImageReader == null && config.hasAnalysisStream()) {
+            // acquireLatestImage() needs a second slot to skip to the newest frame
+            mAnalysisImageReader = ImageReader.newInstance(config.getAnalysisWidth(), config.getAnalysisHeight(), ImageFormat.YUV_420_888, 2);
+            mAnalysisImageReader.setOnImageAvailableListener(mOnAnalysisImageAvailableListener, mHandler);
+        }
+        final List<Surface> surfaces = getPreviewTargets();
+        surfaces.add(mJpegImageReader.getSurface());
+        return surfaces;
+    }
+
+    private List<Surface> getPreviewTargets() {
+        final List<Surface> targets = new ArrayList<>();
+        targets.add(mSurface);
+        if (mAnalysisImageReader != null) {
+            targets.add(mAnalysisImageReader.getSurface());
+        }
+        if (mRecording) {
+            targets.add(mRecordingSurface);
+        }
+        return targets;
+    }
+
+    private static FrameResult toFrameResult(TotalCaptureResult result) {
+        final Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        final Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+        final Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+        final Integer lensState = result.get(CaptureResult.LENS_STATE);
+        int focusState = FrameResult.FOCUS_UNKNOWN;
+        if (afState != null) {
+            switch (afState) {
+                case CameraMetadata.CONTROL_AF_STATE_FOCUSED_LOCKED:
+                case CameraMetadata.CONTROL_AF_STATE_PASSIVE_FOCUSED:
+                    focusState = FrameResult.FOCUS_FOCUSED;
+                    break;
+                case CameraMetadata.CONTROL_AF_STATE_ACTIVE_SCAN:
+                case CameraMetadata.CONTROL_AF_STATE_PASSIVE_SCAN:
+                    focusState = FrameResult.FOCUS_SCANNING;
+                    break;
+                case CameraMetadata.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED:
+                case CameraMetadata.CONTROL_AF_STATE_PASSIVE_UNFOCUSED:
+                    focusState = FrameResult.FOCUS_UNFOCUSED;
+                    break;
+                default:
+                    break;
+            }
+        }
+        final boolean exposureConverged = aeState == null || aeState == CameraMetadata.CONTROL_AE_STATE_CONVERGED
+                || aeState == CameraMetadata.CONTROL_AE_STATE_LOCKED || aeState == CameraMetadata.CONTROL_AE_STATE_FLASH_REQUIRED;
+        return new FrameResult(timestamp != null ? timestamp : 0, focusState,
+                lensState != null && lensState == CameraMetadata.LENS_STATE_MOVING, exposureConverged);
+    }
+
+    private void journal(TotalCaptureResult result) {
+        final FrameJournal journal = mFrameJournal;
+        if (journal == null) return;
+        final FrameRecord record = mFrameRecord;
+        final Integer lensState = result.get(CaptureResult.LENS_STATE);
+        record.setFrameNumber(result.getFrameNumber())
+                .setSensorTimestamp(orZero(result.get(CaptureResult.SENSOR_TIMESTAMP)))
+                .setResultTime(SystemClock.elapsedRealtimeNanos())
+                .setExposureTime(orZero(result.get(CaptureResult.SENSOR_EXPOSURE_TIME)))
+                .setFrameDuration(orZero(result.get(CaptureResult.SENSOR_FRAME_DURATION)))
+                .setSensitivity(orUnknown(result.get(CaptureResult.SENSOR_SENSITIVITY), 0))
+                .setAfState(orUnknown(result.get(CaptureResult.CONTROL_AF_STATE), FrameRecord.STATE_UNKNOWN))
+                .setAeState(orUnknown(result.get(CaptureResult.CONTROL_AE_STATE), FrameRecord.STATE_UNKNOWN))
+                .setAwbState(orUnknown(result.get(CaptureResult.CONTROL_AWB_STATE), FrameRecord.STATE_UNKNOWN))
+                .setLensMoving(lensState != null && lensState == CameraMetadata.LENS_STATE_MOVING);
+        journal.append(record);
+    }
+
+    private static long orZero(Long value) {
+        return value != null ? value : 0;
+    }
+
+    private static int orUnknown(Integer value, int unknown) {
+        return value != null ? value : unknown;
+    }
+
+    private final ImageReader.OnImageAvailableListener mOnJpegImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            deliver(reader.acquireNextImage(), CameraInfo.FORMAT_JPEG);
+        }
+    };
+
+    private final ImageReader.OnImageAvailableListener mOnAnalysisImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            deliver(reader.acquireLatestImage(), CameraInfo.FORMAT_YUV_420_888);
+        }
+    };
+
+    private void deliver(Image image, int format) {
+        if (image == null) return;
+        final ImageListener listener = mImageListener;
+        if (listener == null) {
+            image.close();
+            return;
+        }
+        listener.onImageAvailable(new Camera2Image(image, format));
+    }
+
+    private static class Camera2Image implements BackendImage {
+        private final Image mImage;
+        private final Image.Plane[] mPlanes;
+        private final int mFormat;
+
+        Camera2Image(Image image, int format) {
+            mImage = image;
+            mPlanes = image.getPlanes();
+            mFormat = format;
+        }
+
+        @Override
+        public int getFormat() {
+            return mFormat;
+        }
+
+        @Override
+        public int getWidth() {
+            return mImage.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mImage.getHeight();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mImage.getTimestamp();
+        }
+
+        @Override
+        public int getPlaneCount() {
+            return mPlanes.length;
+        }
+
+        @Override
+        public ByteBuffer getPlaneBuffer(int plane) {
+            return mPlanes[plane].getBuffer();
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return mPlanes[plane].getRowStride();
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return mPlanes[plane].getPixelStride();
+        }
+
+        @Override
+        public void close() {
+            mImage.close();
+        }
+    }
+
+    private void postOpenFailure(final DeviceCallback callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onError(null, DeviceCallback.ERROR_OPEN_FAILED);
+            }
+        });
+    }
+
+    private class Device implements BackendDevice {
+        private final CameraDevice mCamera;
+        private List<FrameRateRange> mFrameRates;
+
+        Device(CameraDevice camera) {
+            mCamera = camera;
+        }
+
+        @Override
+        public String getId() {
+            return mCamera.getId();
+        }
+
+        /**
+         * The auto exposure frame rate ranges the camera supports, read once per device from
+         * the camera info cache if it lists the camera.
+         */
+        List<FrameRateRange> getFrameRates() throws IOException {
+            if (mFrameRates == null) {
+                int[][] ranges = null;
+                final CameraInfoCache cache = mCameraInfoCache;
+                if (cache != null) {
+                    for (CameraInfo info : cache.getCameras()) {
+                        if (info.getId().equals(getId())) {
+                            ranges = info.getFpsRanges();
+                            break;
+                        }
+                    }
+                }
+                if (ranges == null) {
+                    try {
+                        ranges = Camera2InfoSource.fpsRanges(mCameraManager.getCameraCharacteristics(getId()));
+                    } catch (CameraAccessException e) {
+                        throw new IOException(e);
+                    }
+                }
+                final List<FrameRateRange> frameRates = new ArrayList<>(ranges.length);
+                for (int[] range : ranges) {
+                    frameRates.add(new FrameRateRange(range[0], range[1]));
+                }
+                mFrameRates = frameRates;
+            }
+            return mFrameRates;
+        }
+
+        @Override
+        public void createSession(SessionConfig config, final SessionCallback callback) throws IOException {
+            try {
+                mCamera.createCaptureSession(prepareOutputs(config), new CameraCaptureSession.StateCallback() {
+                    @Override
+                    public void onConfigured(@NonNull CameraCaptureSession session) {
+                        callback.onConfigured(new Session(Device.this, session));
+                    }
+
+                    @Override
+                    public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                        callback.onConfigureFailed(Device.this);
+                    }
+                }, mHandler);
+            } catch (CameraAccessException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            mCamera.close();
+        }
+    }
+
+    private class Session implements BackendSession {
+        private final Device mDevice;
+        private final CameraCaptureSession mSession;
+        // only touched on mHandler
+        private CaptureRequest.Builder mPreviewBuilder;
+        private FrameRateRange mFrameRateRange;
+        private CameraCaptureSession.CaptureCallback mPreviewCaptureCallback;
+        private int mAfState = PrecaptureSequence.STATE_UNKNOWN;
+        private int mAeState = PrecaptureSequence.STATE_UNKNOWN;
+        private PrecaptureSequence mPrecapture;
+        private CaptureCallback mStillCallback;
+        private boolean mClosed;
+
+        Session(Device device, CameraCaptureSession session) {
+            mDevice = device;
+            mSession = session;
+        }
+
+        @Override
+        public BackendDevice getDevice() {
+            return mDevice;
+        }
+
+        /**
+         * With zero shutter lag the preview request also targets the JPEG reader, so every
+         * frame produces a full resolution still. While recording it feeds the encoder with
+         * the record template, which keeps the frame rate steady.
+         */
+        @Override
+        public void startPreview(final PreviewCallback callback) throws IOException {
+            try {
+                final int template;
+                if (mRecording) {
+                    template = CameraDevice.TEMPLATE_RECORD;
+                } else if (mZslEnabled) {
+                    template = CameraDevice.TEMPLATE_ZERO_SHUTTER_LAG;
+                } else {
+                    template = CameraDevice.TEMPLATE_PREVIEW;
+                }
+                try {
+                    mPreviewBuilder = mDevice.mCamera.createCaptureRequest(template);
+                } catch (IllegalArgumentException e) {
+                    // the ZSL template needs a reprocessing capability; the manager checks it
+                    // before enabling ZSL, this only keeps a wrong check from killing the thread
+                    Log.e(TAG, "template " + template + " not supported, using preview: " + e);
+                    mPreviewBuilder = mDevice.mCamera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                }
+                applyFrameRateRange();
+                for (Surface target : getPreviewTargets()) {
+                    mPreviewBuilder.addTarget(target);
+                }
+                if (mZslEnabled) {
+                    mPreviewBuilder.addTarget(mJpegImageReader.getSurface());
+                }
+                mPreviewCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+                    @Override
+                    public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
+                        final Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+                        callback.onPreviewFrame(timestamp != null ? timestamp : 0);
+                        final FrameResultListener listener = mFrameResultListener;
+                        if (listener != null) {
+                            listener.onFrameResult(toFrameResult(result));
+                        }
+                        journal(result);
+                        onPreviewResult(result);
+                    }
+                };
+                mSession.setRepeatingRequest(mPreviewBuilder.build(), mPreviewCaptureCallback, mHandler);
+            } catch (CameraAccessException e) {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * Uses the closest range the camera supports. A running preview gets it by replacing
+         * the repeating request, which takes effect within a few frames and leaves the
+         * outputs alone.
+         */
+        @Override
+        public void setFrameRateRange(int minFps, int maxFps) throws IOException {
+            final FrameRateRange range = FrameRateRange.closest(mDevice.getFrameRates(), new FrameRateRange(minFps, maxFps));
+            if (range == null || range.equals(mFrameRateRange)) return;
+            mFrameRateRange = range;
+            if (mPreviewBuilder == null || mClosed) return;
+            applyFrameRateRange();
+            try {
+                mSession.setRepeatingRequest(mPreviewBuilder.build(), mPreviewCaptureCallback, mHandler);
+            } catch (CameraAccessException e) {
+                throw new IOException(e);
+            }
+        }
+
+        private void applyFrameRateRange() {
+            final FrameRateRange range = mFrameRateRange;
+            if (range != null) {
+                mPreviewBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                        new Range<Integer>(range.getMin(), range.getMax()));
+            }
+        }
+
+        private void onPreviewResult(TotalCaptureResult result) {
+            final Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+            final Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+            mAfState = afState != null ? afState : PrecaptureSequence.STATE_UNKNOWN;
+            mAeState = aeState != null ? aeState : PrecaptureSequence.STATE_UNKNOWN;
+            if (mPrecapture != null) {
+                mPrecapture.onResult(mAfState, mAeState);
+            }
+        }
+
+        /**
+         * Stills are requested alongside the repeating preview request, which is never
+         * stopped. A single still first goes through the {@link PrecaptureSequence}; a burst
+         * is captured right away.
+         */
+        @Override
+        public void capture(final int count, final CaptureCallback callback) throws IOException {
+            if (count > 1) {
+                captureBurst(count, callback);
+                return;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mClosed || mPrecapture != null) {
+                        callback.onCaptureSequenceAborted();
+                        return;
+                    }
+                    mStillCallback = callback;
+                    mPrecapture = new PrecaptureSequence(mPrecaptureCallback, PRECAPTURE_TIMEOUT_FRAMES);
+                    mPrecapture.start(mAfState, mAeState);
+                }
+            });
+        }
+
+        private void captureBurst(int count, CaptureCallback callback) throws IOException {
+            try {
+                final CaptureRequest request = newStillRequest();
+                final List<CaptureRequest> requests = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    requests.add(request);
+                }
+                mSession.captureBurst(requests, new ForwardingCaptureCallback(callback), mHandler);
+            } catch (CameraAccessException e) {
+                throw new IOException(e);
+            }
+        }
+
+        private CaptureRequest newStillRequest() throws CameraAccessException {
+            // a video snapshot does not disturb the exposure of the recording
+            final CaptureRequest.Builder builder = mDevice.mCamera.createCaptureRequest(
+                    mRecording ? CameraDevice.TEMPLATE_VIDEO_SNAPSHOT : CameraDevice.TEMPLATE_STILL_CAPTURE);
+            builder.addTarget(mJpegImageReader.getSurface());
+            // keep the preview and the recording fed during the still frame
+            for (Surface target : getPreviewTargets()) {
+                builder.addTarget(target);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Submits {@code key} = {@code value} once on top of the preview settings.
+         */
+        private <T> void submitTrigger(CaptureRequest.Key<T> key, T value, T idle) throws CameraAccessException {
+            mPreviewBuilder.set(key, value);
+            try {
+                mSession.capture(mPreviewBuilder.build(), mPreviewCaptureCallback, mHandler);
+            } finally {
+                mPreviewBuilder.set(key, idle);
+            }
+        }
+
+        private final PrecaptureSequence.Callback mPrecaptureCallback = new PrecaptureSequence.Callback() {
+            @Override
+            public void onTriggerFocus() {
+                try {
+                    submitTrigger(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_START,
+                            CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+                } catch (CameraAccessException e) {
+                    e.printStackTrace();
+                    abortStill();
+                } catch (IllegalStateException e) {
+                    e.printStackTrace();
+                    abortStill();
+                }
+            }
+
+            @Override
+            public void onTriggerPrecapture() {
+                try {
+                    submitTrigger(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_START,
+                            CameraMetadata.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
+                } catch (CameraAccessException e) {
+                    e.printStackTrace();
+                    abortStill();
+                } catch (IllegalStateException e) {
+                    e.printStackTrace();
+                    abortStill();
+                }
+            }
+
+            @Override
+            public void onReadyToCapture(boolean converged) {
+                if (!converged) {
+                    Log.w(TAG, "capturing before af/ae converged, af " + mAfState + " ae " + mAeState);
+                }
+                final CaptureCallback callback = mStillCallback;
+                try {
+                    mSession.capture(newStillRequest(), new ForwardingCaptureCallback(callback) {
+                        @Override
+                        public void onCaptureSequenceCompleted(@NonNull CameraCaptureSession session, int sequenceId, long frameNumber) {
+                            finishStill();
+                            super.onCaptureSequenceCompleted(session, sequenceId, frameNumber);
+                        }
+
+                        @Override
+                        public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
+                            finishStill();
+                            super.onCaptureSequenceAborted(session, sequenceId);
+                        }
+                    }, mHandler);
+                } catch (CameraAccessException e) {
+                    e.printStackTrace();
+                    abortStill();
+                } catch (IllegalStateException e) {
+                    e.printStackTrace();
+                    abortStill();
+                }
+            }
+        };
+
+        /**
+         * Releases the focus lock of the sequence, so continuous autofocus resumes.
+         */
+        private void finishStill() {
+            final PrecaptureSequence precapture = mPrecapture;
+            mPrecapture = null;
+            mStillCallback = null;
+            if (precapture == null || !precapture.isFocusTriggered() || mClosed) return;
+            try {
+                submitTrigger(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_CANCEL,
+                        CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
+            } catch (IllegalStateException e) {
+                // the session was closed meanwhile
+                Log.d(TAG, "unlock focus on closed session");
+            }
+        }
+
+        private void abortStill() {
+            final CaptureCallback callback = mStillCallback;
+            if (mPrecapture != null) {
+                mPrecapture.cancel();
+            }
+            finishStill();
+            if (callback != null) {
+                callback.onCaptureSequenceAborted();
+            }
+        }
+
+        @Override
+        public void close() {
+            mSession.close();
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mClosed = true;
+                    // a still waiting for convergence was never submitted, so camera2 will not abort it
+                    if (mPrecapture != null && mPrecapture.getState() != PrecaptureSequence.State.READY) {
+                        abortStill();
+                    }
+                }
+            });
+        }
+    }
+
+    private static class ForwardingCaptureCallback extends CameraCaptureSession.CaptureCallback {
+        private final CaptureCallback mCallback;
+
+        ForwardingCaptureCallback(CaptureCallback callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void onCaptureStarted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, long timestamp, long frameNumber) {
+            mCallback.onCaptureStarted(timestamp);
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull CaptureFailure failure) {
+            mCallback.onCaptureFailed(failure.getReason());
+        }
+
+        @Override
+        public void onCaptureSequenceCompleted(@NonNull CameraCaptureSession session, int sequenceId, long frameNumber) {
+            mCallback.onCaptureSequenceCompleted();
+        }
+
+        @Override
+        public void onCaptureSequenceAborted(@NonNull CameraCaptureSession session, int sequenceId) {
+            mCallback.onCaptureSequenceAborted();
+        }
+    }
+}
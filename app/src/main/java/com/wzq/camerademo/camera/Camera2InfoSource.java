@@ -0,0 +1,118 @@
+package com.wzq.camerademo.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.util.Range;
+import android.util.Size;
+
+import com.wzq.camerademo.camera.info.CameraInfo;
+import com.wzq.camerademo.camera.info.CameraInfoSource;
+import com.wzq.camerademo.camera.info.StreamSize;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Reads {@link CameraInfo} from the camera service. Every call is a round of binder
+ * transactions, which is what {@link com.wzq.camerademo.camera.info.CameraInfoCache} saves.
+ */
+public class Camera2InfoSource implements CameraInfoSource {
+    private final android.hardware.camera2.CameraManager mCameraManager;
+
+    public Camera2InfoSource(android.hardware.camera2.CameraManager cameraManager) {
+        mCameraManager = cameraManager;
+    }
+
+    @Override
+    public List<CameraInfo> queryCameras() throws IOException {
+        try {
+            final String[] idList = mCameraManager.getCameraIdList();
+            final List<CameraInfo> cameras = new ArrayList<>(idList.length);
+            for (String id : idList) {
+                cameras.add(toCameraInfo(id, mCameraManager.getCameraCharacteristics(id)));
+            }
+            return cameras;
+        } catch (CameraAccessException e) {
+            throw new IOException("query cameras failed", e);
+        }
+    }
+
+    private static CameraInfo toCameraInfo(String id, CameraCharacteristics characteristics) {
+        final Map<Integer, StreamSize[]> sizes = new TreeMap<>();
+        final StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map != null) {
+            putSizes(sizes, CameraInfo.FORMAT_JPEG, map.getOutputSizes(ImageFormat.JPEG), map);
+            putSizes(sizes, CameraInfo.FORMAT_YUV_420_888, map.getOutputSizes(ImageFormat.YUV_420_888), map);
+            putSizes(sizes, CameraInfo.FORMAT_PREVIEW, map.getOutputSizes(SurfaceTexture.class), map);
+        }
+        return new CameraInfo(id, valueOf(characteristics.get(CameraCharacteristics.LENS_FACING)),
+                valueOf(characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION)),
+                valueOf(characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL)), sizes,
+                physicalCameraIds(characteristics), capabilities(characteristics),
+                timestampSource(characteristics),
+                fpsRanges(characteristics));
+    }
+
+    /**
+     * The lenses behind a logical multi-camera. They are not in the id list themselves on
+     * most devices, only through the logical camera.
+     */
+    private static String[] physicalCameraIds(CameraCharacteristics characteristics) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) return new String[0];
+        final Set<String> ids = characteristics.getPhysicalCameraIds();
+        return ids != null ? ids.toArray(new String[ids.size()]) : new String[0];
+    }
+
+    /**
+     * The key is only there from M on; older devices make no promise about the clock.
+     */
+    private static int timestampSource(CameraCharacteristics characteristics) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) return CameraInfo.TIMESTAMP_SOURCE_UNKNOWN;
+        return valueOf(characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE));
+    }
+
+    private static int[] capabilities(CameraCharacteristics characteristics) {
+        final int[] capabilities = characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        return capabilities != null ? capabilities : new int[0];
+    }
+
+    static int[][] fpsRanges(CameraCharacteristics characteristics) {
+        final Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) return new int[0][];
+        final int[][] fpsRanges = new int[ranges.length][];
+        for (int i = 0; i < ranges.length; i++) {
+            fpsRanges[i] = new int[]{ranges[i].getLower(), ranges[i].getUpper()};
+        }
+        return fpsRanges;
+    }
+
+    private static void putSizes(Map<Integer, StreamSize[]> sizes, int format, Size[] outputSizes,
+                                 StreamConfigurationMap map) {
+        if (outputSizes == null || outputSizes.length == 0) return;
+        final StreamSize[] streamSizes = new StreamSize[outputSizes.length];
+        for (int i = 0; i < outputSizes.length; i++) {
+            final Size size = outputSizes[i];
+            // SurfaceTexture outputs are reported under the class, not an ImageFormat
+            if (format == CameraInfo.FORMAT_PREVIEW) {
+                streamSizes[i] = new StreamSize(size.getWidth(), size.getHeight(),
+                        map.getOutputMinFrameDuration(SurfaceTexture.class, size));
+            } else {
+                streamSizes[i] = new StreamSize(size.getWidth(), size.getHeight(),
+                        map.getOutputMinFrameDuration(format, size), map.getOutputStallDuration(format, size));
+            }
+        }
+        sizes.put(format, streamSizes);
+    }
+
+    private static int valueOf(Integer value) {
+        return value != null ? value : 0;
+    }
+}
@@ -1,49 +1,163 @@
 package com.wzq.camerademo.camera;
 
-import android.Manifest;
 import android.content.Context;
-import android.content.pm.PackageManager;
-import android.graphics.ImageFormat;
-import android.graphics.SurfaceTexture;
-import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCaptureSession;
-import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraDevice;
-import android.hardware.camera2.CameraMetadata;
-import android.hardware.camera2.CaptureRequest;
-import android.hardware.camera2.TotalCaptureResult;
-import android.media.Image;
-import android.media.ImageReader;
+import android.graphics.Bitmap;
+import android.media.MediaFormat;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
 import android.view.TextureView;
+import android.view.WindowManager;
 
-import androidx.annotation.NonNull;
-import androidx.core.app.ActivityCompat;
+import com.wzq.camerademo.camera.analysis.FrameAnalyzer;
+import com.wzq.camerademo.camera.analysis.LatestFrameDispatcher;
+import com.wzq.camerademo.camera.backend.CaptureCallback;
+import com.wzq.camerademo.camera.backend.PreviewCallback;
+import com.wzq.camerademo.camera.backend.SessionConfig;
+import com.wzq.camerademo.camera.governor.FrameRateRange;
+import com.wzq.camerademo.camera.governor.FrameTrace;
+import com.wzq.camerademo.camera.governor.GovernorConfig;
+import com.wzq.camerademo.camera.governor.GovernorEvent;
+import com.wzq.camerademo.camera.governor.GovernorListener;
+import com.wzq.camerademo.camera.governor.PerformanceGovernor;
+import com.wzq.camerademo.camera.info.CameraInfo;
+import com.wzq.camerademo.camera.info.CameraInfoCache;
+import com.wzq.camerademo.camera.info.StreamSize;
+import com.wzq.camerademo.camera.io.BufferAllocators;
+import com.wzq.camerademo.camera.io.DirectBufferPool;
+import com.wzq.camerademo.camera.io.ImageFileWriter;
+import com.wzq.camerademo.camera.io.LatencyStats;
+import com.wzq.camerademo.camera.io.OverflowPolicy;
+import com.wzq.camerademo.camera.io.PersistCallback;
+import com.wzq.camerademo.camera.io.PersistResult;
+import com.wzq.camerademo.camera.io.PersistenceQueue;
+import com.wzq.camerademo.camera.journal.FrameJournal;
+import com.wzq.camerademo.camera.journal.FrameJournalReader;
+import com.wzq.camerademo.camera.lifecycle.CameraController;
+import com.wzq.camerademo.camera.lifecycle.CameraState;
+import com.wzq.camerademo.camera.lifecycle.CameraStateListener;
+import com.wzq.camerademo.camera.metrics.CameraMetrics;
+import com.wzq.camerademo.camera.metrics.MetricsSnapshotWriter;
+import com.wzq.camerademo.camera.multi.CameraCatalog;
+import com.wzq.camerademo.camera.multi.DeviceStreams;
+import com.wzq.camerademo.camera.multi.StreamAllocation;
+import com.wzq.camerademo.camera.multi.StreamBudget;
+import com.wzq.camerademo.camera.pipeline.Burst;
+import com.wzq.camerademo.camera.pipeline.BurstCallback;
+import com.wzq.camerademo.camera.pipeline.CaptureDataListener;
+import com.wzq.camerademo.camera.pipeline.ImageRouter;
+import com.wzq.camerademo.camera.process.ProcessSpec;
+import com.wzq.camerademo.camera.process.StillPostProcessor;
+import com.wzq.camerademo.camera.process.TiledProcessor;
+import com.wzq.camerademo.camera.record.PreRollBuffer;
+import com.wzq.camerademo.camera.record.SampleMuxer;
+import com.wzq.camerademo.camera.record.SampleTee;
+import com.wzq.camerademo.camera.record.SegmentQuota;
+import com.wzq.camerademo.camera.record.SegmentedRecording;
+import com.wzq.camerademo.camera.record.VideoConfig;
+import com.wzq.camerademo.camera.record.VideoRecorder;
+import com.wzq.camerademo.camera.size.CaptureSizePolicy;
+import com.wzq.camerademo.camera.size.PreviewSizePolicy;
+import com.wzq.camerademo.camera.size.SizeLadder;
+import com.wzq.camerademo.camera.startup.StartupTask;
+import com.wzq.camerademo.camera.startup.StartupTrace;
+import com.wzq.camerademo.camera.store.CaptureStore;
+import com.wzq.camerademo.camera.store.DeferredCaptureStore;
+import com.wzq.camerademo.camera.thumb.ThumbnailCache;
+import com.wzq.camerademo.camera.thumb.ThumbnailGenerator;
+import com.wzq.camerademo.camera.upload.UploadConfig;
+import com.wzq.camerademo.camera.upload.UploadEngine;
+import com.wzq.camerademo.camera.upload.UploadJournal;
+import com.wzq.camerademo.camera.upload.UploadTransport;
+import com.wzq.camerademo.camera.zsl.ZslRingBuffer;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public class CameraManager {
     private final static String TAG = "CameraManager";
 
+    private final static int DEFAULT_MAX_CAPTURE_IMAGES = 4;
+    private final static int BURST_QUEUE_DEPTH = 3;
+    private final static int PERSIST_IO_THREADS = 2;
+    private final static int PERSIST_QUEUE_CAPACITY = 4;
+    private final static long CLOSE_TIMEOUT_MS = 2000;
+    private final static String METRICS_FILE_NAME = "camera_metrics.json";
+    private final static long METRICS_SNAPSHOT_PERIOD_MS = 5000;
+    // frames this far from the shutter may be picked for being sharper than the closest one
+    private final static long ZSL_SELECTION_WINDOW_NANOS = 100000000L;
+    // encoded samples waiting for the muxer, a bit over a second at 30fps
+    private final static int RECORDING_QUEUE_CAPACITY = 40;
+    private final static long RECORDING_STOP_TIMEOUT_MS = 2000;
+    private final static String THUMBNAIL_DIRECTORY_NAME = "thumbnails";
+    private final static int THUMBNAIL_SIZE = 256;
+    // about 20KB each, so some 5000 captures
+    private final static long THUMBNAIL_DISK_BUDGET = 100L * 1024 * 1024;
+    private final static int THUMBNAIL_QUEUE_CAPACITY = 64;
+    private final static String POST_PROCESS_DIRECTORY_NAME = "processed";
+    // a full size capture is some 48MB decoded, but only one is decoded at a time
+    private final static int POST_PROCESS_QUEUE_CAPACITY = 8;
+    private final static String UPLOAD_JOURNAL_FILE_NAME = "uploads.journal";
+    private final static String FRAME_JOURNAL_FILE_NAME = "frames.journal";
+    // what the governor steps the preview through, fastest first; the backend asks for the
+    // closest range each camera supports
+    private final static List<FrameRateRange> GOVERNOR_FRAME_RATES = Arrays.asList(
+            new FrameRateRange(15, 30), new FrameRateRange(15, 24), new FrameRateRange(15, 20),
+            new FrameRateRange(10, 15));
+    private final static int GOVERNOR_ANALYSIS_SIZES = 3;
+    // what two cameras may stream at once unless set otherwise, 1080p and 720p at 30fps
+    private final static long DEFAULT_CONCURRENT_PIXEL_RATE = 1920L * 1080 * 30 + 1280L * 720 * 30;
+    private final static int CONCURRENT_SIZE_STEPS = 3;
+    private final static int CONCURRENT_FPS = 30;
+    private final static String STREAM_PREVIEW = "preview";
+    private final static String STREAM_ANALYSIS = "analysis";
+
     private TextureView mTextureView;
-    private Surface mSurface;
 
     private android.hardware.camera2.CameraManager mCameraManager;
-    private CameraDevice mCameraDevice;
+    private final CameraStartup mStartup;
+    private final StartupTrace mStartupTrace = new StartupTrace(System.nanoTime());
+    private CameraInfoCache mCameraInfoCache;
+    private CameraCatalog mCameraCatalog;
+    private Camera2Backend mBackend;
+    private volatile CameraController mController;
 
-    private CaptureRequest.Builder mPreviewRequestBuilder;
-    private CaptureRequest mPreviewRequest;
-    private CameraCaptureSession mCameraCaptureSession;
+    private int mMaxCaptureImages = DEFAULT_MAX_CAPTURE_IMAGES;
+    private final ImageFileWriter mImageFileWriter = new ImageFileWriter(
+            new DirectBufferPool(2 * BURST_QUEUE_DEPTH + PERSIST_QUEUE_CAPACITY + 2, BufferAllocators.deferredDefault()));
+    private final DeferredCaptureStore mCaptureStore;
+    private final PersistenceQueue mPersistenceQueue;
+    private final ImageRouter mImageRouter;
+    private ThumbnailGenerator<Bitmap> mThumbnailGenerator;
+    private final StillPostProcessor mPostProcessor;
+    private volatile UploadEngine mUploadEngine;
+    private final CameraMetrics mMetrics = new CameraMetrics();
+    private MetricsSnapshotWriter mMetricsWriter;
+    private ZslRingBuffer mZslBuffer;
+    private ZslRingBuffer.Selection mZslSelection = ZslRingBuffer.Selection.SHARPEST;
+    private volatile VideoRecorder<MediaFormat> mRecorder;
+    // the frame rate the encoder was set up for, held while recording
+    private volatile FrameRateRange mRecordingFrameRate;
+    private volatile PreRollBuffer<MediaFormat> mPreRoll;
 
-    private ImageReader mCaptureImageReader;
+    private Size mAnalysisSize;
+    private LatestFrameDispatcher mFrameDispatcher;
+    private GovernorConfig mGovernorConfig;
+    private volatile PerformanceGovernor mGovernor;
+    private volatile FrameTrace mFrameTrace;
+    private volatile FrameJournal mFrameJournal;
 
     private HandlerThread mCameraPreviewHandlerThread;
     private Handler mCameraPreviewHandler;
@@ -51,24 +165,339 @@ public class CameraManager {
     private HandlerThread mCameraCaptureHandlerThread;
     private Handler mCameraCaptureHandler;
 
+    private Size mViewSize;
     private Size mPreviewSize;
+    private Size mCaptureSize;
+    private PreviewSizePolicy mPreviewSizePolicy = new PreviewSizePolicy();
+    private CaptureSizePolicy mCaptureSizePolicy = CaptureSizePolicy.maxResolution();
     private int mCameraDevices;
 
-    private CameraCharacteristics mFrontCameraCharacteristics;
+    private CameraInfo mFrontCameraInfo;
     private String mFrontCameraId;
     private int mFrontCameraOrientation;
 
-    private CameraCharacteristics mBackCameraCharacteristics;
+    private CameraInfo mBackCameraInfo;
     private String mBackCameraId;
     private int mBackCameraOrientation;
 
     private Context mContext;
     private boolean mCameraIsFront;
 
+    private boolean mFastSwitchEnabled;
+    private boolean mOverlapOpenEnabled = true;
+    private CameraSwitchListener mSwitchListener;
+    private final LatencyStats mSwitchLatency = new LatencyStats();
+    private volatile long mSwitchStartNanos;
+
+    private long mConcurrentPixelRate = DEFAULT_CONCURRENT_PIXEL_RATE;
+    private volatile SecondaryCamera mSecondCamera;
+    private volatile StreamAllocation mStreamAllocation;
+
     public CameraManager(Context context) {
+        this(context, new CameraStartup(context));
+    }
+
+    /**
+     * Does no disk I/O and waits for nothing: the capture store and the thumbnail index are
+     * read in the background and the pools start their threads on their first task, so this
+     * is cheap enough for {@code onCreate}.
+     *
+     * @param startup loads the native library and lists the cameras in the background,
+     *                ideally started at app launch; started here otherwise
+     */
+    public CameraManager(Context context, CameraStartup startup) {
         mContext = context;
+        mStartup = startup;
+        mStartup.start();
+        mCameraManager = (android.hardware.camera2.CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        mCameraInfoCache = startup.getCameraInfoCache();
+        mCaptureStore = new DeferredCaptureStore(mContext.getExternalCacheDir(), mImageFileWriter);
+        mCaptureStore.open(AsyncTask.THREAD_POOL_EXECUTOR);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final CaptureStore store = mCaptureStore.get();
+                if (store != null) {
+                    Log.d(TAG, "capture store has " + store.size() + " captures, recovered "
+                            + store.getRecoveredCount() + ", rolled back " + store.getAbortedCount());
+                } else {
+                    Log.e(TAG, "open capture store failed, writing captures without an index");
+                }
+            }
+        });
+        mPersistenceQueue = new PersistenceQueue(mCaptureStore, PERSIST_IO_THREADS, PERSIST_QUEUE_CAPACITY,
+                OverflowPolicy.BLOCK, null, mImageFileWriter.getBufferPool());
+        mImageRouter = new ImageRouter(mImageFileWriter, mCaptureStore, mPersistenceQueue,
+                mPersistCallback, BURST_QUEUE_DEPTH);
+        mImageRouter.setMetrics(mMetrics);
+        mMetrics.setBufferPool(mImageFileWriter.getBufferPool());
+        mMetrics.setStartupTrace(mStartupTrace);
+        try {
+            // an eighth of the heap, as much as the platform suggests for bitmap caches
+            final ThumbnailCache<Bitmap> thumbnails = new ThumbnailCache<>(
+                    new File(mContext.getCacheDir(), THUMBNAIL_DIRECTORY_NAME), THUMBNAIL_SIZE,
+                    Runtime.getRuntime().maxMemory() / 8, THUMBNAIL_DISK_BUDGET, new BitmapThumbnailCodec());
+            mThumbnailGenerator = new ThumbnailGenerator<>(thumbnails, mContext.getExternalCacheDir(),
+                    THUMBNAIL_QUEUE_CAPACITY);
+            mImageRouter.setThumbnailGenerator(mThumbnailGenerator);
+        } catch (IOException e) {
+            Log.e(TAG, "open thumbnail cache exception " + e.toString());
+        }
+        mPostProcessor = new StillPostProcessor(new TiledProcessor(TiledProcessor.newPool()), new BitmapImageCodec(),
+                mContext.getExternalCacheDir(), new File(mContext.getExternalCacheDir(), POST_PROCESS_DIRECTORY_NAME),
+                POST_PROCESS_QUEUE_CAPACITY);
+        mMetricsWriter = new MetricsSnapshotWriter(mMetrics, new File(mContext.getFilesDir(), METRICS_FILE_NAME));
+    }
+
+    /**
+     * Has every still and burst frame written also as {@code variants}, e.g. a sharpened
+     * copy and a downscaled one, turned upright for the camera that took it and mirrored for
+     * the front one. The variants are made on a background thread after the capture is on
+     * disk and go to {@code processed} next to the captures. Pass an empty list to stop.
+     */
+    public void setPostProcessVariants(List<ProcessSpec> variants) {
+        mPostProcessor.setVariants(variants);
+        mImageRouter.setPostProcessor(variants.isEmpty() ? null : mPostProcessor);
+    }
+
+    public StillPostProcessor getPostProcessor() {
+        return mPostProcessor;
+    }
+
+    /**
+     * Starts sending the captures to a server through {@code transport}: the ones already on
+     * disk and not sent yet, and every new one once it is written. Progress is kept across
+     * restarts, so an interrupted upload carries on where it stopped.
+     *
+     * @return false if the upload journal could not be opened
+     */
+    public synchronized boolean startUploads(UploadTransport transport, UploadConfig config) {
+        stopUploads();
+        final UploadJournal journal;
+        try {
+            journal = new UploadJournal(new File(mContext.getFilesDir(), UPLOAD_JOURNAL_FILE_NAME));
+        } catch (IOException e) {
+            Log.e(TAG, "open upload journal exception " + e.toString());
+            return false;
+        }
+        final UploadEngine engine = new UploadEngine(mContext.getExternalCacheDir(), journal, transport, config);
+        mUploadEngine = engine;
+        mImageRouter.setCaptureDataListener(mCaptureDataListener);
+        final SecondaryCamera secondCamera = mSecondCamera;
+        if (secondCamera != null) {
+            secondCamera.getImageRouter().setCaptureDataListener(mCaptureDataListener);
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Log.d(TAG, "upload scan added " + engine.scan() + " captures");
+                    engine.start();
+                } catch (IOException e) {
+                    Log.e(TAG, "upload scan exception " + e.toString());
+                } catch (IllegalStateException e) {
+                    // stopped before the scan was done
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Stops sending captures. Uploads in flight finish; the rest are sent after the next
+     * {@link #startUploads(UploadTransport, UploadConfig)}.
+     */
+    public synchronized void stopUploads() {
+        final UploadEngine engine = mUploadEngine;
+        if (engine == null) return;
+        mUploadEngine = null;
+        mImageRouter.setCaptureDataListener(null);
+        final SecondaryCamera secondCamera = mSecondCamera;
+        if (secondCamera != null) {
+            secondCamera.getImageRouter().setCaptureDataListener(null);
+        }
+        engine.shutdown();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    engine.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                try {
+                    engine.getJournal().close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return null unless uploads were started
+     */
+    public UploadEngine getUploadEngine() {
+        return mUploadEngine;
+    }
+
+    /**
+     * Sets how many JPEG images the capture stream can hold at once. A deeper
+     * reader lets more burst frames be in flight before the HAL stalls. Must be called
+     * before {@link #configure(int, int, boolean, TextureView)}.
+     */
+    public void setMaxCaptureImages(int maxImages) {
+        if (maxImages < 1) {
+            throw new IllegalArgumentException("maxImages must be at least 1");
+        }
+        mMaxCaptureImages = maxImages;
+    }
+
+    /**
+     * Adds a YUV_420_888 output of {@code width}x{@code height} to the session and feeds its
+     * frames to {@code analyzer} on a dedicated thread, dropping frames the analyzer is too
+     * slow for. Pass null to remove the output. Must be called before
+     * {@link #configure(int, int, boolean, TextureView)}.
+     */
+    public void setFrameAnalyzer(FrameAnalyzer analyzer, int width, int height) {
+        if (analyzer == null) {
+            mFrameDispatcher = null;
+            mAnalysisSize = null;
+        } else {
+            mFrameDispatcher = new LatestFrameDispatcher("CameraAnalysisThread", analyzer);
+            mAnalysisSize = new Size(width, height);
+        }
+        mImageRouter.setFrameDispatcher(mFrameDispatcher);
+    }
+
+    public LatestFrameDispatcher getFrameDispatcher() {
+        return mFrameDispatcher;
+    }
+
+    /**
+     * Lets a {@link PerformanceGovernor} lower the preview frame rate and the analysis size
+     * while the device cannot keep up, e.g. once it throttles, and raise them again when it
+     * recovers. Pass null to keep the camera's defaults. Takes effect the next time a camera
+     * is started.
+     */
+    public void setGovernorConfig(GovernorConfig config) {
+        mGovernorConfig = config;
+    }
+
+    /**
+     * The governor of the current camera, or null if it is off.
+     */
+    public PerformanceGovernor getGovernor() {
+        return mGovernor;
+    }
+
+    /**
+     * Starts recording the preview frame timings the governor sees, to replay them later
+     * through {@link FrameTrace#replay}. Replaces a trace in progress.
+     */
+    public void startFrameTrace() {
+        mFrameTrace = new FrameTrace();
+    }
+
+    /**
+     * @return the frames recorded since {@link #startFrameTrace()}, or null if no trace was
+     * running
+     */
+    public FrameTrace stopFrameTrace() {
+        final FrameTrace trace = mFrameTrace;
+        mFrameTrace = null;
+        return trace;
+    }
+
+    /**
+     * Starts journaling the capture result of every preview frame to a ring of the latest
+     * {@code capacity} frames in the files directory, to be read with
+     * {@link FrameJournalReader}. Replaces a journal in progress.
+     *
+     * @return false if the journal could not be opened
+     */
+    public boolean startFrameJournal(int capacity) {
+        stopFrameJournal();
+        final FrameJournal journal;
+        try {
+            journal = new FrameJournal(new File(mContext.getFilesDir(), FRAME_JOURNAL_FILE_NAME), capacity);
+        } catch (IOException e) {
+            Log.e(TAG, "open frame journal exception " + e.toString());
+            return false;
+        }
+        mFrameJournal = journal;
+        if (mBackend != null) {
+            mBackend.setFrameJournal(journal);
+        }
+        return true;
+    }
+
+    /**
+     * Stops journaling and closes the journal, leaving its file for the reader.
+     */
+    public void stopFrameJournal() {
+        final FrameJournal journal = mFrameJournal;
+        mFrameJournal = null;
+        if (journal == null) return;
+        if (mBackend != null) {
+            mBackend.setFrameJournal(null);
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Turns on zero shutter lag: the session keeps the latest {@code frames} full resolution
+     * frames, within {@code maxBytes}, and {@link #capturePicture()} persists one of them
+     * instead of asking the camera for a new still. Pass 0 frames to turn it off. Must be
+     * called before {@link #configure(int, int, boolean, TextureView)}. Cameras that cannot
+     * stream zero shutter lag keep capturing stills.
+     *
+     * <p>This is expensive: the ring is fed by the JPEG stream, so the camera's encoder
+     * compresses every preview frame at the capture size, most of which are thrown away.
+     * That costs power and heat for as long as the preview runs, and the JPEG stall
+     * duration of the capture size, which the HAL reports as non-zero on most devices, is
+     * added to every preview frame and lowers its frame rate. Only turn it on while the
+     * shutter lag matters more, e.g. for action shots.
+     */
+    public void setZslBuffer(int frames, long maxBytes) {
+        mZslBuffer = frames > 0 ? new ZslRingBuffer(frames, maxBytes) : null;
+    }
+
+    /**
+     * How the zero shutter lag frame is picked, the sharpest near the shutter by default.
+     */
+    public void setZslSelection(ZslRingBuffer.Selection selection) {
+        mZslSelection = selection;
+    }
+
+    public ZslRingBuffer getZslBuffer() {
+        return mZslBuffer;
+    }
+
+    /**
+     * Sets how the preview size is chosen from the camera's SurfaceTexture sizes. Takes
+     * effect the next time a camera is started.
+     */
+    public void setPreviewSizePolicy(PreviewSizePolicy policy) {
+        mPreviewSizePolicy = policy;
     }
 
+    /**
+     * Sets how the still capture size is chosen from the camera's JPEG sizes. Takes effect
+     * the next time a camera is started.
+     */
+    public void setCaptureSizePolicy(CaptureSizePolicy policy) {
+        mCaptureSizePolicy = policy;
+    }
+
+    /**
+     * @param width  width of the view showing the preview, in the current display orientation
+     * @param height height of the view showing the preview
+     */
     public void configure(int width, int height, boolean isFront, TextureView textureView) {
         mCameraIsFront = isFront;
         mTextureView = textureView;
@@ -76,32 +505,45 @@ public class CameraManager {
     }
 
     private void cameraPreProcess(int width, int height) {
-        mPreviewSize = new Size(width, height);
-        setupCamera();
-        mCaptureImageReader = ImageReader.newInstance(mPreviewSize.getWidth(), mPreviewSize.getHeight(), ImageFormat.JPEG, 2);
+        mViewSize = new Size(width, height);
     }
 
+    /**
+     * Picks the cameras to use from the list read in the background, waiting for it if it
+     * is not read yet. Runs on the preview thread, so startup never waits for it on the
+     * main thread.
+     */
     private void setupCamera() {
-        mCameraManager = (android.hardware.camera2.CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        // nothing on the way to the first frame needs native-lib, the buffer pool and the
+        // YUV converter pick it up on first use
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                mStartup.awaitNativeLibrary();
+                markStage(StartupTrace.Stage.NATIVE_LOADED, mStartup.getNativeLibraryTask());
+            }
+        });
         try {
-            assert mCameraManager != null;
-            final String[] idList = mCameraManager.getCameraIdList();
-            mCameraDevices = idList.length;
-            Log.d(TAG, "camera device num is " + mCameraDevices);
-            for (String id : idList) {
-                final CameraCharacteristics characteristics = mCameraManager.getCameraCharacteristics(id);
-                final int orientation = characteristics.get(CameraCharacteristics.LENS_FACING);
-                if (orientation == CameraCharacteristics.LENS_FACING_FRONT) {
-                    mFrontCameraId = id;
-                    mFrontCameraOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-                    mFrontCameraCharacteristics = characteristics;
-                } else {
-                    mBackCameraId = id;
-                    mBackCameraOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-                    mBackCameraCharacteristics = characteristics;
-                }
+            final List<CameraInfo> cameras = mStartup.awaitCameras();
+            markStage(StartupTrace.Stage.CAMERAS_LISTED, mStartup.getCamerasTask());
+            mCameraCatalog = new CameraCatalog(cameras);
+            mCameraDevices = cameras.size();
+            Log.d(TAG, "camera device num is " + mCameraDevices + (mCameraInfoCache.isCacheHit() ? " (cached)" : ""));
+            // the main camera of a facing is listed before its other lenses
+            mFrontCameraInfo = mCameraCatalog.getDefault(CameraInfo.LENS_FACING_FRONT);
+            if (mFrontCameraInfo != null) {
+                mFrontCameraId = mFrontCameraInfo.getId();
+                mFrontCameraOrientation = mFrontCameraInfo.getSensorOrientation();
+            }
+            mBackCameraInfo = mCameraCatalog.getDefault(CameraInfo.LENS_FACING_BACK);
+            if (mBackCameraInfo == null) {
+                mBackCameraInfo = mCameraCatalog.getDefault(CameraInfo.LENS_FACING_EXTERNAL);
             }
-        } catch (NullPointerException | CameraAccessException e) {
+            if (mBackCameraInfo != null) {
+                mBackCameraId = mBackCameraInfo.getId();
+                mBackCameraOrientation = mBackCameraInfo.getSensorOrientation();
+            }
+        } catch (IOException e) {
             Log.e(TAG, "setup camera exception " + e.toString());
         }
     }
@@ -114,194 +556,982 @@ public class CameraManager {
         mCameraCaptureHandlerThread = new HandlerThread("CameraCaptureHandlerThread");
         mCameraCaptureHandlerThread.start();
         mCameraCaptureHandler = new Handler(mCameraCaptureHandlerThread.getLooper());
+
+        mImageRouter.start();
+
+        // every transition and camera callback runs on the preview thread, JPEG images
+        // arrive on the capture thread
+        final Handler handler = mCameraPreviewHandler;
+        mBackend = new Camera2Backend(mContext, mCameraManager, mTextureView, handler, mCameraCaptureHandler);
+        mBackend.setFrameJournal(mFrameJournal);
+        mBackend.setCameraInfoCache(mCameraInfoCache);
+        mController = new CameraController(mBackend, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
+        mController.setOverlapOpenEnabled(mOverlapOpenEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M);
+        mController.setListener(mCameraStateListener);
+        mController.setMetrics(mMetrics);
+        mController.setPreviewFrameListener(mPreviewFrameListener);
+        mMetricsWriter.start(METRICS_SNAPSHOT_PERIOD_MS);
     }
 
     private void stopCameraThread() {
-        if (mCameraPreviewHandlerThread != null) {
-            mCameraPreviewHandlerThread.quitSafely();
-            try {
-                mCameraPreviewHandlerThread.join();
-                mCameraPreviewHandlerThread = null;
-                mCameraPreviewHandler = null;
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        mImageRouter.stop();
+        quitThread(mCameraPreviewHandlerThread);
+        mCameraPreviewHandlerThread = null;
+        mCameraPreviewHandler = null;
+        quitThread(mCameraCaptureHandlerThread);
+        mCameraCaptureHandlerThread = null;
+        mCameraCaptureHandler = null;
+    }
+
+    private static void quitThread(HandlerThread thread) {
+        if (thread == null) return;
+        thread.quitSafely();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Starts the camera threads and opens the camera without waiting for the preview surface:
+     * the device opens while the view is still creating it, and the session is created as
+     * soon as {@link #onPreviewSurfaceAvailable()} says it is there.
+     */
     public void startCamera() {
         startCameraThread();
-        String cameraId;
-        if (mCameraIsFront) {
-            cameraId = mFrontCameraId;
-        } else {
-            cameraId = mBackCameraId;
+        final boolean surfaceAvailable = mTextureView.isAvailable();
+        if (surfaceAvailable) {
+            mStartupTrace.mark(StartupTrace.Stage.SURFACE_READY, System.nanoTime());
         }
-        openCamera(cameraId);
+        mController.setOutputsAvailable(surfaceAvailable);
+        mCameraPreviewHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                setupCamera();
+                openCamera(selectCamera());
+            }
+        });
     }
 
-    private void openCamera(String cameraId) {
-        Log.d(TAG, "open camera");
-        try {
-            if (ActivityCompat.checkSelfPermission(mContext, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
-                Log.e(TAG, "no camera permission");
-                return;
+    /**
+     * Call from {@code onSurfaceTextureAvailable}; creates the session right away if the
+     * device is already open.
+     */
+    public void onPreviewSurfaceAvailable() {
+        mStartupTrace.mark(StartupTrace.Stage.SURFACE_READY, System.nanoTime());
+        final CameraController controller = mController;
+        if (controller != null) {
+            controller.setOutputsAvailable(true);
+        }
+    }
+
+    /**
+     * When each stage of bringing up the camera finished, counted from this manager being
+     * created; also in the metrics snapshots.
+     */
+    public StartupTrace getStartupTrace() {
+        return mStartupTrace;
+    }
+
+    private void markStage(StartupTrace.Stage stage, StartupTask<?> task) {
+        final long finishNanos = task.getFinishNanos();
+        mStartupTrace.mark(stage, finishNanos != 0 ? finishNanos : System.nanoTime());
+    }
+
+    /**
+     * Picks the camera facing the current direction and its stream sizes.
+     */
+    private String selectCamera() {
+        final CameraInfo info = mCameraIsFront ? mFrontCameraInfo : mBackCameraInfo;
+        selectSizes(info);
+        mPostProcessor.setOrientation(mCameraIsFront ? mFrontCameraOrientation : mBackCameraOrientation, mCameraIsFront);
+        mGovernor = newGovernor(info);
+        final CameraController controller = mController;
+        if (controller != null) {
+            controller.setSessionConfig(newSessionConfig(mRecorder != null));
+            applyFrameRateRange(controller);
+        }
+        return getCameraId();
+    }
+
+    /**
+     * Asks for the governor's frame rate range, or while recording for the recording's
+     * frame rate, which the governor does not change.
+     */
+    private void applyFrameRateRange(CameraController controller) {
+        final PerformanceGovernor governor = mGovernor;
+        if (governor == null) return;
+        final FrameRateRange recording = mRecordingFrameRate;
+        final FrameRateRange range = recording != null ? recording : governor.getFrameRateRange();
+        controller.setFrameRateRange(range.getMin(), range.getMax());
+        mMetrics.setExpectedFrameIntervalNanos(range.getFrameIntervalNanos());
+    }
+
+    private String getCameraId() {
+        return mCameraIsFront ? mFrontCameraId : mBackCameraId;
+    }
+
+    private CameraInfo getCameraInfo() {
+        return mCameraIsFront ? mFrontCameraInfo : mBackCameraInfo;
+    }
+
+    /**
+     * Zero shutter lag needs the ZSL template, which only cameras with a reprocessing
+     * capability accept.
+     */
+    private boolean canUseZsl(CameraInfo info) {
+        return info != null && info.supportsZslTemplate();
+    }
+
+    /**
+     * How long the JPEG stream at the capture size holds up each frame it is a target of,
+     * 0 if the camera reports no stall or does not list the size.
+     */
+    private long getCaptureStallNanos(CameraInfo info) {
+        for (StreamSize size : info.getOutputSizes(CameraInfo.FORMAT_JPEG)) {
+            if (size.getWidth() == mCaptureSize.getWidth() && size.getHeight() == mCaptureSize.getHeight()) {
+                return size.getStallDurationNanos();
             }
-            mCameraManager.openCamera(cameraId, mCameraDeviceStateCallback, mCameraPreviewHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
         }
+        return 0;
+    }
+
+    /**
+     * Now on the clock the current camera stamps its frames with.
+     */
+    private long getSensorClockNanos() {
+        final CameraInfo info = getCameraInfo();
+        if (info != null && info.getTimestampSource() == CameraInfo.TIMESTAMP_SOURCE_REALTIME) {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * A governor starting at the fastest frame rate and the requested analysis size, or
+     * null if it is off.
+     */
+    private PerformanceGovernor newGovernor(CameraInfo info) {
+        final GovernorConfig config = mGovernorConfig;
+        if (config == null) return null;
+        List<StreamSize> analysisSizes = new ArrayList<>();
+        if (mAnalysisSize != null) {
+            final StreamSize[] sizes = info != null ? info.getOutputSizes(CameraInfo.FORMAT_YUV_420_888) : null;
+            analysisSizes = SizeLadder.build(sizes != null ? sizes : new StreamSize[0],
+                    mAnalysisSize.getWidth(), mAnalysisSize.getHeight(), GOVERNOR_ANALYSIS_SIZES);
+        }
+        final PerformanceGovernor governor = new PerformanceGovernor(GOVERNOR_FRAME_RATES, analysisSizes, config);
+        governor.setListener(mGovernorListener);
+        return governor;
+    }
+
+    /**
+     * The session of the current camera, with its streams stepped down to what the
+     * concurrent budget left it while a second camera runs.
+     */
+    private SessionConfig newSessionConfig(boolean recording) {
+        final StreamAllocation allocation = mStreamAllocation;
+        final StreamSize preview = allocation != null ? allocation.getSize(getCameraId(), STREAM_PREVIEW) : null;
+        final SessionConfig config = new SessionConfig(
+                preview != null ? preview.getWidth() : mPreviewSize.getWidth(),
+                preview != null ? preview.getHeight() : mPreviewSize.getHeight(),
+                mCaptureSize.getWidth(), mCaptureSize.getHeight())
+                .setMaxJpegImages(mMaxCaptureImages)
+                .setImageListener(mImageRouter)
+                .setRecordingEnabled(recording);
+        StreamSize analysis = getAnalysisStreamSize();
+        final StreamSize allowed = allocation != null ? allocation.getSize(getCameraId(), STREAM_ANALYSIS) : null;
+        if (analysis != null && allowed != null && allowed.getArea() < analysis.getArea()) {
+            analysis = allowed;
+        }
+        if (analysis != null) {
+            config.setAnalysisSize(analysis.getWidth(), analysis.getHeight());
+        }
+        final boolean zsl = mZslBuffer != null && canUseZsl(getCameraInfo());
+        if (mZslBuffer != null && !zsl) {
+            Log.w(TAG, "camera " + getCameraId() + " cannot stream zero shutter lag, capturing stills instead");
+        }
+        mImageRouter.setZslBuffer(zsl ? mZslBuffer : null);
+        if (zsl) {
+            final long stallNanos = getCaptureStallNanos(getCameraInfo());
+            if (stallNanos > 0) {
+                Log.w(TAG, "zero shutter lag encodes every frame, each stalls the preview "
+                        + stallNanos / 1000000 + "ms");
+            }
+            // results arrive on another thread and may lag the images, which wait in the ring
+            // meanwhile; one slot more for the frame taken for a still
+            config.setZslEnabled(true)
+                    .setFrameResultListener(mImageRouter)
+                    .setMaxJpegImages(Math.max(mMaxCaptureImages, mZslBuffer.getMaxImages() + 1));
+        }
+        return config;
+    }
+
+    /**
+     * The governor's analysis size, else the requested one; null without analysis.
+     */
+    private StreamSize getAnalysisStreamSize() {
+        final PerformanceGovernor governor = mGovernor;
+        final StreamSize governedSize = governor != null ? governor.getAnalysisSize() : null;
+        if (governedSize != null) return governedSize;
+        return mAnalysisSize != null ? new StreamSize(mAnalysisSize.getWidth(), mAnalysisSize.getHeight(), 0) : null;
+    }
+
+    /**
+     * Picks the preview and capture sizes from what the camera supports, so the HAL never
+     * has to scale. The streams are resized when the next session is created.
+     */
+    private void selectSizes(CameraInfo info) {
+        mPreviewSize = mViewSize;
+        mCaptureSize = mViewSize;
+        if (info != null) {
+            final boolean rotated = isSensorRotated(info.getSensorOrientation());
+            final StreamSize preview = mPreviewSizePolicy.select(info.getOutputSizes(CameraInfo.FORMAT_PREVIEW),
+                    rotated ? mViewSize.getHeight() : mViewSize.getWidth(),
+                    rotated ? mViewSize.getWidth() : mViewSize.getHeight());
+            final StreamSize capture = mCaptureSizePolicy.select(info.getOutputSizes(CameraInfo.FORMAT_JPEG));
+            if (preview != null) {
+                mPreviewSize = new Size(preview.getWidth(), preview.getHeight());
+            }
+            if (capture != null) {
+                mCaptureSize = new Size(capture.getWidth(), capture.getHeight());
+            }
+        }
+        Log.d(TAG, "preview " + mPreviewSize.getWidth() + "x" + mPreviewSize.getHeight()
+                + ", capture " + mCaptureSize.getWidth() + "x" + mCaptureSize.getHeight());
+    }
+
+    /**
+     * Whether the sensor is mounted at right angles to the display, so the view's width
+     * corresponds to the height of the camera's output sizes.
+     */
+    private boolean isSensorRotated(int sensorOrientation) {
+        final WindowManager windowManager = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+        final int displayRotation = windowManager != null ? windowManager.getDefaultDisplay().getRotation() : Surface.ROTATION_0;
+        final boolean displayRotated = displayRotation == Surface.ROTATION_90 || displayRotation == Surface.ROTATION_270;
+        return (sensorOrientation % 180 != 0) != displayRotated;
+    }
+
+    public Size getPreviewSize() {
+        return mPreviewSize;
+    }
+
+    public Size getCaptureSize() {
+        return mCaptureSize;
+    }
+
+    private void openCamera(String cameraId) {
+        Log.d(TAG, "open camera " + cameraId);
+        final CameraController controller = mController;
+        if (controller == null) return;
+        if (cameraId == null) {
+            Log.e(TAG, "no camera facing " + (mCameraIsFront ? "front" : "back"));
+            return;
+        }
+        controller.open(cameraId);
+    }
+
+    /**
+     * Keeps the camera threads, the readers and the preview surface across
+     * {@link #switchCamera()} instead of tearing everything down. The old device is closed
+     * while the new one opens where the platform allows it.
+     */
+    public void setFastSwitchEnabled(boolean enabled) {
+        mFastSwitchEnabled = enabled;
+    }
+
+    /**
+     * Whether a fast switch may open the new device before the old one has closed. The
+     * session is still only created once the old device is gone, since both would share the
+     * same surfaces. On by default; has no effect before Android M, where opening a second
+     * camera does not evict the first one.
+     */
+    public void setOverlapOpenEnabled(boolean enabled) {
+        mOverlapOpenEnabled = enabled;
+        final CameraController controller = mController;
+        if (controller != null) {
+            controller.setOverlapOpenEnabled(enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M);
+        }
+    }
+
+    public void setCameraSwitchListener(CameraSwitchListener listener) {
+        mSwitchListener = listener;
+    }
+
+    /**
+     * Time from {@link #switchCamera()} to the first preview frame of the other camera.
+     */
+    public LatencyStats getSwitchLatency() {
+        return mSwitchLatency;
     }
 
     public void switchCamera() {
-        stopCamera();
-        mCameraIsFront = !mCameraIsFront;
-        startCamera();
+        // the other camera may be the one streaming next to this one
+        stopSecondCamera(false);
+        mSwitchStartNanos = SystemClock.elapsedRealtimeNanos();
+        if (mSwitchListener != null) {
+            mSwitchListener.onSwitchStarted(mTextureView.getBitmap());
+        }
+        if (!mFastSwitchEnabled || mController == null) {
+            stopCamera();
+            mCameraIsFront = !mCameraIsFront;
+            startCamera();
+            return;
+        }
+        // on the preview thread, so the sizes do not change under a session being configured
+        mCameraPreviewHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mImageRouter.abortBurst(new IllegalStateException("camera switched"));
+                if (mZslBuffer != null) {
+                    mZslBuffer.clear();
+                }
+                mCameraIsFront = !mCameraIsFront;
+                openCamera(selectCamera());
+            }
+        });
     }
 
+    /**
+     * Closes the camera and waits for it, then stops both camera threads and releases the
+     * readers and the preview surface.
+     */
     public void stopCamera() {
+        stopSecondCamera(false);
         closeCamera();
+        final VideoRecorder<MediaFormat> recorder = mRecorder;
+        mRecorder = null;
+        if (recorder != null) {
+            finishRecording(recorder);
+        }
         stopCameraThread();
+        mMetricsWriter.stop();
+        if (mBackend != null) {
+            mBackend.release();
+            mBackend = null;
+        }
     }
 
-    private void closeCamera() {
-        if (mCameraCaptureSession != null) {
-            mCameraCaptureSession.close();
-            mCameraCaptureSession = null;
+    /**
+     * Every camera of the device, further lenses of a facing and logical multi-cameras
+     * included; null until the list is read when the camera first starts.
+     */
+    public CameraCatalog getCameraCatalog() {
+        return mCameraCatalog;
+    }
+
+    /**
+     * Sets how many pixels per second the preview and analysis streams of two cameras
+     * running at once may add up to, beyond which {@link #startSecondCamera} steps them
+     * down. Devices differ in what their HAL can feed; takes effect the next time a second
+     * camera is started.
+     */
+    public void setConcurrentPixelRate(long pixelsPerSecond) {
+        if (pixelsPerSecond <= 0) {
+            throw new IllegalArgumentException("pixel rate must be positive: " + pixelsPerSecond);
         }
-        if (mCameraDevice != null) {
-            mCameraDevice.close();
-            mCameraDevice = null;
+        mConcurrentPixelRate = pixelsPerSecond;
+    }
+
+    /**
+     * Streams a second camera to {@code textureView} next to the current one: the main
+     * camera of the other facing, else a lens that does not share a sensor with the current
+     * camera. It runs on a device, session and threads of its own, and its stills are
+     * written through the same persistence queue, which takes turns between the cameras.
+     * When both cameras' streams are over {@link #setConcurrentPixelRate(long)}, the
+     * costlier camera steps down first, and the current camera's session is recreated if
+     * its sizes change. Recording, bursts and zero shutter lag stay with the current
+     * camera. The view's surface must be available.
+     *
+     * @param width  width of {@code textureView}, in the current display orientation
+     * @param height height of {@code textureView}
+     * @return false if the camera is not running, a second camera already is, or there is
+     * no camera to stream next to it
+     */
+    public synchronized boolean startSecondCamera(TextureView textureView, int width, int height) {
+        final CameraController controller = mController;
+        final CameraInfo primary = mCameraIsFront ? mFrontCameraInfo : mBackCameraInfo;
+        if (controller == null || mSecondCamera != null || primary == null) return false;
+        final CameraInfo companion = mCameraCatalog.getCompanion(primary);
+        if (companion == null) {
+            Log.e(TAG, "no camera to stream next to " + primary.getId());
+            return false;
         }
+        final boolean rotated = isSensorRotated(companion.getSensorOrientation());
+        final StreamSize preview = mPreviewSizePolicy.select(companion.getOutputSizes(CameraInfo.FORMAT_PREVIEW),
+                rotated ? height : width, rotated ? width : height);
+        final StreamSize capture = mCaptureSizePolicy.select(companion.getOutputSizes(CameraInfo.FORMAT_JPEG));
+        if (preview == null || capture == null) {
+            Log.e(TAG, "camera " + companion.getId() + " has no preview or capture sizes");
+            return false;
+        }
+
+        final StreamAllocation allocation = new StreamBudget(mConcurrentPixelRate).allocate(Arrays.asList(
+                newDeviceStreams(primary, new StreamSize(mPreviewSize.getWidth(), mPreviewSize.getHeight(), 0),
+                        getAnalysisStreamSize()),
+                newDeviceStreams(companion, preview, null)));
+        Log.d(TAG, "second camera " + companion.getId() + ", " + allocation);
+        if (!allocation.isWithinBudget()) {
+            Log.w(TAG, "streams over the concurrent pixel rate even at their smallest");
+        }
+        mStreamAllocation = allocation;
+
+        final ImageRouter router = new ImageRouter(mImageFileWriter, mCaptureStore, mPersistenceQueue,
+                mPersistCallback, BURST_QUEUE_DEPTH);
+        router.setThumbnailGenerator(mThumbnailGenerator);
+        router.setCaptureDataListener(mUploadEngine != null ? mCaptureDataListener : null);
+        final StreamSize allocated = allocation.getSize(companion.getId(), STREAM_PREVIEW);
+        final SecondaryCamera secondCamera = new SecondaryCamera(mContext, mCameraManager, mCameraInfoCache,
+                textureView, router);
+        secondCamera.start(companion.getId(), new SessionConfig(allocated.getWidth(), allocated.getHeight(),
+                capture.getWidth(), capture.getHeight()));
+        mSecondCamera = secondCamera;
+        if (allocation.isDowngraded(primary.getId(), STREAM_PREVIEW)
+                || allocation.isDowngraded(primary.getId(), STREAM_ANALYSIS)) {
+            reconfigureSession(controller);
+        }
+        return true;
     }
 
-    private CameraDevice.StateCallback mCameraDeviceStateCallback = new CameraDevice.StateCallback() {
-        @Override
-        public void onOpened(@NonNull CameraDevice camera) {
-            Log.d(TAG, "onOpened");
-            mCameraDevice = camera;
-            startPreview();
+    /**
+     * Closes the second camera and gives the current one its full stream sizes back.
+     */
+    public void stopSecondCamera() {
+        stopSecondCamera(true);
+    }
+
+    private synchronized void stopSecondCamera(boolean restoreSizes) {
+        final SecondaryCamera secondCamera = mSecondCamera;
+        if (secondCamera == null) return;
+        mSecondCamera = null;
+        secondCamera.stop(CLOSE_TIMEOUT_MS);
+        final StreamAllocation allocation = mStreamAllocation;
+        mStreamAllocation = null;
+        final CameraController controller = mController;
+        if (restoreSizes && controller != null && allocation != null
+                && (allocation.isDowngraded(getCameraId(), STREAM_PREVIEW)
+                || allocation.isDowngraded(getCameraId(), STREAM_ANALYSIS))) {
+            reconfigureSession(controller);
         }
+    }
 
-        @Override
-        public void onDisconnected(@NonNull CameraDevice camera) {
-            Log.d(TAG, "onDisconnected");
-            mCameraDevice.close();
-            mCameraDevice = null;
+    public boolean isSecondCameraRunning() {
+        return mSecondCamera != null;
+    }
+
+    /**
+     * Captures a still with the second camera.
+     *
+     * @return false if no second camera runs or it is not ready
+     */
+    public boolean captureSecondCamera() {
+        final SecondaryCamera secondCamera = mSecondCamera;
+        if (secondCamera == null || !secondCamera.capturePicture(mStillCaptureCallback)) {
+            Log.w(TAG, "second camera not ready to capture");
+            return false;
         }
+        return true;
+    }
 
-        @Override
-        public void onError(@NonNull CameraDevice camera, int error) {
-            Log.d(TAG, "onError " + error);
-            mCameraDevice.close();
-            mCameraDevice = null;
+    /**
+     * The stream sizes the cameras settled on, or null unless a second camera runs.
+     */
+    public StreamAllocation getStreamAllocation() {
+        return mStreamAllocation;
+    }
+
+    private DeviceStreams newDeviceStreams(CameraInfo info, StreamSize preview, StreamSize analysis) {
+        final DeviceStreams streams = new DeviceStreams(info.getId()).addStream(STREAM_PREVIEW,
+                SizeLadder.build(info.getOutputSizes(CameraInfo.FORMAT_PREVIEW), preview.getWidth(), preview.getHeight(),
+                        CONCURRENT_SIZE_STEPS), CONCURRENT_FPS);
+        if (analysis != null) {
+            streams.addStream(STREAM_ANALYSIS, SizeLadder.build(info.getOutputSizes(CameraInfo.FORMAT_YUV_420_888),
+                    analysis.getWidth(), analysis.getHeight(), CONCURRENT_SIZE_STEPS), CONCURRENT_FPS);
         }
-    };
+        return streams;
+    }
+
+    // on the preview thread, which owns the backend's outputs
+    private void reconfigureSession(final CameraController controller) {
+        mCameraPreviewHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                controller.setSessionConfig(newSessionConfig(mRecorder != null));
+                controller.reconfigure();
+            }
+        });
+    }
+
+    /**
+     * Stops the persistence workers once every queued capture has been written. The manager
+     * cannot take pictures afterwards.
+     */
+    public void release() {
+        mPersistenceQueue.shutdown();
+        if (mThumbnailGenerator != null) {
+            mThumbnailGenerator.shutdown();
+        }
+        mPostProcessor.shutdown();
+        stopUploads();
+        stopFrameJournal();
+    }
+
+    /**
+     * Index of the captures written so far, or null if the store could not be opened.
+     * Waits for the store to open, so call it off the main thread.
+     */
+    public CaptureStore getCaptureStore() {
+        return mCaptureStore.get();
+    }
+
+    /**
+     * Thumbnails of the captures, made in the background as they are written and served
+     * from memory or disk; null if the cache could not be opened.
+     */
+    public ThumbnailGenerator<Bitmap> getThumbnailGenerator() {
+        return mThumbnailGenerator;
+    }
+
+    /**
+     * Cached descriptions of the cameras, read from disk instead of the camera service
+     * whenever the build has not changed.
+     */
+    public CameraInfoCache getCameraInfoCache() {
+        return mCameraInfoCache;
+    }
+
+    public PersistenceQueue getPersistenceQueue() {
+        return mPersistenceQueue;
+    }
+
+    /**
+     * Latencies of the capture path and the preview frame rate, also written to
+     * {@code camera_metrics.json} in the files directory every few seconds while the camera
+     * runs.
+     */
+    public CameraMetrics getMetrics() {
+        return mMetrics;
+    }
 
-    private void startPreview() {
-        Log.d(TAG, "start preview");
-        SurfaceTexture mSurfaceTexture = mTextureView.getSurfaceTexture();
-        mSurfaceTexture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
-        Surface previewSurface = new Surface(mSurfaceTexture);
-        mSurface = previewSurface;
+    private void closeCamera() {
+        final CameraController controller = mController;
+        if (controller == null) return;
+        controller.close();
         try {
-            mPreviewRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            mPreviewRequestBuilder.addTarget(mSurface);
-            mCaptureImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mCameraCaptureHandler);
-            mCameraDevice.createCaptureSession(Arrays.asList(mSurface, mCaptureImageReader.getSurface()), mCaptureSessionStateCallback, mCameraPreviewHandler);
-        } catch (CameraAccessException e) {
+            if (!controller.awaitState(CameraState.CLOSED, CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "camera still " + controller.getState() + " after " + CLOSE_TIMEOUT_MS + "ms");
+            }
+        } catch (InterruptedException e) {
             e.printStackTrace();
+            Thread.currentThread().interrupt();
         }
+        mController = null;
     }
 
-    private CameraCaptureSession.StateCallback mCaptureSessionStateCallback = new CameraCaptureSession.StateCallback() {
+    private final CameraStateListener mCameraStateListener = new CameraStateListener() {
         @Override
-        public void onConfigured(@NonNull CameraCaptureSession session) {
-            Log.d(TAG, "onConfigured");
-            mPreviewRequest = mPreviewRequestBuilder.build();
-            mCameraCaptureSession = session;
-            try {
-                mCameraCaptureSession.setRepeatingRequest(mPreviewRequest, null, mCameraPreviewHandler);
-            } catch (CameraAccessException e) {
-                e.printStackTrace();
+        public void onStateChanged(CameraState oldState, CameraState newState) {
+            Log.d(TAG, "camera " + oldState + " -> " + newState);
+            if (newState == CameraState.OPENED) {
+                mStartupTrace.mark(StartupTrace.Stage.CAMERA_OPENED, System.nanoTime());
+            } else if (newState == CameraState.PREVIEWING) {
+                mStartupTrace.mark(StartupTrace.Stage.SESSION_CONFIGURED, System.nanoTime());
             }
         }
 
         @Override
-        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+        public void onPreviewStarted(String cameraId) {
+            if (mStartupTrace.mark(StartupTrace.Stage.FIRST_FRAME, System.nanoTime())) {
+                Log.d(TAG, "startup " + mStartupTrace);
+            }
+            final long switchStart = mSwitchStartNanos;
+            if (switchStart == 0) return;
+            mSwitchStartNanos = 0;
+            final long latency = SystemClock.elapsedRealtimeNanos() - switchStart;
+            mSwitchLatency.record(latency);
+            Log.d(TAG, "camera switched in " + latency / 1000000 + "ms, " + mSwitchLatency);
+            final CameraSwitchListener listener = mSwitchListener;
+            if (listener != null) {
+                listener.onSwitchCompleted(latency);
+            }
+        }
 
+        @Override
+        public void onCameraError(String cameraId, int error) {
+            Log.e(TAG, "camera " + cameraId + " error " + error);
         }
     };
 
-    private CameraCaptureSession.CaptureCallback mCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+    // on the preview thread, like the governor's events
+    private final PreviewCallback mPreviewFrameListener = new PreviewCallback() {
         @Override
-        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
-            super.onCaptureCompleted(session, request, result);
-            Log.d(TAG, "onCaptureCompleted");
-            try {
-                mCameraCaptureSession.setRepeatingRequest(mPreviewRequest, null, mCameraPreviewHandler);
-            } catch (CameraAccessException e) {
-                e.printStackTrace();
+        public void onPreviewFrame(long timestampNanos) {
+            final PerformanceGovernor governor = mGovernor;
+            // held while recording: a new session or frame rate would show in the video
+            if (governor == null || mRecorder != null) return;
+            final LatestFrameDispatcher dispatcher = mFrameDispatcher;
+            final long dropped = dispatcher != null ? dispatcher.getDroppedCount() : 0;
+            final FrameTrace trace = mFrameTrace;
+            if (trace != null) {
+                trace.add(timestampNanos, dropped);
             }
+            governor.onFrame(timestampNanos, dropped);
         }
     };
 
-    public void capturePicture() {
-        if (mCameraDevice == null || mCameraCaptureSession == null) return;
-        try {
-            final CaptureRequest.Builder builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-            builder.set(CaptureRequest.CONTROL_AF_TRIGGER,
-                    CameraMetadata.CONTROL_AF_TRIGGER_START);
-            builder.addTarget(mCaptureImageReader.getSurface());
-            mCameraCaptureSession.stopRepeating();
-            mCameraCaptureSession.abortCaptures();
-            mCameraCaptureSession.capture(builder.build(), mCaptureCallback, mCameraCaptureHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+    private final GovernorListener mGovernorListener = new GovernorListener() {
+        @Override
+        public void onGovernorEvent(GovernorEvent event) {
+            Log.d(TAG, "governor " + event);
+            final CameraController controller = mController;
+            // a frame reported just before the recording started; stopRecording applies
+            // the governor's settings once it ends
+            if (controller == null || mRecorder != null) return;
+            switch (event.getAction()) {
+                case FRAME_RATE_DOWN:
+                case FRAME_RATE_UP:
+                    applyFrameRateRange(controller);
+                    break;
+                case ANALYSIS_SIZE_DOWN:
+                case ANALYSIS_SIZE_UP:
+                    // the reader has a fixed size, so this takes a new session
+                    controller.setSessionConfig(newSessionConfig(mRecorder != null));
+                    controller.reconfigure();
+                    break;
+            }
+        }
+    };
+
+    private final CaptureCallback mStillCaptureCallback = new CaptureCallback() {
+        @Override
+        public void onCaptureStarted(long timestamp) {
+        }
+
+        @Override
+        public void onCaptureFailed(int reason) {
+            Log.d(TAG, "capture failed " + reason);
+        }
+
+        @Override
+        public void onCaptureSequenceCompleted() {
+            Log.d(TAG, "onCaptureCompleted");
         }
-    }
 
-    private ImageReader.OnImageAvailableListener mOnImageAvailableListener = new ImageReader.OnImageAvailableListener() {
         @Override
-        public void onImageAvailable(ImageReader reader) {
-            final String filePath = mContext.getExternalCacheDir().getAbsolutePath() + File.separator + "file.jpg";
-            Log.d(TAG, "capture filepath " + filePath);
-            mCameraCaptureHandler.post(new CaptureRunnable(reader.acquireNextImage(), filePath));
+        public void onCaptureSequenceAborted() {
+            Log.d(TAG, "capture aborted");
         }
     };
 
-    public class CaptureRunnable implements Runnable {
-        private Image mImage;
-        private File mFile;
+    /**
+     * Persists the best buffered frame with zero shutter lag on, otherwise captures a new
+     * still. The buffered frame is copied and queued on the capture thread, as the queue may
+     * block while it is full.
+     */
+    public void capturePicture() {
+        final ZslRingBuffer zslBuffer = mImageRouter.getZslBuffer();
+        final Handler handler = mCameraCaptureHandler;
+        if (zslBuffer != null && handler != null) {
+            final long shutterTimestamp = getSensorClockNanos();
+            final ZslRingBuffer.Selection selection = mZslSelection;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mImageRouter.captureZsl(shutterTimestamp, selection, ZSL_SELECTION_WINDOW_NANOS)) {
+                        Log.d(TAG, "zsl capture, " + zslBuffer.size() + " frames left");
+                        return;
+                    }
+                    // nothing buffered yet, e.g. right after the preview started
+                    mImageRouter.requestStill();
+                    captureStill(true);
+                }
+            });
+            return;
+        }
+        captureStill(false);
+    }
+
+    private void captureStill(boolean stillRequested) {
+        final CameraController controller = mController;
+        if (controller == null || !controller.capture(1, mStillCaptureCallback)) {
+            if (stillRequested) {
+                mImageRouter.cancelStillRequest();
+            }
+            Log.w(TAG, "camera not ready to capture");
+        }
+    }
+
+    /**
+     * Captures {@code count} stills back to back with a single {@code captureBurst} call,
+     * without stopping the preview. Images are copied out of the reader as soon as they
+     * arrive and then verified and written on the burst pipeline workers.
+     *
+     * @return false if the camera is not ready or another burst is still being captured
+     */
+    public boolean captureBurst(int count, BurstCallback callback) {
+        final CameraController controller = mController;
+        if (controller == null || controller.getState() != CameraState.PREVIEWING) return false;
+        final Burst burst = mImageRouter.beginBurst(count, callback);
+        if (burst == null) {
+            Log.w(TAG, "previous burst still capturing");
+            return false;
+        }
+        if (!controller.capture(count, mImageRouter.getBurstCaptureCallback())) {
+            mImageRouter.cancelBurst(burst);
+            return false;
+        }
+        Log.d(TAG, "burst " + burst.getId() + " requested " + count + " frames");
+        return true;
+    }
 
-        public CaptureRunnable(Image image, File file) {
-            this.mImage = image;
-            this.mFile = file;
+    /**
+     * Records H.264 video of the preview size to {@code file}.
+     *
+     * @see #startRecording(File, VideoConfig)
+     */
+    public boolean startRecording(File file) {
+        return startRecording(file, new VideoConfig(mPreviewSize.getWidth(), mPreviewSize.getHeight()));
+    }
+
+    /**
+     * Starts recording to an MP4 file. The encoder's input surface joins the session next to
+     * the preview, so frames go from the camera to the hardware encoder without a copy; the
+     * session is recreated for it while the device stays open. The size of {@code config}
+     * has to be one the camera can output to a surface, such as the preview size. The
+     * performance governor holds its settings until the recording stops, and the camera runs
+     * at the frame rate of {@code config}.
+     *
+     * @return false if the camera is not running, a recording is in progress or the encoder
+     * could not be set up
+     */
+    public boolean startRecording(File file, VideoConfig config) {
+        if (mController == null || mRecorder != null) return false;
+        final MediaMuxerSink muxer;
+        try {
+            muxer = new MediaMuxerSink(file, getSensorOrientation());
+        } catch (IOException e) {
+            Log.e(TAG, "create muxer exception " + e.toString());
+            return false;
         }
+        Log.d(TAG, "recording " + config + " to " + file);
+        return startRecording(config, muxer);
+    }
 
-        public CaptureRunnable(Image image, String filePath) {
-            this(image, new File(filePath));
+    /**
+     * Records to a directory of MP4 segments of about {@code segmentDurationMs}, each
+     * starting with a key frame. Segments the quota has no room for are deleted oldest
+     * first, and what a crash left behind is cleaned up when the directory is opened again.
+     * Opens the directory on the calling thread.
+     *
+     * @return false if the camera is not running, a recording is in progress or the
+     * directory or the encoder could not be set up
+     */
+    public boolean startSegmentedRecording(File directory, VideoConfig config, long segmentDurationMs,
+                                           SegmentQuota quota) {
+        if (mController == null || mRecorder != null) return false;
+        final int orientation = getSensorOrientation();
+        final SegmentedRecording<MediaFormat> recording;
+        try {
+            recording = new SegmentedRecording<>(directory, "mp4", TimeUnit.MILLISECONDS.toMicros(segmentDurationMs),
+                    quota, new SegmentedRecording.MuxerFactory<MediaFormat>() {
+                        @Override
+                        public SampleMuxer<MediaFormat> create(File file) throws IOException {
+                            return new MediaMuxerSink(file, orientation);
+                        }
+                    });
+        } catch (IOException e) {
+            Log.e(TAG, "open segments exception " + e.toString());
+            return false;
         }
+        Log.d(TAG, "recording " + config + " to " + directory + ", " + recording.getSegments().size()
+                + " segments kept, " + recording.getRecoveredCount() + " recovered, "
+                + recording.getDiscardedCount() + " discarded");
+        return startRecording(config, recording);
+    }
 
-        @Override
-        public void run() {
-            ByteBuffer buffer = mImage.getPlanes()[0].getBuffer();
-            FileOutputStream outputStream = null;
-            byte[] bytes = new byte[buffer.remaining()];
-            buffer.get(bytes);
+    private boolean startRecording(VideoConfig config, SampleMuxer<MediaFormat> output) {
+        final CameraController controller = mController;
+        final MediaCodecEncoder encoder;
+        try {
+            encoder = MediaCodecEncoder.create(config);
+        } catch (IOException e) {
+            Log.e(TAG, "create encoder exception " + e.toString());
             try {
-                outputStream = new FileOutputStream(mFile);
-                outputStream.write(bytes);
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-                try {
-                    assert outputStream != null;
-                    outputStream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                output.stop();
+            } catch (IOException stopException) {
+                stopException.printStackTrace();
+            }
+            return false;
+        }
+        final PreRollBuffer<MediaFormat> preRoll = mPreRoll;
+        final SampleMuxer<MediaFormat> muxer = preRoll == null ? output : new SampleTee<>(output, preRoll);
+        final VideoRecorder<MediaFormat> recorder = new VideoRecorder<>(encoder, muxer, config, RECORDING_QUEUE_CAPACITY);
+        recorder.start();
+        mRecordingFrameRate = new FrameRateRange(config.getFrameRate(), config.getFrameRate());
+        mRecorder = recorder;
+        final Camera2Backend backend = mBackend;
+        // on the preview thread, which owns the backend's outputs
+        mCameraPreviewHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                backend.setRecordingSurface(encoder.getInputSurface());
+                controller.setSessionConfig(newSessionConfig(true));
+                applyFrameRateRange(controller);
+                controller.reconfigure();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Takes the encoder out of the session and finishes the file.
+     *
+     * @return false if nothing was recorded or the file is incomplete
+     */
+    public boolean stopRecording() {
+        final VideoRecorder<MediaFormat> recorder = mRecorder;
+        final CameraController controller = mController;
+        if (recorder == null) return false;
+        mRecorder = null;
+        mRecordingFrameRate = null;
+        if (controller != null) {
+            final Camera2Backend backend = mBackend;
+            final CountDownLatch reconfigured = new CountDownLatch(1);
+            final Handler handler = mCameraPreviewHandler;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    controller.setSessionConfig(newSessionConfig(false));
+                    applyFrameRateRange(controller);
+                    final PerformanceGovernor governor = mGovernor;
+                    if (governor != null) {
+                        // the frames before the recording say nothing about now
+                        governor.reset();
+                    }
+                    controller.reconfigure();
+                    backend.setRecordingSurface(null);
+                    // behind the reconfigure, so the state has left PREVIEWING by then
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            reconfigured.countDown();
+                        }
+                    });
                 }
+            });
+            // the encoder surface must outlive the session drawing into it
+            try {
+                if (!reconfigured.await(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                        || !controller.awaitState(CameraState.PREVIEWING, CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.e(TAG, "session without encoder not ready, camera " + controller.getState());
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                Thread.currentThread().interrupt();
             }
         }
+        return finishRecording(recorder);
+    }
+
+    public boolean isRecording() {
+        return mRecorder != null;
+    }
+
+    /**
+     * The recording in progress, for its bit rate and key frame controls and its frame
+     * counts; null when not recording.
+     */
+    public VideoRecorder<MediaFormat> getRecorder() {
+        return mRecorder;
+    }
+
+    /**
+     * Keeps the last {@code durationMs} of the recordings started from now on in memory, up
+     * to {@code maxBytes}, for {@link #savePreRoll(File)}. The samples are the encoder's
+     * output, so keeping them costs no encoding; a duration of 0 turns it off.
+     */
+    public void setPreRoll(long durationMs, long maxBytes) {
+        mPreRoll = durationMs > 0
+                ? new PreRollBuffer<MediaFormat>(TimeUnit.MILLISECONDS.toMicros(durationMs), maxBytes) : null;
+    }
+
+    /**
+     * Writes what the pre-roll holds to an MP4 file, starting at a key frame. Works while
+     * recording and after it stopped. Blocks for the write, so call it off the main thread.
+     *
+     * @return the number of frames written, 0 if there was nothing to save or it failed
+     */
+    public int savePreRoll(File file) {
+        final PreRollBuffer<MediaFormat> preRoll = mPreRoll;
+        if (preRoll == null || preRoll.getSampleCount() == 0) return 0;
+        try {
+            final int frames = preRoll.save(new MediaMuxerSink(file, getSensorOrientation()));
+            Log.d(TAG, "saved " + frames + " pre-roll frames, " + preRoll.getDurationUs() / 1000 + "ms, to " + file);
+            return frames;
+        } catch (IOException e) {
+            Log.e(TAG, "save pre-roll exception " + e.toString());
+            return 0;
+        }
     }
+
+    private int getSensorOrientation() {
+        return mCameraIsFront ? mFrontCameraOrientation : mBackCameraOrientation;
+    }
+
+    private boolean finishRecording(VideoRecorder<MediaFormat> recorder) {
+        boolean complete = false;
+        try {
+            complete = recorder.stop(RECORDING_STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        }
+        Log.d(TAG, "recorded " + recorder.getFrameCount() + " frames in " + recorder.getDurationUs() / 1000 + "ms, "
+                + recorder.getDroppedFrameCount() + " dropped, " + recorder.getKeyFrameCount() + " key frames, "
+                + recorder.getBytes() + " bytes, queue max " + recorder.getMaxQueueDepth()
+                + (complete ? "" : ", incomplete: " + recorder.getError()));
+        return complete;
+    }
+
+    private PersistCallback mPersistCallback = new PersistCallback() {
+        @Override
+        public void onPersistCompleted(PersistResult result) {
+            Log.d(TAG, "capture persisted " + result + ", queue depth " + mPersistenceQueue.getQueueDepth()
+                    + ", write latency " + mPersistenceQueue.getWriteLatency() + ", " + mImageFileWriter.getBufferPool());
+        }
+    };
+
+    /**
+     * Queues written captures for upload, checksummed from the buffer they were written from
+     * and off the persistence threads, which would otherwise wait for the checksum.
+     */
+    private CaptureDataListener mCaptureDataListener = new CaptureDataListener() {
+        @Override
+        public void onCaptureData(final String name, final ByteBuffer data) {
+            final UploadEngine engine = mUploadEngine;
+            if (engine == null) {
+                mImageFileWriter.recycle(data);
+                return;
+            }
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        engine.add(name, data);
+                    } catch (IOException e) {
+                        Log.e(TAG, "queue upload " + name + " exception " + e.toString());
+                    } finally {
+                        mImageFileWriter.recycle(data);
+                    }
+                }
+            });
+        }
+    };
 }
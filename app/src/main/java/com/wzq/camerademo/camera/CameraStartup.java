@@ -0,0 +1,94 @@
+package com.wzq.camerademo.camera;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.util.Log;
+
+import com.wzq.camerademo.camera.convert.YuvConverters;
+import com.wzq.camerademo.camera.info.CameraInfo;
+import com.wzq.camerademo.camera.info.CameraInfoCache;
+import com.wzq.camerademo.camera.io.BufferAllocators;
+import com.wzq.camerademo.camera.startup.StartupTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * What the camera screen needs before its first frame, begun at app launch on background
+ * threads: loading {@code native-lib} for the buffer pool and the YUV converter, and
+ * listing the cameras, which asks the camera service unless the list is cached. By the
+ * time the camera screen is created both are usually done.
+ */
+public class CameraStartup {
+    private final static String TAG = "CameraStartup";
+    private final static String CAMERA_INFO_FILE_NAME = "camera_info.bin";
+
+    private final CameraInfoCache mCameraInfoCache;
+    private final StartupTask<Boolean> mNativeLibrary;
+    private final StartupTask<List<CameraInfo>> mCameras;
+
+    public CameraStartup(Context context) {
+        final android.hardware.camera2.CameraManager cameraManager =
+                (android.hardware.camera2.CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mCameraInfoCache = new CameraInfoCache(new File(context.getCacheDir(), CAMERA_INFO_FILE_NAME),
+                Build.FINGERPRINT, new Camera2InfoSource(cameraManager), AsyncTask.THREAD_POOL_EXECUTOR);
+        mNativeLibrary = new StartupTask<>(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                // picking the defaults loads the library once for both
+                YuvConverters.getDefault();
+                return BufferAllocators.getDefault() != BufferAllocators.DIRECT;
+            }
+        });
+        mCameras = new StartupTask<>(new Callable<List<CameraInfo>>() {
+            @Override
+            public List<CameraInfo> call() throws IOException {
+                return mCameraInfoCache.getCameras();
+            }
+        });
+    }
+
+    /**
+     * Starts both on background threads; does nothing the second time.
+     */
+    public void start() {
+        mNativeLibrary.start(AsyncTask.THREAD_POOL_EXECUTOR);
+        mCameras.start(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Waits for {@code native-lib}, loading it here if {@link #start()} was not called.
+     *
+     * @return false if it could not be loaded
+     */
+    public boolean awaitNativeLibrary() {
+        try {
+            return mNativeLibrary.get();
+        } catch (IOException e) {
+            Log.e(TAG, "load native library exception " + e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Waits for the camera list, reading it here if {@link #start()} was not called.
+     */
+    public List<CameraInfo> awaitCameras() throws IOException {
+        return mCameras.get();
+    }
+
+    public StartupTask<Boolean> getNativeLibraryTask() {
+        return mNativeLibrary;
+    }
+
+    public StartupTask<List<CameraInfo>> getCamerasTask() {
+        return mCameras;
+    }
+
+    public CameraInfoCache getCameraInfoCache() {
+        return mCameraInfoCache;
+    }
+}
@@ -0,0 +1,18 @@
+package com.wzq.camerademo.camera;
+
+import android.graphics.Bitmap;
+
+public interface CameraSwitchListener {
+
+    /**
+     * Called on the caller's thread of {@link CameraManager#switchCamera()} with the last
+     * preview frame, to be shown until the other camera delivers frames. May be null if the
+     * preview had no frame yet.
+     */
+    void onSwitchStarted(Bitmap lastFrame);
+
+    /**
+     * Called on the camera preview thread when the first frame of the other camera arrived.
+     */
+    void onSwitchCompleted(long latencyNanos);
+}
@@ -0,0 +1,122 @@
+package com.wzq.camerademo.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.view.Surface;
+
+import com.wzq.camerademo.camera.record.SampleInfo;
+import com.wzq.camerademo.camera.record.VideoConfig;
+import com.wzq.camerademo.camera.record.VideoEncoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link VideoEncoder} on a hardware {@link MediaCodec} that takes its input from a
+ * surface, so camera frames go to the encoder without passing through the app.
+ */
+public class MediaCodecEncoder implements VideoEncoder<MediaFormat> {
+    private final MediaCodec mCodec;
+    private final Surface mInputSurface;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+    private MediaCodecEncoder(MediaCodec codec, Surface inputSurface) {
+        mCodec = codec;
+        mInputSurface = inputSurface;
+    }
+
+    /**
+     * Creates and configures the encoder for {@code config}.
+     *
+     * @throws IOException if there is no encoder for the type or it rejects the settings
+     */
+    public static MediaCodecEncoder create(VideoConfig config) throws IOException {
+        final MediaFormat format = MediaFormat.createVideoFormat(config.getMimeType(), config.getWidth(), config.getHeight());
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, config.getBitRate());
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, config.getFrameRate());
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, config.getKeyFrameIntervalSeconds());
+        final MediaCodec codec = MediaCodec.createEncoderByType(config.getMimeType());
+        try {
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            return new MediaCodecEncoder(codec, codec.createInputSurface());
+        } catch (IllegalArgumentException e) {
+            codec.release();
+            throw new IOException("encoder rejected " + config, e);
+        } catch (IllegalStateException e) {
+            codec.release();
+            throw new IOException("encoder rejected " + config, e);
+        }
+    }
+
+    /**
+     * The surface to add to the capture session. Valid until {@link #release()}.
+     */
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    @Override
+    public void start() {
+        mCodec.start();
+    }
+
+    @Override
+    public int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+        final int index = mCodec.dequeueOutputBuffer(mBufferInfo, timeoutUs);
+        if (index >= 0) {
+            info.set(mBufferInfo.offset, mBufferInfo.size, mBufferInfo.presentationTimeUs, mBufferInfo.flags);
+        } else if (index != INFO_OUTPUT_FORMAT_CHANGED) {
+            // INFO_OUTPUT_BUFFERS_CHANGED needs nothing since getOutputBuffer() is used
+            return INFO_TRY_AGAIN_LATER;
+        }
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return mCodec.getOutputBuffer(index);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        mCodec.releaseOutputBuffer(index, false);
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+        return mCodec.getOutputFormat();
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        mCodec.signalEndOfInputStream();
+    }
+
+    @Override
+    public void setBitRate(int bitRate) {
+        final Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        mCodec.setParameters(parameters);
+    }
+
+    @Override
+    public void requestKeyFrame() {
+        final Bundle parameters = new Bundle();
+        parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        mCodec.setParameters(parameters);
+    }
+
+    @Override
+    public void stop() {
+        mCodec.stop();
+    }
+
+    @Override
+    public void release() {
+        mCodec.release();
+        mInputSurface.release();
+    }
+}
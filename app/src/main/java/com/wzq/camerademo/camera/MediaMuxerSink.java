@@ -0,0 +1,69 @@
+package com.wzq.camerademo.camera;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import com.wzq.camerademo.camera.record.SampleInfo;
+import com.wzq.camerademo.camera.record.SampleMuxer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link SampleMuxer} writing an MP4 file with {@link MediaMuxer}.
+ */
+public class MediaMuxerSink implements SampleMuxer<MediaFormat> {
+    private final MediaMuxer mMuxer;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private int mTrack = -1;
+
+    /**
+     * @param orientationDegrees how far players have to rotate the frames to show them upright
+     */
+    public MediaMuxerSink(File file, int orientationDegrees) throws IOException {
+        mMuxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        mMuxer.setOrientationHint(orientationDegrees);
+    }
+
+    @Override
+    public void start(MediaFormat format) throws IOException {
+        try {
+            mTrack = mMuxer.addTrack(format);
+            mMuxer.start();
+        } catch (IllegalStateException e) {
+            throw new IOException("start muxer", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("start muxer", e);
+        }
+    }
+
+    @Override
+    public void writeSample(ByteBuffer data, SampleInfo info) throws IOException {
+        mBufferInfo.set(info.getOffset(), info.getSize(), info.getPresentationTimeUs(), info.getFlags());
+        try {
+            mMuxer.writeSampleData(mTrack, data, mBufferInfo);
+        } catch (IllegalStateException e) {
+            throw new IOException("write sample " + info, e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("write sample " + info, e);
+        }
+    }
+
+    @Override
+    public void stop() throws IOException {
+        if (mTrack < 0) {
+            mMuxer.release();
+            return;
+        }
+        try {
+            // fails when no sample was written, the file is then unusable anyway
+            mMuxer.stop();
+        } catch (IllegalStateException e) {
+            throw new IOException("stop muxer", e);
+        } finally {
+            mMuxer.release();
+        }
+    }
+}
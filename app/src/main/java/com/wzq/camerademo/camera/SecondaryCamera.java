@@ -0,0 +1,146 @@
+package com.wzq.camerademo.camera;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.TextureView;
+
+import com.wzq.camerademo.camera.backend.CaptureCallback;
+import com.wzq.camerademo.camera.backend.SessionConfig;
+import com.wzq.camerademo.camera.info.CameraInfoCache;
+import com.wzq.camerademo.camera.lifecycle.CameraController;
+import com.wzq.camerademo.camera.lifecycle.CameraState;
+import com.wzq.camerademo.camera.lifecycle.CameraStateListener;
+import com.wzq.camerademo.camera.pipeline.ImageRouter;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A camera streaming next to the one {@link CameraManager} drives, e.g. the front camera
+ * in a picture-in-picture view while the back camera previews. It has its own device,
+ * session and threads, so neither camera waits for the other's callbacks, and it hands its
+ * stills to an {@link ImageRouter} that shares the manager's persistence queue.
+ */
+class SecondaryCamera {
+    private final static String TAG = "SecondaryCamera";
+
+    private final Context mContext;
+    private final android.hardware.camera2.CameraManager mCameraManager;
+    private final CameraInfoCache mCameraInfoCache;
+    private final TextureView mTextureView;
+    private final ImageRouter mImageRouter;
+
+    private HandlerThread mPreviewHandlerThread;
+    private HandlerThread mCaptureHandlerThread;
+    private Camera2Backend mBackend;
+    private volatile CameraController mController;
+    private String mCameraId;
+
+    SecondaryCamera(Context context, android.hardware.camera2.CameraManager cameraManager,
+                    CameraInfoCache cameraInfoCache, TextureView textureView, ImageRouter imageRouter) {
+        mContext = context;
+        mCameraManager = cameraManager;
+        mCameraInfoCache = cameraInfoCache;
+        mTextureView = textureView;
+        mImageRouter = imageRouter;
+    }
+
+    /**
+     * Opens {@code cameraId} and previews it on the view with the streams of {@code config},
+     * whose image listener is replaced by the router.
+     */
+    void start(String cameraId, SessionConfig config) {
+        mCameraId = cameraId;
+        mPreviewHandlerThread = new HandlerThread("SecondaryPreviewHandlerThread");
+        mPreviewHandlerThread.start();
+        final Handler handler = new Handler(mPreviewHandlerThread.getLooper());
+        mCaptureHandlerThread = new HandlerThread("SecondaryCaptureHandlerThread");
+        mCaptureHandlerThread.start();
+
+        mImageRouter.setSource(cameraId);
+        mImageRouter.start();
+        mBackend = new Camera2Backend(mContext, mCameraManager, mTextureView, handler,
+                new Handler(mCaptureHandlerThread.getLooper()));
+        mBackend.setCameraInfoCache(mCameraInfoCache);
+        mController = new CameraController(mBackend, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
+        mController.setListener(mCameraStateListener);
+        mController.setSessionConfig(config.setImageListener(mImageRouter));
+        Log.d(TAG, "open camera " + cameraId);
+        mController.open(cameraId);
+    }
+
+    boolean capturePicture(CaptureCallback callback) {
+        final CameraController controller = mController;
+        return controller != null && controller.capture(1, callback);
+    }
+
+    String getCameraId() {
+        return mCameraId;
+    }
+
+    ImageRouter getImageRouter() {
+        return mImageRouter;
+    }
+
+    /**
+     * Closes the camera and waits for it, then stops its threads.
+     */
+    void stop(long timeoutMs) {
+        final CameraController controller = mController;
+        mController = null;
+        if (controller != null) {
+            controller.close();
+            try {
+                if (!controller.awaitState(CameraState.CLOSED, timeoutMs, TimeUnit.MILLISECONDS)) {
+                    Log.e(TAG, "camera " + mCameraId + " still " + controller.getState() + " after " + timeoutMs + "ms");
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                Thread.currentThread().interrupt();
+            }
+        }
+        mImageRouter.stop();
+        quitThread(mPreviewHandlerThread);
+        mPreviewHandlerThread = null;
+        quitThread(mCaptureHandlerThread);
+        mCaptureHandlerThread = null;
+        if (mBackend != null) {
+            mBackend.release();
+            mBackend = null;
+        }
+    }
+
+    private static void quitThread(HandlerThread thread) {
+        if (thread == null) return;
+        thread.quitSafely();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final CameraStateListener mCameraStateListener = new CameraStateListener() {
+        @Override
+        public void onStateChanged(CameraState oldState, CameraState newState) {
+            Log.d(TAG, "camera " + mCameraId + " " + oldState + " -> " + newState);
+        }
+
+        @Override
+        public void onPreviewStarted(String cameraId) {
+        }
+
+        @Override
+        public void onCameraError(String cameraId, int error) {
+            Log.e(TAG, "camera " + cameraId + " error " + error);
+        }
+    };
+}
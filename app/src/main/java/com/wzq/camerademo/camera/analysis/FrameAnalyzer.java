@@ -0,0 +1,10 @@
+package com.wzq.camerademo.camera.analysis;
+
+public interface FrameAnalyzer {
+
+    /**
+     * Called on the analysis thread with the newest frame available. The frame and its
+     * arrays are recycled once this returns, so keep nothing that refers to them.
+     */
+    void analyze(YuvFrame frame);
+}
@@ -0,0 +1,187 @@
+package com.wzq.camerademo.camera.analysis;
+
+import com.wzq.camerademo.camera.io.LatencyStats;
+
+import java.util.ArrayDeque;
+
+/**
+ * Hands frames from a producer (the camera, or a synthetic source in tests) to a single
+ * {@link FrameAnalyzer} on its own thread, keeping only the newest frame. A frame that is
+ * still waiting when a newer one is published is dropped, so a slow analyzer only ever
+ * lowers the analysis rate and never backs up the producer.
+ *
+ * <p>Frames come from a fixed pool: one being analyzed, one waiting and one being filled
+ * by the producer. Once every plane array has grown to the stream size nothing is
+ * allocated per frame.
+ */
+public class LatestFrameDispatcher {
+    private final static int POOL_SIZE = 3;
+
+    private final String mName;
+    private final FrameAnalyzer mAnalyzer;
+    private final Object mLock = new Object();
+    private final ArrayDeque<YuvFrame> mFreeFrames = new ArrayDeque<>(POOL_SIZE);
+    private final YuvFrame[] mAllFrames = new YuvFrame[POOL_SIZE];
+    private final LatencyStats mAnalyzeLatency = new LatencyStats();
+
+    private YuvFrame mPending;
+    private Thread mWorker;
+    private boolean mRunning;
+    private long mNextSequence;
+    private long mPublished;
+    private long mDropped;
+    private long mAnalyzed;
+
+    public LatestFrameDispatcher(String name, FrameAnalyzer analyzer) {
+        mName = name;
+        mAnalyzer = analyzer;
+        for (int i = 0; i < POOL_SIZE; i++) {
+            mAllFrames[i] = new YuvFrame();
+            mFreeFrames.add(mAllFrames[i]);
+        }
+    }
+
+    public void start() {
+        synchronized (mLock) {
+            if (mRunning) return;
+            mRunning = true;
+            mWorker = new Thread(mAnalysisLoop, mName);
+            mWorker.start();
+        }
+    }
+
+    /**
+     * Stops the analysis thread after the frame in progress, dropping a waiting frame.
+     */
+    public void stop() {
+        final Thread worker;
+        synchronized (mLock) {
+            if (!mRunning) return;
+            mRunning = false;
+            if (mPending != null) {
+                mFreeFrames.add(mPending);
+                mPending = null;
+                mDropped++;
+            }
+            worker = mWorker;
+            mWorker = null;
+            mLock.notifyAll();
+        }
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns a free frame for the producer to fill, or null if every frame is in use, in
+     * which case the producer should skip the image.
+     */
+    public YuvFrame obtainFrame() {
+        synchronized (mLock) {
+            final YuvFrame frame = mFreeFrames.pollFirst();
+            if (frame == null) {
+                mDropped++;
+            }
+            return frame;
+        }
+    }
+
+    /**
+     * Makes {@code frame} the newest frame, replacing (and dropping) one that the analyzer
+     * has not picked up yet.
+     */
+    public void publish(YuvFrame frame) {
+        synchronized (mLock) {
+            frame.setSequence(mNextSequence++);
+            mPublished++;
+            if (!mRunning) {
+                mFreeFrames.add(frame);
+                mDropped++;
+                return;
+            }
+            if (mPending != null) {
+                mFreeFrames.add(mPending);
+                mDropped++;
+            }
+            mPending = frame;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns a frame obtained with {@link #obtainFrame()} that will not be published.
+     */
+    public void recycle(YuvFrame frame) {
+        synchronized (mLock) {
+            mFreeFrames.add(frame);
+        }
+    }
+
+    public long getPublishedCount() {
+        synchronized (mLock) {
+            return mPublished;
+        }
+    }
+
+    public long getDroppedCount() {
+        synchronized (mLock) {
+            return mDropped;
+        }
+    }
+
+    public long getAnalyzedCount() {
+        synchronized (mLock) {
+            return mAnalyzed;
+        }
+    }
+
+    public LatencyStats getAnalyzeLatency() {
+        return mAnalyzeLatency;
+    }
+
+    /**
+     * Plane arrays allocated by the pooled frames so far.
+     */
+    public int getAllocationCount() {
+        int allocations = 0;
+        for (YuvFrame frame : mAllFrames) {
+            allocations += frame.getAllocationCount();
+        }
+        return allocations;
+    }
+
+    private Runnable mAnalysisLoop = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                final YuvFrame frame;
+                synchronized (mLock) {
+                    while (mRunning && mPending == null) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (!mRunning) return;
+                    frame = mPending;
+                    mPending = null;
+                }
+                final long start = System.nanoTime();
+                try {
+                    mAnalyzer.analyze(frame);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    mAnalyzeLatency.record(System.nanoTime() - start);
+                    synchronized (mLock) {
+                        mAnalyzed++;
+                        mFreeFrames.add(frame);
+                    }
+                }
+            }
+        }
+    };
+}
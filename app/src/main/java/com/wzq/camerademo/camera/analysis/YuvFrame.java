@@ -0,0 +1,122 @@
+package com.wzq.camerademo.camera.analysis;
+
+import java.nio.ByteBuffer;
+
+/**
+ * YUV_420_888 frame whose three planes live in reusable {@code byte[]}s. Planes are copied
+ * with their original row and pixel strides, so semi-planar (pixel stride 2) and planar
+ * layouts are both kept as delivered by the camera.
+ */
+public class YuvFrame {
+    public static final int PLANE_Y = 0;
+    public static final int PLANE_U = 1;
+    public static final int PLANE_V = 2;
+
+    private final byte[][] mPlanes = new byte[3][];
+    private final int[] mPlaneSizes = new int[3];
+    private final int[] mRowStrides = new int[3];
+    private final int[] mPixelStrides = new int[3];
+    private int mWidth;
+    private int mHeight;
+    private long mTimestamp;
+    private long mSequence;
+    private int mAllocations;
+
+    public void setFormat(int width, int height, long timestamp) {
+        mWidth = width;
+        mHeight = height;
+        mTimestamp = timestamp;
+    }
+
+    /**
+     * Copies the remaining bytes of {@code source} into the plane's array, growing the array
+     * only if the plane got bigger than anything seen before.
+     */
+    public void setPlane(int plane, ByteBuffer source, int rowStride, int pixelStride) {
+        final int size = source.remaining();
+        final byte[] data = ensurePlane(plane, size);
+        source.duplicate().get(data, 0, size);
+        mPlaneSizes[plane] = size;
+        mRowStrides[plane] = rowStride;
+        mPixelStrides[plane] = pixelStride;
+    }
+
+    /**
+     * Returns the plane's array with room for at least {@code size} bytes, for sources that
+     * fill it themselves. Call {@link #setPlaneLayout} afterwards.
+     */
+    public byte[] ensurePlane(int plane, int size) {
+        byte[] data = mPlanes[plane];
+        if (data == null || data.length < size) {
+            data = new byte[size];
+            mPlanes[plane] = data;
+            mAllocations++;
+        }
+        return data;
+    }
+
+    public void setPlaneLayout(int plane, int size, int rowStride, int pixelStride) {
+        mPlaneSizes[plane] = size;
+        mRowStrides[plane] = rowStride;
+        mPixelStrides[plane] = pixelStride;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Sensor timestamp of the frame in nanoseconds.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Position of the frame in the stream handed to the dispatcher, starting at 0.
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    void setSequence(long sequence) {
+        mSequence = sequence;
+    }
+
+    /**
+     * Plane bytes; only the first {@link #getPlaneSize(int)} bytes are valid.
+     */
+    public byte[] getPlane(int plane) {
+        return mPlanes[plane];
+    }
+
+    public int getPlaneSize(int plane) {
+        return mPlaneSizes[plane];
+    }
+
+    public int getRowStride(int plane) {
+        return mRowStrides[plane];
+    }
+
+    public int getPixelStride(int plane) {
+        return mPixelStrides[plane];
+    }
+
+    /**
+     * Luma value at (x, y).
+     */
+    public int getY(int x, int y) {
+        return mPlanes[PLANE_Y][y * mRowStrides[PLANE_Y] + x * mPixelStrides[PLANE_Y]] & 0xff;
+    }
+
+    /**
+     * Number of plane arrays this frame has allocated over its lifetime.
+     */
+    public int getAllocationCount() {
+        return mAllocations;
+    }
+}
@@ -0,0 +1,22 @@
+package com.wzq.camerademo.camera.backend;
+
+import java.io.IOException;
+
+/**
+ * An open camera device of a {@link CameraBackend}.
+ */
+public interface BackendDevice {
+    String getId();
+
+    /**
+     * Creates a session streaming to the outputs described by {@code config}, replacing any
+     * previous session of this device. The result arrives on {@code callback}.
+     */
+    void createSession(SessionConfig config, SessionCallback callback) throws IOException;
+
+    /**
+     * Closes the device and its session. Safe to call more than once; only the first call
+     * leads to {@link DeviceCallback#onClosed}.
+     */
+    void close();
+}
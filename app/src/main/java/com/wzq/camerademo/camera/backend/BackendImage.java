@@ -0,0 +1,37 @@
+package com.wzq.camerademo.camera.backend;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame of one of the session's streams, like {@code android.media.Image}. It occupies a
+ * slot of its stream until it is closed, so listeners must close it promptly.
+ */
+public interface BackendImage {
+    /**
+     * {@link com.wzq.camerademo.camera.info.CameraInfo#FORMAT_JPEG} or
+     * {@link com.wzq.camerademo.camera.info.CameraInfo#FORMAT_YUV_420_888}.
+     */
+    int getFormat();
+
+    int getWidth();
+
+    int getHeight();
+
+    long getTimestamp();
+
+    /**
+     * One plane for JPEG, three (Y, U, V) for YUV.
+     */
+    int getPlaneCount();
+
+    /**
+     * Only valid until the image is closed.
+     */
+    ByteBuffer getPlaneBuffer(int plane);
+
+    int getRowStride(int plane);
+
+    int getPixelStride(int plane);
+
+    void close();
+}
@@ -0,0 +1,31 @@
+package com.wzq.camerademo.camera.backend;
+
+import java.io.IOException;
+
+/**
+ * A configured capture session of a {@link BackendDevice}.
+ */
+public interface BackendSession {
+    BackendDevice getDevice();
+
+    /**
+     * Starts the repeating preview request.
+     */
+    void startPreview(PreviewCallback callback) throws IOException;
+
+    /**
+     * Keeps the auto exposure within {@code minFps}-{@code maxFps}, or the closest range the
+     * camera supports. Called before {@link #startPreview} it sets what the preview starts
+     * with; afterwards it updates the running preview.
+     */
+    void setFrameRateRange(int minFps, int maxFps) throws IOException;
+
+    /**
+     * Captures {@code count} stills. The sequence ends with either
+     * {@link CaptureCallback#onCaptureSequenceCompleted()} or
+     * {@link CaptureCallback#onCaptureSequenceAborted()}.
+     */
+    void capture(int count, CaptureCallback callback) throws IOException;
+
+    void close();
+}
@@ -0,0 +1,22 @@
+package com.wzq.camerademo.camera.backend;
+
+import com.wzq.camerademo.camera.info.CameraInfoSource;
+
+/**
+ * Lists and opens camera devices. Implementations deliver every callback asynchronously, on
+ * a thread of their choosing, never from inside the call that triggered it.
+ */
+public interface CameraBackend extends CameraInfoSource {
+    /**
+     * Starts opening {@code cameraId}. Either {@link DeviceCallback#onOpened} or
+     * {@link DeviceCallback#onError} follows, and every device handed out gets exactly one
+     * {@link DeviceCallback#onClosed} once it has been closed.
+     */
+    void openDevice(String cameraId, DeviceCallback callback);
+
+    /**
+     * Frees the streams and threads shared by the sessions. Only called once every device
+     * is closed.
+     */
+    void release();
+}
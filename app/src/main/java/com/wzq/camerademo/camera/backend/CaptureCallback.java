@@ -0,0 +1,21 @@
+package com.wzq.camerademo.camera.backend;
+
+public interface CaptureCallback {
+    /**
+     * One still of the sequence started exposing; its image carries {@code timestamp} as its
+     * sensor timestamp. Not ordered with the image, which may arrive first.
+     */
+    void onCaptureStarted(long timestamp);
+
+    /**
+     * One still of the sequence failed; called once per failed still, in order.
+     */
+    void onCaptureFailed(int reason);
+
+    void onCaptureSequenceCompleted();
+
+    /**
+     * The stills not delivered yet never will be, typically because the session closed.
+     */
+    void onCaptureSequenceAborted();
+}
@@ -0,0 +1,20 @@
+package com.wzq.camerademo.camera.backend;
+
+public interface DeviceCallback {
+    /**
+     * Error reported with a null device when opening failed before a device existed, for
+     * example because the camera permission is missing.
+     */
+    int ERROR_OPEN_FAILED = -1;
+
+    void onOpened(BackendDevice device);
+
+    void onClosed(BackendDevice device);
+
+    void onDisconnected(BackendDevice device);
+
+    /**
+     * @param device the failed device, or null if it was never opened
+     */
+    void onError(BackendDevice device, int error);
+}
@@ -0,0 +1,79 @@
+package com.wzq.camerademo.camera.backend;
+
+/**
+ * What the camera reported about one frame of the repeating request, the part of a
+ * camera2 {@code TotalCaptureResult} the app makes decisions on.
+ */
+public final class FrameResult {
+    public static final int FOCUS_UNKNOWN = 0;
+    public static final int FOCUS_SCANNING = 1;
+    public static final int FOCUS_FOCUSED = 2;
+    public static final int FOCUS_UNFOCUSED = 3;
+
+    private final long mTimestamp;
+    private final int mFocusState;
+    private final boolean mLensMoving;
+    private final boolean mExposureConverged;
+
+    public FrameResult(long timestamp, int focusState, boolean lensMoving, boolean exposureConverged) {
+        mTimestamp = timestamp;
+        mFocusState = focusState;
+        mLensMoving = lensMoving;
+        mExposureConverged = exposureConverged;
+    }
+
+    /**
+     * Sensor timestamp, the same as that of the images of the frame.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getFocusState() {
+        return mFocusState;
+    }
+
+    public boolean isLensMoving() {
+        return mLensMoving;
+    }
+
+    public boolean isExposureConverged() {
+        return mExposureConverged;
+    }
+
+    /**
+     * How sharp the frame is likely to be, from 0 to 1, judged from the autofocus and lens
+     * state since the image itself is not analysed.
+     */
+    public float getSharpness() {
+        float sharpness;
+        switch (mFocusState) {
+            case FOCUS_FOCUSED:
+                sharpness = 1f;
+                break;
+            case FOCUS_UNKNOWN:
+                // fixed focus or autofocus off
+                sharpness = 0.75f;
+                break;
+            case FOCUS_SCANNING:
+                sharpness = 0.25f;
+                break;
+            default:
+                sharpness = 0f;
+                break;
+        }
+        if (mLensMoving) {
+            sharpness /= 2;
+        }
+        if (!mExposureConverged) {
+            sharpness *= 0.9f;
+        }
+        return sharpness;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameResult{" + mTimestamp + ", focus=" + mFocusState + (mLensMoving ? ", moving" : "")
+                + (mExposureConverged ? "" : ", exposing") + "}";
+    }
+}
@@ -0,0 +1,8 @@
+package com.wzq.camerademo.camera.backend;
+
+public interface FrameResultListener {
+    /**
+     * Called for every frame of the repeating request, on the camera callback thread.
+     */
+    void onFrameResult(FrameResult result);
+}
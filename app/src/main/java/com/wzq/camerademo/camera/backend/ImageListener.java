@@ -0,0 +1,9 @@
+package com.wzq.camerademo.camera.backend;
+
+public interface ImageListener {
+    /**
+     * Called on a backend thread for every still and analysis frame. The listener owns
+     * {@code image} and has to close it.
+     */
+    void onImageAvailable(BackendImage image);
+}
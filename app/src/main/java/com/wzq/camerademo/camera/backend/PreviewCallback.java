@@ -0,0 +1,8 @@
+package com.wzq.camerademo.camera.backend;
+
+public interface PreviewCallback {
+    /**
+     * A frame of the repeating preview request completed.
+     */
+    void onPreviewFrame(long timestampNanos);
+}
@@ -0,0 +1,7 @@
+package com.wzq.camerademo.camera.backend;
+
+public interface SessionCallback {
+    void onConfigured(BackendSession session);
+
+    void onConfigureFailed(BackendDevice device);
+}
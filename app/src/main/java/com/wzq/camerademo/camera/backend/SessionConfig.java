@@ -0,0 +1,139 @@
+package com.wzq.camerademo.camera.backend;
+
+/**
+ * Streams of a session: the preview, JPEG stills, an optional YUV analysis stream, the
+ * video encoder while recording and, for zero shutter lag, JPEGs of every preview frame. Must not be changed once it has been
+ * handed to a session.
+ */
+public final class SessionConfig {
+    private final int mPreviewWidth;
+    private final int mPreviewHeight;
+    private final int mJpegWidth;
+    private final int mJpegHeight;
+    private int mMaxJpegImages = 2;
+    private int mAnalysisWidth;
+    private int mAnalysisHeight;
+    private boolean mZslEnabled;
+    private boolean mRecordingEnabled;
+    private ImageListener mImageListener;
+    private FrameResultListener mFrameResultListener;
+
+    public SessionConfig(int previewWidth, int previewHeight, int jpegWidth, int jpegHeight) {
+        mPreviewWidth = previewWidth;
+        mPreviewHeight = previewHeight;
+        mJpegWidth = jpegWidth;
+        mJpegHeight = jpegHeight;
+    }
+
+    /**
+     * How many stills can be held by the listener before the camera stalls.
+     */
+    public SessionConfig setMaxJpegImages(int maxImages) {
+        if (maxImages < 1) {
+            throw new IllegalArgumentException("maxImages must be at least 1");
+        }
+        mMaxJpegImages = maxImages;
+        return this;
+    }
+
+    /**
+     * Adds a YUV_420_888 stream fed by the preview request. Analysis frames are dropped
+     * while the listener still holds the previous one.
+     */
+    public SessionConfig setAnalysisSize(int width, int height) {
+        mAnalysisWidth = width;
+        mAnalysisHeight = height;
+        return this;
+    }
+
+    /**
+     * Also feeds the JPEG stream from the preview request, so full resolution images of the
+     * latest frames are at hand when the shutter is pressed. Every preview frame is then
+     * JPEG encoded at the capture size, and the JPEG stall duration is added to each. The listener has to give the
+     * images back quickly enough to leave slots for the stream, i.e. hold fewer than
+     * {@link #getMaxJpegImages()} of them.
+     */
+    public SessionConfig setZslEnabled(boolean enabled) {
+        mZslEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Also feeds the video encoder's input surface, which the backend must have been given,
+     * from the repeating request and from stills, so recording goes on while pictures are
+     * taken.
+     */
+    public SessionConfig setRecordingEnabled(boolean enabled) {
+        mRecordingEnabled = enabled;
+        return this;
+    }
+
+    public SessionConfig setImageListener(ImageListener listener) {
+        mImageListener = listener;
+        return this;
+    }
+
+    /**
+     * Receives the result of every preview frame, e.g. to pair it with the image of a zero
+     * shutter lag frame.
+     */
+    public SessionConfig setFrameResultListener(FrameResultListener listener) {
+        mFrameResultListener = listener;
+        return this;
+    }
+
+    public int getPreviewWidth() {
+        return mPreviewWidth;
+    }
+
+    public int getPreviewHeight() {
+        return mPreviewHeight;
+    }
+
+    public int getJpegWidth() {
+        return mJpegWidth;
+    }
+
+    public int getJpegHeight() {
+        return mJpegHeight;
+    }
+
+    public int getMaxJpegImages() {
+        return mMaxJpegImages;
+    }
+
+    public boolean hasAnalysisStream() {
+        return mAnalysisWidth > 0 && mAnalysisHeight > 0;
+    }
+
+    public int getAnalysisWidth() {
+        return mAnalysisWidth;
+    }
+
+    public int getAnalysisHeight() {
+        return mAnalysisHeight;
+    }
+
+    public boolean isZslEnabled() {
+        return mZslEnabled;
+    }
+
+    public boolean isRecordingEnabled() {
+        return mRecordingEnabled;
+    }
+
+    public ImageListener getImageListener() {
+        return mImageListener;
+    }
+
+    public FrameResultListener getFrameResultListener() {
+        return mFrameResultListener;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionConfig{preview=" + mPreviewWidth + "x" + mPreviewHeight + ", jpeg=" + mJpegWidth + "x" + mJpegHeight
+                + "/" + mMaxJpegImages + (mZslEnabled ? " zsl" : "") + (mRecordingEnabled ? ", recording" : "")
+                + (hasAnalysisStream() ? ", analysis=" + mAnalysisWidth + "x" + mAnalysisHeight : "") + "}";
+    }
+}
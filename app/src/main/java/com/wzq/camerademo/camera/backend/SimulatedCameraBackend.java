@@ -0,0 +1,628 @@
+package com.wzq.camerademo.camera.backend;
+
+import com.wzq.camerademo.camera.info.CameraInfo;
+import com.wzq.camerademo.camera.info.StreamSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link CameraBackend} without hardware, for load tests and benchmarks on a plain JVM.
+ *
+ * <p>A running session produces frames at the configured frame rate on a "camera" thread:
+ * every frame is reported to the preview callback and, if the session has an analysis
+ * stream, delivered as a YUV_420_888 image whose luma is the frame number. Stills are
+ * synthetic JPEGs (SOI, payload, EOI) produced one per frame once the capture latency has
+ * passed, and delivered on a separate thread like a camera2 {@code ImageReader} on its own
+ * handler. As on a real camera, streams have a fixed number of image slots: analysis frames
+ * are dropped and stills stall while the listener holds every slot.
+ *
+ * <p>With zero shutter lag every frame without a still also produces a JPEG, and a
+ * {@link FrameResult} whose lens is moving on every fourth frame.
+ */
+public class SimulatedCameraBackend implements CameraBackend {
+    public static final int DEFAULT_FRAME_RATE = 30;
+
+    private final List<CameraInfo> mCameras;
+    private final ScheduledExecutorService mCameraThread;
+    private final ExecutorService mImageThread;
+    private volatile int mFrameRate = DEFAULT_FRAME_RATE;
+    private volatile long mOpenLatencyMs;
+    private volatile long mCloseLatencyMs;
+    private volatile long mConfigureLatencyMs;
+    private volatile long mCaptureLatencyMs;
+    private volatile int mJpegBytes;
+
+    private final AtomicLong mFrameCount = new AtomicLong();
+    private final AtomicLong mStillCount = new AtomicLong();
+    private final AtomicLong mDroppedAnalysisFrames = new AtomicLong();
+    private final AtomicLong mStalledStills = new AtomicLong();
+    private final AtomicLong mZslFrameCount = new AtomicLong();
+
+    public SimulatedCameraBackend() {
+        this(defaultCameras());
+    }
+
+    public SimulatedCameraBackend(List<CameraInfo> cameras) {
+        mCameras = new ArrayList<>(cameras);
+        mCameraThread = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("SimulatedCamera"));
+        mImageThread = Executors.newSingleThreadExecutor(new NamedThreadFactory("SimulatedCameraImages"));
+    }
+
+    /**
+     * A 12 MP back camera and an 8 MP front camera with the usual preview and YUV sizes.
+     */
+    public static List<CameraInfo> defaultCameras() {
+        return Arrays.asList(
+                camera("0", CameraInfo.LENS_FACING_BACK, 90, new StreamSize(4000, 3000, 33333333L)),
+                camera("1", CameraInfo.LENS_FACING_FRONT, 270, new StreamSize(3264, 2448, 33333333L)));
+    }
+
+    private static CameraInfo camera(String id, int facing, int orientation, StreamSize jpeg) {
+        final StreamSize[] streamSizes = {
+                new StreamSize(1920, 1080, 33333333L),
+                new StreamSize(1280, 720, 33333333L),
+                new StreamSize(640, 480, 33333333L)};
+        final Map<Integer, StreamSize[]> sizes = new HashMap<>();
+        sizes.put(CameraInfo.FORMAT_JPEG, new StreamSize[]{jpeg, streamSizes[0], streamSizes[2]});
+        sizes.put(CameraInfo.FORMAT_YUV_420_888, streamSizes);
+        sizes.put(CameraInfo.FORMAT_PREVIEW, streamSizes);
+        return new CameraInfo(id, facing, orientation, 1, sizes);
+    }
+
+    public void setFrameRate(int framesPerSecond) {
+        if (framesPerSecond <= 0) {
+            throw new IllegalArgumentException("frame rate must be positive");
+        }
+        mFrameRate = framesPerSecond;
+    }
+
+    public void setOpenLatencyMs(long latencyMs) {
+        mOpenLatencyMs = latencyMs;
+    }
+
+    public void setCloseLatencyMs(long latencyMs) {
+        mCloseLatencyMs = latencyMs;
+    }
+
+    public void setConfigureLatencyMs(long latencyMs) {
+        mConfigureLatencyMs = latencyMs;
+    }
+
+    /**
+     * Time from a capture request to its first still.
+     */
+    public void setCaptureLatencyMs(long latencyMs) {
+        mCaptureLatencyMs = latencyMs;
+    }
+
+    /**
+     * Size of every synthetic JPEG. By default a tenth of the pixel count, roughly what a
+     * HAL produces at high quality.
+     */
+    public void setJpegBytes(int bytes) {
+        mJpegBytes = bytes;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount.get();
+    }
+
+    public long getStillCount() {
+        return mStillCount.get();
+    }
+
+    /**
+     * JPEGs produced for zero shutter lag, i.e. without a capture request.
+     */
+    public long getZslFrameCount() {
+        return mZslFrameCount.get();
+    }
+
+    /**
+     * Analysis frames skipped because the listener still held the previous ones.
+     */
+    public long getDroppedAnalysisFrames() {
+        return mDroppedAnalysisFrames.get();
+    }
+
+    /**
+     * Frames on which a still was due but every JPEG slot was held by the listener.
+     */
+    public long getStalledStills() {
+        return mStalledStills.get();
+    }
+
+    @Override
+    public List<CameraInfo> queryCameras() {
+        return new ArrayList<>(mCameras);
+    }
+
+    @Override
+    public void openDevice(final String cameraId, final DeviceCallback callback) {
+        mCameraThread.schedule(new Runnable() {
+            @Override
+            public void run() {
+                for (CameraInfo info : mCameras) {
+                    if (info.getId().equals(cameraId)) {
+                        callback.onOpened(new SimulatedDevice(cameraId, callback));
+                        return;
+                    }
+                }
+                callback.onError(null, DeviceCallback.ERROR_OPEN_FAILED);
+            }
+        }, mOpenLatencyMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the camera threads. Callbacks still pending are dropped.
+     */
+    @Override
+    public void release() {
+        mCameraThread.shutdownNow();
+        mImageThread.shutdownNow();
+    }
+
+    /**
+     * Waits for the camera threads to end after {@link #release()}.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return mCameraThread.awaitTermination(timeout, unit) && mImageThread.awaitTermination(timeout, unit);
+    }
+
+    private class SimulatedDevice implements BackendDevice {
+        private final String mId;
+        private final DeviceCallback mCallback;
+        private final AtomicBoolean mClosed = new AtomicBoolean();
+        // only touched on the camera thread
+        private SimulatedSession mSession;
+
+        SimulatedDevice(String id, DeviceCallback callback) {
+            mId = id;
+            mCallback = callback;
+        }
+
+        @Override
+        public String getId() {
+            return mId;
+        }
+
+        @Override
+        public void createSession(final SessionConfig config, final SessionCallback callback) throws IOException {
+            if (mClosed.get()) {
+                throw new IOException("camera " + mId + " closed");
+            }
+            mCameraThread.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (mClosed.get()) {
+                        callback.onConfigureFailed(SimulatedDevice.this);
+                        return;
+                    }
+                    if (mSession != null) {
+                        mSession.close();
+                    }
+                    mSession = new SimulatedSession(SimulatedDevice.this, config);
+                    callback.onConfigured(mSession);
+                }
+            }, mConfigureLatencyMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void close() {
+            if (!mClosed.compareAndSet(false, true)) return;
+            mCameraThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mSession != null) {
+                        mSession.close();
+                        mSession = null;
+                    }
+                }
+            });
+            mCameraThread.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onClosed(SimulatedDevice.this);
+                }
+            }, mCloseLatencyMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static class PendingCapture {
+        final CaptureCallback mCallback;
+        final long mDueNanos;
+        int mRemaining;
+
+        PendingCapture(int count, CaptureCallback callback, long dueNanos) {
+            mRemaining = count;
+            mCallback = callback;
+            mDueNanos = dueNanos;
+        }
+    }
+
+    private class SimulatedSession implements BackendSession {
+        private final SimulatedDevice mDevice;
+        private final SessionConfig mConfig;
+        private final ImageStream mJpegStream;
+        private final ImageStream mAnalysisStream;
+        private volatile boolean mClosed;
+        // only touched on the camera thread
+        private final ArrayDeque<PendingCapture> mCaptures = new ArrayDeque<>();
+        private PreviewCallback mPreviewCallback;
+        private ScheduledFuture<?> mFrameTask;
+        private int mSessionFrameRate;
+        private long mFrameNumber;
+        private byte[] mLumaRow;
+
+        SimulatedSession(SimulatedDevice device, SessionConfig config) {
+            mDevice = device;
+            mConfig = config;
+            final int jpegBytes = mJpegBytes > 0 ? mJpegBytes : Math.max(1024, config.getJpegWidth() * config.getJpegHeight() / 10);
+            mJpegStream = ImageStream.jpeg(config.getJpegWidth(), config.getJpegHeight(), jpegBytes, config.getMaxJpegImages());
+            // two slots, like the acquireLatestImage() reader of the camera2 backend
+            mAnalysisStream = config.hasAnalysisStream()
+                    ? ImageStream.yuv(config.getAnalysisWidth(), config.getAnalysisHeight(), 2) : null;
+        }
+
+        @Override
+        public BackendDevice getDevice() {
+            return mDevice;
+        }
+
+        @Override
+        public void startPreview(final PreviewCallback callback) throws IOException {
+            checkOpen();
+            mCameraThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mClosed) return;
+                    mPreviewCallback = callback;
+                    if (mFrameTask == null) {
+                        scheduleFrames(0);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Runs the preview at {@code maxFps}, the rate an auto exposure with enough light
+         * settles on.
+         */
+        @Override
+        public void setFrameRateRange(int minFps, final int maxFps) throws IOException {
+            checkOpen();
+            if (minFps <= 0 || maxFps < minFps) {
+                throw new IllegalArgumentException("bad frame rate range " + minFps + "-" + maxFps);
+            }
+            mCameraThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mClosed || mSessionFrameRate == maxFps) return;
+                    mSessionFrameRate = maxFps;
+                    if (mFrameTask != null) {
+                        mFrameTask.cancel(false);
+                        scheduleFrames(1000000000L / maxFps);
+                    }
+                }
+            });
+        }
+
+        private void scheduleFrames(long delayNanos) {
+            final int frameRate = mSessionFrameRate > 0 ? mSessionFrameRate : mFrameRate;
+            mFrameTask = mCameraThread.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    onFrame();
+                }
+            }, delayNanos, 1000000000L / frameRate, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Stills are produced on the frames of the running preview, one per frame.
+         */
+        @Override
+        public void capture(final int count, final CaptureCallback callback) throws IOException {
+            checkOpen();
+            final long dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mCaptureLatencyMs);
+            mCameraThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mClosed) {
+                        callback.onCaptureSequenceAborted();
+                        return;
+                    }
+                    mCaptures.add(new PendingCapture(count, callback, dueNanos));
+                }
+            });
+        }
+
+        private void checkOpen() throws IOException {
+            if (mClosed) {
+                throw new IOException("session closed");
+            }
+        }
+
+        private void onFrame() {
+            if (mClosed) return;
+            final long timestamp = System.nanoTime();
+            mFrameNumber++;
+            mFrameCount.incrementAndGet();
+            if (mPreviewCallback != null) {
+                mPreviewCallback.onPreviewFrame(timestamp);
+            }
+            if (mAnalysisStream != null) {
+                deliverAnalysisFrame(timestamp);
+            }
+            final PendingCapture capture = mCaptures.peek();
+            // like camera2, the repeating request keeps feeding the ZSL stream between stills
+            if (capture == null || timestamp < capture.mDueNanos || (mConfig.isZslEnabled() && mFrameNumber % 2 == 0)) {
+                if (mConfig.isZslEnabled()) {
+                    deliverZslFrame(timestamp);
+                }
+                return;
+            }
+            final SimulatedImage image = acquireJpeg(timestamp);
+            if (image == null) {
+                mStalledStills.incrementAndGet();
+                return;
+            }
+            mStillCount.incrementAndGet();
+            capture.mCallback.onCaptureStarted(timestamp);
+            deliver(image);
+            if (--capture.mRemaining == 0) {
+                mCaptures.poll();
+                capture.mCallback.onCaptureSequenceCompleted();
+            }
+        }
+
+        private SimulatedImage acquireJpeg(long timestamp) {
+            final SimulatedImage image = mJpegStream.acquire();
+            if (image != null) {
+                image.mTimestamp = timestamp;
+                // make every still distinct without refilling the payload
+                image.mPlanes[0].putLong(2, mFrameNumber);
+            }
+            return image;
+        }
+
+        private void deliverZslFrame(long timestamp) {
+            final FrameResultListener resultListener = mConfig.getFrameResultListener();
+            if (resultListener != null) {
+                final boolean lensMoving = mFrameNumber % 4 == 0;
+                resultListener.onFrameResult(new FrameResult(timestamp,
+                        lensMoving ? FrameResult.FOCUS_SCANNING : FrameResult.FOCUS_FOCUSED, lensMoving, true));
+            }
+            // like a HAL, skip the JPEG of a frame that finds every slot taken
+            final SimulatedImage image = acquireJpeg(timestamp);
+            if (image != null) {
+                mZslFrameCount.incrementAndGet();
+                deliver(image);
+            }
+        }
+
+        private void deliverAnalysisFrame(long timestamp) {
+            final SimulatedImage image = mAnalysisStream.acquire();
+            if (image == null) {
+                mDroppedAnalysisFrames.incrementAndGet();
+                return;
+            }
+            final ByteBuffer y = image.mPlanes[0];
+            final int rowStride = image.mRowStrides[0];
+            if (mLumaRow == null || mLumaRow.length != rowStride) {
+                mLumaRow = new byte[rowStride];
+            }
+            Arrays.fill(mLumaRow, (byte) mFrameNumber);
+            for (int offset = 0; offset < y.capacity(); offset += rowStride) {
+                y.position(offset);
+                y.put(mLumaRow, 0, Math.min(rowStride, y.capacity() - offset));
+            }
+            y.clear();
+            image.mTimestamp = timestamp;
+            final ImageListener listener = mConfig.getImageListener();
+            if (listener == null) {
+                image.close();
+            } else {
+                listener.onImageAvailable(image);
+            }
+        }
+
+        private void deliver(final SimulatedImage image) {
+            final ImageListener listener = mConfig.getImageListener();
+            if (listener == null) {
+                image.close();
+                return;
+            }
+            mImageThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onImageAvailable(image);
+                }
+            });
+        }
+
+        /**
+         * Stops the frames and aborts the captures not yet completed. Images already delivered
+         * stay valid until the listener closes them.
+         */
+        @Override
+        public void close() {
+            mClosed = true;
+            mCameraThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mFrameTask != null) {
+                        mFrameTask.cancel(false);
+                        mFrameTask = null;
+                    }
+                    PendingCapture capture;
+                    while ((capture = mCaptures.poll()) != null) {
+                        capture.mCallback.onCaptureSequenceAborted();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Fixed set of reusable images; an image goes back to the stream when it is closed.
+     */
+    private static class ImageStream {
+        private final ArrayBlockingQueue<SimulatedImage> mFree;
+
+        private ImageStream(int maxImages) {
+            mFree = new ArrayBlockingQueue<>(maxImages);
+        }
+
+        static ImageStream jpeg(int width, int height, int bytes, int maxImages) {
+            final ImageStream stream = new ImageStream(maxImages);
+            for (int i = 0; i < maxImages; i++) {
+                final ByteBuffer data = ByteBuffer.allocateDirect(bytes);
+                int state = i + 1;
+                for (int p = 0; p < bytes; p++) {
+                    state = state * 1103515245 + 12345;
+                    data.put(p, (byte) (state >>> 16));
+                }
+                data.put(0, (byte) 0xff).put(1, (byte) 0xd8);
+                data.put(bytes - 2, (byte) 0xff).put(bytes - 1, (byte) 0xd9);
+                stream.mFree.add(new SimulatedImage(stream, CameraInfo.FORMAT_JPEG, width, height,
+                        new ByteBuffer[]{data}, new int[]{0}, new int[]{0}));
+            }
+            return stream;
+        }
+
+        /**
+         * The usual HAL layout: rows padded to 64 bytes and one interleaved VU buffer exposed
+         * as a V plane and a U plane one byte further.
+         */
+        static ImageStream yuv(int width, int height, int maxImages) {
+            final ImageStream stream = new ImageStream(maxImages);
+            final int rowStride = (width + 63) & ~63;
+            for (int i = 0; i < maxImages; i++) {
+                final ByteBuffer y = ByteBuffer.allocateDirect(rowStride * height);
+                final ByteBuffer v = ByteBuffer.allocateDirect(rowStride * ((height + 1) / 2) - 1);
+                v.position(1);
+                final ByteBuffer u = v.slice();
+                v.position(0);
+                stream.mFree.add(new SimulatedImage(stream, CameraInfo.FORMAT_YUV_420_888, width, height,
+                        new ByteBuffer[]{y, u, v}, new int[]{rowStride, rowStride, rowStride}, new int[]{1, 2, 2}));
+            }
+            return stream;
+        }
+
+        SimulatedImage acquire() {
+            final SimulatedImage image = mFree.poll();
+            if (image != null) {
+                image.mClosed.set(false);
+                for (ByteBuffer plane : image.mPlanes) {
+                    plane.clear();
+                }
+            }
+            return image;
+        }
+
+        void recycle(SimulatedImage image) {
+            mFree.offer(image);
+        }
+    }
+
+    private static class SimulatedImage implements BackendImage {
+        private final ImageStream mStream;
+        private final int mFormat;
+        private final int mWidth;
+        private final int mHeight;
+        private final ByteBuffer[] mPlanes;
+        private final int[] mRowStrides;
+        private final int[] mPixelStrides;
+        private final AtomicBoolean mClosed = new AtomicBoolean();
+        private volatile long mTimestamp;
+
+        SimulatedImage(ImageStream stream, int format, int width, int height, ByteBuffer[] planes,
+                       int[] rowStrides, int[] pixelStrides) {
+            mStream = stream;
+            mFormat = format;
+            mWidth = width;
+            mHeight = height;
+            mPlanes = planes;
+            mRowStrides = rowStrides;
+            mPixelStrides = pixelStrides;
+        }
+
+        @Override
+        public int getFormat() {
+            return mFormat;
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public int getPlaneCount() {
+            return mPlanes.length;
+        }
+
+        @Override
+        public ByteBuffer getPlaneBuffer(int plane) {
+            return mPlanes[plane];
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return mRowStrides[plane];
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return mPixelStrides[plane];
+        }
+
+        @Override
+        public void close() {
+            if (mClosed.compareAndSet(false, true)) {
+                mStream.recycle(this);
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String mName;
+
+        NamedThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, mName);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.wzq.camerademo.camera.capture;
+
+/**
+ * Autofocus and auto-exposure convergence before a still, driven by the results of the
+ * running preview: lock focus, run the AE precapture sequence if exposure has not settled,
+ * then capture. The preview keeps running the whole time; the triggers are single requests
+ * submitted alongside it.
+ *
+ * <p>Not thread safe; start it and feed it results on the camera callback thread.
+ */
+public class PrecaptureSequence {
+    // values of the camera2 CONTROL_AF_STATE and CONTROL_AE_STATE results
+    public static final int AF_STATE_INACTIVE = 0;
+    public static final int AF_STATE_PASSIVE_SCAN = 1;
+    public static final int AF_STATE_PASSIVE_FOCUSED = 2;
+    public static final int AF_STATE_ACTIVE_SCAN = 3;
+    public static final int AF_STATE_FOCUSED_LOCKED = 4;
+    public static final int AF_STATE_NOT_FOCUSED_LOCKED = 5;
+    public static final int AF_STATE_PASSIVE_UNFOCUSED = 6;
+    public static final int AE_STATE_INACTIVE = 0;
+    public static final int AE_STATE_SEARCHING = 1;
+    public static final int AE_STATE_CONVERGED = 2;
+    public static final int AE_STATE_LOCKED = 3;
+    public static final int AE_STATE_FLASH_REQUIRED = 4;
+    public static final int AE_STATE_PRECAPTURE = 5;
+    /**
+     * The result did not have the state, e.g. on a fixed focus camera.
+     */
+    public static final int STATE_UNKNOWN = -1;
+
+    public interface Callback {
+        /**
+         * Submit a request with CONTROL_AF_TRIGGER_START.
+         */
+        void onTriggerFocus();
+
+        /**
+         * Submit a request with CONTROL_AE_PRECAPTURE_TRIGGER_START.
+         */
+        void onTriggerPrecapture();
+
+        /**
+         * Submit the still.
+         *
+         * @param converged false if the camera did not converge in time and the still is
+         *                  taken anyway
+         */
+        void onReadyToCapture(boolean converged);
+    }
+
+    public enum State {
+        IDLE,
+        WAITING_FOCUS,
+        WAITING_PRECAPTURE_START,
+        WAITING_PRECAPTURE_DONE,
+        READY
+    }
+
+    private final Callback mCallback;
+    private final int mTimeoutFrames;
+    private State mState = State.IDLE;
+    private int mFrames;
+    private boolean mFocusTriggered;
+    private boolean mPrecaptureTriggered;
+
+    /**
+     * @param timeoutFrames results to wait for convergence before capturing anyway
+     */
+    public PrecaptureSequence(Callback callback, int timeoutFrames) {
+        mCallback = callback;
+        mTimeoutFrames = timeoutFrames;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * Whether the sequence locked focus, which then has to be released with
+     * CONTROL_AF_TRIGGER_CANCEL once the still is taken.
+     */
+    public boolean isFocusTriggered() {
+        return mFocusTriggered;
+    }
+
+    public boolean isPrecaptureTriggered() {
+        return mPrecaptureTriggered;
+    }
+
+    /**
+     * @param afState autofocus state of the latest result, {@link #STATE_UNKNOWN} if none
+     * @param aeState auto-exposure state of the latest result, {@link #STATE_UNKNOWN} if none
+     */
+    public void start(int afState, int aeState) {
+        if (mState != State.IDLE) {
+            throw new IllegalStateException("sequence already " + mState);
+        }
+        mFrames = 0;
+        if (afState == STATE_UNKNOWN) {
+            checkExposure(aeState);
+            return;
+        }
+        mState = State.WAITING_FOCUS;
+        mFocusTriggered = true;
+        mCallback.onTriggerFocus();
+    }
+
+    /**
+     * Feeds the states of a result that completed after {@link #start}.
+     */
+    public void onResult(int afState, int aeState) {
+        switch (mState) {
+            case WAITING_FOCUS:
+                if (afState == STATE_UNKNOWN || afState == AF_STATE_FOCUSED_LOCKED
+                        || afState == AF_STATE_NOT_FOCUSED_LOCKED) {
+                    checkExposure(aeState);
+                    return;
+                }
+                break;
+            case WAITING_PRECAPTURE_START:
+                if (aeState == STATE_UNKNOWN || aeState == AE_STATE_CONVERGED || aeState == AE_STATE_LOCKED) {
+                    // some devices go straight back to converged without reporting precapture
+                    ready(true);
+                    return;
+                }
+                if (aeState == AE_STATE_PRECAPTURE || aeState == AE_STATE_FLASH_REQUIRED) {
+                    mState = State.WAITING_PRECAPTURE_DONE;
+                }
+                break;
+            case WAITING_PRECAPTURE_DONE:
+                if (aeState != AE_STATE_PRECAPTURE) {
+                    ready(true);
+                    return;
+                }
+                break;
+            default:
+                return;
+        }
+        if (++mFrames >= mTimeoutFrames) {
+            ready(false);
+        }
+    }
+
+    /**
+     * Drops the sequence, e.g. when the session closes before the still was submitted.
+     */
+    public void cancel() {
+        mState = State.IDLE;
+    }
+
+    private void checkExposure(int aeState) {
+        if (aeState == STATE_UNKNOWN || aeState == AE_STATE_CONVERGED || aeState == AE_STATE_LOCKED) {
+            ready(true);
+            return;
+        }
+        mState = State.WAITING_PRECAPTURE_START;
+        mPrecaptureTriggered = true;
+        mCallback.onTriggerPrecapture();
+    }
+
+    private void ready(boolean converged) {
+        mState = State.READY;
+        mCallback.onReadyToCapture(converged);
+    }
+}
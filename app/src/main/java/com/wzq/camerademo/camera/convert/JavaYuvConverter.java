@@ -0,0 +1,102 @@
+package com.wzq.camerademo.camera.convert;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Pure Java {@link YuvConverter}. Works with heap and direct buffers and serves as the
+ * reference the native converter is checked against.
+ */
+public class JavaYuvConverter implements YuvConverter {
+    static final int FIX_SHIFT = 16;
+    static final int FIX_HALF = 1 << (FIX_SHIFT - 1);
+    static final int V_TO_R = 91881;   // 1.402
+    static final int U_TO_G = 22554;   // 0.344136
+    static final int V_TO_G = 46802;   // 0.714136
+    static final int U_TO_B = 116130;  // 1.772
+
+    @Override
+    public void toNv21(YuvPlanes in, ByteBuffer out) {
+        in.validate();
+        final int width = in.getWidth();
+        final int height = in.getHeight();
+        YuvPlanes.checkCapacity("output", out, YuvPlanes.nv21Size(width, height));
+
+        final ByteBuffer y = in.getY();
+        final int yRowStride = in.getYRowStride();
+        int offset = 0;
+        for (int row = 0; row < height; row++) {
+            final int rowStart = row * yRowStride;
+            for (int col = 0; col < width; col++) {
+                out.put(offset++, y.get(rowStart + col));
+            }
+        }
+
+        final ByteBuffer u = in.getU();
+        final ByteBuffer v = in.getV();
+        final int uvRowStride = in.getUvRowStride();
+        final int uvPixelStride = in.getUvPixelStride();
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaHeight = (height + 1) / 2;
+        for (int row = 0; row < chromaHeight; row++) {
+            final int rowStart = row * uvRowStride;
+            for (int col = 0; col < chromaWidth; col++) {
+                final int index = rowStart + col * uvPixelStride;
+                out.put(offset++, v.get(index));
+                out.put(offset++, u.get(index));
+            }
+        }
+    }
+
+    @Override
+    public void toRgba(YuvPlanes in, ByteBuffer out) {
+        convertRgb(in, out, false);
+    }
+
+    @Override
+    public void toArgb8888(YuvPlanes in, ByteBuffer out) {
+        convertRgb(in, out, true);
+    }
+
+    private static void convertRgb(YuvPlanes in, ByteBuffer out, boolean packedInts) {
+        in.validate();
+        final int width = in.getWidth();
+        final int height = in.getHeight();
+        YuvPlanes.checkCapacity("output", out, YuvPlanes.rgbaSize(width, height));
+        final ByteBuffer target = out.duplicate().order(ByteOrder.nativeOrder());
+
+        final ByteBuffer y = in.getY();
+        final ByteBuffer u = in.getU();
+        final ByteBuffer v = in.getV();
+        final int yRowStride = in.getYRowStride();
+        final int uvRowStride = in.getUvRowStride();
+        final int uvPixelStride = in.getUvPixelStride();
+        int offset = 0;
+        for (int row = 0; row < height; row++) {
+            final int yRow = row * yRowStride;
+            final int uvRow = (row >> 1) * uvRowStride;
+            for (int col = 0; col < width; col++) {
+                final int luma = y.get(yRow + col) & 0xff;
+                final int uvIndex = uvRow + (col >> 1) * uvPixelStride;
+                final int cb = (u.get(uvIndex) & 0xff) - 128;
+                final int cr = (v.get(uvIndex) & 0xff) - 128;
+                final int r = clamp(luma + ((V_TO_R * cr + FIX_HALF) >> FIX_SHIFT));
+                final int g = clamp(luma - ((U_TO_G * cb + V_TO_G * cr + FIX_HALF) >> FIX_SHIFT));
+                final int b = clamp(luma + ((U_TO_B * cb + FIX_HALF) >> FIX_SHIFT));
+                if (packedInts) {
+                    target.putInt(offset, 0xff000000 | (r << 16) | (g << 8) | b);
+                } else {
+                    target.put(offset, (byte) r);
+                    target.put(offset + 1, (byte) g);
+                    target.put(offset + 2, (byte) b);
+                    target.put(offset + 3, (byte) 0xff);
+                }
+                offset += 4;
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,67 @@
+package com.wzq.camerademo.camera.convert;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link YuvConverter} backed by {@code native-lib}. All buffers must be direct; the
+ * native code reads the planes and writes the output in place without any Java copy.
+ */
+public class NativeYuvConverter implements YuvConverter {
+    private static final boolean sAvailable = loadLibrary();
+
+    private static boolean loadLibrary() {
+        try {
+            System.loadLibrary("native-lib");
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return sAvailable;
+    }
+
+    public NativeYuvConverter() {
+        if (!sAvailable) {
+            throw new UnsupportedOperationException("native-lib is not available");
+        }
+    }
+
+    @Override
+    public void toNv21(YuvPlanes in, ByteBuffer out) {
+        check(in, out, YuvPlanes.nv21Size(in.getWidth(), in.getHeight()));
+        nativeToNv21(in.getY(), in.getYRowStride(), in.getU(), in.getV(), in.getUvRowStride(),
+                in.getUvPixelStride(), in.getWidth(), in.getHeight(), out);
+    }
+
+    @Override
+    public void toRgba(YuvPlanes in, ByteBuffer out) {
+        check(in, out, YuvPlanes.rgbaSize(in.getWidth(), in.getHeight()));
+        nativeToRgb(in.getY(), in.getYRowStride(), in.getU(), in.getV(), in.getUvRowStride(),
+                in.getUvPixelStride(), in.getWidth(), in.getHeight(), out, false);
+    }
+
+    @Override
+    public void toArgb8888(YuvPlanes in, ByteBuffer out) {
+        check(in, out, YuvPlanes.rgbaSize(in.getWidth(), in.getHeight()));
+        nativeToRgb(in.getY(), in.getYRowStride(), in.getU(), in.getV(), in.getUvRowStride(),
+                in.getUvPixelStride(), in.getWidth(), in.getHeight(), out, true);
+    }
+
+    private static void check(YuvPlanes in, ByteBuffer out, int outputSize) {
+        in.validate();
+        YuvPlanes.checkCapacity("output", out, outputSize);
+        if (!in.getY().isDirect() || !in.getU().isDirect() || !in.getV().isDirect() || !out.isDirect()) {
+            throw new IllegalArgumentException("native conversion needs direct buffers");
+        }
+    }
+
+    private static native void nativeToNv21(ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v,
+                                            int uvRowStride, int uvPixelStride, int width, int height,
+                                            ByteBuffer out);
+
+    private static native void nativeToRgb(ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v,
+                                           int uvRowStride, int uvPixelStride, int width, int height,
+                                           ByteBuffer out, boolean packedArgb);
+}
@@ -0,0 +1,29 @@
+package com.wzq.camerademo.camera.convert;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts YUV_420_888 images to the layouts used by encoders and bitmaps. Output is
+ * written from index 0 of {@code out}. Colors use the full-range BT.601 (JFIF) matrix
+ * that camera YUV output is defined in, in 16.16 fixed point, so every implementation
+ * produces the same bytes.
+ */
+public interface YuvConverter {
+
+    /**
+     * Writes a tightly packed NV21 image: the Y plane followed by interleaved V/U.
+     */
+    void toNv21(YuvPlanes in, ByteBuffer out);
+
+    /**
+     * Writes R, G, B, A bytes per pixel, the layout {@code Bitmap.copyPixelsFromBuffer}
+     * expects for {@code ARGB_8888}.
+     */
+    void toRgba(YuvPlanes in, ByteBuffer out);
+
+    /**
+     * Writes one {@code 0xAARRGGBB} int per pixel in native byte order, i.e. the color
+     * ints used by {@code Bitmap.setPixels}.
+     */
+    void toArgb8888(YuvPlanes in, ByteBuffer out);
+}
@@ -0,0 +1,21 @@
+package com.wzq.camerademo.camera.convert;
+
+/**
+ * Picks the fastest {@link YuvConverter} available on this device.
+ */
+public final class YuvConverters {
+    private static YuvConverter sDefault;
+
+    private YuvConverters() {
+    }
+
+    /**
+     * The native converter if {@code native-lib} loads, otherwise the Java one.
+     */
+    public static synchronized YuvConverter getDefault() {
+        if (sDefault == null) {
+            sDefault = NativeYuvConverter.isAvailable() ? new NativeYuvConverter() : new JavaYuvConverter();
+        }
+        return sDefault;
+    }
+}
@@ -0,0 +1,97 @@
+package com.wzq.camerademo.camera.convert;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Description of a YUV_420_888 image as the three plane buffers and strides handed out by
+ * {@code Image.getPlanes()}. Planes are addressed from index 0 of each buffer. The object
+ * is mutable so one instance can be reused for every frame of a stream.
+ */
+public class YuvPlanes {
+    private ByteBuffer mY;
+    private ByteBuffer mU;
+    private ByteBuffer mV;
+    private int mYRowStride;
+    private int mUvRowStride;
+    private int mUvPixelStride;
+    private int mWidth;
+    private int mHeight;
+
+    public YuvPlanes set(int width, int height, ByteBuffer y, int yRowStride,
+                         ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride) {
+        mWidth = width;
+        mHeight = height;
+        mY = y;
+        mYRowStride = yRowStride;
+        mU = u;
+        mV = v;
+        mUvRowStride = uvRowStride;
+        mUvPixelStride = uvPixelStride;
+        return this;
+    }
+
+    public ByteBuffer getY() {
+        return mY;
+    }
+
+    public ByteBuffer getU() {
+        return mU;
+    }
+
+    public ByteBuffer getV() {
+        return mV;
+    }
+
+    public int getYRowStride() {
+        return mYRowStride;
+    }
+
+    public int getUvRowStride() {
+        return mUvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return mUvPixelStride;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public static int nv21Size(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    public static int rgbaSize(int width, int height) {
+        return width * height * 4;
+    }
+
+    /**
+     * Throws if a plane is too small for the declared size and strides.
+     */
+    public void validate() {
+        if (mWidth <= 0 || mHeight <= 0) {
+            throw new IllegalArgumentException("bad size " + mWidth + "x" + mHeight);
+        }
+        if (mYRowStride < mWidth || mUvPixelStride < 1 || mUvRowStride < ((mWidth + 1) / 2 - 1) * mUvPixelStride + 1) {
+            throw new IllegalArgumentException("bad strides");
+        }
+        checkCapacity("Y", mY, mYRowStride * (mHeight - 1) + mWidth);
+        final int chroma = mUvRowStride * ((mHeight + 1) / 2 - 1) + mUvPixelStride * ((mWidth + 1) / 2 - 1) + 1;
+        checkCapacity("U", mU, chroma);
+        checkCapacity("V", mV, chroma);
+    }
+
+    static void checkCapacity(String name, ByteBuffer buffer, int needed) {
+        if (buffer == null) {
+            throw new IllegalArgumentException(name + " buffer is null");
+        }
+        if (buffer.capacity() < needed) {
+            throw new IllegalArgumentException(name + " buffer holds " + buffer.capacity() + " bytes, needs " + needed);
+        }
+    }
+}
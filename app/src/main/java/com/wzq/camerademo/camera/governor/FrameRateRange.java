@@ -0,0 +1,76 @@
+package com.wzq.camerademo.camera.governor;
+
+import java.util.List;
+
+/**
+ * Frames per second the auto exposure may run at, as {@code CONTROL_AE_TARGET_FPS_RANGE}
+ * takes it. In good light the camera runs at the upper bound and in low light it slows
+ * down to the lower one.
+ */
+public final class FrameRateRange {
+    private final int mMin;
+    private final int mMax;
+
+    public FrameRateRange(int min, int max) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("bad frame rate range " + min + "-" + max);
+        }
+        mMin = min;
+        mMax = max;
+    }
+
+    public int getMin() {
+        return mMin;
+    }
+
+    public int getMax() {
+        return mMax;
+    }
+
+    public long getFrameIntervalNanos() {
+        return 1000000000L / mMax;
+    }
+
+    /**
+     * The range of {@code available} to ask the camera for instead of {@code wanted}: the
+     * one with the highest upper bound not above the wanted one and of those the lower
+     * bound closest to the wanted one. If every range goes higher, the slowest.
+     */
+    public static FrameRateRange closest(List<FrameRateRange> available, FrameRateRange wanted) {
+        FrameRateRange best = null;
+        for (FrameRateRange range : available) {
+            if (best == null || isCloser(range, best, wanted)) {
+                best = range;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isCloser(FrameRateRange range, FrameRateRange best, FrameRateRange wanted) {
+        final boolean fits = range.mMax <= wanted.mMax;
+        final boolean bestFits = best.mMax <= wanted.mMax;
+        if (fits != bestFits) return fits;
+        if (range.mMax != best.mMax) {
+            return fits ? range.mMax > best.mMax : range.mMax < best.mMax;
+        }
+        return Math.abs(range.mMin - wanted.mMin) < Math.abs(best.mMin - wanted.mMin);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof FrameRateRange)) return false;
+        final FrameRateRange other = (FrameRateRange) o;
+        return mMin == other.mMin && mMax == other.mMax;
+    }
+
+    @Override
+    public int hashCode() {
+        return mMin * 31 + mMax;
+    }
+
+    @Override
+    public String toString() {
+        return mMin + "-" + mMax + "fps";
+    }
+}
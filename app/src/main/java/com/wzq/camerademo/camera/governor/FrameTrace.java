@@ -0,0 +1,82 @@
+package com.wzq.camerademo.camera.governor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Preview frame timings as the {@link PerformanceGovernor} sees them, recorded on a device
+ * and replayed in tests.
+ *
+ * <p>Text, one frame per line: the sensor timestamp in microseconds and the number of
+ * analysis frames dropped so far, separated by white space. Lines starting with {@code #}
+ * are comments.
+ */
+public class FrameTrace {
+    private long[] mTimestampsUs = new long[1024];
+    private long[] mDropped = new long[1024];
+    private int mCount;
+
+    public synchronized void add(long timestampNanos, long analysisDropped) {
+        if (mCount == mTimestampsUs.length) {
+            mTimestampsUs = Arrays.copyOf(mTimestampsUs, mCount * 2);
+            mDropped = Arrays.copyOf(mDropped, mCount * 2);
+        }
+        mTimestampsUs[mCount] = timestampNanos / 1000;
+        mDropped[mCount] = analysisDropped;
+        mCount++;
+    }
+
+    public synchronized int size() {
+        return mCount;
+    }
+
+    public synchronized long getTimestampNanos(int index) {
+        return mTimestampsUs[index] * 1000;
+    }
+
+    public synchronized long getAnalysisDropped(int index) {
+        return mDropped[index];
+    }
+
+    /**
+     * Feeds every frame of the trace to {@code governor}, in order.
+     */
+    public synchronized void replay(PerformanceGovernor governor) {
+        for (int i = 0; i < mCount; i++) {
+            governor.onFrame(mTimestampsUs[i] * 1000, mDropped[i]);
+        }
+    }
+
+    public synchronized void write(Writer writer) throws IOException {
+        writer.write("# <timestamp us> <analysis frames dropped>\n");
+        for (int i = 0; i < mCount; i++) {
+            writer.write(mTimestampsUs[i] + " " + mDropped[i] + "\n");
+        }
+        writer.flush();
+    }
+
+    public static FrameTrace read(Reader reader) throws IOException {
+        final FrameTrace trace = new FrameTrace();
+        final BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int number = 0;
+        while ((line = lines.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            final String[] fields = line.split("\\s+");
+            if (fields.length != 2) {
+                throw new IOException("line " + number + ": expected 2 fields, got " + fields.length);
+            }
+            try {
+                trace.add(Long.parseLong(fields[0]) * 1000, Long.parseLong(fields[1]));
+            } catch (NumberFormatException e) {
+                throw new IOException("line " + number + ": " + e.getMessage());
+            }
+        }
+        return trace;
+    }
+}
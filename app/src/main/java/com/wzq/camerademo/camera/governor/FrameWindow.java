@@ -0,0 +1,54 @@
+package com.wzq.camerademo.camera.governor;
+
+import java.util.Locale;
+
+/**
+ * What the {@link PerformanceGovernor} measured over one window of preview frames.
+ */
+public final class FrameWindow {
+    private final long mDurationNanos;
+    private final int mIntervals;
+    private final long mMedianIntervalNanos;
+    private final float mJankFraction;
+    private final float mBacklogFraction;
+
+    FrameWindow(long durationNanos, int intervals, long medianIntervalNanos, float jankFraction, float backlogFraction) {
+        mDurationNanos = durationNanos;
+        mIntervals = intervals;
+        mMedianIntervalNanos = medianIntervalNanos;
+        mJankFraction = jankFraction;
+        mBacklogFraction = backlogFraction;
+    }
+
+    public long getDurationNanos() {
+        return mDurationNanos;
+    }
+
+    public float getFps() {
+        return mDurationNanos > 0 ? mIntervals * 1e9f / mDurationNanos : 0;
+    }
+
+    public long getMedianIntervalNanos() {
+        return mMedianIntervalNanos;
+    }
+
+    /**
+     * Share of frame intervals well above the median, i.e. visible stutter.
+     */
+    public float getJankFraction() {
+        return mJankFraction;
+    }
+
+    /**
+     * Analysis frames dropped per preview frame because the analyzer was still busy.
+     */
+    public float getBacklogFraction() {
+        return mBacklogFraction;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%.1ffps, median %.1fms, jank %.0f%%, backlog %.0f%%", getFps(),
+                mMedianIntervalNanos / 1e6f, mJankFraction * 100, mBacklogFraction * 100);
+    }
+}
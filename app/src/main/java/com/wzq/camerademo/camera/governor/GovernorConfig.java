@@ -0,0 +1,121 @@
+package com.wzq.camerademo.camera.governor;
+
+/**
+ * Thresholds of the {@link PerformanceGovernor}. The ones for stepping up are stricter
+ * than the ones for stepping down and need more windows in a row, so the governor does not
+ * flip between two settings at the edge of what the device manages.
+ */
+public final class GovernorConfig {
+    private long mWindowNanos = 1000000000L;
+    private float mJankFactor = 1.5f;
+    private float mStepDownJankFraction = 0.1f;
+    private float mStepUpJankFraction = 0.02f;
+    private float mStepDownBacklogFraction = 0.3f;
+    private float mStepUpBacklogFraction = 0.05f;
+    private float mMinFpsFraction = 0.9f;
+    private int mStepDownWindows = 2;
+    private int mStepUpWindows = 5;
+    private int mMaxStepUpWindows = 60;
+    private int mSettleWindows = 1;
+
+    public GovernorConfig setWindowNanos(long nanos) {
+        mWindowNanos = nanos;
+        return this;
+    }
+
+    /**
+     * An interval this many times the median of its window counts as jank.
+     */
+    public GovernorConfig setJankFactor(float factor) {
+        mJankFactor = factor;
+        return this;
+    }
+
+    public GovernorConfig setJankFractions(float stepDown, float stepUp) {
+        mStepDownJankFraction = stepDown;
+        mStepUpJankFraction = stepUp;
+        return this;
+    }
+
+    public GovernorConfig setBacklogFractions(float stepDown, float stepUp) {
+        mStepDownBacklogFraction = stepDown;
+        mStepUpBacklogFraction = stepUp;
+        return this;
+    }
+
+    /**
+     * Frame rate, as a share of the lower bound of the range, below which the camera is
+     * taken to fall behind rather than to expose for low light.
+     */
+    public GovernorConfig setMinFpsFraction(float fraction) {
+        mMinFpsFraction = fraction;
+        return this;
+    }
+
+    /**
+     * @param stepDown windows in a row under pressure before stepping down
+     * @param stepUp   windows in a row without pressure before stepping up; doubled, up to
+     *                 {@code maxStepUp}, each time a step up has to be taken back
+     */
+    public GovernorConfig setWindows(int stepDown, int stepUp, int maxStepUp) {
+        if (stepDown < 1 || stepUp < 1 || maxStepUp < stepUp) {
+            throw new IllegalArgumentException("bad window counts");
+        }
+        mStepDownWindows = stepDown;
+        mStepUpWindows = stepUp;
+        mMaxStepUpWindows = maxStepUp;
+        return this;
+    }
+
+    /**
+     * Windows ignored after a step while the camera adjusts to it.
+     */
+    public GovernorConfig setSettleWindows(int windows) {
+        mSettleWindows = windows;
+        return this;
+    }
+
+    public long getWindowNanos() {
+        return mWindowNanos;
+    }
+
+    public float getJankFactor() {
+        return mJankFactor;
+    }
+
+    public float getStepDownJankFraction() {
+        return mStepDownJankFraction;
+    }
+
+    public float getStepUpJankFraction() {
+        return mStepUpJankFraction;
+    }
+
+    public float getStepDownBacklogFraction() {
+        return mStepDownBacklogFraction;
+    }
+
+    public float getStepUpBacklogFraction() {
+        return mStepUpBacklogFraction;
+    }
+
+    public float getMinFpsFraction() {
+        return mMinFpsFraction;
+    }
+
+    public int getStepDownWindows() {
+        return mStepDownWindows;
+    }
+
+    public int getStepUpWindows() {
+        return mStepUpWindows;
+    }
+
+    public int getMaxStepUpWindows() {
+        return mMaxStepUpWindows;
+    }
+
+    public int getSettleWindows() {
+        return mSettleWindows;
+    }
+}
@@ -0,0 +1,92 @@
+package com.wzq.camerademo.camera.governor;
+
+import com.wzq.camerademo.camera.info.StreamSize;
+
+/**
+ * A step of the {@link PerformanceGovernor}, with the settings to apply and the window
+ * that led to it.
+ */
+public final class GovernorEvent {
+    public enum Action {
+        FRAME_RATE_DOWN,
+        FRAME_RATE_UP,
+        ANALYSIS_SIZE_DOWN,
+        ANALYSIS_SIZE_UP
+    }
+
+    public enum Reason {
+        /**
+         * Frames came late or unevenly.
+         */
+        FRAME_INTERVALS,
+        /**
+         * The analyzer could not keep up and dropped frames.
+         */
+        ANALYSIS_BACKLOG,
+        /**
+         * Enough windows went by without either.
+         */
+        RECOVERED
+    }
+
+    private final long mTimestampNanos;
+    private final Action mAction;
+    private final Reason mReason;
+    private final FrameRateRange mFrameRateRange;
+    private final StreamSize mAnalysisSize;
+    private final FrameWindow mWindow;
+
+    GovernorEvent(long timestampNanos, Action action, Reason reason, FrameRateRange frameRateRange,
+                  StreamSize analysisSize, FrameWindow window) {
+        mTimestampNanos = timestampNanos;
+        mAction = action;
+        mReason = reason;
+        mFrameRateRange = frameRateRange;
+        mAnalysisSize = analysisSize;
+        mWindow = window;
+    }
+
+    /**
+     * Sensor timestamp of the frame that closed the window.
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    public Action getAction() {
+        return mAction;
+    }
+
+    public Reason getReason() {
+        return mReason;
+    }
+
+    public boolean isStepDown() {
+        return mAction == Action.FRAME_RATE_DOWN || mAction == Action.ANALYSIS_SIZE_DOWN;
+    }
+
+    /**
+     * The frame rate range from now on.
+     */
+    public FrameRateRange getFrameRateRange() {
+        return mFrameRateRange;
+    }
+
+    /**
+     * The analysis size from now on; null without an analysis stream.
+     */
+    public StreamSize getAnalysisSize() {
+        return mAnalysisSize;
+    }
+
+    public FrameWindow getWindow() {
+        return mWindow;
+    }
+
+    @Override
+    public String toString() {
+        return mAction + " (" + mReason + ") to " + mFrameRateRange
+                + (mAnalysisSize != null ? ", analysis " + mAnalysisSize.getWidth() + "x" + mAnalysisSize.getHeight() : "")
+                + " after " + mWindow;
+    }
+}
@@ -0,0 +1,10 @@
+package com.wzq.camerademo.camera.governor;
+
+public interface GovernorListener {
+
+    /**
+     * Called on the thread that reports the preview frames. Applying the new settings is
+     * up to the listener.
+     */
+    void onGovernorEvent(GovernorEvent event);
+}
@@ -0,0 +1,267 @@
+package com.wzq.camerademo.camera.governor;
+
+import com.wzq.camerademo.camera.info.StreamSize;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Steps the preview frame rate and the analysis resolution down while the device cannot
+ * keep up, e.g. once it heats up and throttles, and back up once it can again.
+ *
+ * <p>Preview frames are judged in windows of {@link GovernorConfig#getWindowNanos()}. A
+ * window is under pressure when too many frame intervals are well above the median of the
+ * window, when the frame rate falls below the lower bound of the range, or when the
+ * analyzer drops too many frames. Judging intervals against the median rather than the
+ * expected interval keeps a steady low light frame rate from counting as pressure.
+ * Analysis backlog lowers the analysis resolution first, uneven frames the frame rate; a
+ * step up takes back the latest step down.
+ *
+ * <p>The governor only decides; its {@link GovernorListener} applies the settings. It
+ * holds no clock of its own, so recorded frame timings replay through it exactly (see
+ * {@link FrameTrace}). Frames must be reported from a single thread; the events can be read
+ * from any.
+ */
+public class PerformanceGovernor {
+    private static final int MIN_INTERVALS = 3;
+    private static final int MAX_EVENTS = 32;
+
+    private final List<FrameRateRange> mFrameRates;
+    private final List<StreamSize> mAnalysisSizes;
+    private final GovernorConfig mConfig;
+    private volatile GovernorListener mListener;
+
+    private int mFrameRateLevel;
+    private int mAnalysisLevel;
+    // steps down not yet taken back, latest last
+    private final ArrayDeque<GovernorEvent.Action> mSteps = new ArrayDeque<>();
+    private final ArrayDeque<GovernorEvent> mEvents = new ArrayDeque<>();
+    private int mEventCount;
+
+    private long[] mIntervals = new long[64];
+    private int mIntervalCount;
+    private long mWindowStart = -1;
+    private long mLastTimestamp = -1;
+    private long mWindowDroppedStart;
+    private long mLastDropped;
+
+    private int mPressureWindows;
+    private boolean mBacklogPressure;
+    private int mHealthyWindows;
+    private int mSettleWindows;
+    private int mStepUpWindows;
+    private int mWindowsSinceStepUp = Integer.MAX_VALUE;
+
+    /**
+     * @param frameRates    frame rate ranges to step through, fastest first
+     * @param analysisSizes analysis resolutions to step through, largest first; empty
+     *                      without an analysis stream
+     */
+    public PerformanceGovernor(List<FrameRateRange> frameRates, List<StreamSize> analysisSizes, GovernorConfig config) {
+        if (frameRates.isEmpty()) {
+            throw new IllegalArgumentException("need at least one frame rate range");
+        }
+        mFrameRates = new ArrayList<>(frameRates);
+        mAnalysisSizes = new ArrayList<>(analysisSizes);
+        mConfig = config;
+        mStepUpWindows = config.getStepUpWindows();
+    }
+
+    public void setListener(GovernorListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Reports a preview frame.
+     *
+     * @param timestampNanos  sensor timestamp of the frame
+     * @param analysisDropped analysis frames dropped so far, as counted by the dispatcher
+     */
+    public void onFrame(long timestampNanos, long analysisDropped) {
+        if (mLastTimestamp < 0 || timestampNanos - mLastTimestamp > mConfig.getWindowNanos()
+                || timestampNanos <= mLastTimestamp) {
+            // first frame, or after a gap such as a new session: nothing to judge across it
+            startWindow(timestampNanos, analysisDropped);
+            return;
+        }
+        if (mIntervalCount == mIntervals.length) {
+            mIntervals = Arrays.copyOf(mIntervals, mIntervals.length * 2);
+        }
+        mIntervals[mIntervalCount++] = timestampNanos - mLastTimestamp;
+        mLastTimestamp = timestampNanos;
+        mLastDropped = analysisDropped;
+        if (timestampNanos - mWindowStart >= mConfig.getWindowNanos()) {
+            endWindow(timestampNanos);
+            startWindow(timestampNanos, analysisDropped);
+        }
+    }
+
+    /**
+     * Forgets the current window, e.g. when the session is replaced. The settings stay.
+     */
+    public void reset() {
+        mLastTimestamp = -1;
+        mIntervalCount = 0;
+    }
+
+    public FrameRateRange getFrameRateRange() {
+        return mFrameRates.get(mFrameRateLevel);
+    }
+
+    /**
+     * @return null without an analysis stream
+     */
+    public StreamSize getAnalysisSize() {
+        return mAnalysisSizes.isEmpty() ? null : mAnalysisSizes.get(mAnalysisLevel);
+    }
+
+    public List<FrameRateRange> getFrameRates() {
+        return Collections.unmodifiableList(mFrameRates);
+    }
+
+    public List<StreamSize> getAnalysisSizes() {
+        return Collections.unmodifiableList(mAnalysisSizes);
+    }
+
+    /**
+     * The latest events, oldest first.
+     */
+    public List<GovernorEvent> getEvents() {
+        synchronized (mEvents) {
+            return new ArrayList<>(mEvents);
+        }
+    }
+
+    public int getEventCount() {
+        synchronized (mEvents) {
+            return mEventCount;
+        }
+    }
+
+    /**
+     * Windows without pressure a step up currently needs.
+     */
+    public int getStepUpWindows() {
+        return mStepUpWindows;
+    }
+
+    private void startWindow(long timestampNanos, long analysisDropped) {
+        mWindowStart = timestampNanos;
+        mLastTimestamp = timestampNanos;
+        mWindowDroppedStart = analysisDropped;
+        mLastDropped = analysisDropped;
+        mIntervalCount = 0;
+    }
+
+    private void endWindow(long timestampNanos) {
+        if (mIntervalCount < MIN_INTERVALS) return;
+        final FrameWindow window = measure(timestampNanos - mWindowStart);
+        if (mWindowsSinceStepUp < Integer.MAX_VALUE) {
+            mWindowsSinceStepUp++;
+        }
+        if (mSettleWindows > 0) {
+            mSettleWindows--;
+            return;
+        }
+        final boolean analysis = !mAnalysisSizes.isEmpty();
+        final boolean slow = window.getFps() < getFrameRateRange().getMin() * mConfig.getMinFpsFraction();
+        final boolean uneven = slow || window.getJankFraction() > mConfig.getStepDownJankFraction();
+        final boolean backlog = analysis && window.getBacklogFraction() > mConfig.getStepDownBacklogFraction();
+        if (uneven || backlog) {
+            mHealthyWindows = 0;
+            // backlog in any of the windows points at the analyzer
+            mBacklogPressure = (mPressureWindows > 0 && mBacklogPressure) || backlog;
+            if (++mPressureWindows >= mConfig.getStepDownWindows()) {
+                stepDown(timestampNanos, mBacklogPressure, window);
+                mPressureWindows = 0;
+                mBacklogPressure = false;
+            }
+        } else if (window.getJankFraction() <= mConfig.getStepUpJankFraction()
+                && (!analysis || window.getBacklogFraction() <= mConfig.getStepUpBacklogFraction())) {
+            mPressureWindows = 0;
+            if (!mSteps.isEmpty() && ++mHealthyWindows >= mStepUpWindows) {
+                stepUp(timestampNanos, window);
+                mHealthyWindows = 0;
+            }
+        } else {
+            // neither bad enough to step down nor good enough to count towards a step up
+            mPressureWindows = 0;
+            mHealthyWindows = 0;
+        }
+    }
+
+    private FrameWindow measure(long durationNanos) {
+        final long[] sorted = Arrays.copyOf(mIntervals, mIntervalCount);
+        Arrays.sort(sorted);
+        final long median = sorted[mIntervalCount / 2];
+        final long jankThreshold = (long) (median * mConfig.getJankFactor());
+        int jank = 0;
+        for (int i = mIntervalCount - 1; i >= 0 && sorted[i] > jankThreshold; i--) {
+            jank++;
+        }
+        return new FrameWindow(durationNanos, mIntervalCount, median, (float) jank / mIntervalCount,
+                (float) (mLastDropped - mWindowDroppedStart) / mIntervalCount);
+    }
+
+    private void stepDown(long timestampNanos, boolean backlog, FrameWindow window) {
+        final boolean canLowerAnalysis = mAnalysisLevel < mAnalysisSizes.size() - 1;
+        final boolean canLowerFrameRate = mFrameRateLevel < mFrameRates.size() - 1;
+        final GovernorEvent.Action action;
+        if (canLowerAnalysis && (backlog || !canLowerFrameRate)) {
+            mAnalysisLevel++;
+            action = GovernorEvent.Action.ANALYSIS_SIZE_DOWN;
+        } else if (canLowerFrameRate) {
+            mFrameRateLevel++;
+            action = GovernorEvent.Action.FRAME_RATE_DOWN;
+        } else {
+            // already at the lowest settings
+            return;
+        }
+        if (mWindowsSinceStepUp <= mStepUpWindows) {
+            // the last step up did not hold, wait longer before the next one
+            mStepUpWindows = Math.min(mStepUpWindows * 2, mConfig.getMaxStepUpWindows());
+        }
+        mSteps.addLast(action);
+        notify(timestampNanos, action, backlog ? GovernorEvent.Reason.ANALYSIS_BACKLOG
+                : GovernorEvent.Reason.FRAME_INTERVALS, window);
+    }
+
+    private void stepUp(long timestampNanos, FrameWindow window) {
+        final GovernorEvent.Action down = mSteps.removeLast();
+        final GovernorEvent.Action action;
+        if (down == GovernorEvent.Action.ANALYSIS_SIZE_DOWN) {
+            mAnalysisLevel--;
+            action = GovernorEvent.Action.ANALYSIS_SIZE_UP;
+        } else {
+            mFrameRateLevel--;
+            action = GovernorEvent.Action.FRAME_RATE_UP;
+        }
+        mWindowsSinceStepUp = 0;
+        if (mSteps.isEmpty()) {
+            mStepUpWindows = mConfig.getStepUpWindows();
+        }
+        notify(timestampNanos, action, GovernorEvent.Reason.RECOVERED, window);
+    }
+
+    private void notify(long timestampNanos, GovernorEvent.Action action, GovernorEvent.Reason reason,
+                        FrameWindow window) {
+        final GovernorEvent event = new GovernorEvent(timestampNanos, action, reason, getFrameRateRange(),
+                getAnalysisSize(), window);
+        mSettleWindows = mConfig.getSettleWindows();
+        mHealthyWindows = 0;
+        synchronized (mEvents) {
+            mEventCount++;
+            if (mEvents.size() == MAX_EVENTS) {
+                mEvents.removeFirst();
+            }
+            mEvents.addLast(event);
+        }
+        final GovernorListener listener = mListener;
+        if (listener != null) {
+            listener.onGovernorEvent(event);
+        }
+    }
+}
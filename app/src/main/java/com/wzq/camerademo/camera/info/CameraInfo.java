@@ -0,0 +1,224 @@
+package com.wzq.camerademo.camera.info;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The parts of {@code CameraCharacteristics} the app needs to configure a camera, in a
+ * form that can be kept on disk and used without asking the camera service.
+ */
+public final class CameraInfo {
+    // same values as CameraCharacteristics.LENS_FACING_*
+    public static final int LENS_FACING_FRONT = 0;
+    public static final int LENS_FACING_BACK = 1;
+    public static final int LENS_FACING_EXTERNAL = 2;
+
+    // same values as ImageFormat; FORMAT_PREVIEW holds the SurfaceTexture output sizes
+    public static final int FORMAT_JPEG = 0x100;
+    public static final int FORMAT_YUV_420_888 = 0x23;
+    public static final int FORMAT_PREVIEW = 0x22;
+
+    // same values as CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_*
+    public static final int CAPABILITY_PRIVATE_REPROCESSING = 4;
+    public static final int CAPABILITY_YUV_REPROCESSING = 7;
+
+    // same values as CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_*
+    public static final int TIMESTAMP_SOURCE_UNKNOWN = 0;
+    public static final int TIMESTAMP_SOURCE_REALTIME = 1;
+
+    private final String mId;
+    private final int mLensFacing;
+    private final int mSensorOrientation;
+    private final int mHardwareLevel;
+    private final Map<Integer, StreamSize[]> mOutputSizes;
+    private final String[] mPhysicalCameraIds;
+    private final int[] mCapabilities;
+    private final int mTimestampSource;
+    private final int[][] mFpsRanges;
+
+    public CameraInfo(String id, int lensFacing, int sensorOrientation, int hardwareLevel,
+                      Map<Integer, StreamSize[]> outputSizes) {
+        this(id, lensFacing, sensorOrientation, hardwareLevel, outputSizes, new String[0]);
+    }
+
+    /**
+     * @param physicalCameraIds the cameras behind a logical multi-camera, empty for any
+     *                          other camera
+     */
+    public CameraInfo(String id, int lensFacing, int sensorOrientation, int hardwareLevel,
+                      Map<Integer, StreamSize[]> outputSizes, String[] physicalCameraIds) {
+        this(id, lensFacing, sensorOrientation, hardwareLevel, outputSizes, physicalCameraIds, new int[0],
+                TIMESTAMP_SOURCE_UNKNOWN);
+    }
+
+    /**
+     * @param capabilities    {@code REQUEST_AVAILABLE_CAPABILITIES}
+     * @param timestampSource {@code SENSOR_INFO_TIMESTAMP_SOURCE}
+     */
+    public CameraInfo(String id, int lensFacing, int sensorOrientation, int hardwareLevel,
+                      Map<Integer, StreamSize[]> outputSizes, String[] physicalCameraIds, int[] capabilities,
+                      int timestampSource) {
+        this(id, lensFacing, sensorOrientation, hardwareLevel, outputSizes, physicalCameraIds, capabilities,
+                timestampSource, new int[0][]);
+    }
+
+    /**
+     * @param fpsRanges {@code CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES} as {min, max} pairs
+     */
+    public CameraInfo(String id, int lensFacing, int sensorOrientation, int hardwareLevel,
+                      Map<Integer, StreamSize[]> outputSizes, String[] physicalCameraIds, int[] capabilities,
+                      int timestampSource, int[][] fpsRanges) {
+        mId = id;
+        mLensFacing = lensFacing;
+        mSensorOrientation = sensorOrientation;
+        mHardwareLevel = hardwareLevel;
+        mOutputSizes = Collections.unmodifiableMap(new TreeMap<>(outputSizes));
+        mPhysicalCameraIds = physicalCameraIds.clone();
+        mCapabilities = capabilities.clone();
+        mTimestampSource = timestampSource;
+        mFpsRanges = copyOf(fpsRanges);
+    }
+
+    private static int[][] copyOf(int[][] ranges) {
+        final int[][] copy = new int[ranges.length][];
+        for (int i = 0; i < ranges.length; i++) {
+            copy[i] = new int[]{ranges[i][0], ranges[i][1]};
+        }
+        return copy;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public int getLensFacing() {
+        return mLensFacing;
+    }
+
+    public int getSensorOrientation() {
+        return mSensorOrientation;
+    }
+
+    /**
+     * {@code INFO_SUPPORTED_HARDWARE_LEVEL}.
+     */
+    public int getHardwareLevel() {
+        return mHardwareLevel;
+    }
+
+    /**
+     * Output sizes for one of the {@code FORMAT_*} constants, empty if the format is not
+     * supported.
+     */
+    public StreamSize[] getOutputSizes(int format) {
+        final StreamSize[] sizes = mOutputSizes.get(format);
+        return sizes == null ? new StreamSize[0] : sizes.clone();
+    }
+
+    /**
+     * Ids of the cameras a logical multi-camera is made of, e.g. the wide and tele lenses
+     * behind one back camera; empty for any other camera.
+     */
+    public String[] getPhysicalCameraIds() {
+        return mPhysicalCameraIds.clone();
+    }
+
+    public boolean isLogicalMultiCamera() {
+        return mPhysicalCameraIds.length > 0;
+    }
+
+    public int[] getCapabilities() {
+        return mCapabilities.clone();
+    }
+
+    public boolean hasCapability(int capability) {
+        for (int c : mCapabilities) {
+            if (c == capability) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether the camera takes {@code TEMPLATE_ZERO_SHUTTER_LAG} requests, which it only
+     * does with one of the reprocessing capabilities.
+     */
+    public boolean supportsZslTemplate() {
+        return hasCapability(CAPABILITY_PRIVATE_REPROCESSING) || hasCapability(CAPABILITY_YUV_REPROCESSING);
+    }
+
+    /**
+     * {@link #TIMESTAMP_SOURCE_REALTIME} if sensor timestamps are on the clock of
+     * {@code SystemClock.elapsedRealtimeNanos()}, otherwise they are roughly on the monotonic
+     * one of {@code System.nanoTime()}.
+     */
+    public int getTimestampSource() {
+        return mTimestampSource;
+    }
+
+    /**
+     * The auto exposure target frame rate ranges as {min, max} pairs, empty if unknown.
+     */
+    public int[][] getFpsRanges() {
+        return copyOf(mFpsRanges);
+    }
+
+    /**
+     * Whether this camera streams from {@code other}'s sensor or one of its sensors, so the
+     * two cannot be open at the same time.
+     */
+    public boolean sharesSensorWith(CameraInfo other) {
+        if (mId.equals(other.mId)) return true;
+        final List<String> physical = Arrays.asList(mPhysicalCameraIds);
+        if (physical.contains(other.mId)) return true;
+        for (String id : other.mPhysicalCameraIds) {
+            if (id.equals(mId) || physical.contains(id)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Formats with at least one output size, ascending.
+     */
+    public int[] getOutputFormats() {
+        final int[] formats = new int[mOutputSizes.size()];
+        int i = 0;
+        for (Integer format : mOutputSizes.keySet()) {
+            formats[i++] = format;
+        }
+        return formats;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CameraInfo)) return false;
+        final CameraInfo other = (CameraInfo) o;
+        if (!mId.equals(other.mId) || mLensFacing != other.mLensFacing
+                || mSensorOrientation != other.mSensorOrientation || mHardwareLevel != other.mHardwareLevel
+                || !mOutputSizes.keySet().equals(other.mOutputSizes.keySet())
+                || !Arrays.equals(mPhysicalCameraIds, other.mPhysicalCameraIds)
+                || !Arrays.equals(mCapabilities, other.mCapabilities) || mTimestampSource != other.mTimestampSource
+                || !Arrays.deepEquals(mFpsRanges, other.mFpsRanges)) {
+            return false;
+        }
+        for (Map.Entry<Integer, StreamSize[]> entry : mOutputSizes.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), other.mOutputSizes.get(entry.getKey()))) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return (mId.hashCode() * 31 + mLensFacing) * 31 + mSensorOrientation;
+    }
+
+    @Override
+    public String toString() {
+        return "CameraInfo{id=" + mId + ", facing=" + mLensFacing + ", orientation=" + mSensorOrientation
+                + ", level=" + mHardwareLevel + ", formats=" + mOutputSizes.keySet()
+                + (mPhysicalCameraIds.length > 0 ? ", physical=" + Arrays.toString(mPhysicalCameraIds) : "") + "}";
+    }
+}
@@ -0,0 +1,283 @@
+package com.wzq.camerademo.camera.info;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the {@link CameraInfo} of every camera in a small file so that startup does not
+ * have to wait for {@code getCameraIdList()} and {@code getCameraCharacteristics()}.
+ *
+ * <p>The file is read on the first {@link #getCameras()} call. It only counts as a hit if
+ * it was written for the same build fingerprint and file version and its checksum holds;
+ * anything else is treated as a miss and the source is queried on the calling thread. After
+ * a hit the source is queried once more on the refresh executor, and the cache is updated if
+ * the cameras changed without the fingerprint changing.
+ *
+ * <p>File layout: magic, version, fingerprint, camera count, cameras, CRC32 of all before.
+ */
+public class CameraInfoCache {
+    private static final int MAGIC = 0x43414d49; // "CAMI"
+    static final int VERSION = 4;
+
+    private final File mFile;
+    private final String mFingerprint;
+    private final CameraInfoSource mSource;
+    private final Executor mRefreshExecutor;
+
+    private List<CameraInfo> mCameras;
+    private boolean mCacheHit;
+    private int mSourceQueryCount;
+    private boolean mRefreshScheduled;
+
+    /**
+     * @param fingerprint identifies the device build, e.g. {@code Build.FINGERPRINT}
+     * @param refreshExecutor runs the refresh after a hit; null to never refresh
+     */
+    public CameraInfoCache(File file, String fingerprint, CameraInfoSource source, Executor refreshExecutor) {
+        mFile = file;
+        mFingerprint = fingerprint;
+        mSource = source;
+        mRefreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * All cameras, from memory, from disk or from the source, in that order of preference.
+     */
+    public synchronized List<CameraInfo> getCameras() throws IOException {
+        if (mCameras != null) {
+            return mCameras;
+        }
+        final List<CameraInfo> cached = read();
+        if (cached != null) {
+            mCameras = cached;
+            mCacheHit = true;
+            scheduleRefresh();
+            return mCameras;
+        }
+        return refresh();
+    }
+
+    /**
+     * First camera facing {@code lensFacing}, or null.
+     */
+    public CameraInfo getCamera(int lensFacing) throws IOException {
+        for (CameraInfo info : getCameras()) {
+            if (info.getLensFacing() == lensFacing) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Queries the source on the calling thread and rewrites the file if anything changed.
+     */
+    public List<CameraInfo> refresh() throws IOException {
+        final List<CameraInfo> cameras = Collections.unmodifiableList(new ArrayList<>(mSource.queryCameras()));
+        synchronized (this) {
+            mSourceQueryCount++;
+            final boolean changed = !cameras.equals(mCameras);
+            mCameras = cameras;
+            if (changed) {
+                write(cameras);
+            }
+            return cameras;
+        }
+    }
+
+    private void scheduleRefresh() {
+        if (mRefreshExecutor == null || mRefreshScheduled) return;
+        mRefreshScheduled = true;
+        mRefreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Forgets the cached cameras and deletes the file.
+     */
+    public synchronized void invalidate() {
+        mCameras = null;
+        mCacheHit = false;
+        mRefreshScheduled = false;
+        mFile.delete();
+    }
+
+    /**
+     * Whether the first {@link #getCameras()} was answered from the file.
+     */
+    public synchronized boolean isCacheHit() {
+        return mCacheHit;
+    }
+
+    /**
+     * Number of times the source has been queried.
+     */
+    public synchronized int getSourceQueryCount() {
+        return mSourceQueryCount;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    private List<CameraInfo> read() {
+        if (!mFile.isFile()) return null;
+        try {
+            final byte[] bytes = readFully(mFile);
+            final int length = bytes.length - 4;
+            if (length < 0) return null;
+            final CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+            final int storedCrc = (bytes[length] & 0xff) << 24 | (bytes[length + 1] & 0xff) << 16
+                    | (bytes[length + 2] & 0xff) << 8 | (bytes[length + 3] & 0xff);
+            if (storedCrc != (int) crc.getValue()) return null;
+
+            final DataInputStream body = new DataInputStream(new ByteArrayInputStream(bytes, 0, length));
+            if (body.readInt() != MAGIC || body.readInt() != VERSION || !mFingerprint.equals(body.readUTF())) {
+                return null;
+            }
+            final int count = body.readInt();
+            final List<CameraInfo> cameras = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                cameras.add(readCamera(body));
+            }
+            return Collections.unmodifiableList(cameras);
+        } catch (EOFException e) {
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static CameraInfo readCamera(DataInputStream input) throws IOException {
+        final String id = input.readUTF();
+        final int lensFacing = input.readInt();
+        final int sensorOrientation = input.readInt();
+        final int hardwareLevel = input.readInt();
+        final int formatCount = input.readInt();
+        final Map<Integer, StreamSize[]> sizes = new TreeMap<>();
+        for (int f = 0; f < formatCount; f++) {
+            final int format = input.readInt();
+            final StreamSize[] formatSizes = new StreamSize[input.readInt()];
+            for (int s = 0; s < formatSizes.length; s++) {
+                formatSizes[s] = new StreamSize(input.readInt(), input.readInt(), input.readLong(), input.readLong());
+            }
+            sizes.put(format, formatSizes);
+        }
+        final String[] physicalIds = new String[input.readInt()];
+        for (int i = 0; i < physicalIds.length; i++) {
+            physicalIds[i] = input.readUTF();
+        }
+        final int[] capabilities = new int[input.readInt()];
+        for (int i = 0; i < capabilities.length; i++) {
+            capabilities[i] = input.readInt();
+        }
+        final int timestampSource = input.readInt();
+        final int[][] fpsRanges = new int[input.readInt()][];
+        for (int i = 0; i < fpsRanges.length; i++) {
+            fpsRanges[i] = new int[]{input.readInt(), input.readInt()};
+        }
+        return new CameraInfo(id, lensFacing, sensorOrientation, hardwareLevel, sizes, physicalIds, capabilities,
+                timestampSource, fpsRanges);
+    }
+
+    private void write(List<CameraInfo> cameras) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeUTF(mFingerprint);
+        output.writeInt(cameras.size());
+        for (CameraInfo info : cameras) {
+            output.writeUTF(info.getId());
+            output.writeInt(info.getLensFacing());
+            output.writeInt(info.getSensorOrientation());
+            output.writeInt(info.getHardwareLevel());
+            final int[] formats = info.getOutputFormats();
+            output.writeInt(formats.length);
+            for (int format : formats) {
+                final StreamSize[] sizes = info.getOutputSizes(format);
+                output.writeInt(format);
+                output.writeInt(sizes.length);
+                for (StreamSize size : sizes) {
+                    output.writeInt(size.getWidth());
+                    output.writeInt(size.getHeight());
+                    output.writeLong(size.getMinFrameDurationNanos());
+                    output.writeLong(size.getStallDurationNanos());
+                }
+            }
+            final String[] physicalIds = info.getPhysicalCameraIds();
+            output.writeInt(physicalIds.length);
+            for (String physicalId : physicalIds) {
+                output.writeUTF(physicalId);
+            }
+            final int[] capabilities = info.getCapabilities();
+            output.writeInt(capabilities.length);
+            for (int capability : capabilities) {
+                output.writeInt(capability);
+            }
+            output.writeInt(info.getTimestampSource());
+            final int[][] fpsRanges = info.getFpsRanges();
+            output.writeInt(fpsRanges.length);
+            for (int[] range : fpsRanges) {
+                output.writeInt(range[0]);
+                output.writeInt(range[1]);
+            }
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        output.writeInt((int) crc.getValue());
+
+        // write to a temp file and rename, so a crash never leaves a half written cache
+        final File temp = new File(mFile.getPath() + ".tmp");
+        final FileOutputStream outputStream = new FileOutputStream(temp);
+        try {
+            bytes.writeTo(outputStream);
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("cannot rename " + temp + " to " + mFile);
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        final FileInputStream inputStream = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
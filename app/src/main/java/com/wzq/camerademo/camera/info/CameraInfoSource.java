@@ -0,0 +1,12 @@
+package com.wzq.camerademo.camera.info;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where {@link CameraInfoCache} gets camera descriptions from when it has none cached,
+ * normally the camera service.
+ */
+public interface CameraInfoSource {
+    List<CameraInfo> queryCameras() throws IOException;
+}
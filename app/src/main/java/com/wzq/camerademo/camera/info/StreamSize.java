@@ -0,0 +1,70 @@
+package com.wzq.camerademo.camera.info;
+
+/**
+ * One output size of a stream configuration, with the minimum frame and stall durations the
+ * camera reports for it.
+ */
+public final class StreamSize {
+    private final int mWidth;
+    private final int mHeight;
+    private final long mMinFrameDurationNanos;
+    private final long mStallDurationNanos;
+
+    public StreamSize(int width, int height, long minFrameDurationNanos) {
+        this(width, height, minFrameDurationNanos, 0);
+    }
+
+    public StreamSize(int width, int height, long minFrameDurationNanos, long stallDurationNanos) {
+        mWidth = width;
+        mHeight = height;
+        mMinFrameDurationNanos = minFrameDurationNanos;
+        mStallDurationNanos = stallDurationNanos;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public long getArea() {
+        return (long) mWidth * mHeight;
+    }
+
+    /**
+     * 0 if the camera does not report one.
+     */
+    public long getMinFrameDurationNanos() {
+        return mMinFrameDurationNanos;
+    }
+
+    /**
+     * How long a request targeting this output holds up the requests after it, e.g. while
+     * the JPEG encoder runs; 0 if it does not.
+     */
+    public long getStallDurationNanos() {
+        return mStallDurationNanos;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StreamSize)) return false;
+        final StreamSize other = (StreamSize) o;
+        return mWidth == other.mWidth && mHeight == other.mHeight
+                && mMinFrameDurationNanos == other.mMinFrameDurationNanos
+                && mStallDurationNanos == other.mStallDurationNanos;
+    }
+
+    @Override
+    public int hashCode() {
+        return (mWidth * 31 + mHeight) * 31 + (int) (mMinFrameDurationNanos ^ (mMinFrameDurationNanos >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return mWidth + "x" + mHeight;
+    }
+}
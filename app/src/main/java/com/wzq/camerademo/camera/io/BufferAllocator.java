@@ -0,0 +1,19 @@
+package com.wzq.camerademo.camera.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of the off-heap memory behind a {@link DirectBufferPool}.
+ */
+public interface BufferAllocator {
+    /**
+     * A direct buffer of exactly {@code capacity} bytes.
+     */
+    ByteBuffer allocate(int capacity);
+
+    /**
+     * Gives back the memory of a buffer from {@link #allocate(int)}. Neither the buffer nor
+     * any view of it may be used afterwards.
+     */
+    void free(ByteBuffer buffer);
+}
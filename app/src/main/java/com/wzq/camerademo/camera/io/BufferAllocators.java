@@ -0,0 +1,65 @@
+package com.wzq.camerademo.camera.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Picks where pooled buffers are allocated.
+ */
+public final class BufferAllocators {
+    /**
+     * {@link ByteBuffer#allocateDirect(int)}; the memory goes back when the garbage
+     * collector finds the buffer unreachable.
+     */
+    public static final BufferAllocator DIRECT = new BufferAllocator() {
+        @Override
+        public ByteBuffer allocate(int capacity) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+
+        @Override
+        public void free(ByteBuffer buffer) {
+        }
+    };
+
+    private static BufferAllocator sDefault;
+
+    private BufferAllocators() {
+    }
+
+    /**
+     * The native allocator if {@code native-lib} loads, otherwise {@link #DIRECT}.
+     */
+    public static synchronized BufferAllocator getDefault() {
+        if (sDefault == null) {
+            sDefault = NativeBufferAllocator.isAvailable() ? new NativeBufferAllocator() : DIRECT;
+        }
+        return sDefault;
+    }
+
+    /**
+     * An allocator that becomes {@link #getDefault()} on its first use rather than now, so
+     * creating a pool does not wait for {@code native-lib} to load.
+     */
+    public static BufferAllocator deferredDefault() {
+        return new BufferAllocator() {
+            private BufferAllocator mAllocator;
+
+            private synchronized BufferAllocator allocator() {
+                if (mAllocator == null) {
+                    mAllocator = getDefault();
+                }
+                return mAllocator;
+            }
+
+            @Override
+            public ByteBuffer allocate(int capacity) {
+                return allocator().allocate(capacity);
+            }
+
+            @Override
+            public void free(ByteBuffer buffer) {
+                allocator().free(buffer);
+            }
+        };
+    }
+}
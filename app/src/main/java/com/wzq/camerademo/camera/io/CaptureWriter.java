@@ -0,0 +1,18 @@
+package com.wzq.camerademo.camera.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination for encoded captures. Implementations are called from I/O threads and may
+ * block for as long as the underlying storage needs.
+ */
+public interface CaptureWriter {
+
+    /**
+     * Persists the remaining bytes of {@code data} under {@code name}.
+     *
+     * @return number of bytes written
+     */
+    long write(String name, ByteBuffer data) throws IOException;
+}
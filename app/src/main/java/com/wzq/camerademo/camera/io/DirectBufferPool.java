@@ -0,0 +1,189 @@
+package com.wzq.camerademo.camera.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+
+/**
+ * Pool of direct {@link ByteBuffer}s bucketed by power-of-two capacity, so that a
+ * burst of same-sized frames reuses the same off-heap memory instead of allocating
+ * a fresh buffer per frame.
+ *
+ * <p>Buffers are reference counted: whoever gets one from {@link #acquire(int)} holds the
+ * first reference, every stage it is shared with takes another with {@link #retain(ByteBuffer)},
+ * and the buffer goes back to the pool once each of them has called
+ * {@link #release(ByteBuffer)}. Stages share the memory, not copies of it, and read it
+ * through their own {@link ByteBuffer#duplicate()}.
+ *
+ * <p>A holder that passes a buffer on while still using it, e.g. to a
+ * {@code CaptureDataListener} or {@code UploadEngine.add(String, ByteBuffer)}, retains it
+ * first. With a {@link NativeBufferAllocator} a buffer is freed for real once it drops out
+ * of the pool, so a release too many would let the memory go while someone still reads it;
+ * releases that do not match a reference throw instead.
+ */
+public class DirectBufferPool {
+    private final static int MIN_SIZE_CLASS = 12; // 4 KiB
+    private final static int MAX_SIZE_CLASS = 30; // 1 GiB
+
+    private final ArrayDeque<ByteBuffer>[] mFreeLists;
+    private final int mMaxBuffersPerClass;
+    private final BufferAllocator mAllocator;
+    // handed out and not released yet, with their reference counts
+    private final IdentityHashMap<ByteBuffer, int[]> mOutstanding = new IdentityHashMap<>();
+
+    private long mAllocations;
+    private long mHits;
+    private long mAllocatedBytes;
+    private long mPooledBytes;
+    private long mOutstandingBytes;
+    private long mPeakBytes;
+
+    public DirectBufferPool() {
+        this(4);
+    }
+
+    public DirectBufferPool(int maxBuffersPerClass) {
+        this(maxBuffersPerClass, BufferAllocators.DIRECT);
+    }
+
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool(int maxBuffersPerClass, BufferAllocator allocator) {
+        if (maxBuffersPerClass <= 0) {
+            throw new IllegalArgumentException("maxBuffersPerClass must be positive");
+        }
+        mMaxBuffersPerClass = maxBuffersPerClass;
+        mAllocator = allocator;
+        mFreeLists = new ArrayDeque[MAX_SIZE_CLASS + 1];
+        for (int i = MIN_SIZE_CLASS; i <= MAX_SIZE_CLASS; i++) {
+            mFreeLists[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Returns a cleared direct buffer whose limit is {@code size}, holding one reference.
+     * The capacity may be larger.
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        final int sizeClass = sizeClass(size);
+        ByteBuffer buffer = mFreeLists[sizeClass].pollFirst();
+        if (buffer != null) {
+            mHits++;
+            mPooledBytes -= buffer.capacity();
+        } else {
+            buffer = mAllocator.allocate(1 << sizeClass);
+            mAllocations++;
+            mAllocatedBytes += buffer.capacity();
+        }
+        mOutstanding.put(buffer, new int[] {1});
+        mOutstandingBytes += buffer.capacity();
+        mPeakBytes = Math.max(mPeakBytes, mPooledBytes + mOutstandingBytes);
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Takes another reference to a buffer from {@link #acquire(int)}, for a stage that
+     * reads it after the current holder has released it.
+     */
+    public synchronized void retain(ByteBuffer buffer) {
+        final int[] references = mOutstanding.get(buffer);
+        if (references == null) {
+            throw new IllegalArgumentException("buffer is not outstanding");
+        }
+        references[0]++;
+    }
+
+    /**
+     * Drops a reference to a buffer obtained from {@link #acquire(int)}; the last one hands
+     * it back to the pool. Buffers that overflow the per-class limit are freed.
+     *
+     * @throws IllegalArgumentException if the buffer did not come from this pool or all its
+     *                                  references have been released already
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        final int[] references = mOutstanding.get(buffer);
+        if (references == null) {
+            throw new IllegalArgumentException("buffer is not outstanding: " + buffer);
+        }
+        if (--references[0] > 0) return;
+        mOutstanding.remove(buffer);
+        mOutstandingBytes -= buffer.capacity();
+        final ArrayDeque<ByteBuffer> freeList = mFreeLists[Integer.numberOfTrailingZeros(buffer.capacity())];
+        if (freeList.size() < mMaxBuffersPerClass) {
+            freeList.offerFirst(buffer);
+            mPooledBytes += buffer.capacity();
+        } else {
+            mAllocator.free(buffer);
+        }
+    }
+
+    /**
+     * Frees the pooled buffers. Outstanding ones are freed when they are released.
+     */
+    public synchronized void clear() {
+        for (int i = MIN_SIZE_CLASS; i <= MAX_SIZE_CLASS; i++) {
+            ByteBuffer buffer;
+            while ((buffer = mFreeLists[i].pollFirst()) != null) {
+                mAllocator.free(buffer);
+            }
+        }
+        mPooledBytes = 0;
+    }
+
+    public synchronized long getAllocationCount() {
+        return mAllocations;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * Share of {@link #acquire(int)} calls served from the pool.
+     */
+    public synchronized float getHitRate() {
+        final long acquires = mHits + mAllocations;
+        return acquires == 0 ? 0 : (float) mHits / acquires;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    public synchronized int getOutstandingCount() {
+        return mOutstanding.size();
+    }
+
+    public synchronized long getOutstandingBytes() {
+        return mOutstandingBytes;
+    }
+
+    /**
+     * Memory held by the pool right now, outstanding and pooled.
+     */
+    public synchronized long getLiveBytes() {
+        return mOutstandingBytes + mPooledBytes;
+    }
+
+    public synchronized long getPeakBytes() {
+        return mPeakBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DirectBufferPool{hit rate " + Math.round(getHitRate() * 100) + "%, outstanding "
+                + mOutstanding.size() + ", live " + (getLiveBytes() >> 10) + "K, peak " + (mPeakBytes >> 10) + "K}";
+    }
+
+    static int sizeClass(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("negative size " + size);
+        }
+        if (size > (1 << MAX_SIZE_CLASS)) {
+            throw new IllegalArgumentException("size too large " + size);
+        }
+        final int sizeClass = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+        return Math.max(MIN_SIZE_CLASS, sizeClass);
+    }
+}
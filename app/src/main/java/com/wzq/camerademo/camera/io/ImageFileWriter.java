@@ -0,0 +1,67 @@
+package com.wzq.camerademo.camera.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes encoded image bytes to disk through a {@link FileChannel}. A direct plane
+ * buffer (as handed out by {@code Image.Plane#getBuffer()}) is passed to the kernel
+ * as-is, so no heap copy of the frame is made.
+ */
+public class ImageFileWriter {
+    private final DirectBufferPool mBufferPool;
+
+    public ImageFileWriter() {
+        this(new DirectBufferPool());
+    }
+
+    public ImageFileWriter(DirectBufferPool bufferPool) {
+        mBufferPool = bufferPool;
+    }
+
+    /**
+     * Writes the remaining bytes of {@code buffer} to {@code file}, replacing its contents.
+     * The buffer position is advanced to its limit.
+     *
+     * @return number of bytes written
+     */
+    public long write(ByteBuffer buffer, File file) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            return write(buffer, outputStream.getChannel());
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    public long write(ByteBuffer buffer, FileChannel channel) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        return written;
+    }
+
+    /**
+     * Copies the remaining bytes of {@code source} into a pooled direct buffer, for callers
+     * that must give the source back (e.g. close an {@code Image}) before the write happens.
+     * The returned buffer is flipped and must be handed back with {@link #recycle(ByteBuffer)}.
+     */
+    public ByteBuffer copy(ByteBuffer source) {
+        final ByteBuffer copy = mBufferPool.acquire(source.remaining());
+        copy.put(source.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    public void recycle(ByteBuffer buffer) {
+        mBufferPool.release(buffer);
+    }
+
+    public DirectBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+}
@@ -0,0 +1,48 @@
+package com.wzq.camerademo.camera.io;
+
+/**
+ * Running count/mean/max of a latency, cheap enough to update on every write.
+ */
+public class LatencyStats {
+    private long mCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+    private long mLastNanos;
+
+    public synchronized void record(long nanos) {
+        mCount++;
+        mTotalNanos += nanos;
+        mLastNanos = nanos;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getMeanNanos() {
+        return mCount == 0 ? 0 : mTotalNanos / mCount;
+    }
+
+    public synchronized long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    public synchronized long getLastNanos() {
+        return mLastNanos;
+    }
+
+    public synchronized void reset() {
+        mCount = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+        mLastNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "n=" + mCount + " mean=" + getMeanNanos() / 1000 + "us max=" + mMaxNanos / 1000 + "us";
+    }
+}
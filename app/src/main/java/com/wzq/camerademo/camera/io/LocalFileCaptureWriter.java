@@ -0,0 +1,38 @@
+package com.wzq.camerademo.camera.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link CaptureWriter} that stores each capture as a file in a local directory.
+ */
+public class LocalFileCaptureWriter implements CaptureWriter {
+    private final File mDirectory;
+    private final ImageFileWriter mFileWriter;
+
+    public LocalFileCaptureWriter(File directory) {
+        this(directory, new ImageFileWriter());
+    }
+
+    public LocalFileCaptureWriter(File directory, ImageFileWriter fileWriter) {
+        mDirectory = directory;
+        mFileWriter = fileWriter;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public File fileFor(String name) {
+        return new File(mDirectory, name);
+    }
+
+    @Override
+    public long write(String name, ByteBuffer data) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs() && !mDirectory.isDirectory()) {
+            throw new IOException("cannot create " + mDirectory);
+        }
+        return mFileWriter.write(data, fileFor(name));
+    }
+}
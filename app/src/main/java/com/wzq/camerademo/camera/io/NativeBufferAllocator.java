@@ -0,0 +1,78 @@
+package com.wzq.camerademo.camera.io;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * {@link BufferAllocator} backed by {@code native-lib}. The memory is malloc'ed and freed
+ * explicitly, so it never counts against the Java heap and is back the moment the pool lets
+ * go of it instead of whenever the garbage collector gets to the buffer.
+ */
+public class NativeBufferAllocator implements BufferAllocator {
+    private static final boolean sAvailable = loadLibrary();
+
+    // freeing anything else, e.g. a slice, would corrupt the native heap
+    private final Set<ByteBuffer> mLive = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+
+    private static boolean loadLibrary() {
+        try {
+            System.loadLibrary("native-lib");
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return sAvailable;
+    }
+
+    public NativeBufferAllocator() {
+        if (!sAvailable) {
+            throw new UnsupportedOperationException("native-lib is not available");
+        }
+    }
+
+    @Override
+    public ByteBuffer allocate(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        final ByteBuffer buffer = nativeAllocate(capacity);
+        synchronized (mLive) {
+            mLive.add(buffer);
+        }
+        return buffer;
+    }
+
+    @Override
+    public void free(ByteBuffer buffer) {
+        synchronized (mLive) {
+            if (!mLive.remove(buffer)) {
+                throw new IllegalArgumentException("not allocated here or already freed");
+            }
+        }
+        nativeFree(buffer);
+    }
+
+    public int getLiveCount() {
+        synchronized (mLive) {
+            return mLive.size();
+        }
+    }
+
+    /**
+     * Bytes allocated and not yet freed, by every allocator in the process.
+     */
+    public static long getNativeBytes() {
+        return sAvailable ? nativeAllocatedBytes() : 0;
+    }
+
+    private static native ByteBuffer nativeAllocate(int capacity);
+
+    private static native void nativeFree(ByteBuffer buffer);
+
+    private static native long nativeAllocatedBytes();
+}
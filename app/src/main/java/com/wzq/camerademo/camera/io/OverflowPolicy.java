@@ -0,0 +1,20 @@
+package com.wzq.camerademo.camera.io;
+
+/**
+ * What {@link PersistenceQueue#submit} does when every slot of the queue is taken.
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait on the submitting thread until a slot frees up.
+     */
+    BLOCK,
+    /**
+     * Reject the capture right away and report it as dropped.
+     */
+    DROP,
+    /**
+     * Write the capture synchronously to the spill writer (e.g. fast internal storage)
+     * on the submitting thread instead of waiting behind the primary writer.
+     */
+    SPILL
+}
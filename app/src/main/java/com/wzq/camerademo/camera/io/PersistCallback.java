@@ -0,0 +1,10 @@
+package com.wzq.camerademo.camera.io;
+
+public interface PersistCallback {
+
+    /**
+     * Called once per submitted capture, from an I/O thread or, for dropped and spilled
+     * captures, from the submitting thread.
+     */
+    void onPersistCompleted(PersistResult result);
+}
@@ -0,0 +1,65 @@
+package com.wzq.camerademo.camera.io;
+
+public class PersistResult {
+    public enum Status {
+        WRITTEN,
+        SPILLED,
+        DROPPED,
+        FAILED
+    }
+
+    private final String mName;
+    private final Status mStatus;
+    private final long mBytes;
+    private final long mQueueNanos;
+    private final long mWriteNanos;
+    private final Throwable mError;
+
+    PersistResult(String name, Status status, long bytes, long queueNanos, long writeNanos, Throwable error) {
+        mName = name;
+        mStatus = status;
+        mBytes = bytes;
+        mQueueNanos = queueNanos;
+        mWriteNanos = writeNanos;
+        mError = error;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    public boolean isStored() {
+        return mStatus == Status.WRITTEN || mStatus == Status.SPILLED;
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Time the capture waited for an I/O thread.
+     */
+    public long getQueueNanos() {
+        return mQueueNanos;
+    }
+
+    /**
+     * Time spent inside {@link CaptureWriter#write}.
+     */
+    public long getWriteNanos() {
+        return mWriteNanos;
+    }
+
+    public Throwable getError() {
+        return mError;
+    }
+
+    @Override
+    public String toString() {
+        return mName + " " + mStatus + " " + mBytes + "B queue " + mQueueNanos / 1000 + "us write " + mWriteNanos / 1000 + "us";
+    }
+}
@@ -0,0 +1,417 @@
+package com.wzq.camerademo.camera.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Moves capture writes off the camera threads. Captures are handed over as buffers that
+ * the queue owns from then on; a fixed pool of I/O threads writes them through a
+ * {@link CaptureWriter} and gives the buffers back to the {@link DirectBufferPool}.
+ *
+ * <p>At most {@code capacity} captures are waiting or being written at any time. What
+ * happens beyond that is decided by the {@link OverflowPolicy}. Captures from several
+ * sources, e.g. two cameras streaming at once, take turns between them twice: a slot that
+ * frees up goes to the next source with someone waiting, and the I/O threads pick the next
+ * source's capture from the slots taken. Bursts written with
+ * {@link #write(String, String, ByteBuffer)} wait for slots like any other capture, so a
+ * burst from one camera cannot take the whole queue from the other.
+ */
+public class PersistenceQueue {
+    private final CaptureWriter mWriter;
+    private final CaptureWriter mSpillWriter;
+    private final DirectBufferPool mBufferPool;
+    private final OverflowPolicy mPolicy;
+    private final ThreadPoolExecutor mExecutor;
+    private final int mCapacity;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    // guarded by mLock
+    private final Map<String, ArrayDeque<Waiter>> mWaiters = new HashMap<>();
+    // sources with someone waiting for a slot, the next one to serve first
+    private final ArrayDeque<String> mTurns = new ArrayDeque<>();
+    private int mUsedSlots;
+    private int mWaiting;
+
+    private final AtomicInteger mMaxDepth = new AtomicInteger();
+    private final AtomicInteger mWritten = new AtomicInteger();
+    private final AtomicInteger mSpilled = new AtomicInteger();
+    private final AtomicInteger mDropped = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+    private final LatencyStats mQueueLatency = new LatencyStats();
+    private final LatencyStats mWriteLatency = new LatencyStats();
+
+    public PersistenceQueue(CaptureWriter writer, int ioThreads, int capacity, OverflowPolicy policy) {
+        this(writer, ioThreads, capacity, policy, null, null);
+    }
+
+    /**
+     * @param spillWriter required for {@link OverflowPolicy#SPILL}, ignored otherwise
+     * @param bufferPool  pool that submitted buffers are released to after the write; may be null
+     */
+    public PersistenceQueue(CaptureWriter writer, int ioThreads, int capacity, OverflowPolicy policy,
+                            CaptureWriter spillWriter, DirectBufferPool bufferPool) {
+        if (ioThreads <= 0 || capacity < ioThreads) {
+            throw new IllegalArgumentException("need ioThreads > 0 and capacity >= ioThreads");
+        }
+        if (policy == OverflowPolicy.SPILL && spillWriter == null) {
+            throw new IllegalArgumentException("SPILL policy needs a spill writer");
+        }
+        mWriter = writer;
+        mSpillWriter = spillWriter;
+        mBufferPool = bufferPool;
+        mPolicy = policy;
+        mCapacity = capacity;
+        mExecutor = new ThreadPoolExecutor(ioThreads, ioThreads, 0L, TimeUnit.MILLISECONDS,
+                new RoundRobinQueue(), new IoThreadFactory());
+    }
+
+    /**
+     * Queues {@code data} to be written as {@code name}. The buffer must not be touched by
+     * the caller afterwards.
+     *
+     * @return false if the capture was dropped or could not be queued
+     */
+    public boolean submit(String name, ByteBuffer data, PersistCallback callback) {
+        return submit(null, name, data, callback);
+    }
+
+    /**
+     * Queues {@code data} from {@code source}, e.g. a camera id, to be written as
+     * {@code name}; the I/O threads take turns between sources. The buffer must not be
+     * touched by the caller afterwards.
+     *
+     * @return false if the capture was dropped or could not be queued
+     */
+    public boolean submit(String source, String name, ByteBuffer data, PersistCallback callback) {
+        if (!acquireSlot(source)) {
+            if (mPolicy == OverflowPolicy.SPILL) {
+                spill(name, data, callback);
+                return true;
+            }
+            mDropped.incrementAndGet();
+            release(data);
+            deliver(callback, new PersistResult(name, PersistResult.Status.DROPPED, 0, 0, 0, null));
+            return false;
+        }
+        return execute(new WriteTask(source, name, data, callback, true));
+    }
+
+    /**
+     * Writes {@code data} from {@code source} as {@code name} on an I/O thread and waits
+     * for it, e.g. for a frame of a burst. This always waits for a slot whatever the
+     * {@link OverflowPolicy}, taking turns with the other sources. The buffer stays the
+     * caller's and is not released to the pool.
+     *
+     * @throws InterruptedException if interrupted while waiting for a slot; once the write
+     *                              is queued it is waited for regardless
+     */
+    public PersistResult write(String source, String name, ByteBuffer data) throws InterruptedException {
+        acquireSlotInterruptibly(source);
+        final CountDownLatch done = new CountDownLatch(1);
+        final PersistResult[] result = new PersistResult[1];
+        execute(new WriteTask(source, name, data, new PersistCallback() {
+            @Override
+            public void onPersistCompleted(PersistResult r) {
+                result[0] = r;
+                done.countDown();
+            }
+        }, false));
+        // the caller gets its buffer back only once the write is over
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return result[0];
+    }
+
+    private boolean execute(WriteTask task) {
+        recordDepth();
+        try {
+            mExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            releaseSlot();
+            mFailed.incrementAndGet();
+            if (task.mReleaseData) {
+                release(task.mData);
+            }
+            deliver(task.mCallback, new PersistResult(task.mName, PersistResult.Status.FAILED, 0, 0, 0, e));
+            return false;
+        }
+    }
+
+    private boolean acquireSlot(String source) {
+        if (mPolicy != OverflowPolicy.BLOCK) {
+            mLock.lock();
+            try {
+                if (mUsedSlots < mCapacity) {
+                    mUsedSlots++;
+                    return true;
+                }
+                return false;
+            } finally {
+                mLock.unlock();
+            }
+        }
+        try {
+            acquireSlotInterruptibly(source);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void acquireSlotInterruptibly(String source) throws InterruptedException {
+        final String key = source != null ? source : "";
+        mLock.lock();
+        try {
+            // a slot is only free while nobody waits, freed slots are handed over directly
+            if (mUsedSlots < mCapacity) {
+                mUsedSlots++;
+                return;
+            }
+            final Waiter waiter = new Waiter(mLock.newCondition());
+            ArrayDeque<Waiter> waiters = mWaiters.get(key);
+            if (waiters == null) {
+                waiters = new ArrayDeque<>();
+                mWaiters.put(key, waiters);
+                mTurns.addLast(key);
+            }
+            waiters.addLast(waiter);
+            mWaiting++;
+            try {
+                while (!waiter.mHasSlot) {
+                    waiter.mGranted.await();
+                }
+            } catch (InterruptedException e) {
+                if (waiter.mHasSlot) {
+                    releaseSlot();
+                } else {
+                    waiters.remove(waiter);
+                    mWaiting--;
+                    if (waiters.isEmpty()) {
+                        mWaiters.remove(key);
+                        mTurns.remove(key);
+                    }
+                }
+                throw e;
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void releaseSlot() {
+        mLock.lock();
+        try {
+            final String source = mTurns.pollFirst();
+            if (source == null) {
+                mUsedSlots--;
+                return;
+            }
+            final ArrayDeque<Waiter> waiters = mWaiters.get(source);
+            final Waiter waiter = waiters.pollFirst();
+            if (waiters.isEmpty()) {
+                mWaiters.remove(source);
+            } else {
+                mTurns.addLast(source);
+            }
+            mWaiting--;
+            waiter.mHasSlot = true;
+            waiter.mGranted.signal();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void spill(String name, ByteBuffer data, PersistCallback callback) {
+        final long start = System.nanoTime();
+        PersistResult result;
+        try {
+            final long bytes = mSpillWriter.write(name, data);
+            mSpilled.incrementAndGet();
+            result = new PersistResult(name, PersistResult.Status.SPILLED, bytes, 0, System.nanoTime() - start, null);
+        } catch (Exception e) {
+            mFailed.incrementAndGet();
+            result = new PersistResult(name, PersistResult.Status.FAILED, 0, 0, System.nanoTime() - start, e);
+        }
+        release(data);
+        deliver(callback, result);
+    }
+
+    private void release(ByteBuffer data) {
+        if (mBufferPool != null) {
+            mBufferPool.release(data);
+        }
+    }
+
+    private void recordDepth() {
+        final int depth = getQueueDepth();
+        int max;
+        while (depth > (max = mMaxDepth.get())) {
+            if (mMaxDepth.compareAndSet(max, depth)) break;
+        }
+    }
+
+    private static void deliver(PersistCallback callback, PersistResult result) {
+        if (callback != null) {
+            callback.onPersistCompleted(result);
+        }
+    }
+
+    /**
+     * Captures waiting for or being written by an I/O thread.
+     */
+    public int getQueueDepth() {
+        mLock.lock();
+        try {
+            return mUsedSlots;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Submitters and bursts waiting for a slot.
+     */
+    public int getWaitingCount() {
+        mLock.lock();
+        try {
+            return mWaiting;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int getMaxQueueDepth() {
+        return mMaxDepth.get();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    public int getWrittenCount() {
+        return mWritten.get();
+    }
+
+    public int getSpilledCount() {
+        return mSpilled.get();
+    }
+
+    public int getDroppedCount() {
+        return mDropped.get();
+    }
+
+    public int getFailedCount() {
+        return mFailed.get();
+    }
+
+    public LatencyStats getQueueLatency() {
+        return mQueueLatency;
+    }
+
+    public LatencyStats getWriteLatency() {
+        return mWriteLatency;
+    }
+
+    /**
+     * Stops accepting captures; queued ones are still written.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return mExecutor.awaitTermination(timeout, unit);
+    }
+
+    private class WriteTask implements Runnable, RoundRobinQueue.Source {
+        private final String mSource;
+        private final String mName;
+        private final ByteBuffer mData;
+        private final PersistCallback mCallback;
+        private final boolean mReleaseData;
+        private final long mSubmittedAt = System.nanoTime();
+
+        WriteTask(String source, String name, ByteBuffer data, PersistCallback callback, boolean releaseData) {
+            mSource = source;
+            mName = name;
+            mData = data;
+            mCallback = callback;
+            mReleaseData = releaseData;
+        }
+
+        @Override
+        public String getSource() {
+            return mSource;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            final long queueNanos = start - mSubmittedAt;
+            PersistResult result;
+            try {
+                final long bytes = mWriter.write(mName, mReleaseData ? mData : mData.duplicate());
+                final long writeNanos = System.nanoTime() - start;
+                mWritten.incrementAndGet();
+                mWriteLatency.record(writeNanos);
+                result = new PersistResult(mName, PersistResult.Status.WRITTEN, bytes, queueNanos, writeNanos, null);
+            } catch (Exception e) {
+                mFailed.incrementAndGet();
+                result = new PersistResult(mName, PersistResult.Status.FAILED, 0, queueNanos, System.nanoTime() - start, e);
+            } finally {
+                if (mReleaseData) {
+                    release(mData);
+                }
+                releaseSlot();
+            }
+            mQueueLatency.record(queueNanos);
+            deliver(mCallback, result);
+        }
+    }
+
+    private static class Waiter {
+        final Condition mGranted;
+        boolean mHasSlot;
+
+        Waiter(Condition granted) {
+            mGranted = granted;
+        }
+    }
+
+    private static class IoThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "CapturePersistThread-" + mCount.incrementAndGet());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.wzq.camerademo.camera.io;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Unbounded work queue for a {@code ThreadPoolExecutor} that takes turns between the
+ * sources of its tasks instead of serving them first come first served, so a camera
+ * taking a burst cannot keep another camera's captures waiting behind all of its own.
+ * Tasks of one source keep their order.
+ *
+ * <p>A task names its source by implementing {@link Source}; other tasks share one source.
+ */
+public class RoundRobinQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    public interface Source {
+        String getSource();
+    }
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    // guarded by mLock
+    private final Map<String, ArrayDeque<Runnable>> mQueues = new HashMap<>();
+    // sources with tasks, the next one to serve first
+    private final ArrayDeque<String> mTurns = new ArrayDeque<>();
+    private int mSize;
+
+    private static String sourceOf(Object task) {
+        final String source = task instanceof Source ? ((Source) task).getSource() : null;
+        return source != null ? source : "";
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        final String source = sourceOf(task);
+        mLock.lock();
+        try {
+            ArrayDeque<Runnable> queue = mQueues.get(source);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                mQueues.put(source, queue);
+                mTurns.addLast(source);
+            }
+            queue.addLast(task);
+            mSize++;
+            mNotEmpty.signal();
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) {
+        offer(task);
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+        return offer(task);
+    }
+
+    @Override
+    public Runnable poll() {
+        mLock.lock();
+        try {
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mSize == 0) {
+                mNotEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        mLock.lockInterruptibly();
+        try {
+            while (mSize == 0) {
+                if (nanos <= 0) return null;
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // guarded by mLock
+    private Runnable dequeue() {
+        final String source = mTurns.pollFirst();
+        if (source == null) return null;
+        final ArrayDeque<Runnable> queue = mQueues.get(source);
+        final Runnable task = queue.pollFirst();
+        if (queue.isEmpty()) {
+            mQueues.remove(source);
+        } else {
+            mTurns.addLast(source);
+        }
+        mSize--;
+        return task;
+    }
+
+    @Override
+    public Runnable peek() {
+        mLock.lock();
+        try {
+            final String source = mTurns.peekFirst();
+            return source != null ? mQueues.get(source).peekFirst() : null;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        if (task == null) return false;
+        final String source = sourceOf(task);
+        mLock.lock();
+        try {
+            final ArrayDeque<Runnable> queue = mQueues.get(source);
+            if (queue == null || !queue.remove(task)) return false;
+            if (queue.isEmpty()) {
+                mQueues.remove(source);
+                mTurns.remove(source);
+            }
+            mSize--;
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        mLock.lock();
+        try {
+            return mSize;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target, int maxElements) {
+        if (target == this) {
+            throw new IllegalArgumentException();
+        }
+        mLock.lock();
+        try {
+            int drained = 0;
+            Runnable task;
+            while (drained < maxElements && (task = dequeue()) != null) {
+                target.add(task);
+                drained++;
+            }
+            return drained;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Iterates over a snapshot, in the order the tasks would be served.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final List<Runnable> snapshot = new ArrayList<>();
+        mLock.lock();
+        try {
+            final List<Iterator<Runnable>> queues = new ArrayList<>();
+            for (String source : mTurns) {
+                queues.add(mQueues.get(source).iterator());
+            }
+            boolean more = true;
+            while (more) {
+                more = false;
+                for (Iterator<Runnable> queue : queues) {
+                    if (queue.hasNext()) {
+                        snapshot.add(queue.next());
+                        more = true;
+                    }
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+        final Iterator<Runnable> iterator = snapshot.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable mLast;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                mLast = iterator.next();
+                return mLast;
+            }
+
+            @Override
+            public void remove() {
+                RoundRobinQueue.this.remove(mLast);
+            }
+        };
+    }
+}
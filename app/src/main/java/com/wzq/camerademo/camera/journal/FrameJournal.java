@@ -0,0 +1,163 @@
+package com.wzq.camerademo.camera.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Ring of fixed-size rows, one per preview frame, in a memory-mapped file, for looking into
+ * frame drops, exposure hunting and capture latency on a device after the fact with
+ * {@link FrameJournalReader}.
+ *
+ * <p>An append is a handful of puts into the mapped pages: no system call, no lock and no
+ * allocation. The kernel writes the pages back on its own, so the rows survive the app
+ * crashing, but only rows before the last {@link #force()} survive the device losing power.
+ * Once the ring is full the oldest rows are overwritten. Reopening a journal with the same
+ * capacity carries on after its last row.
+ *
+ * <p>Layout, big endian: a {@value #HEADER_SIZE} byte header magic(4) version(4)
+ * rowSize(4) capacity(4) count(8) reserved(8), then {@code capacity} rows of
+ * {@value #ROW_SIZE} bytes: sequence(8) frameNumber(8) sensorTimestamp(8) resultTime(8)
+ * exposureTime(8) frameDuration(8) sensitivity(4) afState(1) aeState(1) awbState(1)
+ * flags(1). A row's sequence is its position in the journal plus one, so a reader can tell
+ * a current row from one left over from an earlier lap or torn by a crash.
+ */
+public class FrameJournal implements Closeable {
+    static final int MAGIC = 0x464a4e4c;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int ROW_SIZE = 56;
+
+    static final int ROW_SIZE_OFFSET = 8;
+    static final int CAPACITY_OFFSET = 12;
+    static final int COUNT_OFFSET = 16;
+
+    static final int SEQUENCE = 0;
+    static final int FRAME_NUMBER = 8;
+    static final int SENSOR_TIMESTAMP = 16;
+    static final int RESULT_TIME = 24;
+    static final int EXPOSURE_TIME = 32;
+    static final int FRAME_DURATION = 40;
+    static final int SENSITIVITY = 48;
+    static final int AF_STATE = 52;
+    static final int AE_STATE = 53;
+    static final int AWB_STATE = 54;
+    static final int FLAGS = 55;
+
+    static final int FLAG_LENS_MOVING = 1;
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+    private volatile long mCount;
+    private volatile boolean mClosed;
+
+    /**
+     * Opens the journal at {@code file}, starting a new one if there is none or it was
+     * written with another capacity or layout.
+     *
+     * @param capacity rows kept, e.g. 3600 for a minute at 60fps
+     */
+    public FrameJournal(File file, int capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mFile = file;
+        mCapacity = capacity;
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            final long length = HEADER_SIZE + (long) capacity * ROW_SIZE;
+            final boolean reuse = mRandomAccessFile.length() == length && matchesHeader(mRandomAccessFile, capacity);
+            if (!reuse) {
+                mRandomAccessFile.setLength(0);
+                mRandomAccessFile.setLength(length);
+            }
+            mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            if (reuse) {
+                mCount = mBuffer.getLong(COUNT_OFFSET);
+            } else {
+                mBuffer.putInt(0, MAGIC);
+                mBuffer.putInt(4, VERSION);
+                mBuffer.putInt(ROW_SIZE_OFFSET, ROW_SIZE);
+                mBuffer.putInt(CAPACITY_OFFSET, capacity);
+                mBuffer.putLong(COUNT_OFFSET, 0);
+            }
+        } catch (IOException e) {
+            mRandomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private static boolean matchesHeader(RandomAccessFile file, int capacity) throws IOException {
+        file.seek(0);
+        return file.readInt() == MAGIC && file.readInt() == VERSION && file.readInt() == ROW_SIZE
+                && file.readInt() == capacity && file.readLong() >= 0;
+    }
+
+    /**
+     * Writes {@code record} over the oldest row once the ring is full. From one thread at a
+     * time, e.g. the thread the capture results arrive on.
+     *
+     * @return false if the journal is closed
+     */
+    public boolean append(FrameRecord record) {
+        if (mClosed) return false;
+        final long count = mCount;
+        final MappedByteBuffer buffer = mBuffer;
+        final int row = HEADER_SIZE + (int) (count % mCapacity) * ROW_SIZE;
+        buffer.putLong(row + FRAME_NUMBER, record.getFrameNumber());
+        buffer.putLong(row + SENSOR_TIMESTAMP, record.getSensorTimestamp());
+        buffer.putLong(row + RESULT_TIME, record.getResultTime());
+        buffer.putLong(row + EXPOSURE_TIME, record.getExposureTime());
+        buffer.putLong(row + FRAME_DURATION, record.getFrameDuration());
+        buffer.putInt(row + SENSITIVITY, record.getSensitivity());
+        buffer.put(row + AF_STATE, (byte) record.getAfState());
+        buffer.put(row + AE_STATE, (byte) record.getAeState());
+        buffer.put(row + AWB_STATE, (byte) record.getAwbState());
+        buffer.put(row + FLAGS, (byte) (record.isLensMoving() ? FLAG_LENS_MOVING : 0));
+        // last, so a row torn by a crash does not pass for a current one
+        buffer.putLong(row + SEQUENCE, count + 1);
+        buffer.putLong(COUNT_OFFSET, count + 1);
+        mCount = count + 1;
+        return true;
+    }
+
+    /**
+     * Rows appended since the journal was created, including overwritten ones.
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Writes the mapped rows to the storage device.
+     */
+    public void force() {
+        if (!mClosed) {
+            mBuffer.force();
+        }
+    }
+
+    /**
+     * Forces the rows out and closes the file; later appends are ignored.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        mBuffer.force();
+        mClosed = true;
+        mRandomAccessFile.close();
+    }
+}
@@ -0,0 +1,238 @@
+package com.wzq.camerademo.camera.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a {@link FrameJournal}, also while it is being written. Run {@link #main} on a
+ * journal pulled off a device to get its rows as CSV followed by a summary.
+ */
+public class FrameJournalReader implements Closeable {
+    private final RandomAccessFile mRandomAccessFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mCapacity;
+
+    public FrameJournalReader(File file) throws IOException {
+        mRandomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final long length = mRandomAccessFile.length();
+            if (length < FrameJournal.HEADER_SIZE) {
+                throw new IOException(file + " is not a frame journal");
+            }
+            mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            mCapacity = mBuffer.getInt(FrameJournal.CAPACITY_OFFSET);
+            if (mBuffer.getInt(0) != FrameJournal.MAGIC || mBuffer.getInt(4) != FrameJournal.VERSION
+                    || mBuffer.getInt(FrameJournal.ROW_SIZE_OFFSET) != FrameJournal.ROW_SIZE || mCapacity <= 0
+                    || length != FrameJournal.HEADER_SIZE + (long) mCapacity * FrameJournal.ROW_SIZE) {
+                throw new IOException(file + " is not a frame journal");
+            }
+        } catch (IOException e) {
+            mRandomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Rows written so far, including overwritten ones.
+     */
+    public long getCount() {
+        return mBuffer.getLong(FrameJournal.COUNT_OFFSET);
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Index of the oldest row still in the ring.
+     */
+    public long getFirstIndex() {
+        return Math.max(0, getCount() - mCapacity);
+    }
+
+    /**
+     * Reads row {@code index} into {@code record}.
+     *
+     * @return false if the row was overwritten, not written yet or torn
+     */
+    public boolean read(long index, FrameRecord record) {
+        if (index < 0) return false;
+        final int row = FrameJournal.HEADER_SIZE + (int) (index % mCapacity) * FrameJournal.ROW_SIZE;
+        if (mBuffer.getLong(row + FrameJournal.SEQUENCE) != index + 1) return false;
+        record.setFrameNumber(mBuffer.getLong(row + FrameJournal.FRAME_NUMBER))
+                .setSensorTimestamp(mBuffer.getLong(row + FrameJournal.SENSOR_TIMESTAMP))
+                .setResultTime(mBuffer.getLong(row + FrameJournal.RESULT_TIME))
+                .setExposureTime(mBuffer.getLong(row + FrameJournal.EXPOSURE_TIME))
+                .setFrameDuration(mBuffer.getLong(row + FrameJournal.FRAME_DURATION))
+                .setSensitivity(mBuffer.getInt(row + FrameJournal.SENSITIVITY))
+                .setAfState(mBuffer.get(row + FrameJournal.AF_STATE))
+                .setAeState(mBuffer.get(row + FrameJournal.AE_STATE))
+                .setAwbState(mBuffer.get(row + FrameJournal.AWB_STATE))
+                .setLensMoving((mBuffer.get(row + FrameJournal.FLAGS) & FrameJournal.FLAG_LENS_MOVING) != 0);
+        // overwritten while it was being read
+        return mBuffer.getLong(row + FrameJournal.SEQUENCE) == index + 1;
+    }
+
+    /**
+     * Goes over the rows still in the ring, oldest first.
+     */
+    public Summary summarize() {
+        final Summary summary = new Summary();
+        final FrameRecord record = new FrameRecord();
+        final long count = getCount();
+        long lastFrameNumber = -1;
+        long lastTimestamp = 0;
+        long lastExposure = -1;
+        int lastAeState = FrameRecord.STATE_UNKNOWN;
+        long latencySum = 0;
+        for (long i = Math.max(0, count - mCapacity); i < count; i++) {
+            if (!read(i, record)) {
+                summary.mSkippedRows++;
+                continue;
+            }
+            summary.mRows++;
+            if (lastFrameNumber >= 0 && record.getFrameNumber() > lastFrameNumber + 1) {
+                summary.mMissingFrames += record.getFrameNumber() - lastFrameNumber - 1;
+            }
+            if (lastTimestamp != 0 && record.getSensorTimestamp() > lastTimestamp) {
+                final long interval = record.getSensorTimestamp() - lastTimestamp;
+                summary.mMaxFrameIntervalNanos = Math.max(summary.mMaxFrameIntervalNanos, interval);
+                // late by more than half a frame
+                if (record.getFrameDuration() > 0 && interval * 2 > record.getFrameDuration() * 3) {
+                    summary.mLateFrames++;
+                }
+            }
+            if (lastExposure >= 0 && record.getExposureTime() != lastExposure) {
+                summary.mExposureChanges++;
+            }
+            if (lastAeState != FrameRecord.STATE_UNKNOWN && record.getAeState() != lastAeState) {
+                summary.mAeStateChanges++;
+            }
+            latencySum += record.getResultTime() - record.getSensorTimestamp();
+            lastFrameNumber = record.getFrameNumber();
+            lastTimestamp = record.getSensorTimestamp();
+            lastExposure = record.getExposureTime();
+            lastAeState = record.getAeState();
+        }
+        summary.mMeanResultLatencyNanos = summary.mRows > 0 ? latencySum / summary.mRows : 0;
+        return summary;
+    }
+
+    /**
+     * Prints the rows still in the ring as CSV, oldest first.
+     */
+    public void writeCsv(PrintStream out) {
+        out.println("frameNumber,sensorTimestampNs,resultTimeNs,exposureTimeNs,frameDurationNs,iso,afState,aeState,"
+                + "awbState,lensMoving");
+        final FrameRecord record = new FrameRecord();
+        final long count = getCount();
+        final StringBuilder line = new StringBuilder(128);
+        for (long i = Math.max(0, count - mCapacity); i < count; i++) {
+            if (!read(i, record)) continue;
+            line.setLength(0);
+            line.append(record.getFrameNumber()).append(',').append(record.getSensorTimestamp())
+                    .append(',').append(record.getResultTime()).append(',').append(record.getExposureTime())
+                    .append(',').append(record.getFrameDuration()).append(',').append(record.getSensitivity())
+                    .append(',').append(record.getAfState()).append(',').append(record.getAeState())
+                    .append(',').append(record.getAwbState()).append(',').append(record.isLensMoving() ? 1 : 0);
+            out.println(line);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRandomAccessFile.close();
+    }
+
+    /**
+     * {@code FrameJournalReader <journal> [--summary]}: the rows as CSV and the summary, or
+     * only the summary.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: FrameJournalReader <journal> [--summary]");
+            System.exit(2);
+        }
+        final FrameJournalReader reader = new FrameJournalReader(new File(args[0]));
+        try {
+            if (args.length < 2 || !args[1].equals("--summary")) {
+                reader.writeCsv(System.out);
+            }
+            System.out.println("# " + reader.summarize());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * What the rows say about the frame stream. Missing frames are gaps in the frame
+     * numbers, i.e. results the app never got; late frames arrived more than half a frame
+     * duration after the one before, i.e. the sensor itself slowed down.
+     */
+    public static final class Summary {
+        private long mRows;
+        private long mSkippedRows;
+        private long mMissingFrames;
+        private long mLateFrames;
+        private long mMaxFrameIntervalNanos;
+        private long mExposureChanges;
+        private long mAeStateChanges;
+        private long mMeanResultLatencyNanos;
+
+        public long getRows() {
+            return mRows;
+        }
+
+        /**
+         * Rows torn by a crash or overwritten while being read.
+         */
+        public long getSkippedRows() {
+            return mSkippedRows;
+        }
+
+        public long getMissingFrames() {
+            return mMissingFrames;
+        }
+
+        public long getLateFrames() {
+            return mLateFrames;
+        }
+
+        public long getMaxFrameIntervalNanos() {
+            return mMaxFrameIntervalNanos;
+        }
+
+        /**
+         * How often the exposure time changed from one frame to the next; many changes in a
+         * steady scene mean the auto exposure is hunting.
+         */
+        public long getExposureChanges() {
+            return mExposureChanges;
+        }
+
+        public long getAeStateChanges() {
+            return mAeStateChanges;
+        }
+
+        /**
+         * Mean time from the start of exposure to the result reaching the app.
+         */
+        public long getMeanResultLatencyNanos() {
+            return mMeanResultLatencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Summary{rows=" + mRows + (mSkippedRows > 0 ? ", skipped=" + mSkippedRows : "")
+                    + ", missingFrames=" + mMissingFrames + ", lateFrames=" + mLateFrames
+                    + ", maxIntervalMs=" + mMaxFrameIntervalNanos / 1000000 + ", exposureChanges=" + mExposureChanges
+                    + ", aeStateChanges=" + mAeStateChanges + ", meanResultLatencyMs="
+                    + mMeanResultLatencyNanos / 1000000 + "}";
+        }
+    }
+}
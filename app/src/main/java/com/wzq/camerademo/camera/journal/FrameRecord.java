@@ -0,0 +1,137 @@
+package com.wzq.camerademo.camera.journal;
+
+/**
+ * One row of a {@link FrameJournal}: what the camera reported about a frame of the
+ * repeating request. Mutable, so the camera thread fills the same one for every frame and
+ * a reader the same one for every row.
+ */
+public final class FrameRecord {
+    public static final int STATE_UNKNOWN = -1;
+
+    private long mFrameNumber;
+    private long mSensorTimestamp;
+    private long mResultTime;
+    private long mExposureTime;
+    private long mFrameDuration;
+    private int mSensitivity;
+    private int mAfState = STATE_UNKNOWN;
+    private int mAeState = STATE_UNKNOWN;
+    private int mAwbState = STATE_UNKNOWN;
+    private boolean mLensMoving;
+
+    public FrameRecord setFrameNumber(long frameNumber) {
+        mFrameNumber = frameNumber;
+        return this;
+    }
+
+    /**
+     * Start of exposure, in nanoseconds on the camera's timestamp clock.
+     */
+    public FrameRecord setSensorTimestamp(long timestampNanos) {
+        mSensorTimestamp = timestampNanos;
+        return this;
+    }
+
+    /**
+     * When the result reached the app, in nanoseconds; on the same clock as the sensor
+     * timestamp where the camera's timestamps are realtime.
+     */
+    public FrameRecord setResultTime(long timeNanos) {
+        mResultTime = timeNanos;
+        return this;
+    }
+
+    public FrameRecord setExposureTime(long exposureNanos) {
+        mExposureTime = exposureNanos;
+        return this;
+    }
+
+    public FrameRecord setFrameDuration(long durationNanos) {
+        mFrameDuration = durationNanos;
+        return this;
+    }
+
+    /**
+     * ISO sensitivity, 0 if not reported.
+     */
+    public FrameRecord setSensitivity(int sensitivity) {
+        mSensitivity = sensitivity;
+        return this;
+    }
+
+    /**
+     * Camera2 {@code CONTROL_AF_STATE}, or {@link #STATE_UNKNOWN}.
+     */
+    public FrameRecord setAfState(int afState) {
+        mAfState = afState;
+        return this;
+    }
+
+    /**
+     * Camera2 {@code CONTROL_AE_STATE}, or {@link #STATE_UNKNOWN}.
+     */
+    public FrameRecord setAeState(int aeState) {
+        mAeState = aeState;
+        return this;
+    }
+
+    /**
+     * Camera2 {@code CONTROL_AWB_STATE}, or {@link #STATE_UNKNOWN}.
+     */
+    public FrameRecord setAwbState(int awbState) {
+        mAwbState = awbState;
+        return this;
+    }
+
+    public FrameRecord setLensMoving(boolean lensMoving) {
+        mLensMoving = lensMoving;
+        return this;
+    }
+
+    public long getFrameNumber() {
+        return mFrameNumber;
+    }
+
+    public long getSensorTimestamp() {
+        return mSensorTimestamp;
+    }
+
+    public long getResultTime() {
+        return mResultTime;
+    }
+
+    public long getExposureTime() {
+        return mExposureTime;
+    }
+
+    public long getFrameDuration() {
+        return mFrameDuration;
+    }
+
+    public int getSensitivity() {
+        return mSensitivity;
+    }
+
+    public int getAfState() {
+        return mAfState;
+    }
+
+    public int getAeState() {
+        return mAeState;
+    }
+
+    public int getAwbState() {
+        return mAwbState;
+    }
+
+    public boolean isLensMoving() {
+        return mLensMoving;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameRecord{#" + mFrameNumber + ", " + mSensorTimestamp + ", exposure=" + mExposureTime
+                + ", duration=" + mFrameDuration + ", iso=" + mSensitivity + ", af=" + mAfState + ", ae=" + mAeState
+                + ", awb=" + mAwbState + (mLensMoving ? ", moving" : "") + "}";
+    }
+}
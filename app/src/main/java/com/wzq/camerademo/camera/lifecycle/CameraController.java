@@ -0,0 +1,617 @@
+package com.wzq.camerademo.camera.lifecycle;
+
+import com.wzq.camerademo.camera.backend.BackendDevice;
+import com.wzq.camerademo.camera.backend.BackendSession;
+import com.wzq.camerademo.camera.backend.CameraBackend;
+import com.wzq.camerademo.camera.backend.CaptureCallback;
+import com.wzq.camerademo.camera.backend.DeviceCallback;
+import com.wzq.camerademo.camera.backend.PreviewCallback;
+import com.wzq.camerademo.camera.backend.SessionCallback;
+import com.wzq.camerademo.camera.backend.SessionConfig;
+import com.wzq.camerademo.camera.governor.FrameRateRange;
+import com.wzq.camerademo.camera.metrics.CameraMetrics;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drives one camera at a time through the {@link CameraState}s on top of a
+ * {@link CameraBackend}.
+ *
+ * <p>Requests and backend callbacks are both run on {@code executor}, which must run tasks
+ * one at a time and in order, so transitions never interleave. Callbacks about a device or
+ * session that is no longer current close it and are otherwise ignored. CLOSED is only
+ * reached once every device handed out by the backend has reported
+ * {@link DeviceCallback#onClosed}, so whatever the sessions were using can be released as
+ * soon as {@link #awaitState} returns.
+ */
+public class CameraController {
+    /**
+     * Reported when the session could not be configured.
+     */
+    public static final int ERROR_CONFIGURE_FAILED = -2;
+    /**
+     * Reported when the preview or a capture could not be requested.
+     */
+    public static final int ERROR_REQUEST_FAILED = -3;
+    /**
+     * Reported when the device was disconnected, for example by a higher priority client.
+     */
+    public static final int ERROR_DISCONNECTED = -4;
+
+    private final CameraBackend mBackend;
+    private final Executor mExecutor;
+    private final Object mStateLock = new Object();
+    private volatile CameraState mState = CameraState.CLOSED;
+    private volatile CameraStateListener mListener;
+    private volatile boolean mOverlapOpenEnabled;
+    private volatile SessionConfig mSessionConfig;
+    private volatile CameraMetrics mMetrics;
+    private volatile PreviewCallback mPreviewFrameListener;
+    private volatile FrameRateRange mFrameRateRange;
+
+    // only touched on mExecutor
+    private String mCameraId;
+    private String mPendingCameraId;
+    private boolean mOpening;
+    private BackendDevice mDevice;
+    private BackendSession mSession;
+    // device of an overlapped switch that has not finished closing
+    private BackendDevice mRetiringDevice;
+    private boolean mConfigurePending;
+    private boolean mOutputsAvailable = true;
+    // the session config changed while a session was being configured or capturing
+    private boolean mReconfigurePending;
+    private long mOpenStartNanos;
+    private long mConfigureStartNanos;
+
+    public CameraController(CameraBackend backend, Executor executor) {
+        mBackend = backend;
+        mExecutor = executor;
+    }
+
+    public void setListener(CameraStateListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Whether switching to another camera may open it while the current one is still
+     * closing. The new session is only created once the old device is gone, since both
+     * would use the same outputs.
+     */
+    public void setOverlapOpenEnabled(boolean enabled) {
+        mOverlapOpenEnabled = enabled;
+    }
+
+    /**
+     * Whether the backend's outputs, e.g. the preview surface, exist yet. Until they do, an
+     * opened device waits in OPENED, so it can be opened while the view is still being laid
+     * out; the session is created the moment they become available. Available by default.
+     */
+    public void setOutputsAvailable(final boolean available) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mOutputsAvailable = available;
+                configureIfPending();
+            }
+        });
+    }
+
+    /**
+     * Streams of the sessions created from now on. Set it before {@link #open} for the
+     * camera it describes.
+     */
+    public void setSessionConfig(SessionConfig config) {
+        mSessionConfig = config;
+    }
+
+    /**
+     * Receives the open, configure and first frame latencies, every preview frame and the
+     * capture requests; null to record nothing.
+     */
+    public void setMetrics(CameraMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Told about every preview frame, on the backend's thread; null for none.
+     */
+    public void setPreviewFrameListener(PreviewCallback listener) {
+        mPreviewFrameListener = listener;
+    }
+
+    /**
+     * Frame rate range of the preview, applied to the running session and to every session
+     * started after it. A failure to apply it is reported like a failed preview request but
+     * leaves the preview running.
+     */
+    public void setFrameRateRange(int minFps, int maxFps) {
+        final FrameRateRange range = new FrameRateRange(minFps, maxFps);
+        mFrameRateRange = range;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mState != CameraState.PREVIEWING && mState != CameraState.CAPTURING) return;
+                try {
+                    mSession.setFrameRateRange(range.getMin(), range.getMax());
+                } catch (IOException e) {
+                    notifyError(mCameraId, ERROR_REQUEST_FAILED);
+                }
+            }
+        });
+    }
+
+    public FrameRateRange getFrameRateRange() {
+        return mFrameRateRange;
+    }
+
+    public CameraState getState() {
+        return mState;
+    }
+
+    /**
+     * Opens {@code cameraId} and starts its preview, closing the current camera first if it
+     * is a different one.
+     */
+    public void open(final String cameraId) {
+        if (cameraId == null) {
+            throw new IllegalArgumentException("cameraId == null");
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                doOpen(cameraId);
+            }
+        });
+    }
+
+    public void close() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mPendingCameraId = null;
+                beginClose();
+            }
+        });
+    }
+
+    /**
+     * Replaces the session of the open camera with one for the current session config, e.g.
+     * to add the video encoder's surface, without closing the device. A capture in progress
+     * finishes first.
+     */
+    public void reconfigure() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                doReconfigure();
+            }
+        });
+    }
+
+    /**
+     * Captures {@code count} stills on the current session. The state is CAPTURING until
+     * the sequence ends.
+     *
+     * @return false if the preview is not running; otherwise {@code callback} is told how the
+     * sequence ended, including when it never started because the state changed meanwhile
+     */
+    public boolean capture(final int count, final CaptureCallback callback) {
+        if (mState != CameraState.PREVIEWING) return false;
+        final CameraMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.markShutter();
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                doCapture(count, callback);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Blocks until the controller is in {@code state}.
+     *
+     * @return false if it did not get there within the timeout
+     */
+    public boolean awaitState(CameraState state, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (mStateLock) {
+            while (mState != state) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return false;
+                TimeUnit.NANOSECONDS.timedWait(mStateLock, remaining);
+            }
+            return true;
+        }
+    }
+
+    private void setState(CameraState state) {
+        final CameraState oldState = mState;
+        if (!oldState.canMoveTo(state)) {
+            throw new IllegalStateException("camera " + mCameraId + ": " + oldState + " -> " + state);
+        }
+        synchronized (mStateLock) {
+            mState = state;
+            mStateLock.notifyAll();
+        }
+        final CameraStateListener listener = mListener;
+        if (listener != null) {
+            listener.onStateChanged(oldState, state);
+        }
+    }
+
+    private void notifyError(String cameraId, int error) {
+        final CameraStateListener listener = mListener;
+        if (listener != null) {
+            listener.onCameraError(cameraId, error);
+        }
+    }
+
+    private void doOpen(String cameraId) {
+        switch (mState) {
+            case CLOSED:
+                beginOpen(cameraId);
+                break;
+            case CLOSING:
+                // opened as soon as the current device is gone
+                mPendingCameraId = cameraId;
+                break;
+            default:
+                if (!cameraId.equals(mCameraId)) {
+                    doSwitch(cameraId);
+                }
+                break;
+        }
+    }
+
+    private void doReconfigure() {
+        switch (mState) {
+            case PREVIEWING:
+                closeSession();
+                configure();
+                break;
+            case CONFIGURING:
+            case CAPTURING:
+                mReconfigurePending = true;
+                break;
+            default:
+                // the next session is created from the current config anyway
+                break;
+        }
+    }
+
+    /**
+     * Runs a reconfigure that had to wait for the session to become idle.
+     */
+    private void reconfigureIfPending() {
+        if (!mReconfigurePending) return;
+        mReconfigurePending = false;
+        doReconfigure();
+    }
+
+    private void beginOpen(String cameraId) {
+        mCameraId = cameraId;
+        mOpening = true;
+        mOpenStartNanos = System.nanoTime();
+        setState(CameraState.OPENING);
+        mBackend.openDevice(cameraId, mDeviceCallback);
+    }
+
+    private void doSwitch(String cameraId) {
+        if (mOverlapOpenEnabled && mDevice != null && mRetiringDevice == null) {
+            setState(CameraState.CLOSING);
+            closeSession();
+            mRetiringDevice = mDevice;
+            mDevice = null;
+            mRetiringDevice.close();
+            beginOpen(cameraId);
+            return;
+        }
+        mPendingCameraId = cameraId;
+        beginClose();
+    }
+
+    private void beginClose() {
+        if (mState == CameraState.CLOSED || mState == CameraState.CLOSING) return;
+        setState(CameraState.CLOSING);
+        mConfigurePending = false;
+        mReconfigurePending = false;
+        closeSession();
+        if (mDevice != null) {
+            mDevice.close();
+        }
+        // a device still being opened is closed as soon as it arrives
+        finishCloseIfIdle();
+    }
+
+    private void closeSession() {
+        if (mSession != null) {
+            mSession.close();
+            mSession = null;
+            final CameraMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.onPreviewStopped();
+            }
+        }
+    }
+
+    private void finishCloseIfIdle() {
+        if (mState != CameraState.CLOSING || mOpening || mDevice != null || mRetiringDevice != null) return;
+        setState(CameraState.CLOSED);
+        final String pending = mPendingCameraId;
+        if (pending != null) {
+            mPendingCameraId = null;
+            beginOpen(pending);
+        }
+    }
+
+    private void configure() {
+        setState(CameraState.CONFIGURING);
+        mConfigureStartNanos = System.nanoTime();
+        final BackendDevice device = mDevice;
+        final SessionConfig config = mSessionConfig;
+        if (config == null) {
+            notifyError(device.getId(), ERROR_CONFIGURE_FAILED);
+            beginClose();
+            return;
+        }
+        try {
+            device.createSession(config, new SessionCallback() {
+                @Override
+                public void onConfigured(final BackendSession session) {
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onSessionConfigured(device, session);
+                        }
+                    });
+                }
+
+                @Override
+                public void onConfigureFailed(BackendDevice failed) {
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (device != mDevice || mState != CameraState.CONFIGURING) return;
+                            notifyError(device.getId(), ERROR_CONFIGURE_FAILED);
+                            beginClose();
+                        }
+                    });
+                }
+            });
+        } catch (IOException e) {
+            notifyError(device.getId(), ERROR_CONFIGURE_FAILED);
+            beginClose();
+        }
+    }
+
+    private void onSessionConfigured(BackendDevice device, final BackendSession session) {
+        if (device != mDevice || mState != CameraState.CONFIGURING) {
+            session.close();
+            return;
+        }
+        mSession = session;
+        final String cameraId = device.getId();
+        final AtomicBoolean started = new AtomicBoolean();
+        final long openStartNanos = mOpenStartNanos;
+        final CameraMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.record(CameraMetrics.Latency.CONFIGURE, System.nanoTime() - mConfigureStartNanos);
+        }
+        try {
+            final FrameRateRange range = mFrameRateRange;
+            if (range != null) {
+                session.setFrameRateRange(range.getMin(), range.getMax());
+            }
+            session.startPreview(new PreviewCallback() {
+                @Override
+                public void onPreviewFrame(long timestampNanos) {
+                    if (metrics != null) {
+                        metrics.onPreviewFrame(timestampNanos);
+                    }
+                    final PreviewCallback frameListener = mPreviewFrameListener;
+                    if (frameListener != null) {
+                        frameListener.onPreviewFrame(timestampNanos);
+                    }
+                    if (started.get() || !started.compareAndSet(false, true)) return;
+                    if (metrics != null) {
+                        metrics.record(CameraMetrics.Latency.FIRST_FRAME, System.nanoTime() - openStartNanos);
+                    }
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            final CameraStateListener listener = mListener;
+                            if (session == mSession && listener != null) {
+                                listener.onPreviewStarted(cameraId);
+                            }
+                        }
+                    });
+                }
+            });
+        } catch (IOException e) {
+            notifyError(cameraId, ERROR_REQUEST_FAILED);
+            beginClose();
+            return;
+        }
+        setState(CameraState.PREVIEWING);
+        reconfigureIfPending();
+    }
+
+    private void doCapture(int count, final CaptureCallback callback) {
+        if (mState != CameraState.PREVIEWING) {
+            callback.onCaptureSequenceAborted();
+            return;
+        }
+        final BackendSession session = mSession;
+        setState(CameraState.CAPTURING);
+        try {
+            session.capture(count, new CaptureCallback() {
+                @Override
+                public void onCaptureStarted(final long timestamp) {
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onCaptureStarted(timestamp);
+                        }
+                    });
+                }
+
+                @Override
+                public void onCaptureFailed(final int reason) {
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onCaptureFailed(reason);
+                        }
+                    });
+                }
+
+                @Override
+                public void onCaptureSequenceCompleted() {
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            endCapture(session);
+                            callback.onCaptureSequenceCompleted();
+                        }
+                    });
+                }
+
+                @Override
+                public void onCaptureSequenceAborted() {
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            endCapture(session);
+                            callback.onCaptureSequenceAborted();
+                        }
+                    });
+                }
+            });
+        } catch (IOException e) {
+            endCapture(session);
+            notifyError(mCameraId, ERROR_REQUEST_FAILED);
+            callback.onCaptureSequenceAborted();
+        }
+    }
+
+    private void endCapture(BackendSession session) {
+        if (session == mSession && mState == CameraState.CAPTURING) {
+            setState(CameraState.PREVIEWING);
+            reconfigureIfPending();
+        }
+    }
+
+    private void onDeviceOpened(BackendDevice device) {
+        mOpening = false;
+        mDevice = device;
+        if (mState != CameraState.OPENING) {
+            // closed or switched away while opening
+            device.close();
+            return;
+        }
+        final CameraMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.record(CameraMetrics.Latency.OPEN, System.nanoTime() - mOpenStartNanos);
+        }
+        setState(CameraState.OPENED);
+        // the old device may still own the outputs, or they may not exist yet
+        mConfigurePending = true;
+        configureIfPending();
+    }
+
+    private void configureIfPending() {
+        if (!mConfigurePending || mRetiringDevice != null || !mOutputsAvailable) return;
+        mConfigurePending = false;
+        if (mState == CameraState.OPENED) {
+            configure();
+        }
+    }
+
+    private void onDeviceClosed(BackendDevice device) {
+        if (device == mRetiringDevice) {
+            mRetiringDevice = null;
+            configureIfPending();
+        } else if (device == mDevice) {
+            mDevice = null;
+            mSession = null;
+            if (mState != CameraState.CLOSING) {
+                // closed behind our back
+                setState(CameraState.CLOSING);
+            }
+        }
+        finishCloseIfIdle();
+    }
+
+    private void onDeviceFailed(BackendDevice device, int error) {
+        if (device == null) {
+            // the open failed before there was a device
+            if (!mOpening) return;
+            mOpening = false;
+            notifyError(mCameraId, error);
+            if (mState == CameraState.OPENING) {
+                setState(CameraState.CLOSING);
+            }
+            finishCloseIfIdle();
+            return;
+        }
+        if (device != mDevice && device != mRetiringDevice && mOpening) {
+            // the device being opened failed instead of opening
+            mOpening = false;
+            mDevice = device;
+        }
+        if (device == mDevice) {
+            notifyError(device.getId(), error);
+            beginClose();
+        }
+        device.close();
+    }
+
+    private final DeviceCallback mDeviceCallback = new DeviceCallback() {
+        @Override
+        public void onOpened(final BackendDevice device) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onDeviceOpened(device);
+                }
+            });
+        }
+
+        @Override
+        public void onClosed(final BackendDevice device) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onDeviceClosed(device);
+                }
+            });
+        }
+
+        @Override
+        public void onDisconnected(final BackendDevice device) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onDeviceFailed(device, ERROR_DISCONNECTED);
+                }
+            });
+        }
+
+        @Override
+        public void onError(final BackendDevice device, final int error) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onDeviceFailed(device, error);
+                }
+            });
+        }
+    };
+}
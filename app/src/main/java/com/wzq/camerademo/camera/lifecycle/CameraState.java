@@ -0,0 +1,42 @@
+package com.wzq.camerademo.camera.lifecycle;
+
+/**
+ * States of a {@link CameraController}. The normal path is
+ * CLOSED → OPENING → OPENED → CONFIGURING → PREVIEWING ⇄ CAPTURING, and every state but
+ * CLOSED can go to CLOSING, which ends in CLOSED once the device is gone. PREVIEWING goes
+ * back to CONFIGURING when the session is replaced on the open device.
+ */
+public enum CameraState {
+    CLOSED,
+    OPENING,
+    OPENED,
+    CONFIGURING,
+    PREVIEWING,
+    CAPTURING,
+    CLOSING;
+
+    /**
+     * Whether the controller may move from this state to {@code next}. CLOSING → OPENING
+     * is the overlapped switch, where the next device opens while the old one closes.
+     */
+    public boolean canMoveTo(CameraState next) {
+        switch (this) {
+            case CLOSED:
+                return next == OPENING;
+            case OPENING:
+                return next == OPENED || next == CLOSING;
+            case OPENED:
+                return next == CONFIGURING || next == CLOSING;
+            case CONFIGURING:
+                return next == PREVIEWING || next == CLOSING;
+            case PREVIEWING:
+                return next == CAPTURING || next == CONFIGURING || next == CLOSING;
+            case CAPTURING:
+                return next == PREVIEWING || next == CLOSING;
+            case CLOSING:
+                return next == CLOSED || next == OPENING;
+            default:
+                return false;
+        }
+    }
+}
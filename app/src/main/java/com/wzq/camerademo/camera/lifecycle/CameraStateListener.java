@@ -0,0 +1,15 @@
+package com.wzq.camerademo.camera.lifecycle;
+
+/**
+ * Called on the thread of the {@link CameraController}.
+ */
+public interface CameraStateListener {
+    void onStateChanged(CameraState oldState, CameraState newState);
+
+    /**
+     * The first preview frame of {@code cameraId} arrived.
+     */
+    void onPreviewStarted(String cameraId);
+
+    void onCameraError(String cameraId, int error);
+}
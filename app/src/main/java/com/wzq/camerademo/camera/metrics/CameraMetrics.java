@@ -0,0 +1,207 @@
+package com.wzq.camerademo.camera.metrics;
+
+import com.wzq.camerademo.camera.io.DirectBufferPool;
+import com.wzq.camerademo.camera.startup.StartupTrace;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies of the capture path and the preview frame rate, recorded without locks or
+ * allocation so the camera threads can report every event.
+ */
+public class CameraMetrics {
+    public enum Latency {
+        /**
+         * Open request to device opened.
+         */
+        OPEN("open"),
+        /**
+         * Session requested to session configured.
+         */
+        CONFIGURE("configure"),
+        /**
+         * Open request to the first preview frame.
+         */
+        FIRST_FRAME("firstFrame"),
+        /**
+         * Capture request to the still arriving from the camera; for a burst, to each still.
+         */
+        SHUTTER_TO_IMAGE("shutterToImage"),
+        /**
+         * Still arriving to its file being committed.
+         */
+        IMAGE_TO_DISK("imageToDisk"),
+        /**
+         * Time between consecutive preview frames, by sensor timestamp.
+         */
+        FRAME_INTERVAL("frameInterval");
+
+        private final String mKey;
+
+        Latency(String key) {
+            mKey = key;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+    }
+
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 30;
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[Latency.values().length];
+    private final AtomicLong mFrameCount = new AtomicLong();
+    private final AtomicLong mJankCount = new AtomicLong();
+    private volatile long mExpectedFrameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+    private volatile long mShutterNanos;
+    // written by the preview callback thread only
+    private volatile long mLastFrameTimestamp;
+    private volatile long mAverageFrameIntervalNanos;
+    private volatile DirectBufferPool mBufferPool;
+    private volatile StartupTrace mStartupTrace;
+
+    public CameraMetrics() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public LatencyHistogram get(Latency latency) {
+        return mHistograms[latency.ordinal()];
+    }
+
+    public void record(Latency latency, long nanos) {
+        mHistograms[latency.ordinal()].record(nanos);
+    }
+
+    /**
+     * Reports the hit rate and memory of the pool the captures are copied into; null for
+     * none.
+     */
+    public void setBufferPool(DirectBufferPool pool) {
+        mBufferPool = pool;
+    }
+
+    /**
+     * Reports how long each stage of bringing up the camera took; null for none.
+     */
+    public void setStartupTrace(StartupTrace trace) {
+        mStartupTrace = trace;
+    }
+
+    /**
+     * Frame interval of the configured frame rate. Frames that arrive more than one and a
+     * half intervals after the previous one count as jank.
+     */
+    public void setExpectedFrameIntervalNanos(long nanos) {
+        mExpectedFrameIntervalNanos = nanos;
+    }
+
+    /**
+     * Called for every preview frame, from one thread at a time.
+     */
+    public void onPreviewFrame(long timestampNanos) {
+        mFrameCount.incrementAndGet();
+        final long last = mLastFrameTimestamp;
+        mLastFrameTimestamp = timestampNanos;
+        if (last == 0 || timestampNanos <= last) return;
+        final long interval = timestampNanos - last;
+        record(Latency.FRAME_INTERVAL, interval);
+        if (interval * 2 > mExpectedFrameIntervalNanos * 3) {
+            mJankCount.incrementAndGet();
+        }
+        final long average = mAverageFrameIntervalNanos;
+        // moving average over roughly the last 16 frames
+        mAverageFrameIntervalNanos = average == 0 ? interval : average + (interval - average) / 16;
+    }
+
+    /**
+     * Ends the current frame stream, so the gap to the next session's first frame is not
+     * counted as an interval.
+     */
+    public void onPreviewStopped() {
+        mLastFrameTimestamp = 0;
+        mAverageFrameIntervalNanos = 0;
+    }
+
+    /**
+     * Marks a capture request; the stills arriving until the next one are timed from here.
+     */
+    public void markShutter() {
+        mShutterNanos = System.nanoTime();
+    }
+
+    /**
+     * Called when a still arrives from the camera.
+     */
+    public void onStillImage() {
+        final long shutter = mShutterNanos;
+        if (shutter != 0) {
+            record(Latency.SHUTTER_TO_IMAGE, System.nanoTime() - shutter);
+        }
+    }
+
+    /**
+     * Frame rate over the last frames, 0 while no preview is running.
+     */
+    public double getPreviewFps() {
+        final long average = mAverageFrameIntervalNanos;
+        return average == 0 ? 0 : 1e9 / average;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount.get();
+    }
+
+    public long getJankCount() {
+        return mJankCount.get();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        mFrameCount.set(0);
+        mJankCount.set(0);
+    }
+
+    /**
+     * Current values as a JSON object, latencies in microseconds.
+     */
+    public String toJson(long timestampMillis) {
+        final StringBuilder json = new StringBuilder(1024);
+        json.append("{\"timestamp\":").append(timestampMillis)
+                .append(",\"previewFps\":").append(Math.round(getPreviewFps() * 10) / 10.0)
+                .append(",\"frames\":").append(getFrameCount())
+                .append(",\"jankFrames\":").append(getJankCount())
+                .append(",\"latencies\":{");
+        final Latency[] latencies = Latency.values();
+        for (int i = 0; i < latencies.length; i++) {
+            final LatencyHistogram histogram = get(latencies[i]);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('"').append(latencies[i].getKey()).append("\":{\"count\":").append(histogram.getCount())
+                    .append(",\"meanUs\":").append(histogram.getMeanNanos() / 1000)
+                    .append(",\"p50Us\":").append(histogram.getValueAtPercentile(50) / 1000)
+                    .append(",\"p90Us\":").append(histogram.getValueAtPercentile(90) / 1000)
+                    .append(",\"p99Us\":").append(histogram.getValueAtPercentile(99) / 1000)
+                    .append(",\"maxUs\":").append(histogram.getMaxNanos() / 1000)
+                    .append('}');
+        }
+        json.append('}');
+        final DirectBufferPool pool = mBufferPool;
+        if (pool != null) {
+            json.append(",\"buffers\":{\"hitRate\":").append(Math.round(pool.getHitRate() * 1000) / 1000.0)
+                    .append(",\"outstanding\":").append(pool.getOutstandingCount())
+                    .append(",\"liveBytes\":").append(pool.getLiveBytes())
+                    .append(",\"peakBytes\":").append(pool.getPeakBytes())
+                    .append('}');
+        }
+        final StartupTrace startup = mStartupTrace;
+        if (startup != null) {
+            json.append(",\"startup\":").append(startup.toJson());
+        }
+        return json.append('}').toString();
+    }
+}
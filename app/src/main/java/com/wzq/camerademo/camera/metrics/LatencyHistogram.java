@@ -0,0 +1,112 @@
+package com.wzq.camerademo.camera.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of nanosecond latencies with log-linear buckets, in the manner of HdrHistogram:
+ * every power of two is split into 32 linear sub-buckets, so any value is reported within
+ * about 3% over the whole range. {@link #record} is lock-free and allocates nothing, so it
+ * can be called from camera callbacks on every frame.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Largest value that falls into {@code bucket}.
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        final int shift = (bucket - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        final long subBucket = (bucket - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        final long lowest = (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Negative values, e.g. from clocks of different threads, count as 0.
+     */
+    public void record(long nanos) {
+        final long value = Math.max(0, nanos);
+        mCounts.incrementAndGet(bucketOf(value));
+        mTotalCount.incrementAndGet();
+        mTotalNanos.addAndGet(value);
+        long max;
+        while (value > (max = mMaxNanos.get())) {
+            if (mMaxNanos.compareAndSet(max, value)) break;
+        }
+    }
+
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    public long getMeanNanos() {
+        final long count = mTotalCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    /**
+     * Value below which {@code percentile} percent of the samples fall, rounded up to the
+     * end of its bucket and never above the largest sample.
+     *
+     * @return 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += mCounts.get(i);
+        }
+        if (total == 0) return 0;
+        final long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), mMaxNanos.get());
+            }
+        }
+        return mMaxNanos.get();
+    }
+
+    /**
+     * Samples recorded while this runs may be dropped or only partly cleared.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + getCount() + " mean=" + getMeanNanos() / 1000 + "us p50=" + getValueAtPercentile(50) / 1000
+                + "us p99=" + getValueAtPercentile(99) / 1000 + "us max=" + getMaxNanos() / 1000 + "us";
+    }
+}
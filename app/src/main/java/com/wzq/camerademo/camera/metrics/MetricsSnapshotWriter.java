@@ -0,0 +1,91 @@
+package com.wzq.camerademo.camera.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically replaces a file with the JSON of a {@link CameraMetrics}, so the numbers can
+ * be pulled off a device (adb pull) while the camera runs or after it crashed.
+ */
+public class MetricsSnapshotWriter {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final CameraMetrics mMetrics;
+    private final File mFile;
+    private ScheduledExecutorService mExecutor;
+
+    public MetricsSnapshotWriter(CameraMetrics metrics, File file) {
+        mMetrics = metrics;
+        mFile = file;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public synchronized void start(long periodMs) {
+        if (mExecutor != null) return;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "MetricsSnapshot");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic writes and writes a last snapshot.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (mExecutor == null) return;
+            mExecutor.shutdown();
+            mExecutor = null;
+        }
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the snapshot next to the file and renames it over, so readers never see a
+     * partial one.
+     */
+    public synchronized void writeSnapshot() throws IOException {
+        final byte[] json = mMetrics.toJson(System.currentTimeMillis()).getBytes(Charset.forName("UTF-8"));
+        final File temp = new File(mFile.getPath() + TEMP_SUFFIX);
+        final FileOutputStream output = new FileOutputStream(temp);
+        try {
+            output.write(json);
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            mFile.delete();
+            if (!temp.renameTo(mFile)) {
+                throw new IOException("cannot rename " + temp + " to " + mFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.wzq.camerademo.camera.multi;
+
+import com.wzq.camerademo.camera.info.CameraInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every camera of the device, in the order the camera service lists them, which puts the
+ * main camera of each facing first. Further cameras of a facing, e.g. the ultra wide and
+ * tele lenses some devices list separately, and logical multi-cameras are kept too.
+ */
+public class CameraCatalog {
+    private final List<CameraInfo> mCameras;
+
+    public CameraCatalog(List<CameraInfo> cameras) {
+        mCameras = Collections.unmodifiableList(new ArrayList<>(cameras));
+    }
+
+    public List<CameraInfo> getCameras() {
+        return mCameras;
+    }
+
+    public List<CameraInfo> getCameras(int lensFacing) {
+        final List<CameraInfo> cameras = new ArrayList<>();
+        for (CameraInfo info : mCameras) {
+            if (info.getLensFacing() == lensFacing) {
+                cameras.add(info);
+            }
+        }
+        return cameras;
+    }
+
+    /**
+     * The main camera facing {@code lensFacing}, or null if there is none.
+     */
+    public CameraInfo getDefault(int lensFacing) {
+        for (CameraInfo info : mCameras) {
+            if (info.getLensFacing() == lensFacing) return info;
+        }
+        return null;
+    }
+
+    /**
+     * @return null if there is no camera {@code id}
+     */
+    public CameraInfo get(String id) {
+        for (CameraInfo info : mCameras) {
+            if (info.getId().equals(id)) return info;
+        }
+        return null;
+    }
+
+    /**
+     * A camera to stream next to {@code primary}: the main camera of the other facing if
+     * there is one, otherwise the first camera that does not share a sensor with it.
+     *
+     * @return null if no camera can stream next to {@code primary}
+     */
+    public CameraInfo getCompanion(CameraInfo primary) {
+        final int otherFacing = primary.getLensFacing() == CameraInfo.LENS_FACING_FRONT
+                ? CameraInfo.LENS_FACING_BACK : CameraInfo.LENS_FACING_FRONT;
+        final CameraInfo other = getDefault(otherFacing);
+        if (other != null && !other.sharesSensorWith(primary)) return other;
+        for (CameraInfo info : mCameras) {
+            if (!info.sharesSensorWith(primary)) return info;
+        }
+        return null;
+    }
+
+    public int size() {
+        return mCameras.size();
+    }
+}
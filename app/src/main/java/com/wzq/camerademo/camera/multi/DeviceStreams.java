@@ -0,0 +1,65 @@
+package com.wzq.camerademo.camera.multi;
+
+import com.wzq.camerademo.camera.info.StreamSize;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The continuous streams one camera asks for, each with the sizes it may be stepped down
+ * to, largest first.
+ */
+public final class DeviceStreams {
+    private final String mCameraId;
+    private final List<String> mNames = new ArrayList<>();
+    private final List<List<StreamSize>> mLadders = new ArrayList<>();
+    private final List<Integer> mFps = new ArrayList<>();
+
+    public DeviceStreams(String cameraId) {
+        mCameraId = cameraId;
+    }
+
+    /**
+     * @param ladder sizes the stream may run at, the one asked for first
+     */
+    public DeviceStreams addStream(String name, List<StreamSize> ladder, int fps) {
+        if (ladder.isEmpty()) {
+            throw new IllegalArgumentException("no sizes for " + name);
+        }
+        if (fps <= 0) {
+            throw new IllegalArgumentException("fps must be positive: " + fps);
+        }
+        if (mNames.contains(name)) {
+            throw new IllegalArgumentException("stream " + name + " added twice");
+        }
+        mNames.add(name);
+        mLadders.add(Collections.unmodifiableList(new ArrayList<>(ladder)));
+        mFps.add(fps);
+        return this;
+    }
+
+    public String getCameraId() {
+        return mCameraId;
+    }
+
+    public int getStreamCount() {
+        return mNames.size();
+    }
+
+    public String getName(int stream) {
+        return mNames.get(stream);
+    }
+
+    List<StreamSize> getLadder(int stream) {
+        return mLadders.get(stream);
+    }
+
+    int getFps(int stream) {
+        return mFps.get(stream);
+    }
+
+    int indexOf(String name) {
+        return mNames.indexOf(name);
+    }
+}
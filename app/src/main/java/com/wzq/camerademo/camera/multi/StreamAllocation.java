@@ -0,0 +1,94 @@
+package com.wzq.camerademo.camera.multi;
+
+import com.wzq.camerademo.camera.info.StreamSize;
+
+import java.util.List;
+
+/**
+ * The stream sizes a {@link StreamBudget} settled on.
+ */
+public final class StreamAllocation {
+    private final List<DeviceStreams> mDevices;
+    private final int[][] mLevels;
+    private final long mPixelsPerSecond;
+    private final boolean mWithinBudget;
+    private final int mSteps;
+
+    StreamAllocation(List<DeviceStreams> devices, int[][] levels, long pixelsPerSecond, boolean withinBudget,
+                     int steps) {
+        mDevices = devices;
+        mLevels = levels;
+        mPixelsPerSecond = pixelsPerSecond;
+        mWithinBudget = withinBudget;
+        mSteps = steps;
+    }
+
+    /**
+     * @return null if the camera or the stream was not asked for
+     */
+    public StreamSize getSize(String cameraId, String stream) {
+        final int device = indexOf(cameraId);
+        if (device < 0) return null;
+        final DeviceStreams streams = mDevices.get(device);
+        final int index = streams.indexOf(stream);
+        return index < 0 ? null : streams.getLadder(index).get(mLevels[device][index]);
+    }
+
+    /**
+     * Whether the stream runs smaller than asked for.
+     */
+    public boolean isDowngraded(String cameraId, String stream) {
+        final int device = indexOf(cameraId);
+        if (device < 0) return false;
+        final int index = mDevices.get(device).indexOf(stream);
+        return index >= 0 && mLevels[device][index] > 0;
+    }
+
+    public long getPixelsPerSecond() {
+        return mPixelsPerSecond;
+    }
+
+    public long getPixelsPerSecond(String cameraId) {
+        final int device = indexOf(cameraId);
+        return device < 0 ? 0 : StreamBudget.cost(mDevices.get(device), mLevels[device]);
+    }
+
+    /**
+     * False if even the smallest sizes are over the budget.
+     */
+    public boolean isWithinBudget() {
+        return mWithinBudget;
+    }
+
+    /**
+     * Steps down taken, over every stream.
+     */
+    public int getStepCount() {
+        return mSteps;
+    }
+
+    private int indexOf(String cameraId) {
+        for (int i = 0; i < mDevices.size(); i++) {
+            if (mDevices.get(i).getCameraId().equals(cameraId)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("StreamAllocation{");
+        for (int d = 0; d < mDevices.size(); d++) {
+            final DeviceStreams streams = mDevices.get(d);
+            if (d > 0) {
+                builder.append(", ");
+            }
+            builder.append(streams.getCameraId()).append(':');
+            for (int s = 0; s < streams.getStreamCount(); s++) {
+                builder.append(' ').append(streams.getName(s)).append(' ')
+                        .append(streams.getLadder(s).get(mLevels[d][s]));
+            }
+        }
+        return builder.append(", ").append(mPixelsPerSecond / 1000000).append(" Mpx/s")
+                .append(mWithinBudget ? "" : " over budget").append('}').toString();
+    }
+}
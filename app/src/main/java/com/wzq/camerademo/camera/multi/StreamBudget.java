@@ -0,0 +1,88 @@
+package com.wzq.camerademo.camera.multi;
+
+import com.wzq.camerademo.camera.info.StreamSize;
+
+import java.util.List;
+
+/**
+ * Fits the streams of cameras running at the same time into what the HAL can feed, counted
+ * in pixels per second.
+ *
+ * <p>While the streams together are over the budget, the camera using the most bandwidth
+ * steps its most expensive stream that still can down to the next smaller size, so one
+ * camera never ends up starved for the other one's full quality. Still captures are not
+ * counted; they are not streamed continuously.
+ */
+public class StreamBudget {
+    private final long mMaxPixelsPerSecond;
+
+    public StreamBudget(long maxPixelsPerSecond) {
+        if (maxPixelsPerSecond <= 0) {
+            throw new IllegalArgumentException("budget must be positive: " + maxPixelsPerSecond);
+        }
+        mMaxPixelsPerSecond = maxPixelsPerSecond;
+    }
+
+    public long getMaxPixelsPerSecond() {
+        return mMaxPixelsPerSecond;
+    }
+
+    public StreamAllocation allocate(List<DeviceStreams> devices) {
+        final int[][] levels = new int[devices.size()][];
+        long total = 0;
+        for (int d = 0; d < devices.size(); d++) {
+            levels[d] = new int[devices.get(d).getStreamCount()];
+            total += cost(devices.get(d), levels[d]);
+        }
+        int steps = 0;
+        while (total > mMaxPixelsPerSecond) {
+            int device = -1;
+            long deviceCost = -1;
+            for (int d = 0; d < devices.size(); d++) {
+                final long cost = cost(devices.get(d), levels[d]);
+                if (cost > deviceCost && reducible(devices.get(d), levels[d]) >= 0) {
+                    device = d;
+                    deviceCost = cost;
+                }
+            }
+            if (device < 0) break;
+            final DeviceStreams streams = devices.get(device);
+            final int stream = reducible(streams, levels[device]);
+            total -= cost(streams, stream, levels[device][stream]);
+            levels[device][stream]++;
+            total += cost(streams, stream, levels[device][stream]);
+            steps++;
+        }
+        return new StreamAllocation(devices, levels, total, total <= mMaxPixelsPerSecond, steps);
+    }
+
+    /**
+     * The most expensive stream of the device that can step down, or -1.
+     */
+    private static int reducible(DeviceStreams streams, int[] levels) {
+        int best = -1;
+        long bestCost = -1;
+        for (int s = 0; s < levels.length; s++) {
+            if (levels[s] + 1 >= streams.getLadder(s).size()) continue;
+            final long cost = cost(streams, s, levels[s]);
+            if (cost > bestCost) {
+                best = s;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    static long cost(DeviceStreams streams, int[] levels) {
+        long cost = 0;
+        for (int s = 0; s < levels.length; s++) {
+            cost += cost(streams, s, levels[s]);
+        }
+        return cost;
+    }
+
+    private static long cost(DeviceStreams streams, int stream, int level) {
+        final StreamSize size = streams.getLadder(stream).get(level);
+        return (long) size.getWidth() * size.getHeight() * streams.getFps(stream);
+    }
+}
@@ -0,0 +1,124 @@
+package com.wzq.camerademo.camera.pipeline;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Book-keeping for one {@code captureBurst} request: hands out frames in arrival order
+ * and fires the {@link BurstCallback} once the last frame has left the pipeline.
+ */
+public class Burst {
+    private final int mId;
+    private final BurstFrame[] mFrames;
+    private final BurstCallback mCallback;
+    private final long mRequestedAtNanos;
+
+    private final AtomicInteger mAcquired = new AtomicInteger();
+    private final AtomicInteger mCompleted = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+
+    public Burst(int id, int count, BurstCallback callback) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("burst count must be positive");
+        }
+        mId = id;
+        mCallback = callback;
+        mFrames = new BurstFrame[count];
+        for (int i = 0; i < count; i++) {
+            mFrames[i] = new BurstFrame(this, i);
+        }
+        mRequestedAtNanos = System.nanoTime();
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public int getCount() {
+        return mFrames.length;
+    }
+
+    public long getRequestedAtNanos() {
+        return mRequestedAtNanos;
+    }
+
+    /**
+     * Claims the next frame slot for an incoming image, or returns null once every frame
+     * of the burst has been acquired.
+     */
+    public BurstFrame nextFrame() {
+        final int index = mAcquired.getAndIncrement();
+        if (index >= mFrames.length) {
+            mAcquired.set(mFrames.length);
+            return null;
+        }
+        return mFrames[index];
+    }
+
+    public boolean hasPendingFrames() {
+        return mAcquired.get() < mFrames.length;
+    }
+
+    /**
+     * Fails the next frame slot, for a capture the camera reported as failed and which
+     * will therefore never produce an image.
+     */
+    public void failNextFrame(Throwable reason) {
+        final BurstFrame frame = nextFrame();
+        if (frame != null) {
+            failFrame(frame, reason);
+        }
+    }
+
+    /**
+     * Completes an acquired frame that could not be handed to the pipeline.
+     */
+    public void failFrame(BurstFrame frame, Throwable reason) {
+        frame.setError(reason);
+        onFrameCompleted(frame);
+    }
+
+    /**
+     * Fails every frame that has not been acquired yet, e.g. when the capture sequence was
+     * aborted. Those frames never enter the pipeline, so they complete here.
+     */
+    public void abortPending(Throwable reason) {
+        BurstFrame frame;
+        while ((frame = nextFrame()) != null) {
+            failFrame(frame, reason);
+        }
+    }
+
+    void onFrameCompleted(BurstFrame frame) {
+        frame.markCompleted();
+        if (frame.isFailed()) {
+            mFailed.incrementAndGet();
+        }
+        if (mCompleted.incrementAndGet() == mFrames.length && mCallback != null) {
+            mCallback.onBurstCompleted(this);
+        }
+    }
+
+    public boolean isCompleted() {
+        return mCompleted.get() == mFrames.length;
+    }
+
+    public int getFailedCount() {
+        return mFailed.get();
+    }
+
+    public BurstFrame getFrame(int index) {
+        return mFrames[index];
+    }
+
+    /**
+     * Request-to-persisted latency of every frame, in burst order. Only meaningful once
+     * the burst is completed.
+     */
+    public long[] getFrameLatenciesNanos() {
+        final long[] latencies = new long[mFrames.length];
+        for (int i = 0; i < mFrames.length; i++) {
+            latencies[i] = mFrames[i].getLatencyNanos();
+        }
+        return latencies;
+    }
+}
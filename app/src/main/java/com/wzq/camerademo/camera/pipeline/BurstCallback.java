@@ -0,0 +1,10 @@
+package com.wzq.camerademo.camera.pipeline;
+
+public interface BurstCallback {
+
+    /**
+     * Called from the last pipeline stage once every frame of the burst has either been
+     * persisted or failed.
+     */
+    void onBurstCompleted(Burst burst);
+}
@@ -0,0 +1,105 @@
+package com.wzq.camerademo.camera.pipeline;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One frame of a {@link Burst} as it travels through the {@link StagePipeline}. Each
+ * stage stamps the frame when it is done with it, which gives the per-stage latency.
+ */
+public class BurstFrame {
+    private final Burst mBurst;
+    private final int mIndex;
+    private String mName;
+
+    private ByteBuffer mData;
+    private long mSensorTimestamp;
+    private long mAcquiredAtNanos;
+    private long mEncodedAtNanos;
+    private long mPersistedAtNanos;
+    private long mCompletedAtNanos;
+    private Throwable mError;
+
+    BurstFrame(Burst burst, int index) {
+        mBurst = burst;
+        mIndex = index;
+    }
+
+    public Burst getBurst() {
+        return mBurst;
+    }
+
+    public int getIndex() {
+        return mIndex;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void setName(String name) {
+        mName = name;
+    }
+
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    public void setData(ByteBuffer data) {
+        mData = data;
+    }
+
+    public long getSensorTimestamp() {
+        return mSensorTimestamp;
+    }
+
+    public void setSensorTimestamp(long sensorTimestamp) {
+        mSensorTimestamp = sensorTimestamp;
+    }
+
+    public void markAcquired() {
+        mAcquiredAtNanos = System.nanoTime();
+    }
+
+    public void markEncoded() {
+        mEncodedAtNanos = System.nanoTime();
+    }
+
+    public void markPersisted() {
+        mPersistedAtNanos = System.nanoTime();
+    }
+
+    void markCompleted() {
+        mCompletedAtNanos = System.nanoTime();
+    }
+
+    public long getAcquiredAtNanos() {
+        return mAcquiredAtNanos;
+    }
+
+    public long getEncodedAtNanos() {
+        return mEncodedAtNanos;
+    }
+
+    public long getPersistedAtNanos() {
+        return mPersistedAtNanos;
+    }
+
+    /**
+     * Time from the burst request to the frame leaving the last stage.
+     */
+    public long getLatencyNanos() {
+        return mCompletedAtNanos - mBurst.getRequestedAtNanos();
+    }
+
+    public Throwable getError() {
+        return mError;
+    }
+
+    public void setError(Throwable error) {
+        mError = error;
+    }
+
+    public boolean isFailed() {
+        return mError != null;
+    }
+}
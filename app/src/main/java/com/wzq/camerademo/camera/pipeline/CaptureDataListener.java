@@ -0,0 +1,21 @@
+package com.wzq.camerademo.camera.pipeline;
+
+import com.wzq.camerademo.camera.io.DirectBufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Gets the bytes of every still and burst frame written to the capture directory, in the
+ * pooled buffer they were written from rather than read back from disk.
+ */
+public interface CaptureDataListener {
+
+    /**
+     * Called on the thread that wrote {@code name}. {@code data} holds the capture from
+     * position 0 to its limit; nobody writes to it any more. The caller takes a reference
+     * for the listener with {@link DirectBufferPool#retain(ByteBuffer)} before the call, or
+     * hands over its own; the listener must release it to the pool when done, which may be
+     * later and on another thread, and exactly once.
+     */
+    void onCaptureData(String name, ByteBuffer data);
+}
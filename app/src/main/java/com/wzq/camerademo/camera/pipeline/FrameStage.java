@@ -0,0 +1,10 @@
+package com.wzq.camerademo.camera.pipeline;
+
+public interface FrameStage {
+
+    /**
+     * Processes the frame on the stage's own worker thread. Throwing marks the frame as
+     * failed and the remaining stages skip it.
+     */
+    void process(BurstFrame frame) throws Exception;
+}
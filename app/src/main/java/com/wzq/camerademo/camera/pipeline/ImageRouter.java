@@ -0,0 +1,502 @@
+package com.wzq.camerademo.camera.pipeline;
+
+import com.wzq.camerademo.camera.analysis.LatestFrameDispatcher;
+import com.wzq.camerademo.camera.analysis.YuvFrame;
+import com.wzq.camerademo.camera.backend.BackendImage;
+import com.wzq.camerademo.camera.backend.CaptureCallback;
+import com.wzq.camerademo.camera.backend.FrameResult;
+import com.wzq.camerademo.camera.backend.FrameResultListener;
+import com.wzq.camerademo.camera.backend.ImageListener;
+import com.wzq.camerademo.camera.info.CameraInfo;
+import com.wzq.camerademo.camera.io.ImageFileWriter;
+import com.wzq.camerademo.camera.io.PersistCallback;
+import com.wzq.camerademo.camera.io.PersistResult;
+import com.wzq.camerademo.camera.io.PersistenceQueue;
+import com.wzq.camerademo.camera.metrics.CameraMetrics;
+import com.wzq.camerademo.camera.process.StillPostProcessor;
+import com.wzq.camerademo.camera.store.CaptureNamer;
+import com.wzq.camerademo.camera.store.CaptureStore;
+import com.wzq.camerademo.camera.thumb.ThumbnailGenerator;
+import com.wzq.camerademo.camera.zsl.ZslFrame;
+import com.wzq.camerademo.camera.zsl.ZslRingBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the images of a session where they belong: stills of the active {@link Burst}
+ * through the burst pipeline, zero shutter lag frames to the {@link ZslRingBuffer}, other
+ * stills to the {@link PersistenceQueue} and analysis frames to the
+ * {@link LatestFrameDispatcher}.
+ */
+public class ImageRouter implements ImageListener, FrameResultListener {
+    private final ImageFileWriter mImageFileWriter;
+    private final CaptureNamer mCaptureNamer;
+    private final PersistenceQueue mPersistenceQueue;
+    private final PersistCallback mPersistCallback;
+    private final int mBurstQueueDepth;
+    private volatile LatestFrameDispatcher mFrameDispatcher;
+    private volatile CameraMetrics mMetrics;
+    private volatile ZslRingBuffer mZslBuffer;
+    private volatile ThumbnailGenerator<?> mThumbnailGenerator;
+    private volatile StillPostProcessor mPostProcessor;
+    private volatile CaptureDataListener mCaptureDataListener;
+    private volatile String mSource;
+    private final AtomicInteger mRequestedStills = new AtomicInteger();
+
+    private volatile StagePipeline mBurstPipeline;
+    private volatile Burst mActiveBurst;
+    // with a ZSL buffer, sensor timestamps of burst stills that started before their image
+    // came; guarded by mBurstMatchLock together with handing images to the ZSL buffer
+    private final Object mBurstMatchLock = new Object();
+    private final Set<Long> mStartedBurstStills = new HashSet<>();
+    private int mBurstSequence;
+    private long mFallbackCaptureId;
+
+    /**
+     * @param captureNamer names the captures, usually the store; null to fall back to time
+     *                     based names
+     */
+    public ImageRouter(ImageFileWriter imageFileWriter, CaptureNamer captureNamer,
+                       PersistenceQueue persistenceQueue, PersistCallback persistCallback, int burstQueueDepth) {
+        mImageFileWriter = imageFileWriter;
+        mCaptureNamer = captureNamer;
+        mPersistenceQueue = persistenceQueue;
+        mPersistCallback = persistCallback;
+        mBurstQueueDepth = burstQueueDepth;
+    }
+
+    public void setFrameDispatcher(LatestFrameDispatcher dispatcher) {
+        mFrameDispatcher = dispatcher;
+    }
+
+    public LatestFrameDispatcher getFrameDispatcher() {
+        return mFrameDispatcher;
+    }
+
+    /**
+     * Receives the shutter-to-image and image-to-disk latencies of the stills; null to
+     * record nothing.
+     */
+    public void setMetrics(CameraMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Gets a thumbnail made for every persisted still and burst frame; null for none.
+     */
+    public void setThumbnailGenerator(ThumbnailGenerator<?> generator) {
+        mThumbnailGenerator = generator;
+    }
+
+    /**
+     * Gets the processed variants made of every persisted still and burst frame; null for
+     * none.
+     */
+    public void setPostProcessor(StillPostProcessor processor) {
+        mPostProcessor = processor;
+    }
+
+    /**
+     * Shares the buffer of every persisted still and burst frame with {@code listener};
+     * null for none.
+     */
+    public void setCaptureDataListener(CaptureDataListener listener) {
+        mCaptureDataListener = listener;
+    }
+
+    /**
+     * Names the camera the stills come from, so a {@link PersistenceQueue} shared between
+     * cameras takes turns between them; null for the default source. Bursts pick it up
+     * in {@link #start()}.
+     */
+    public void setSource(String source) {
+        mSource = source;
+    }
+
+    /**
+     * Keeps the JPEGs of a zero shutter lag session in {@code buffer} instead of persisting
+     * them; null to persist every JPEG.
+     */
+    public void setZslBuffer(ZslRingBuffer buffer) {
+        final ZslRingBuffer previous = mZslBuffer;
+        mZslBuffer = buffer;
+        if (previous != null && previous != buffer) {
+            previous.clear();
+        }
+    }
+
+    public ZslRingBuffer getZslBuffer() {
+        return mZslBuffer;
+    }
+
+    public void start() {
+        final LatestFrameDispatcher dispatcher = mFrameDispatcher;
+        if (dispatcher != null) {
+            dispatcher.start();
+        }
+        mBurstPipeline = new StagePipeline("BurstPipeline", mBurstQueueDepth,
+                new FrameStage[]{new JpegVerifyStage(), new PersistStage(mPersistenceQueue, mSource)}, mReleaseBurstFrameStage);
+    }
+
+    /**
+     * Fails the frames of the active burst that have not arrived and stops the workers once
+     * the frames already in the pipeline are written.
+     */
+    public void stop() {
+        final LatestFrameDispatcher dispatcher = mFrameDispatcher;
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+        final ZslRingBuffer zslBuffer = mZslBuffer;
+        if (zslBuffer != null) {
+            zslBuffer.clear();
+        }
+        mRequestedStills.set(0);
+        final StagePipeline pipeline = mBurstPipeline;
+        if (pipeline != null) {
+            abortBurst(new IllegalStateException("camera stopped"));
+            pipeline.shutdown();
+            mBurstPipeline = null;
+        }
+    }
+
+    public boolean isStarted() {
+        return mBurstPipeline != null;
+    }
+
+    /**
+     * Makes a burst of {@code count} stills the target of the next JPEG images.
+     *
+     * @return null if not started or if the previous burst is still capturing
+     */
+    public synchronized Burst beginBurst(int count, BurstCallback callback) {
+        if (mBurstPipeline == null) return null;
+        final Burst activeBurst = mActiveBurst;
+        if (activeBurst != null && activeBurst.hasPendingFrames()) return null;
+        final Burst burst = new Burst(++mBurstSequence, count, callback);
+        synchronized (mBurstMatchLock) {
+            mStartedBurstStills.clear();
+        }
+        mActiveBurst = burst;
+        return burst;
+    }
+
+    /**
+     * Forgets {@code burst} without failing its frames, for a burst that was never requested.
+     */
+    public synchronized void cancelBurst(Burst burst) {
+        if (mActiveBurst == burst) {
+            mActiveBurst = null;
+        }
+    }
+
+    public void abortBurst(Throwable reason) {
+        final Burst burst = mActiveBurst;
+        if (burst != null) {
+            burst.abortPending(reason);
+            cancelBurst(burst);
+        }
+    }
+
+    /**
+     * Fails the frames of the active burst that the camera reports as lost.
+     */
+    public CaptureCallback getBurstCaptureCallback() {
+        return mBurstCaptureCallback;
+    }
+
+    /**
+     * Persists the frame of the ZSL buffer that best matches the shutter, without asking
+     * the camera for anything.
+     *
+     * @return false if there is no ZSL buffer or it has no frame yet
+     */
+    public boolean captureZsl(long shutterTimestamp, ZslRingBuffer.Selection selection, long windowNanos) {
+        final ZslRingBuffer zslBuffer = mZslBuffer;
+        if (zslBuffer == null) return false;
+        final ZslFrame frame = zslBuffer.take(shutterTimestamp, selection, windowNanos);
+        if (frame == null) return false;
+        final CameraMetrics metrics = mMetrics;
+        if (metrics != null) {
+            // the image was there before the shutter
+            metrics.record(CameraMetrics.Latency.SHUTTER_TO_IMAGE, 0);
+        }
+        persistStill(frame.getImage(), System.nanoTime(), metrics);
+        return true;
+    }
+
+    /**
+     * Makes the next JPEG that is not part of a burst a still to persist even if a ZSL
+     * buffer is set, for a still requested from the camera while the buffer is empty.
+     */
+    public void requestStill() {
+        mRequestedStills.incrementAndGet();
+    }
+
+    public void cancelStillRequest() {
+        claimRequestedStill();
+    }
+
+    public String newCaptureName() {
+        if (mCaptureNamer != null) {
+            return mCaptureNamer.newCaptureName();
+        }
+        synchronized (this) {
+            return CaptureStore.nameFor(++mFallbackCaptureId, System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public void onFrameResult(FrameResult result) {
+        final ZslRingBuffer zslBuffer = mZslBuffer;
+        if (zslBuffer != null) {
+            zslBuffer.addResult(result);
+        }
+    }
+
+    @Override
+    public void onImageAvailable(BackendImage image) {
+        if (image.getFormat() == CameraInfo.FORMAT_JPEG) {
+            onJpegImage(image);
+        } else {
+            onAnalysisImage(image);
+        }
+    }
+
+    /**
+     * Without a ZSL buffer every JPEG during a burst is one of its stills. With one, the
+     * repeating request feeds the same stream, so a JPEG only joins the burst once the burst
+     * has reported a still starting at its timestamp; until then it waits in the ZSL buffer.
+     */
+    private void onJpegImage(BackendImage image) {
+        final long arrivedAtNanos = System.nanoTime();
+        final CameraMetrics metrics = mMetrics;
+        final Burst burst = mActiveBurst;
+        final ZslRingBuffer zslBuffer = mZslBuffer;
+        BurstFrame frame = null;
+        if (zslBuffer == null) {
+            frame = burst != null ? burst.nextFrame() : null;
+        } else {
+            synchronized (mBurstMatchLock) {
+                if (burst != null && mStartedBurstStills.remove(image.getTimestamp())) {
+                    frame = burst.nextFrame();
+                } else if (!claimRequestedStill()) {
+                    zslBuffer.addImage(image);
+                    return;
+                }
+            }
+        }
+        if (metrics != null) {
+            metrics.onStillImage();
+        }
+        if (frame != null) {
+            acquireBurstFrame(frame, image);
+            return;
+        }
+        persistStill(image, arrivedAtNanos, metrics);
+    }
+
+    private boolean claimRequestedStill() {
+        while (true) {
+            final int requested = mRequestedStills.get();
+            if (requested == 0) return false;
+            if (mRequestedStills.compareAndSet(requested, requested - 1)) return true;
+        }
+    }
+
+    private void persistStill(BackendImage image, final long arrivedAtNanos, final CameraMetrics metrics) {
+        final ByteBuffer data;
+        try {
+            data = mImageFileWriter.copy(image.getPlaneBuffer(0));
+        } finally {
+            image.close();
+        }
+        final ThumbnailGenerator<?> thumbnails = mThumbnailGenerator;
+        final StillPostProcessor postProcessor = mPostProcessor;
+        final CaptureDataListener dataListener = mCaptureDataListener;
+        if (metrics == null && thumbnails == null && postProcessor == null && dataListener == null) {
+            mPersistenceQueue.submit(mSource, newCaptureName(), data, mPersistCallback);
+            return;
+        }
+        if (dataListener != null) {
+            // outlives the reference the persistence queue releases after the write
+            mImageFileWriter.getBufferPool().retain(data);
+        }
+        mPersistenceQueue.submit(mSource, newCaptureName(), data, new PersistCallback() {
+            @Override
+            public void onPersistCompleted(PersistResult result) {
+                if (metrics != null && result.isStored()) {
+                    metrics.record(CameraMetrics.Latency.IMAGE_TO_DISK, System.nanoTime() - arrivedAtNanos);
+                }
+                // spilled captures are not in the capture directory
+                if (result.getStatus() == PersistResult.Status.WRITTEN) {
+                    if (thumbnails != null) {
+                        thumbnails.submit(result.getName());
+                    }
+                    if (postProcessor != null) {
+                        postProcessor.submit(result.getName());
+                    }
+                }
+                if (dataListener != null) {
+                    shareCaptureData(dataListener, result.getName(), data,
+                            result.getStatus() == PersistResult.Status.WRITTEN);
+                }
+                mPersistCallback.onPersistCompleted(result);
+            }
+        });
+    }
+
+    private void onAnalysisImage(BackendImage image) {
+        try {
+            final LatestFrameDispatcher dispatcher = mFrameDispatcher;
+            final YuvFrame frame = dispatcher != null ? dispatcher.obtainFrame() : null;
+            if (frame == null) return;
+            try {
+                frame.setFormat(image.getWidth(), image.getHeight(), image.getTimestamp());
+                for (int i = 0; i < image.getPlaneCount(); i++) {
+                    frame.setPlane(i, image.getPlaneBuffer(i), image.getRowStride(i), image.getPixelStride(i));
+                }
+            } catch (RuntimeException e) {
+                // the pool only has a few frames, losing one for good would stall the analyzer
+                dispatcher.recycle(frame);
+                throw e;
+            }
+            dispatcher.publish(frame);
+        } finally {
+            image.close();
+        }
+    }
+
+    /**
+     * Acquire stage of the burst pipeline: copies the JPEG into a pooled buffer and frees the
+     * stream slot right away. Blocks while the pipeline is full, which in turn stops the
+     * stream from being drained and throttles the camera.
+     */
+    private void acquireBurstFrame(BurstFrame frame, BackendImage image) {
+        frame.markAcquired();
+        try {
+            frame.setName(newCaptureName());
+            frame.setData(mImageFileWriter.copy(image.getPlaneBuffer(0)));
+            frame.setSensorTimestamp(image.getTimestamp());
+        } finally {
+            image.close();
+        }
+        final StagePipeline pipeline = mBurstPipeline;
+        try {
+            if (pipeline == null) {
+                throw new IllegalStateException("burst pipeline stopped");
+            }
+            pipeline.put(frame);
+        } catch (InterruptedException e) {
+            releaseBurstFrame(frame);
+            frame.getBurst().failFrame(frame, e);
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            releaseBurstFrame(frame);
+            frame.getBurst().failFrame(frame, e);
+        }
+    }
+
+    private void releaseBurstFrame(BurstFrame frame) {
+        final ByteBuffer data = frame.getData();
+        if (data != null) {
+            frame.setData(null);
+            mImageFileWriter.recycle(data);
+        }
+    }
+
+    /**
+     * Hands the reference to a persisted buffer on to {@code listener}, or releases it if
+     * the capture did not make it into the capture directory.
+     */
+    private void shareCaptureData(CaptureDataListener listener, String name, ByteBuffer data, boolean written) {
+        if (!written) {
+            mImageFileWriter.recycle(data);
+            return;
+        }
+        data.rewind();
+        listener.onCaptureData(name, data);
+    }
+
+    private final FrameStage mReleaseBurstFrameStage = new FrameStage() {
+        @Override
+        public void process(BurstFrame frame) {
+            final CaptureDataListener dataListener = mCaptureDataListener;
+            final ByteBuffer data = frame.getData();
+            if (dataListener != null && data != null && !frame.isFailed()) {
+                mImageFileWriter.getBufferPool().retain(data);
+                releaseBurstFrame(frame);
+                shareCaptureData(dataListener, frame.getName(), data, true);
+            } else {
+                releaseBurstFrame(frame);
+            }
+            final CameraMetrics metrics = mMetrics;
+            if (metrics != null && !frame.isFailed()) {
+                metrics.record(CameraMetrics.Latency.IMAGE_TO_DISK, frame.getPersistedAtNanos() - frame.getAcquiredAtNanos());
+            }
+            final ThumbnailGenerator<?> thumbnails = mThumbnailGenerator;
+            if (thumbnails != null && !frame.isFailed()) {
+                thumbnails.submit(frame.getName());
+            }
+            final StillPostProcessor postProcessor = mPostProcessor;
+            if (postProcessor != null && !frame.isFailed()) {
+                postProcessor.submit(frame.getName());
+            }
+        }
+    };
+
+    private final CaptureCallback mBurstCaptureCallback = new CaptureCallback() {
+        /**
+         * Claims the still's image for the burst if it already went to the ZSL buffer,
+         * otherwise remembers the timestamp for {@link #onJpegImage(BackendImage)}.
+         */
+        @Override
+        public void onCaptureStarted(long timestamp) {
+            final ZslRingBuffer zslBuffer = mZslBuffer;
+            final Burst burst = mActiveBurst;
+            if (zslBuffer == null || burst == null) return;
+            final BackendImage image;
+            synchronized (mBurstMatchLock) {
+                image = zslBuffer.takeImage(timestamp);
+                if (image == null) {
+                    mStartedBurstStills.add(timestamp);
+                    return;
+                }
+            }
+            final BurstFrame frame = burst.nextFrame();
+            if (frame == null) {
+                image.close();
+                return;
+            }
+            final CameraMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.onStillImage();
+            }
+            acquireBurstFrame(frame, image);
+        }
+
+        @Override
+        public void onCaptureFailed(int reason) {
+            final Burst burst = mActiveBurst;
+            if (burst != null) {
+                burst.failNextFrame(new IOException("capture failed, reason " + reason));
+            }
+        }
+
+        @Override
+        public void onCaptureSequenceCompleted() {
+        }
+
+        @Override
+        public void onCaptureSequenceAborted() {
+            final Burst burst = mActiveBurst;
+            if (burst != null) {
+                burst.abortPending(new IOException("capture sequence aborted"));
+            }
+        }
+    };
+}
@@ -0,0 +1,37 @@
+package com.wzq.camerademo.camera.pipeline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encode/verify stage for frames that arrive already JPEG-encoded by the HAL: rejects
+ * truncated or empty buffers before they reach the disk.
+ */
+public class JpegVerifyStage implements FrameStage {
+
+    @Override
+    public void process(BurstFrame frame) throws IOException {
+        if (!isCompleteJpeg(frame.getData())) {
+            throw new IOException("frame " + frame.getIndex() + " is not a complete JPEG");
+        }
+        frame.markEncoded();
+    }
+
+    /**
+     * Checks for the SOI marker at the start and an EOI marker at the end of the
+     * remaining bytes. Some encoders pad after EOI, so trailing zero bytes are skipped.
+     */
+    public static boolean isCompleteJpeg(ByteBuffer data) {
+        if (data == null) return false;
+        final int start = data.position();
+        int end = data.limit();
+        if (end - start < 4) return false;
+        if ((data.get(start) & 0xff) != 0xff || (data.get(start + 1) & 0xff) != 0xd8) {
+            return false;
+        }
+        while (end - start > 4 && data.get(end - 1) == 0) {
+            end--;
+        }
+        return (data.get(end - 2) & 0xff) == 0xff && (data.get(end - 1) & 0xff) == 0xd9;
+    }
+}
@@ -0,0 +1,48 @@
+package com.wzq.camerademo.camera.pipeline;
+
+import com.wzq.camerademo.camera.io.CaptureWriter;
+import com.wzq.camerademo.camera.io.PersistResult;
+import com.wzq.camerademo.camera.io.PersistenceQueue;
+
+import java.io.IOException;
+
+/**
+ * Writes a frame's bytes under {@link BurstFrame#getName()}, which the acquire stage must
+ * have set, either straight through a {@link CaptureWriter} or through a
+ * {@link PersistenceQueue} shared with the stills of other cameras.
+ */
+public class PersistStage implements FrameStage {
+    private final CaptureWriter mWriter;
+    private final PersistenceQueue mQueue;
+    private final String mSource;
+
+    public PersistStage(CaptureWriter writer) {
+        mWriter = writer;
+        mQueue = null;
+        mSource = null;
+    }
+
+    /**
+     * @param source the camera the burst comes from, see {@link PersistenceQueue#write}
+     */
+    public PersistStage(PersistenceQueue queue, String source) {
+        mWriter = null;
+        mQueue = queue;
+        mSource = source;
+    }
+
+    @Override
+    public void process(BurstFrame frame) throws IOException, InterruptedException {
+        if (mQueue == null) {
+            mWriter.write(frame.getName(), frame.getData().duplicate());
+        } else {
+            final PersistResult result = mQueue.write(mSource, frame.getName(), frame.getData());
+            if (result.getStatus() != PersistResult.Status.WRITTEN) {
+                final Throwable error = result.getError();
+                throw error instanceof IOException ? (IOException) error
+                        : new IOException("write " + frame.getName() + " " + result.getStatus(), error);
+            }
+        }
+        frame.markPersisted();
+    }
+}
@@ -0,0 +1,177 @@
+package com.wzq.camerademo.camera.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link BurstFrame}s through a fixed chain of {@link FrameStage}s, one worker thread
+ * per stage, with a bounded queue in front of each stage. A full queue blocks the
+ * upstream stage, so a slow disk eventually stops the producer from acquiring images
+ * instead of letting frames pile up in memory.
+ */
+public class StagePipeline {
+    private final static BurstFrame POISON = new BurstFrame(null, -1);
+
+    private final FrameStage[] mStages;
+    private final FrameStage mReleaseStage;
+    private final ArrayBlockingQueue<BurstFrame>[] mQueues;
+    private final int[] mMaxQueueDepths;
+    private final Thread[] mWorkers;
+    private volatile boolean mShutdown;
+
+    /**
+     * @param releaseStage runs for every frame after the last stage, failed or not, so the
+     *                     frame's buffers can be recycled. May be null.
+     */
+    @SuppressWarnings("unchecked")
+    public StagePipeline(String name, int queueCapacity, FrameStage[] stages, FrameStage releaseStage) {
+        if (stages.length == 0) {
+            throw new IllegalArgumentException("pipeline needs at least one stage");
+        }
+        mStages = stages.clone();
+        mReleaseStage = releaseStage;
+        mQueues = new ArrayBlockingQueue[stages.length];
+        mMaxQueueDepths = new int[stages.length];
+        mWorkers = new Thread[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            mQueues[i] = new ArrayBlockingQueue<>(queueCapacity);
+        }
+        for (int i = 0; i < stages.length; i++) {
+            mWorkers[i] = new Thread(new StageWorker(i), name + "-stage" + i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Hands a frame to the first stage, blocking while that stage's queue is full.
+     */
+    public void put(BurstFrame frame) throws InterruptedException {
+        checkRunning();
+        enqueue(0, frame);
+    }
+
+    /**
+     * Like {@link #put(BurstFrame)} but gives up after {@code timeout}.
+     *
+     * @return false if the first stage stayed full for the whole timeout
+     */
+    public boolean offer(BurstFrame frame, long timeout, TimeUnit unit) throws InterruptedException {
+        checkRunning();
+        if (!mQueues[0].offer(frame, timeout, unit)) {
+            return false;
+        }
+        recordDepth(0);
+        return true;
+    }
+
+    public int getStageCount() {
+        return mStages.length;
+    }
+
+    public int getQueueDepth(int stage) {
+        return mQueues[stage].size();
+    }
+
+    public int getMaxQueueDepth(int stage) {
+        synchronized (mMaxQueueDepths) {
+            return mMaxQueueDepths[stage];
+        }
+    }
+
+    /**
+     * Stops accepting frames. Frames already queued still run through every stage.
+     */
+    public void shutdown() {
+        if (mShutdown) return;
+        mShutdown = true;
+        try {
+            mQueues[0].put(POISON);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Thread worker : mWorkers) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            worker.join(remaining);
+            if (worker.isAlive()) return false;
+        }
+        return true;
+    }
+
+    private void checkRunning() {
+        if (mShutdown) {
+            throw new IllegalStateException("pipeline is shut down");
+        }
+    }
+
+    private void enqueue(int stage, BurstFrame frame) throws InterruptedException {
+        mQueues[stage].put(frame);
+        recordDepth(stage);
+    }
+
+    private void recordDepth(int stage) {
+        final int depth = mQueues[stage].size();
+        synchronized (mMaxQueueDepths) {
+            if (depth > mMaxQueueDepths[stage]) {
+                mMaxQueueDepths[stage] = depth;
+            }
+        }
+    }
+
+    private void complete(BurstFrame frame) {
+        if (mReleaseStage != null) {
+            try {
+                mReleaseStage.process(frame);
+            } catch (Exception e) {
+                if (!frame.isFailed()) {
+                    frame.setError(e);
+                }
+            }
+        }
+        frame.getBurst().onFrameCompleted(frame);
+    }
+
+    private class StageWorker implements Runnable {
+        private final int mStage;
+
+        StageWorker(int stage) {
+            mStage = stage;
+        }
+
+        @Override
+        public void run() {
+            final BlockingQueue<BurstFrame> queue = mQueues[mStage];
+            final boolean last = mStage == mStages.length - 1;
+            try {
+                while (true) {
+                    final BurstFrame frame = queue.take();
+                    if (frame == POISON) {
+                        if (!last) {
+                            enqueue(mStage + 1, POISON);
+                        }
+                        return;
+                    }
+                    if (!frame.isFailed()) {
+                        try {
+                            mStages[mStage].process(frame);
+                        } catch (Exception e) {
+                            frame.setError(e);
+                        }
+                    }
+                    if (last) {
+                        complete(frame);
+                    } else {
+                        enqueue(mStage + 1, frame);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.wzq.camerademo.camera.process;
+
+/**
+ * A decoded image as {@code 0xAARRGGBB} ints, row after row without padding, the layout of
+ * {@code Bitmap.getPixels} and {@code Bitmap.setPixels}. The array may be longer than the
+ * image, so one array can hold images of different sizes.
+ */
+public final class ArgbImage {
+    private final int[] mPixels;
+    private final int mWidth;
+    private final int mHeight;
+
+    public ArgbImage(int[] pixels, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("bad size " + width + "x" + height);
+        }
+        if (pixels.length < (long) width * height) {
+            throw new IllegalArgumentException(pixels.length + " pixels cannot hold " + width + "x" + height);
+        }
+        mPixels = pixels;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * An image of {@code width}x{@code height} in {@code pixels} if it is long enough, in a
+     * new array otherwise.
+     */
+    public static ArgbImage reuse(int[] pixels, int width, int height) {
+        if (pixels == null || pixels.length < (long) width * height) {
+            pixels = new int[width * height];
+        }
+        return new ArgbImage(pixels, width, height);
+    }
+
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getPixel(int x, int y) {
+        return mPixels[y * mWidth + x];
+    }
+}
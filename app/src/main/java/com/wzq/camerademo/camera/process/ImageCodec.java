@@ -0,0 +1,19 @@
+package com.wzq.camerademo.camera.process;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reads and writes the captures {@link StillPostProcessor} works on, e.g. with
+ * {@code BitmapFactory} and {@code Bitmap.compress} on a device.
+ */
+public interface ImageCodec {
+
+    /**
+     * @param pixels where to decode to if it is large enough, so the same array serves
+     *               capture after capture; may be null
+     */
+    ArgbImage decode(File file, int[] pixels) throws IOException;
+
+    void encode(ArgbImage image, File file) throws IOException;
+}
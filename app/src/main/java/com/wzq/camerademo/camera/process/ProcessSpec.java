@@ -0,0 +1,104 @@
+package com.wzq.camerademo.camera.process;
+
+/**
+ * What {@link TiledProcessor} does to an image, applied in this order: downscale, rotate,
+ * mirror, sharpen. Setters return the spec so calls can be chained.
+ */
+public final class ProcessSpec {
+    private final String mName;
+    private int mDownscale = 1;
+    private int mRotation;
+    private boolean mMirrored;
+    private float mSharpenAmount;
+
+    /**
+     * @param name tells the outputs of different specs apart, e.g. in file names
+     */
+    public ProcessSpec(String name) {
+        mName = name;
+    }
+
+    /**
+     * Averages blocks of {@code factor}x{@code factor} pixels into one. Columns and rows
+     * that do not fill a block are dropped.
+     *
+     * @param factor 1, 2, 4, 8 or 16
+     */
+    public ProcessSpec setDownscale(int factor) {
+        if (factor < 1 || factor > 16 || Integer.bitCount(factor) != 1) {
+            throw new IllegalArgumentException("downscale must be a power of two up to 16: " + factor);
+        }
+        mDownscale = factor;
+        return this;
+    }
+
+    /**
+     * Clockwise rotation in degrees, e.g. the sensor orientation to turn a capture upright.
+     */
+    public ProcessSpec setRotation(int degrees) {
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("rotation must be a multiple of 90: " + degrees);
+        }
+        mRotation = ((degrees % 360) + 360) % 360;
+        return this;
+    }
+
+    /**
+     * Flips the image left to right after rotating it, like the front camera preview.
+     */
+    public ProcessSpec setMirrored(boolean mirrored) {
+        mMirrored = mirrored;
+        return this;
+    }
+
+    /**
+     * Strength of a 3x3 Laplacian sharpen, 0 for none; around 0.5 restores what a
+     * downscale softens.
+     */
+    public ProcessSpec setSharpenAmount(float amount) {
+        if (amount < 0 || amount > 4) {
+            throw new IllegalArgumentException("sharpen amount out of range: " + amount);
+        }
+        mSharpenAmount = amount;
+        return this;
+    }
+
+    public ProcessSpec copy() {
+        return new ProcessSpec(mName).setDownscale(mDownscale).setRotation(mRotation).setMirrored(mMirrored)
+                .setSharpenAmount(mSharpenAmount);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getDownscale() {
+        return mDownscale;
+    }
+
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public boolean isMirrored() {
+        return mMirrored;
+    }
+
+    public float getSharpenAmount() {
+        return mSharpenAmount;
+    }
+
+    public int getOutputWidth(int width, int height) {
+        return mRotation % 180 == 0 ? width / mDownscale : height / mDownscale;
+    }
+
+    public int getOutputHeight(int width, int height) {
+        return mRotation % 180 == 0 ? height / mDownscale : width / mDownscale;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcessSpec{" + mName + ", 1/" + mDownscale + ", " + mRotation + "deg"
+                + (mMirrored ? ", mirrored" : "") + (mSharpenAmount > 0 ? ", sharpen " + mSharpenAmount : "") + "}";
+    }
+}
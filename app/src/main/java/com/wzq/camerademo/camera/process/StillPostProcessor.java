@@ -0,0 +1,168 @@
+package com.wzq.camerademo.camera.process;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes processed variants of persisted captures, e.g. an upright full size copy and a
+ * downscaled one, without holding up the capture path: captures are queued to a thread of
+ * their own, which decodes each once and runs every variant through a
+ * {@link TiledProcessor}. A variant {@code "small"} of {@code IMG_1.jpg} is written as
+ * {@code IMG_1_small.jpg} to the output directory.
+ *
+ * <p>The decoded capture and the outputs are kept between captures and only grow when a
+ * capture is larger than any before it.
+ */
+public class StillPostProcessor {
+    private final TiledProcessor mProcessor;
+    private final ImageCodec mCodec;
+    private final File mCaptureDirectory;
+    private final File mOutputDirectory;
+    private final ThreadPoolExecutor mExecutor;
+    private volatile List<ProcessSpec> mVariants = Collections.emptyList();
+    private volatile int mRotation;
+    private volatile boolean mMirrored;
+    private final AtomicInteger mProcessed = new AtomicInteger();
+    private final AtomicInteger mSkipped = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+
+    // only touched on the post-processing thread
+    private int[] mSourcePixels;
+    private int[] mOutputPixels;
+
+    /**
+     * @param queueCapacity captures that may wait; beyond that new ones are skipped
+     */
+    public StillPostProcessor(TiledProcessor processor, ImageCodec codec, File captureDirectory,
+                              File outputDirectory, int queueCapacity) {
+        mProcessor = processor;
+        mCodec = codec;
+        mCaptureDirectory = captureDirectory;
+        mOutputDirectory = outputDirectory;
+        mExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "PostProcessThread");
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Variants made of every capture submitted from now on; their rotation and mirroring
+     * are replaced by {@link #setOrientation}.
+     */
+    public void setVariants(List<ProcessSpec> variants) {
+        final List<ProcessSpec> copies = new ArrayList<>();
+        for (ProcessSpec variant : variants) {
+            copies.add(variant.copy());
+        }
+        mVariants = Collections.unmodifiableList(copies);
+    }
+
+    /**
+     * How captures submitted from now on are turned upright, i.e. the orientation of the
+     * camera taking them.
+     */
+    public void setOrientation(int rotation, boolean mirrored) {
+        mRotation = rotation;
+        mMirrored = mirrored;
+    }
+
+    /**
+     * Queues the variants of a capture that has just been persisted.
+     *
+     * @return false if there are no variants or the queue was full
+     */
+    public boolean submit(final String name) {
+        final List<ProcessSpec> variants = new ArrayList<>();
+        for (ProcessSpec variant : mVariants) {
+            variants.add(variant.copy().setRotation(mRotation).setMirrored(mMirrored));
+        }
+        if (variants.isEmpty()) return false;
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        process(name, variants);
+                        mProcessed.incrementAndGet();
+                    } catch (IOException e) {
+                        mFailed.incrementAndGet();
+                        e.printStackTrace();
+                    } catch (RuntimeException e) {
+                        mFailed.incrementAndGet();
+                        e.printStackTrace();
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            mSkipped.incrementAndGet();
+            return false;
+        }
+    }
+
+    private void process(String name, List<ProcessSpec> variants) throws IOException {
+        final ArgbImage source = mCodec.decode(new File(mCaptureDirectory, name), mSourcePixels);
+        mSourcePixels = source.getPixels();
+        final int dot = name.lastIndexOf('.');
+        final String base = dot > 0 ? name.substring(0, dot) : name;
+        final String extension = dot > 0 ? name.substring(dot) : "";
+        if (!mOutputDirectory.isDirectory() && !mOutputDirectory.mkdirs()) {
+            throw new IOException("cannot create " + mOutputDirectory);
+        }
+        for (ProcessSpec variant : variants) {
+            final ArgbImage output = ArgbImage.reuse(mOutputPixels,
+                    variant.getOutputWidth(source.getWidth(), source.getHeight()),
+                    variant.getOutputHeight(source.getWidth(), source.getHeight()));
+            mOutputPixels = output.getPixels();
+            mProcessor.process(source, variant, output);
+            mCodec.encode(output, new File(mOutputDirectory, base + "_" + variant.getName() + extension));
+        }
+    }
+
+    public TiledProcessor getProcessor() {
+        return mProcessor;
+    }
+
+    /**
+     * Captures all of whose variants were written.
+     */
+    public int getProcessedCount() {
+        return mProcessed.get();
+    }
+
+    /**
+     * Captures not queued because the queue was full.
+     */
+    public int getSkippedCount() {
+        return mSkipped.get();
+    }
+
+    public int getFailedCount() {
+        return mFailed.get();
+    }
+
+    /**
+     * Stops taking work; what is queued is still done.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return mExecutor.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,47 @@
+package com.wzq.camerademo.camera.process;
+
+import java.util.ArrayDeque;
+
+/**
+ * Tile sized {@code int[]} buffers shared by the workers of a {@link TiledProcessor}. Every
+ * worker holds at most one at a time, so after the first image the pool holds one per
+ * worker and nothing more is allocated.
+ */
+public class TileBufferPool {
+    private final ArrayDeque<int[]> mFree = new ArrayDeque<>();
+    private long mAllocations;
+    private long mHits;
+
+    /**
+     * A buffer of at least {@code size} ints, with whatever it held before.
+     */
+    public synchronized int[] acquire(int size) {
+        int[] buffer = mFree.pollFirst();
+        while (buffer != null && buffer.length < size) {
+            // left over from a larger margin or tile size, let it go
+            buffer = mFree.pollFirst();
+        }
+        if (buffer != null) {
+            mHits++;
+            return buffer;
+        }
+        mAllocations++;
+        return new int[size];
+    }
+
+    public synchronized void release(int[] buffer) {
+        mFree.offerFirst(buffer);
+    }
+
+    public synchronized void clear() {
+        mFree.clear();
+    }
+
+    public synchronized long getAllocationCount() {
+        return mAllocations;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+}
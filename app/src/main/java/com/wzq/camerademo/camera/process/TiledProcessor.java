@@ -0,0 +1,230 @@
+package com.wzq.camerademo.camera.process;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies a {@link ProcessSpec} to an {@link ArgbImage} tile by tile on a
+ * {@link ForkJoinPool}.
+ *
+ * <p>Each output tile is filled straight from the source: its pixels are looked up through
+ * the downscale, rotation and mirroring in one step, so no intermediate image of the whole
+ * frame is made. Sharpening needs the neighbours of every pixel, so a sharpened tile is
+ * first gathered with a one pixel margin into a buffer from the {@link TileBufferPool} and
+ * then filtered into the output.
+ */
+public class TiledProcessor {
+    public static final int DEFAULT_TILE_SIZE = 128;
+
+    private final ForkJoinPool mPool;
+    private final int mTileSize;
+    private final TileBufferPool mBuffers = new TileBufferPool();
+
+    public TiledProcessor(ForkJoinPool pool) {
+        this(pool, DEFAULT_TILE_SIZE);
+    }
+
+    public TiledProcessor(ForkJoinPool pool, int tileSize) {
+        if (tileSize < 8) {
+            throw new IllegalArgumentException("tile size too small: " + tileSize);
+        }
+        mPool = pool;
+        mTileSize = tileSize;
+    }
+
+    /**
+     * A pool with a worker per core.
+     */
+    public static ForkJoinPool newPool() {
+        return new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Processes {@code src} into {@code dst}, which must be
+     * {@link ProcessSpec#getOutputWidth} x {@link ProcessSpec#getOutputHeight} and must not
+     * share its pixels with {@code src}. Blocks until every tile is done.
+     */
+    public void process(ArgbImage src, ProcessSpec spec, ArgbImage dst) {
+        final int width = spec.getOutputWidth(src.getWidth(), src.getHeight());
+        final int height = spec.getOutputHeight(src.getWidth(), src.getHeight());
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException(src.getWidth() + "x" + src.getHeight() + " too small for " + spec);
+        }
+        if (dst.getWidth() != width || dst.getHeight() != height) {
+            throw new IllegalArgumentException("output is " + dst.getWidth() + "x" + dst.getHeight()
+                    + ", expected " + width + "x" + height);
+        }
+        if (dst.getPixels() == src.getPixels()) {
+            throw new IllegalArgumentException("cannot process in place");
+        }
+        final Job job = new Job(src, spec, dst, mTileSize, mBuffers);
+        mPool.invoke(new TileTask(job, 0, job.mTileCount));
+    }
+
+    public int getParallelism() {
+        return mPool.getParallelism();
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    public TileBufferPool getBufferPool() {
+        return mBuffers;
+    }
+
+    private static class TileTask extends RecursiveAction {
+        private final Job mJob;
+        private final int mFrom;
+        private final int mTo;
+
+        TileTask(Job job, int from, int to) {
+            mJob = job;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom == 1) {
+                mJob.processTile(mFrom);
+                return;
+            }
+            final int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new TileTask(mJob, mFrom, middle), new TileTask(mJob, middle, mTo));
+        }
+    }
+
+    /**
+     * One image being processed. Output coordinates map to the downscaled source as
+     * {@code sx = xx * x + xy * y + x0}, {@code sy = yx * x + yy * y + y0}.
+     */
+    private static class Job {
+        private final int[] mSrc;
+        private final int mSrcWidth;
+        private final int[] mDst;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mTileSize;
+        private final int mTilesX;
+        private final int mTileCount;
+        private final int mScaleShift;
+        // amount in 8.8 fixed point, 0 without sharpening
+        private final int mSharpen;
+        private final TileBufferPool mBuffers;
+        private final int mXx, mXy, mX0, mYx, mYy, mY0;
+
+        Job(ArgbImage src, ProcessSpec spec, ArgbImage dst, int tileSize, TileBufferPool buffers) {
+            mSrc = src.getPixels();
+            mSrcWidth = src.getWidth();
+            mDst = dst.getPixels();
+            mWidth = dst.getWidth();
+            mHeight = dst.getHeight();
+            mTileSize = tileSize;
+            mTilesX = (mWidth + tileSize - 1) / tileSize;
+            mTileCount = mTilesX * ((mHeight + tileSize - 1) / tileSize);
+            mScaleShift = Integer.numberOfTrailingZeros(spec.getDownscale());
+            mSharpen = Math.round(spec.getSharpenAmount() * 256);
+            mBuffers = buffers;
+
+            final int scaledWidth = src.getWidth() >> mScaleShift;
+            final int scaledHeight = src.getHeight() >> mScaleShift;
+            // mirroring flips the output, before it is mapped back through the rotation
+            final int mx = spec.isMirrored() ? -1 : 1;
+            final int mc = spec.isMirrored() ? mWidth - 1 : 0;
+            switch (spec.getRotation()) {
+                case 90:
+                    mXx = 0; mXy = 1; mX0 = 0;
+                    mYx = -mx; mYy = 0; mY0 = scaledHeight - 1 - mc;
+                    break;
+                case 180:
+                    mXx = -mx; mXy = 0; mX0 = scaledWidth - 1 - mc;
+                    mYx = 0; mYy = -1; mY0 = scaledHeight - 1;
+                    break;
+                case 270:
+                    mXx = 0; mXy = -1; mX0 = scaledWidth - 1;
+                    mYx = mx; mYy = 0; mY0 = mc;
+                    break;
+                default:
+                    mXx = mx; mXy = 0; mX0 = mc;
+                    mYx = 0; mYy = 1; mY0 = 0;
+                    break;
+            }
+        }
+
+        void processTile(int tile) {
+            final int left = (tile % mTilesX) * mTileSize;
+            final int top = (tile / mTilesX) * mTileSize;
+            final int right = Math.min(left + mTileSize, mWidth);
+            final int bottom = Math.min(top + mTileSize, mHeight);
+            if (mSharpen == 0) {
+                for (int y = top; y < bottom; y++) {
+                    final int row = y * mWidth;
+                    for (int x = left; x < right; x++) {
+                        mDst[row + x] = sample(x, y);
+                    }
+                }
+                return;
+            }
+            final int stride = right - left + 2;
+            final int[] buffer = mBuffers.acquire(stride * (bottom - top + 2));
+            try {
+                int i = 0;
+                for (int y = top - 1; y <= bottom; y++) {
+                    // edges repeat the outermost pixels
+                    final int cy = Math.max(0, Math.min(mHeight - 1, y));
+                    for (int x = left - 1; x <= right; x++) {
+                        buffer[i++] = sample(Math.max(0, Math.min(mWidth - 1, x)), cy);
+                    }
+                }
+                for (int y = top; y < bottom; y++) {
+                    final int row = y * mWidth;
+                    int center = (y - top + 1) * stride + 1;
+                    for (int x = left; x < right; x++, center++) {
+                        mDst[row + x] = sharpen(buffer[center], buffer[center - stride], buffer[center + stride],
+                                buffer[center - 1], buffer[center + 1]);
+                    }
+                }
+            } finally {
+                mBuffers.release(buffer);
+            }
+        }
+
+        private int sample(int x, int y) {
+            final int sx = mXx * x + mXy * y + mX0;
+            final int sy = mYx * x + mYy * y + mY0;
+            if (mScaleShift == 0) {
+                return mSrc[sy * mSrcWidth + sx];
+            }
+            final int size = 1 << mScaleShift;
+            int a = 0, r = 0, g = 0, b = 0;
+            int offset = (sy << mScaleShift) * mSrcWidth + (sx << mScaleShift);
+            for (int j = 0; j < size; j++, offset += mSrcWidth) {
+                for (int i = 0; i < size; i++) {
+                    final int pixel = mSrc[offset + i];
+                    a += pixel >>> 24;
+                    r += (pixel >> 16) & 0xff;
+                    g += (pixel >> 8) & 0xff;
+                    b += pixel & 0xff;
+                }
+            }
+            final int shift = 2 * mScaleShift;
+            return (a >> shift) << 24 | (r >> shift) << 16 | (g >> shift) << 8 | (b >> shift);
+        }
+
+        private int sharpen(int c, int n, int s, int w, int e) {
+            return (c & 0xff000000)
+                    | sharpenChannel(c, n, s, w, e, 16) << 16
+                    | sharpenChannel(c, n, s, w, e, 8) << 8
+                    | sharpenChannel(c, n, s, w, e, 0);
+        }
+
+        private int sharpenChannel(int c, int n, int s, int w, int e, int shift) {
+            final int center = (c >> shift) & 0xff;
+            final int laplacian = 4 * center - ((n >> shift) & 0xff) - ((s >> shift) & 0xff)
+                    - ((w >> shift) & 0xff) - ((e >> shift) & 0xff);
+            final int value = center + ((mSharpen * laplacian) >> 8);
+            return value < 0 ? 0 : value > 255 ? 255 : value;
+        }
+    }
+}
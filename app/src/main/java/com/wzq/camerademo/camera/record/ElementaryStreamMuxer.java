@@ -0,0 +1,53 @@
+package com.wzq.camerademo.camera.record;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link SampleMuxer} writing the samples back to back after the codec config, without a
+ * container. For H.264 and HEVC in Annex B form, as encoders put out, the file is a raw
+ * elementary stream that decoders and {@code ffmpeg} read as is.
+ */
+public class ElementaryStreamMuxer implements SampleMuxer<byte[]> {
+    private final FileOutputStream mOutput;
+    private final FileChannel mChannel;
+
+    public ElementaryStreamMuxer(File file) throws IOException {
+        mOutput = new FileOutputStream(file);
+        mChannel = mOutput.getChannel();
+    }
+
+    /**
+     * @param codecConfig parameter sets the stream needs to be decoded, e.g. SPS and PPS
+     */
+    @Override
+    public void start(byte[] codecConfig) throws IOException {
+        write(ByteBuffer.wrap(codecConfig));
+    }
+
+    @Override
+    public void writeSample(ByteBuffer data, SampleInfo info) throws IOException {
+        final ByteBuffer sample = data.duplicate();
+        sample.limit(info.getOffset() + info.getSize());
+        sample.position(info.getOffset());
+        write(sample);
+    }
+
+    @Override
+    public void stop() throws IOException {
+        try {
+            mChannel.force(true);
+        } finally {
+            mOutput.close();
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.wzq.camerademo.camera.record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the encoded samples of the last {@code windowUs} of a recording in memory, so
+ * "save the last few seconds" is a copy of already encoded data instead of a re-encode.
+ *
+ * <p>Samples are kept in groups of pictures, each starting with a key frame, and dropped a
+ * whole group at a time, so what is saved always starts with a key frame and covers at
+ * least the window when the stream has been running that long. {@code maxBytes} caps the
+ * memory, at the cost of a shorter window when the bit rate is high; the newest group is
+ * always kept.
+ */
+public class PreRollBuffer<F> implements SampleMuxer<F> {
+    private final long mWindowUs;
+    private final long mMaxBytes;
+    private final List<Group> mGroups = new ArrayList<>();
+    private F mFormat;
+    private long mBytes;
+    private long mNewestTimeUs;
+    private long mDroppedSamples;
+
+    public PreRollBuffer(long windowUs, long maxBytes) {
+        if (windowUs <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("windowUs and maxBytes must be positive");
+        }
+        mWindowUs = windowUs;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Starts over for the stream of a new recording.
+     */
+    @Override
+    public synchronized void start(F format) {
+        clear();
+        mFormat = format;
+    }
+
+    @Override
+    public synchronized void writeSample(ByteBuffer data, SampleInfo info) {
+        if (info.isKeyFrame()) {
+            mGroups.add(new Group(info.getPresentationTimeUs()));
+        } else if (mGroups.isEmpty()) {
+            // cannot be decoded without the key frame before it
+            mDroppedSamples++;
+            return;
+        }
+        final ByteBuffer sample = data.duplicate();
+        sample.limit(info.getOffset() + info.getSize());
+        sample.position(info.getOffset());
+        final byte[] bytes = new byte[info.getSize()];
+        sample.get(bytes);
+        mGroups.get(mGroups.size() - 1).add(new Sample(bytes, info.getPresentationTimeUs(), info.getFlags()));
+        mBytes += bytes.length;
+        mNewestTimeUs = Math.max(mNewestTimeUs, info.getPresentationTimeUs());
+        trim();
+    }
+
+    /**
+     * Keeps the samples, they can still be saved after the recording stopped.
+     */
+    @Override
+    public void stop() {
+    }
+
+    /**
+     * Writes the buffered samples to {@code muxer}, which is started and stopped here. The
+     * buffer keeps filling meanwhile; what is written is what it held when called.
+     *
+     * @return the number of samples written
+     */
+    public int save(SampleMuxer<F> muxer) throws IOException {
+        final F format;
+        final List<Sample> samples = new ArrayList<>();
+        synchronized (this) {
+            format = mFormat;
+            for (Group group : mGroups) {
+                samples.addAll(group.mSamples);
+            }
+        }
+        if (format == null || samples.isEmpty()) {
+            muxer.stop();
+            return 0;
+        }
+        final SampleInfo info = new SampleInfo();
+        try {
+            muxer.start(format);
+            for (Sample sample : samples) {
+                info.set(0, sample.mData.length, sample.mTimeUs, sample.mFlags);
+                muxer.writeSample(ByteBuffer.wrap(sample.mData), info);
+            }
+        } catch (IOException e) {
+            try {
+                muxer.stop();
+            } catch (IOException stopException) {
+                stopException.printStackTrace();
+            }
+            throw e;
+        }
+        muxer.stop();
+        return samples.size();
+    }
+
+    public synchronized void clear() {
+        mGroups.clear();
+        mBytes = 0;
+        mNewestTimeUs = 0;
+    }
+
+    /**
+     * Time from the first buffered key frame to the newest sample.
+     */
+    public synchronized long getDurationUs() {
+        return mGroups.isEmpty() ? 0 : mNewestTimeUs - mGroups.get(0).mStartTimeUs;
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized int getSampleCount() {
+        int count = 0;
+        for (Group group : mGroups) {
+            count += group.mSamples.size();
+        }
+        return count;
+    }
+
+    /**
+     * Samples dropped because no key frame came before them.
+     */
+    public synchronized long getDroppedSamples() {
+        return mDroppedSamples;
+    }
+
+    private void trim() {
+        while (mGroups.size() > 1
+                && (mNewestTimeUs - mGroups.get(1).mStartTimeUs >= mWindowUs || mBytes > mMaxBytes)) {
+            mBytes -= mGroups.remove(0).mBytes;
+        }
+    }
+
+    private static final class Group {
+        final long mStartTimeUs;
+        final List<Sample> mSamples = new ArrayList<>();
+        long mBytes;
+
+        Group(long startTimeUs) {
+            mStartTimeUs = startTimeUs;
+        }
+
+        void add(Sample sample) {
+            mSamples.add(sample);
+            mBytes += sample.mData.length;
+        }
+    }
+
+    private static final class Sample {
+        final byte[] mData;
+        final long mTimeUs;
+        final int mFlags;
+
+        Sample(byte[] data, long timeUs, int flags) {
+            mData = data;
+            mTimeUs = timeUs;
+            mFlags = flags;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.wzq.camerademo.camera.record;
+
+/**
+ * Where an encoded sample is in its buffer and when it is presented, the counterpart of
+ * {@code MediaCodec.BufferInfo}. Reused from one sample to the next.
+ */
+public final class SampleInfo {
+    private int mOffset;
+    private int mSize;
+    private long mPresentationTimeUs;
+    private int mFlags;
+
+    public void set(int offset, int size, long presentationTimeUs, int flags) {
+        mOffset = offset;
+        mSize = size;
+        mPresentationTimeUs = presentationTimeUs;
+        mFlags = flags;
+    }
+
+    public int getOffset() {
+        return mOffset;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    public long getPresentationTimeUs() {
+        return mPresentationTimeUs;
+    }
+
+    /**
+     * Combination of the {@code VideoEncoder.FLAG_*} values.
+     */
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public boolean isKeyFrame() {
+        return (mFlags & VideoEncoder.FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isCodecConfig() {
+        return (mFlags & VideoEncoder.FLAG_CODEC_CONFIG) != 0;
+    }
+
+    public boolean isEndOfStream() {
+        return (mFlags & VideoEncoder.FLAG_END_OF_STREAM) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SampleInfo{" + mSize + " bytes at " + mPresentationTimeUs + "us, flags " + mFlags + "}";
+    }
+}
@@ -0,0 +1,24 @@
+package com.wzq.camerademo.camera.record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Container the encoded video track is written to, e.g. an MP4 file through
+ * {@code MediaMuxer}.
+ *
+ * @param <F> type of the track format reported by the {@link VideoEncoder}
+ */
+public interface SampleMuxer<F> {
+    /**
+     * Adds the video track and starts writing.
+     */
+    void start(F format) throws IOException;
+
+    void writeSample(ByteBuffer data, SampleInfo info) throws IOException;
+
+    /**
+     * Finishes the container if it was started and releases it, also when writing failed.
+     */
+    void stop() throws IOException;
+}
@@ -0,0 +1,55 @@
+package com.wzq.camerademo.camera.record;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Hands every sample to two muxers, e.g. the file being recorded and a
+ * {@link PreRollBuffer}. Each gets its own view of the data. A failure of one does not
+ * keep the sample from the other; the first failure is thrown afterwards.
+ */
+public class SampleTee<F> implements SampleMuxer<F> {
+    private final SampleMuxer<F> mFirst;
+    private final SampleMuxer<F> mSecond;
+
+    public SampleTee(SampleMuxer<F> first, SampleMuxer<F> second) {
+        mFirst = first;
+        mSecond = second;
+    }
+
+    @Override
+    public void start(F format) throws IOException {
+        IOException failure = null;
+        try {
+            mFirst.start(format);
+        } catch (IOException e) {
+            failure = e;
+        }
+        mSecond.start(format);
+        if (failure != null) throw failure;
+    }
+
+    @Override
+    public void writeSample(ByteBuffer data, SampleInfo info) throws IOException {
+        IOException failure = null;
+        try {
+            mFirst.writeSample(data.duplicate(), info);
+        } catch (IOException e) {
+            failure = e;
+        }
+        mSecond.writeSample(data.duplicate(), info);
+        if (failure != null) throw failure;
+    }
+
+    @Override
+    public void stop() throws IOException {
+        IOException failure = null;
+        try {
+            mFirst.stop();
+        } catch (IOException e) {
+            failure = e;
+        }
+        mSecond.stop();
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,73 @@
+package com.wzq.camerademo.camera.record;
+
+/**
+ * A finished segment of a {@link SegmentedRecording}, as listed in its manifest.
+ */
+public final class Segment {
+    private final String mName;
+    private final long mStartTimeUs;
+    private final long mDurationUs;
+    private final long mBytes;
+    private final int mFrames;
+
+    public Segment(String name, long startTimeUs, long durationUs, long bytes, int frames) {
+        mName = name;
+        mStartTimeUs = startTimeUs;
+        mDurationUs = durationUs;
+        mBytes = bytes;
+        mFrames = frames;
+    }
+
+    /**
+     * File name within the recording's directory.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Presentation time of the first frame, a key frame.
+     */
+    public long getStartTimeUs() {
+        return mStartTimeUs;
+    }
+
+    /**
+     * -1 for a segment recovered without its manifest entry.
+     */
+    public long getDurationUs() {
+        return mDurationUs;
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public int getFrames() {
+        return mFrames;
+    }
+
+    String toLine() {
+        return mName + "\t" + mStartTimeUs + "\t" + mDurationUs + "\t" + mBytes + "\t" + mFrames;
+    }
+
+    /**
+     * @return null if {@code line} is not a manifest entry
+     */
+    static Segment parse(String line) {
+        final String[] fields = line.split("\t");
+        if (fields.length != 5 || fields[0].isEmpty()) return null;
+        try {
+            return new Segment(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    Long.parseLong(fields[3]), Integer.parseInt(fields[4]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Segment{" + mName + " at " + mStartTimeUs + "us, " + mDurationUs + "us, " + mBytes + " bytes, "
+                + mFrames + " frames}";
+    }
+}
@@ -0,0 +1,52 @@
+package com.wzq.camerademo.camera.record;
+
+/**
+ * How much disk the segments of a recording may take up. Once a segment is finished the
+ * oldest ones are deleted until the rest fit, but the newest is always kept.
+ */
+public final class SegmentQuota {
+    private final long mMaxBytes;
+    private final int mMaxSegments;
+    private long mMinFreeBytes;
+
+    /**
+     * @param maxBytes    total size of the segments
+     * @param maxSegments number of segments, 0 for no limit
+     */
+    public SegmentQuota(long maxBytes, int maxSegments) {
+        if (maxBytes <= 0 || maxSegments < 0) {
+            throw new IllegalArgumentException("bad quota " + maxBytes + " bytes, " + maxSegments + " segments");
+        }
+        mMaxBytes = maxBytes;
+        mMaxSegments = maxSegments;
+    }
+
+    public static SegmentQuota unlimited() {
+        return new SegmentQuota(Long.MAX_VALUE, 0);
+    }
+
+    /**
+     * Also deletes segments while the volume has less than {@code bytes} free, so the
+     * recording does not fill up the device.
+     */
+    public SegmentQuota setMinFreeBytes(long bytes) {
+        mMinFreeBytes = bytes;
+        return this;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public int getMaxSegments() {
+        return mMaxSegments;
+    }
+
+    public long getMinFreeBytes() {
+        return mMinFreeBytes;
+    }
+
+    boolean isExceeded(int segments, long bytes, long usableBytes) {
+        return bytes > mMaxBytes || (mMaxSegments > 0 && segments > mMaxSegments) || usableBytes < mMinFreeBytes;
+    }
+}
@@ -0,0 +1,326 @@
+package com.wzq.camerademo.camera.record;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * {@link SampleMuxer} that splits the stream into segments of about
+ * {@code segmentDurationUs}, each starting with a key frame so it plays on its own.
+ *
+ * <p>A segment is written as {@code <name>.part}, forced to disk, renamed to its final name
+ * and only then added to the manifest, which is replaced atomically. A crash therefore
+ * loses at most the segment being written: on the next start its part file is deleted, the
+ * manifest entries whose file is gone are dropped and finished segments the manifest
+ * missed are added back. After each segment the oldest ones are deleted while the
+ * {@link SegmentQuota} is exceeded.
+ */
+public class SegmentedRecording<F> implements SampleMuxer<F> {
+    public static final String MANIFEST_FILE_NAME = "segments.txt";
+    static final String PART_SUFFIX = ".part";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String NAME_PREFIX = "segment-";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Opens the container of a segment.
+     */
+    public interface MuxerFactory<F> {
+        SampleMuxer<F> create(File file) throws IOException;
+    }
+
+    private final File mDirectory;
+    private final String mExtension;
+    private final long mSegmentDurationUs;
+    private final SegmentQuota mQuota;
+    private final MuxerFactory<F> mFactory;
+    private final File mManifestFile;
+    private final List<Segment> mSegments = new ArrayList<>();
+    private long mTotalBytes;
+    private int mNextIndex;
+    private int mRecoveredCount;
+    private int mDiscardedCount;
+    private int mEvictedCount;
+    private long mSkippedFrames;
+
+    private F mFormat;
+    private SampleMuxer<F> mMuxer;
+    private File mPartFile;
+    private String mName;
+    private long mStartTimeUs;
+    private long mLastTimeUs;
+    private int mFrames;
+
+    /**
+     * Opens the recording in {@code directory}, recovering what a previous run left behind.
+     *
+     * @param extension file extension of the segments, e.g. {@code mp4}
+     */
+    public SegmentedRecording(File directory, String extension, long segmentDurationUs, SegmentQuota quota,
+                              MuxerFactory<F> factory) throws IOException {
+        if (segmentDurationUs <= 0) {
+            throw new IllegalArgumentException("segmentDurationUs must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        mDirectory = directory;
+        mExtension = extension;
+        mSegmentDurationUs = segmentDurationUs;
+        mQuota = quota;
+        mFactory = factory;
+        mManifestFile = new File(directory, MANIFEST_FILE_NAME);
+        recover();
+    }
+
+    @Override
+    public synchronized void start(F format) {
+        mFormat = format;
+    }
+
+    /**
+     * Starts a new segment at the first key frame once the current one is long enough.
+     * Frames before the first key frame are skipped, they could not be decoded.
+     */
+    @Override
+    public synchronized void writeSample(ByteBuffer data, SampleInfo info) throws IOException {
+        if (mMuxer == null || (info.isKeyFrame() && isLongEnough(info.getPresentationTimeUs()))) {
+            if (!info.isKeyFrame()) {
+                mSkippedFrames++;
+                return;
+            }
+            if (mMuxer != null) {
+                finishSegment(info.getPresentationTimeUs() - mStartTimeUs);
+            }
+            openSegment(info.getPresentationTimeUs());
+        }
+        try {
+            mMuxer.writeSample(data, info);
+        } catch (IOException e) {
+            abortSegment();
+            throw e;
+        }
+        mLastTimeUs = info.getPresentationTimeUs();
+        mFrames++;
+    }
+
+    /**
+     * Finishes the segment being written.
+     */
+    @Override
+    public synchronized void stop() throws IOException {
+        if (mMuxer != null) {
+            finishSegment(mLastTimeUs - mStartTimeUs);
+        }
+    }
+
+    /**
+     * Finished segments, oldest first.
+     */
+    public synchronized List<Segment> getSegments() {
+        return new ArrayList<>(mSegments);
+    }
+
+    public File getFile(Segment segment) {
+        return new File(mDirectory, segment.getName());
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * Finished segments found on disk without a manifest entry when the recording was opened.
+     */
+    public synchronized int getRecoveredCount() {
+        return mRecoveredCount;
+    }
+
+    /**
+     * Unfinished segments deleted when the recording was opened.
+     */
+    public synchronized int getDiscardedCount() {
+        return mDiscardedCount;
+    }
+
+    public synchronized int getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    public synchronized long getSkippedFrames() {
+        return mSkippedFrames;
+    }
+
+    /**
+     * Rounded to the frame, as 30 fps timestamps add up to a little less than whole seconds
+     * and a segment would otherwise run on to the key frame after.
+     */
+    private boolean isLongEnough(long timeUs) {
+        return timeUs - mStartTimeUs + (timeUs - mLastTimeUs) / 2 >= mSegmentDurationUs;
+    }
+
+    private void openSegment(long startTimeUs) throws IOException {
+        mName = String.format(Locale.US, "%s%06d.%s", NAME_PREFIX, mNextIndex++, mExtension);
+        mPartFile = new File(mDirectory, mName + PART_SUFFIX);
+        final SampleMuxer<F> muxer = mFactory.create(mPartFile);
+        try {
+            muxer.start(mFormat);
+        } catch (IOException e) {
+            stopQuietly(muxer);
+            mPartFile.delete();
+            throw e;
+        }
+        mMuxer = muxer;
+        mStartTimeUs = startTimeUs;
+        mLastTimeUs = startTimeUs;
+        mFrames = 0;
+    }
+
+    private void finishSegment(long durationUs) throws IOException {
+        final SampleMuxer<F> muxer = mMuxer;
+        final File part = mPartFile;
+        final File file = new File(mDirectory, mName);
+        mMuxer = null;
+        try {
+            muxer.stop();
+            force(part);
+            if (!part.renameTo(file)) {
+                throw new IOException("cannot rename " + part + " to " + file);
+            }
+        } catch (IOException e) {
+            part.delete();
+            throw e;
+        }
+        final Segment segment = new Segment(mName, mStartTimeUs, durationUs, file.length(), mFrames);
+        mSegments.add(segment);
+        mTotalBytes += segment.getBytes();
+        evict();
+        writeManifest();
+    }
+
+    private void abortSegment() {
+        final SampleMuxer<F> muxer = mMuxer;
+        mMuxer = null;
+        stopQuietly(muxer);
+        mPartFile.delete();
+    }
+
+    private void evict() {
+        while (mSegments.size() > 1 && mQuota.isExceeded(mSegments.size(), mTotalBytes, mDirectory.getUsableSpace())) {
+            final Segment oldest = mSegments.remove(0);
+            mTotalBytes -= oldest.getBytes();
+            mEvictedCount++;
+            // a file that cannot be deleted now is found again, and retried, on the next start
+            getFile(oldest).delete();
+        }
+    }
+
+    private void recover() throws IOException {
+        final Set<String> listed = new HashSet<>();
+        if (mManifestFile.exists()) {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mManifestFile), UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final Segment segment = Segment.parse(line);
+                    if (segment != null && getFile(segment).isFile()) {
+                        mSegments.add(segment);
+                        listed.add(segment.getName());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        final String[] names = mDirectory.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                if (!name.startsWith(NAME_PREFIX)) continue;
+                final File file = new File(mDirectory, name);
+                if (name.endsWith(PART_SUFFIX)) {
+                    file.delete();
+                    mDiscardedCount++;
+                } else if (!listed.contains(name)) {
+                    // renamed into place just before a crash, before the manifest was written
+                    mSegments.add(new Segment(name, 0, -1, file.length(), 0));
+                    mRecoveredCount++;
+                }
+            }
+        }
+        for (Segment segment : mSegments) {
+            mTotalBytes += segment.getBytes();
+            mNextIndex = Math.max(mNextIndex, indexOf(segment.getName()) + 1);
+        }
+        writeManifest();
+    }
+
+    private static int indexOf(String name) {
+        final int end = name.indexOf('.');
+        try {
+            return Integer.parseInt(name.substring(NAME_PREFIX.length(), end < 0 ? name.length() : end));
+        } catch (NumberFormatException e) {
+            return -1;
+        } catch (IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        final StringBuilder builder = new StringBuilder();
+        for (Segment segment : mSegments) {
+            builder.append(segment.toLine()).append('\n');
+        }
+        final File temp = new File(mManifestFile.getPath() + TEMP_SUFFIX);
+        final FileOutputStream output = new FileOutputStream(temp);
+        try {
+            output.write(builder.toString().getBytes(UTF_8));
+            output.getChannel().force(true);
+        } finally {
+            output.close();
+        }
+        if (!temp.renameTo(mManifestFile)) {
+            mManifestFile.delete();
+            if (!temp.renameTo(mManifestFile)) {
+                throw new IOException("cannot rename " + temp + " to " + mManifestFile);
+            }
+        }
+    }
+
+    /**
+     * Muxers write through their own streams, so the data is only known to be on disk once
+     * the file has been synced here.
+     */
+    private static void force(File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.getChannel().force(true);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void stopQuietly(SampleMuxer<?> muxer) {
+        try {
+            muxer.stop();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
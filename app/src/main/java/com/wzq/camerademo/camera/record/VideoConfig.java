@@ -0,0 +1,85 @@
+package com.wzq.camerademo.camera.record;
+
+/**
+ * Encoder settings of a recording. The bit rate defaults to one derived from the size and
+ * the frame rate.
+ */
+public final class VideoConfig {
+    public static final String MIME_AVC = "video/avc";
+    public static final String MIME_HEVC = "video/hevc";
+
+    // enough for camera footage at the usual H.264 quality; HEVC gets by with less
+    private final static float BITS_PER_PIXEL = 0.2f;
+
+    private final int mWidth;
+    private final int mHeight;
+    private String mMimeType = MIME_AVC;
+    private int mBitRate;
+    private int mFrameRate = 30;
+    private int mKeyFrameIntervalSeconds = 1;
+
+    public VideoConfig(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("bad size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public VideoConfig setMimeType(String mimeType) {
+        mMimeType = mimeType;
+        return this;
+    }
+
+    /**
+     * @param bitRate bits per second, 0 for the default
+     */
+    public VideoConfig setBitRate(int bitRate) {
+        mBitRate = bitRate;
+        return this;
+    }
+
+    public VideoConfig setFrameRate(int frameRate) {
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("frameRate must be positive");
+        }
+        mFrameRate = frameRate;
+        return this;
+    }
+
+    public VideoConfig setKeyFrameIntervalSeconds(int seconds) {
+        mKeyFrameIntervalSeconds = seconds;
+        return this;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    public int getBitRate() {
+        if (mBitRate > 0) return mBitRate;
+        return (int) Math.min(Integer.MAX_VALUE, (long) (mWidth * (long) mHeight * mFrameRate * BITS_PER_PIXEL));
+    }
+
+    public int getFrameRate() {
+        return mFrameRate;
+    }
+
+    public int getKeyFrameIntervalSeconds() {
+        return mKeyFrameIntervalSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return "VideoConfig{" + mMimeType + " " + mWidth + "x" + mHeight + "@" + mFrameRate + ", "
+                + getBitRate() / 1000 + "kbps, key frame every " + mKeyFrameIntervalSeconds + "s}";
+    }
+}
@@ -0,0 +1,60 @@
+package com.wzq.camerademo.camera.record;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The output side of a video encoder whose input is a surface the camera draws into, as
+ * with a {@code MediaCodec} configured for {@code COLOR_FormatSurface}. The constants have
+ * the values of their {@code MediaCodec} counterparts.
+ *
+ * @param <F> type of the output format handed to the {@link SampleMuxer}
+ */
+public interface VideoEncoder<F> {
+    int INFO_TRY_AGAIN_LATER = -1;
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+
+    int FLAG_KEY_FRAME = 1;
+    int FLAG_CODEC_CONFIG = 2;
+    int FLAG_END_OF_STREAM = 4;
+
+    void start();
+
+    /**
+     * @return the index of a buffer holding an encoded sample described by {@code info}, or
+     * one of the {@code INFO_*} values
+     */
+    int dequeueOutputBuffer(SampleInfo info, long timeoutUs);
+
+    ByteBuffer getOutputBuffer(int index);
+
+    /**
+     * Gives the buffer back to the encoder. The encoder stalls, and the camera drops frames,
+     * while it has no free output buffers.
+     */
+    void releaseOutputBuffer(int index);
+
+    /**
+     * Valid once {@link #dequeueOutputBuffer} returned {@link #INFO_OUTPUT_FORMAT_CHANGED}.
+     */
+    F getOutputFormat();
+
+    /**
+     * Ends the input; the encoder flushes what it holds and flags the last sample with
+     * {@link #FLAG_END_OF_STREAM}.
+     */
+    void signalEndOfInputStream();
+
+    /**
+     * Changes the target bit rate while encoding.
+     */
+    void setBitRate(int bitRate);
+
+    /**
+     * Makes the next encoded frame a key frame.
+     */
+    void requestKeyFrame();
+
+    void stop();
+
+    void release();
+}
@@ -0,0 +1,318 @@
+package com.wzq.camerademo.camera.record;
+
+import com.wzq.camerademo.camera.io.DirectBufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains a {@link VideoEncoder} into a {@link SampleMuxer}. A drain thread copies every
+ * encoded sample into a pooled buffer and gives the encoder buffer back right away, so the
+ * encoder never waits for the file; a mux thread writes the copies in order. When the mux
+ * thread falls {@code queueCapacity} samples behind, the drain thread waits, which stalls
+ * the encoder and shows up as dropped frames rather than as unbounded memory.
+ *
+ * <p>A recorder records once: {@link #start()}, then {@link #stop}, which also releases the
+ * encoder.
+ */
+public class VideoRecorder<F> {
+    private final static long DEQUEUE_TIMEOUT_US = 10000;
+
+    private final VideoEncoder<F> mEncoder;
+    private final SampleMuxer<F> mMuxer;
+    private final DirectBufferPool mBufferPool;
+    private final BlockingQueue<Sample<F>> mQueue;
+    private final long mFrameIntervalUs;
+    private final CountDownLatch mFinished = new CountDownLatch(1);
+
+    private Thread mDrainThread;
+    private boolean mStopped;
+    // set when the encoder did not end the stream in time after stop()
+    private volatile boolean mAbandoned;
+    private volatile Throwable mError;
+
+    // written by the drain thread only
+    private volatile long mFrames;
+    private volatile long mKeyFrames;
+    private volatile long mDroppedFrames;
+    private volatile long mBytes;
+    private volatile long mFirstTimeUs = -1;
+    private volatile long mLastTimeUs = -1;
+    private volatile int mMaxQueueDepth;
+
+    public VideoRecorder(VideoEncoder<F> encoder, SampleMuxer<F> muxer, VideoConfig config, int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+        }
+        mEncoder = encoder;
+        mMuxer = muxer;
+        mQueue = new ArrayBlockingQueue<>(queueCapacity);
+        // one per queue slot plus the ones being filled and written
+        mBufferPool = new DirectBufferPool(queueCapacity + 2);
+        mFrameIntervalUs = 1000000L / config.getFrameRate();
+    }
+
+    public synchronized void start() {
+        if (mDrainThread != null) {
+            throw new IllegalStateException("recorder already started");
+        }
+        mEncoder.start();
+        new Thread(mMuxLoop, "VideoMux").start();
+        mDrainThread = new Thread(mDrainLoop, "VideoDrain");
+        mDrainThread.start();
+    }
+
+    /**
+     * Ends the stream, waits for the last sample to be written and releases the encoder.
+     *
+     * @return true if the recording was written completely
+     */
+    public synchronized boolean stop(long timeout, TimeUnit unit) throws InterruptedException {
+        if (mDrainThread == null || mStopped) return false;
+        mStopped = true;
+        try {
+            mEncoder.signalEndOfInputStream();
+        } catch (IllegalStateException e) {
+            fail(e);
+            mAbandoned = true;
+        }
+        boolean complete = mFinished.await(timeout, unit);
+        if (!complete) {
+            // give up on the end of stream; the file ends at the last sample written
+            mAbandoned = true;
+            mFinished.await(timeout, unit);
+        }
+        mDrainThread.join(unit.toMillis(timeout));
+        try {
+            mEncoder.stop();
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+        mEncoder.release();
+        return complete && mError == null;
+    }
+
+    /**
+     * Changes the target bit rate while recording, e.g. when the frame gets busier or the
+     * device heats up.
+     */
+    public void setBitRate(int bitRate) {
+        mEncoder.setBitRate(bitRate);
+    }
+
+    /**
+     * Makes the next frame a key frame, e.g. so a segment can start with it.
+     */
+    public void requestKeyFrame() {
+        mEncoder.requestKeyFrame();
+    }
+
+    /**
+     * The first error of the encoder or the muxer, or null.
+     */
+    public Throwable getError() {
+        return mError;
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    public long getKeyFrameCount() {
+        return mKeyFrames;
+    }
+
+    /**
+     * Frames missing from the encoded stream, judged from the gaps between presentation
+     * times: frames the camera drew while the encoder had no room for them.
+     */
+    public long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public long getDurationUs() {
+        final long first = mFirstTimeUs;
+        return first < 0 ? 0 : mLastTimeUs - first;
+    }
+
+    /**
+     * Most samples that waited for the mux thread at once.
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    public DirectBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    private final Runnable mDrainLoop = new Runnable() {
+        @Override
+        public void run() {
+            final SampleInfo info = new SampleInfo();
+            try {
+                boolean ended = false;
+                while (!ended && !mAbandoned) {
+                    final int index = mEncoder.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+                    if (index == VideoEncoder.INFO_OUTPUT_FORMAT_CHANGED) {
+                        enqueue(new Sample<>(mEncoder.getOutputFormat(), null, info));
+                        continue;
+                    }
+                    if (index < 0) continue;
+                    ended = info.isEndOfStream();
+                    ByteBuffer copy = null;
+                    try {
+                        // the muxer takes the codec config from the format
+                        if (!info.isCodecConfig() && info.getSize() > 0) {
+                            copy = copy(mEncoder.getOutputBuffer(index), info);
+                        }
+                    } finally {
+                        mEncoder.releaseOutputBuffer(index);
+                    }
+                    if (copy != null) {
+                        onSample(info, copy.remaining());
+                        enqueue(new Sample<F>(null, copy, info));
+                    }
+                }
+            } catch (IllegalStateException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // the mux thread keeps taking samples until this one, so the put cannot block forever
+                try {
+                    mQueue.put(Sample.<F>end());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    };
+
+    private final Runnable mMuxLoop = new Runnable() {
+        @Override
+        public void run() {
+            final SampleInfo info = new SampleInfo();
+            boolean started = false;
+            boolean failed = false;
+            try {
+                while (true) {
+                    final Sample<F> sample = mQueue.take();
+                    if (sample.mEnd) break;
+                    if (sample.mFormat != null) {
+                        if (!started && !failed) {
+                            try {
+                                mMuxer.start(sample.mFormat);
+                                started = true;
+                            } catch (IOException e) {
+                                fail(e);
+                                failed = true;
+                            }
+                        }
+                        continue;
+                    }
+                    // after a failure samples are only given back, so the drain thread can finish
+                    if (started && !failed) {
+                        info.set(0, sample.mData.remaining(), sample.mTimeUs, sample.mFlags);
+                        try {
+                            mMuxer.writeSample(sample.mData, info);
+                        } catch (IOException e) {
+                            fail(e);
+                            failed = true;
+                        }
+                    }
+                    mBufferPool.release(sample.mData);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    mMuxer.stop();
+                } catch (IOException e) {
+                    fail(e);
+                }
+                mFinished.countDown();
+            }
+        }
+    };
+
+    private ByteBuffer copy(ByteBuffer source, SampleInfo info) {
+        source.limit(info.getOffset() + info.getSize());
+        source.position(info.getOffset());
+        final ByteBuffer copy = mBufferPool.acquire(info.getSize());
+        copy.put(source);
+        copy.flip();
+        return copy;
+    }
+
+    private void onSample(SampleInfo info, int bytes) {
+        final long timeUs = info.getPresentationTimeUs();
+        final long lastTimeUs = mLastTimeUs;
+        if (lastTimeUs >= 0) {
+            final long gap = timeUs - lastTimeUs;
+            // a gap of more than one and a half frames means at least one frame is missing
+            if (gap * 2 > mFrameIntervalUs * 3) {
+                mDroppedFrames += (gap + mFrameIntervalUs / 2) / mFrameIntervalUs - 1;
+            }
+        } else {
+            mFirstTimeUs = timeUs;
+        }
+        mLastTimeUs = timeUs;
+        mFrames++;
+        if (info.isKeyFrame()) {
+            mKeyFrames++;
+        }
+        mBytes += bytes;
+    }
+
+    private void enqueue(Sample<F> sample) throws InterruptedException {
+        mQueue.put(sample);
+        final int depth = mQueue.size();
+        if (depth > mMaxQueueDepth) {
+            mMaxQueueDepth = depth;
+        }
+    }
+
+    private void fail(Throwable error) {
+        error.printStackTrace();
+        if (mError == null) {
+            mError = error;
+        }
+    }
+
+    private static final class Sample<F> {
+        final F mFormat;
+        final ByteBuffer mData;
+        final long mTimeUs;
+        final int mFlags;
+        final boolean mEnd;
+
+        Sample(F format, ByteBuffer data, SampleInfo info) {
+            mFormat = format;
+            mData = data;
+            mTimeUs = info.getPresentationTimeUs();
+            mFlags = info.getFlags();
+            mEnd = false;
+        }
+
+        private Sample() {
+            mFormat = null;
+            mData = null;
+            mTimeUs = 0;
+            mFlags = 0;
+            mEnd = true;
+        }
+
+        static <F> Sample<F> end() {
+            return new Sample<F>();
+        }
+    }
+}
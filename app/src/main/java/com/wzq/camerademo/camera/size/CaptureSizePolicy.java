@@ -0,0 +1,78 @@
+package com.wzq.camerademo.camera.size;
+
+import com.wzq.camerademo.camera.info.StreamSize;
+
+/**
+ * Picks the still capture size, independently of the preview: either the largest size the
+ * camera offers or the one closest to a target megapixel count, optionally restricted to
+ * an aspect ratio.
+ */
+public class CaptureSizePolicy {
+    private static final double ASPECT_TOLERANCE = 0.01;
+
+    private final long mTargetPixels;
+    private final double mAspectRatio;
+
+    private CaptureSizePolicy(long targetPixels, double aspectRatio) {
+        mTargetPixels = targetPixels;
+        mAspectRatio = aspectRatio;
+    }
+
+    public static CaptureSizePolicy maxResolution() {
+        return new CaptureSizePolicy(0, 0);
+    }
+
+    public static CaptureSizePolicy targetMegapixels(double megapixels) {
+        if (megapixels <= 0) {
+            throw new IllegalArgumentException("megapixels must be positive");
+        }
+        return new CaptureSizePolicy(Math.round(megapixels * 1000000), 0);
+    }
+
+    /**
+     * Same policy, but only sizes of {@code width:height} are considered as long as the
+     * camera offers any.
+     */
+    public CaptureSizePolicy withAspectRatio(int width, int height) {
+        return new CaptureSizePolicy(mTargetPixels, (double) width / height);
+    }
+
+    /**
+     * @return null only if {@code sizes} is empty
+     */
+    public StreamSize select(StreamSize[] sizes) {
+        if (sizes == null || sizes.length == 0) return null;
+        StreamSize best = pick(sizes, true);
+        return best != null ? best : pick(sizes, false);
+    }
+
+    private StreamSize pick(StreamSize[] sizes, boolean matchAspect) {
+        StreamSize best = null;
+        for (StreamSize size : sizes) {
+            if (matchAspect && mAspectRatio > 0
+                    && PreviewSizePolicy.aspectError(size, mAspectRatio) > ASPECT_TOLERANCE) {
+                continue;
+            }
+            if (best == null || isBetter(size, best)) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    private boolean isBetter(StreamSize size, StreamSize best) {
+        if (mTargetPixels == 0) {
+            return size.getArea() > best.getArea();
+        }
+        final long error = Math.abs(size.getArea() - mTargetPixels);
+        final long bestError = Math.abs(best.getArea() - mTargetPixels);
+        // on a tie keep the larger size
+        return error < bestError || (error == bestError && size.getArea() > best.getArea());
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureSizePolicy{" + (mTargetPixels == 0 ? "max" : mTargetPixels + "px")
+                + (mAspectRatio > 0 ? ", aspect=" + mAspectRatio : "") + "}";
+    }
+}
@@ -0,0 +1,105 @@
+package com.wzq.camerademo.camera.size;
+
+import com.wzq.camerademo.camera.info.StreamSize;
+
+/**
+ * Picks the preview stream size for a view.
+ *
+ * <p>Sizes that cannot run at the target frame rate, or that would push more pixels per
+ * second than the display budget allows, are left out. Of the rest, the sizes closest to
+ * the view's aspect ratio win, and among those the smallest one that still covers the view,
+ * or the largest one if none does. Scaling a preview down costs nothing visible; every
+ * pixel beyond the view only burns ISP and GPU bandwidth.
+ */
+public class PreviewSizePolicy {
+    public static final int DEFAULT_FPS = 30;
+    public static final long DEFAULT_MAX_PIXELS_PER_SECOND = 1920L * 1080 * DEFAULT_FPS;
+    // aspect ratios closer than this are treated as equal, e.g. 1920x1080 and 1920x1088
+    private static final double ASPECT_TOLERANCE = 0.01;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final long mMaxPixelsPerSecond;
+    private final int mTargetFps;
+
+    public PreviewSizePolicy() {
+        this(DEFAULT_MAX_PIXELS_PER_SECOND, DEFAULT_FPS);
+    }
+
+    public PreviewSizePolicy(long maxPixelsPerSecond, int targetFps) {
+        if (maxPixelsPerSecond <= 0 || targetFps <= 0) {
+            throw new IllegalArgumentException("budget and fps must be positive");
+        }
+        mMaxPixelsPerSecond = maxPixelsPerSecond;
+        mTargetFps = targetFps;
+    }
+
+    public long getMaxPixelsPerSecond() {
+        return mMaxPixelsPerSecond;
+    }
+
+    public int getTargetFps() {
+        return mTargetFps;
+    }
+
+    /**
+     * @param viewWidth  width of the view in the sensor's orientation
+     * @param viewHeight height of the view in the sensor's orientation
+     * @return null only if {@code sizes} is empty
+     */
+    public StreamSize select(StreamSize[] sizes, int viewWidth, int viewHeight) {
+        if (sizes == null || sizes.length == 0) return null;
+        final double viewAspect = (double) viewWidth / viewHeight;
+
+        double bestAspectError = Double.MAX_VALUE;
+        for (StreamSize size : sizes) {
+            if (fits(size)) {
+                bestAspectError = Math.min(bestAspectError, aspectError(size, viewAspect));
+            }
+        }
+        if (bestAspectError == Double.MAX_VALUE) {
+            // nothing fits the budget, stay as light as possible
+            return smallest(sizes);
+        }
+
+        StreamSize covering = null;
+        StreamSize largest = null;
+        for (StreamSize size : sizes) {
+            if (!fits(size) || aspectError(size, viewAspect) > bestAspectError + ASPECT_TOLERANCE) continue;
+            if (size.getWidth() >= viewWidth && size.getHeight() >= viewHeight
+                    && (covering == null || size.getArea() < covering.getArea())) {
+                covering = size;
+            }
+            if (largest == null || size.getArea() > largest.getArea()) {
+                largest = size;
+            }
+        }
+        return covering != null ? covering : largest;
+    }
+
+    private boolean fits(StreamSize size) {
+        final long minFrameDuration = size.getMinFrameDurationNanos();
+        if (minFrameDuration > 0 && minFrameDuration * mTargetFps > NANOS_PER_SECOND) {
+            return false;
+        }
+        return size.getArea() * mTargetFps <= mMaxPixelsPerSecond;
+    }
+
+    static double aspectError(StreamSize size, double aspect) {
+        return Math.abs((double) size.getWidth() / size.getHeight() - aspect) / aspect;
+    }
+
+    private static StreamSize smallest(StreamSize[] sizes) {
+        StreamSize smallest = sizes[0];
+        for (StreamSize size : sizes) {
+            if (size.getArea() < smallest.getArea()) {
+                smallest = size;
+            }
+        }
+        return smallest;
+    }
+
+    @Override
+    public String toString() {
+        return "PreviewSizePolicy{maxPixelsPerSecond=" + mMaxPixelsPerSecond + ", fps=" + mTargetFps + "}";
+    }
+}
@@ -0,0 +1,52 @@
+package com.wzq.camerademo.camera.size;
+
+import com.wzq.camerademo.camera.info.StreamSize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sizes to step down through when a stream costs more than the device can afford, such as
+ * the analysis stream under the {@code PerformanceGovernor}.
+ */
+public final class SizeLadder {
+    private static final double ASPECT_TOLERANCE = 0.01;
+
+    private SizeLadder() {
+    }
+
+    /**
+     * Starts at {@code width}x{@code height} and adds, each time, the largest size of
+     * {@code sizes} with the same aspect ratio and at most half the area of the previous
+     * one, so each step roughly halves the work per frame.
+     *
+     * @param maxSizes length of the ladder at most, the requested size included
+     */
+    public static List<StreamSize> build(StreamSize[] sizes, int width, int height, int maxSizes) {
+        final List<StreamSize> ladder = new ArrayList<>();
+        StreamSize current = new StreamSize(width, height, 0);
+        for (StreamSize size : sizes) {
+            if (size.getWidth() == width && size.getHeight() == height) {
+                current = size;
+            }
+        }
+        ladder.add(current);
+        final double aspectRatio = (double) width / height;
+        while (ladder.size() < maxSizes) {
+            StreamSize next = null;
+            for (StreamSize size : sizes) {
+                if (size.getArea() * 2 > current.getArea()
+                        || PreviewSizePolicy.aspectError(size, aspectRatio) > ASPECT_TOLERANCE) {
+                    continue;
+                }
+                if (next == null || size.getArea() > next.getArea()) {
+                    next = size;
+                }
+            }
+            if (next == null) break;
+            ladder.add(next);
+            current = next;
+        }
+        return ladder;
+    }
+}
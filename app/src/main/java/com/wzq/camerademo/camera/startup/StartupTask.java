@@ -0,0 +1,92 @@
+package com.wzq.camerademo.camera.startup;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Work whose result startup needs, begun early on a background thread so it is done or
+ * under way by the time it is needed. If it was never started, the first {@link #get()}
+ * runs it on the calling thread instead of waiting for a thread to pick it up.
+ */
+public class StartupTask<T> {
+    private final FutureTask<T> mFuture;
+    private final AtomicBoolean mStarted = new AtomicBoolean();
+    private volatile long mStartNanos;
+    private volatile long mFinishNanos;
+
+    public StartupTask(final Callable<T> work) {
+        mFuture = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                mStartNanos = System.nanoTime();
+                try {
+                    return work.call();
+                } finally {
+                    mFinishNanos = System.nanoTime();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the work on {@code executor} unless it was started already.
+     */
+    public void start(Executor executor) {
+        if (mStarted.compareAndSet(false, true)) {
+            executor.execute(mFuture);
+        }
+    }
+
+    /**
+     * Waits for the result, running the work here if nothing started it yet.
+     *
+     * @throws IOException what the work threw, wrapped unless it was an IOException or
+     *                     unchecked; an {@link InterruptedIOException} if interrupted
+     */
+    public T get() throws IOException {
+        if (mStarted.compareAndSet(false, true)) {
+            mFuture.run();
+        }
+        try {
+            return mFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for startup task");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    public boolean isDone() {
+        return mFuture.isDone();
+    }
+
+    /**
+     * When the work finished, on the {@link System#nanoTime()} clock; 0 until then.
+     */
+    public long getFinishNanos() {
+        return mFuture.isDone() ? mFinishNanos : 0;
+    }
+
+    /**
+     * How long the work ran, 0 until it finished.
+     */
+    public long getDurationNanos() {
+        return mFuture.isDone() ? mFinishNanos - mStartNanos : 0;
+    }
+}
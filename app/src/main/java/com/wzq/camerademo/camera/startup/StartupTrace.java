@@ -0,0 +1,127 @@
+package com.wzq.camerademo.camera.startup;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * When each stage of bringing up the camera finished, counted from the camera screen being
+ * created, so a slower startup shows which stage got slower. Stages done in the background
+ * before the screen was created, e.g. the camera list read at app launch, cost it nothing
+ * and count as 0.
+ */
+public class StartupTrace {
+    public enum Stage {
+        /**
+         * {@code native-lib} loaded.
+         */
+        NATIVE_LOADED("nativeLoaded"),
+        /**
+         * The cameras and their stream sizes known.
+         */
+        CAMERAS_LISTED("camerasListed"),
+        /**
+         * The preview surface available.
+         */
+        SURFACE_READY("surfaceReady"),
+        /**
+         * The device opened.
+         */
+        CAMERA_OPENED("cameraOpened"),
+        /**
+         * The session configured and the preview requested.
+         */
+        SESSION_CONFIGURED("sessionConfigured"),
+        /**
+         * The first preview frame arrived.
+         */
+        FIRST_FRAME("firstFrame");
+
+        private final String mKey;
+
+        Stage(String key) {
+            mKey = key;
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+    }
+
+    private static final long UNMARKED = Long.MIN_VALUE;
+
+    private final long mBeginNanos;
+    private final AtomicLongArray mMarks = new AtomicLongArray(Stage.values().length);
+
+    /**
+     * @param beginNanos when the camera screen was created, on the {@link System#nanoTime()}
+     *                   clock like the marks
+     */
+    public StartupTrace(long beginNanos) {
+        mBeginNanos = beginNanos;
+        for (int i = 0; i < mMarks.length(); i++) {
+            mMarks.set(i, UNMARKED);
+        }
+    }
+
+    /**
+     * Records that {@code stage} finished at {@code nanos}, if it was not recorded before;
+     * a camera reopened later does not move the marks of the first one.
+     *
+     * @return false if the stage was already recorded
+     */
+    public boolean mark(Stage stage, long nanos) {
+        return mMarks.compareAndSet(stage.ordinal(), UNMARKED, nanos);
+    }
+
+    public boolean isMarked(Stage stage) {
+        return mMarks.get(stage.ordinal()) != UNMARKED;
+    }
+
+    /**
+     * Time from the camera screen being created to {@code stage} finishing, 0 if it finished
+     * earlier, or -1 if it has not finished yet.
+     */
+    public long getStageNanos(Stage stage) {
+        final long mark = mMarks.get(stage.ordinal());
+        if (mark == UNMARKED) return -1;
+        return Math.max(0, mark - mBeginNanos);
+    }
+
+    /**
+     * Whether the first preview frame arrived.
+     */
+    public boolean isComplete() {
+        return isMarked(Stage.FIRST_FRAME);
+    }
+
+    /**
+     * The finished stages as a JSON object, in microseconds.
+     */
+    public String toJson() {
+        final StringBuilder json = new StringBuilder("{");
+        for (Stage stage : Stage.values()) {
+            final long nanos = getStageNanos(stage);
+            if (nanos < 0) continue;
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(stage.getKey()).append("Us\":").append(nanos / 1000);
+        }
+        return json.append('}').toString();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("StartupTrace{");
+        boolean first = true;
+        for (Stage stage : Stage.values()) {
+            final long nanos = getStageNanos(stage);
+            if (nanos < 0) continue;
+            if (!first) {
+                builder.append(", ");
+            }
+            first = false;
+            builder.append(stage.getKey()).append(' ').append(nanos / 1000000).append("ms");
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,248 @@
+package com.wzq.camerademo.camera.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of fixed-size records describing the captures of a {@link CaptureStore}.
+ *
+ * <p>A write is logged as BEGIN before any file is touched and as COMMIT (or ABORT) after
+ * the file has been renamed into place, and every record is forced to disk. Each record
+ * carries its own CRC, so on open a torn or corrupt tail is cut off and the log is
+ * replayed up to the last good record. Ids that were begun but never finished are
+ * reported through {@link #getPendingBegins()} for the store to resolve.
+ *
+ * <p>Record layout, big endian, {@value #RECORD_SIZE} bytes:
+ * type(4) id(8) timestamp(8) size(4) checksum(4) recordCrc(4).
+ */
+public class CaptureIndex implements Closeable {
+    static final int RECORD_SIZE = 32;
+    private static final int PAYLOAD_SIZE = RECORD_SIZE - 4;
+
+    static final int TYPE_BEGIN = 1;
+    static final int TYPE_COMMIT = 2;
+    static final int TYPE_ABORT = 3;
+    static final int TYPE_DELETE = 4;
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mRecord = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 mCrc = new CRC32();
+
+    // committed records sorted by (timestamp, id)
+    private final ArrayList<CaptureRecord> mRecords = new ArrayList<>();
+    private final HashMap<Long, CaptureRecord> mById = new HashMap<>();
+    private final LinkedHashMap<Long, Long> mPending = new LinkedHashMap<>();
+    private long mMaxId;
+    private long mDiscardedBytes;
+
+    public CaptureIndex(File file) throws IOException {
+        mFile = file;
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        try {
+            replay();
+        } catch (IOException e) {
+            mRandomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private void replay() throws IOException {
+        final long length = mChannel.size();
+        long offset = 0;
+        mChannel.position(0);
+        while (offset + RECORD_SIZE <= length) {
+            mRecord.clear();
+            while (mRecord.hasRemaining()) {
+                if (mChannel.read(mRecord) < 0) break;
+            }
+            if (mRecord.hasRemaining() || !checkRecordCrc()) break;
+            apply(mRecord.getInt(0), mRecord.getLong(4), mRecord.getLong(12), mRecord.getInt(20), mRecord.getInt(24));
+            offset += RECORD_SIZE;
+        }
+        if (offset < length) {
+            // torn or corrupt tail from a crash in the middle of an append
+            mDiscardedBytes = length - offset;
+            mChannel.truncate(offset);
+            mChannel.force(true);
+        }
+        mChannel.position(offset);
+    }
+
+    private boolean checkRecordCrc() {
+        mCrc.reset();
+        mCrc.update(mRecord.array(), 0, PAYLOAD_SIZE);
+        return (int) mCrc.getValue() == mRecord.getInt(PAYLOAD_SIZE);
+    }
+
+    private void apply(int type, long id, long timestamp, int size, int checksum) {
+        if (id > mMaxId) {
+            mMaxId = id;
+        }
+        switch (type) {
+            case TYPE_BEGIN:
+                mPending.put(id, timestamp);
+                break;
+            case TYPE_COMMIT:
+                mPending.remove(id);
+                insert(new CaptureRecord(id, timestamp, size, checksum));
+                break;
+            case TYPE_ABORT:
+                mPending.remove(id);
+                break;
+            case TYPE_DELETE:
+                remove(id);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void insert(CaptureRecord record) {
+        remove(record.getId());
+        int index = mRecords.size();
+        // captures arrive almost in time order, so search backwards from the end
+        while (index > 0 && compare(mRecords.get(index - 1), record) > 0) {
+            index--;
+        }
+        mRecords.add(index, record);
+        mById.put(record.getId(), record);
+    }
+
+    private void remove(long id) {
+        final CaptureRecord record = mById.remove(id);
+        if (record == null) return;
+        int index = lowerBound(record.getTimestamp());
+        while (mRecords.get(index).getId() != id) {
+            index++;
+        }
+        mRecords.remove(index);
+    }
+
+    private static int compare(CaptureRecord a, CaptureRecord b) {
+        if (a.getTimestamp() != b.getTimestamp()) {
+            return a.getTimestamp() < b.getTimestamp() ? -1 : 1;
+        }
+        return a.getId() < b.getId() ? -1 : (a.getId() == b.getId() ? 0 : 1);
+    }
+
+    /**
+     * First position whose timestamp is not less than {@code timestamp}.
+     */
+    private int lowerBound(long timestamp) {
+        int low = 0;
+        int high = mRecords.size();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (mRecords.get(mid).getTimestamp() < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void append(int type, long id, long timestamp, int size, int checksum) throws IOException {
+        mRecord.clear();
+        mRecord.putInt(type).putLong(id).putLong(timestamp).putInt(size).putInt(checksum);
+        mCrc.reset();
+        mCrc.update(mRecord.array(), 0, PAYLOAD_SIZE);
+        mRecord.putInt((int) mCrc.getValue());
+        mRecord.flip();
+        final long position = mChannel.position();
+        try {
+            while (mRecord.hasRemaining()) {
+                mChannel.write(mRecord);
+            }
+            mChannel.force(false);
+        } catch (IOException e) {
+            // never leave a half record behind that later appends would follow
+            mChannel.truncate(position);
+            mChannel.position(position);
+            throw e;
+        }
+        apply(type, id, timestamp, size, checksum);
+    }
+
+    public synchronized void begin(long id, long timestamp) throws IOException {
+        append(TYPE_BEGIN, id, timestamp, 0, 0);
+    }
+
+    public synchronized void commit(CaptureRecord record) throws IOException {
+        append(TYPE_COMMIT, record.getId(), record.getTimestamp(), record.getSize(), record.getChecksum());
+    }
+
+    public synchronized void abort(long id, long timestamp) throws IOException {
+        append(TYPE_ABORT, id, timestamp, 0, 0);
+    }
+
+    public synchronized boolean delete(long id) throws IOException {
+        final CaptureRecord record = mById.get(id);
+        if (record == null) return false;
+        append(TYPE_DELETE, id, record.getTimestamp(), 0, 0);
+        return true;
+    }
+
+    public synchronized CaptureRecord get(long id) {
+        return mById.get(id);
+    }
+
+    /**
+     * Committed captures with {@code from <= timestamp < to}, oldest first.
+     */
+    public synchronized List<CaptureRecord> query(long from, long to) {
+        if (to <= from) return Collections.emptyList();
+        final int start = lowerBound(from);
+        final int end = lowerBound(to);
+        return new ArrayList<>(mRecords.subList(start, end));
+    }
+
+    public synchronized List<CaptureRecord> getAll() {
+        return new ArrayList<>(mRecords);
+    }
+
+    public synchronized int size() {
+        return mRecords.size();
+    }
+
+    public synchronized long getMaxId() {
+        return mMaxId;
+    }
+
+    /**
+     * Ids with a BEGIN but no COMMIT/ABORT, mapped to their timestamps.
+     */
+    public synchronized Map<Long, Long> getPendingBegins() {
+        return new LinkedHashMap<>(mPending);
+    }
+
+    /**
+     * Bytes cut from the end of the log on open because they did not form a valid record.
+     */
+    public long getDiscardedBytes() {
+        return mDiscardedBytes;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mRandomAccessFile.close();
+    }
+}
@@ -0,0 +1,11 @@
+package com.wzq.camerademo.camera.store;
+
+/**
+ * Hands out the file names captures are written under.
+ */
+public interface CaptureNamer {
+    /**
+     * A name no other capture has or will get.
+     */
+    String newCaptureName();
+}
@@ -0,0 +1,64 @@
+package com.wzq.camerademo.camera.store;
+
+/**
+ * Committed entry of the {@link CaptureIndex}.
+ */
+public final class CaptureRecord {
+    private final long mId;
+    private final long mTimestamp;
+    private final int mSize;
+    private final int mChecksum;
+
+    public CaptureRecord(long id, long timestamp, int size, int checksum) {
+        mId = id;
+        mTimestamp = timestamp;
+        mSize = size;
+        mChecksum = checksum;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * Wall-clock capture time in milliseconds.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * CRC32 of the file contents.
+     */
+    public int getChecksum() {
+        return mChecksum;
+    }
+
+    public String getName() {
+        return CaptureStore.nameFor(mId, mTimestamp);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CaptureRecord)) return false;
+        final CaptureRecord other = (CaptureRecord) o;
+        return mId == other.mId && mTimestamp == other.mTimestamp
+                && mSize == other.mSize && mChecksum == other.mChecksum;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mId ^ (mId >>> 32)) * 31 + mChecksum;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureRecord{id=" + mId + ", timestamp=" + mTimestamp + ", size=" + mSize
+                + ", checksum=" + Integer.toHexString(mChecksum) + "}";
+    }
+}
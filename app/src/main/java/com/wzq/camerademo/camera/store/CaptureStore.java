@@ -0,0 +1,250 @@
+package com.wzq.camerademo.camera.store;
+
+import com.wzq.camerademo.camera.io.CaptureWriter;
+import com.wzq.camerademo.camera.io.ImageFileWriter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Directory of captures with collision-free names and a {@link CaptureIndex} that lets
+ * callers list captures without scanning the directory or opening the files.
+ *
+ * <p>Every capture gets a fresh id from {@link #newCaptureName()}. {@link #write} logs a
+ * BEGIN record, writes and syncs a temp file, renames it onto the final name and logs a
+ * COMMIT, so a reader never sees a half-written capture under its final name. Writes
+ * interrupted by a crash are resolved when the store is opened again.
+ */
+public class CaptureStore implements CaptureWriter, CaptureNamer, Closeable {
+    public static final String INDEX_FILE_NAME = "captures.idx";
+    static final String TEMP_SUFFIX = ".tmp";
+    private static final String NAME_PREFIX = "IMG_";
+    private static final String NAME_SUFFIX = ".jpg";
+    private static final int CHECKSUM_CHUNK = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> sChecksumScratch = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[CHECKSUM_CHUNK];
+        }
+    };
+
+    private final File mDirectory;
+    private final ImageFileWriter mFileWriter;
+    private final CaptureIndex mIndex;
+    private final AtomicLong mNextId;
+    private int mRecoveredCount;
+    private int mAbortedCount;
+
+    public CaptureStore(File directory) throws IOException {
+        this(directory, new ImageFileWriter());
+    }
+
+    public CaptureStore(File directory, ImageFileWriter fileWriter) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("cannot create " + directory);
+        }
+        mDirectory = directory;
+        mFileWriter = fileWriter;
+        mIndex = new CaptureIndex(new File(directory, INDEX_FILE_NAME));
+        mNextId = new AtomicLong(mIndex.getMaxId() + 1);
+        recoverPending();
+    }
+
+    /**
+     * Finishes or rolls back writes that were begun but not committed before a crash.
+     */
+    private void recoverPending() throws IOException {
+        for (Map.Entry<Long, Long> pending : mIndex.getPendingBegins().entrySet()) {
+            final long id = pending.getKey();
+            final long timestamp = pending.getValue();
+            final File file = new File(mDirectory, nameFor(id, timestamp));
+            final File temp = new File(mDirectory, nameFor(id, timestamp) + TEMP_SUFFIX);
+            if (temp.exists() && !temp.delete()) {
+                throw new IOException("cannot delete " + temp);
+            }
+            if (file.isFile()) {
+                // the rename happened, only the COMMIT record was lost
+                mIndex.commit(new CaptureRecord(id, timestamp, (int) file.length(), checksum(file)));
+                mRecoveredCount++;
+            } else {
+                mIndex.abort(id, timestamp);
+                mAbortedCount++;
+            }
+        }
+    }
+
+    @Override
+    public String newCaptureName() {
+        return newCaptureName(System.currentTimeMillis());
+    }
+
+    /**
+     * Reserves a new capture id and returns the file name for it.
+     */
+    public String newCaptureName(long timestampMillis) {
+        return nameFor(mNextId.getAndIncrement(), timestampMillis);
+    }
+
+    public static String nameFor(long id, long timestampMillis) {
+        return NAME_PREFIX + timestampMillis + "_" + id + NAME_SUFFIX;
+    }
+
+    /**
+     * @return {id, timestamp} or null if {@code name} was not made by {@link #nameFor}
+     */
+    public static long[] parseName(String name) {
+        if (name == null || !name.startsWith(NAME_PREFIX) || !name.endsWith(NAME_SUFFIX)) {
+            return null;
+        }
+        final String body = name.substring(NAME_PREFIX.length(), name.length() - NAME_SUFFIX.length());
+        final int separator = body.indexOf('_');
+        if (separator <= 0) return null;
+        try {
+            return new long[]{Long.parseLong(body.substring(separator + 1)), Long.parseLong(body.substring(0, separator))};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores {@code data} under a name obtained from {@link #newCaptureName()}.
+     */
+    @Override
+    public long write(String name, ByteBuffer data) throws IOException {
+        final long[] parsed = parseName(name);
+        if (parsed == null) {
+            throw new IOException("not a capture name: " + name);
+        }
+        final long id = parsed[0];
+        final long timestamp = parsed[1];
+        final int size = data.remaining();
+        final int checksum = checksum(data);
+        final File file = new File(mDirectory, name);
+        final File temp = new File(mDirectory, name + TEMP_SUFFIX);
+
+        mIndex.begin(id, timestamp);
+        try {
+            final FileOutputStream outputStream = new FileOutputStream(temp);
+            try {
+                mFileWriter.write(data, outputStream.getChannel());
+                outputStream.getChannel().force(true);
+            } finally {
+                outputStream.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("cannot rename " + temp + " to " + file);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            mIndex.abort(id, timestamp);
+            throw e;
+        }
+        mIndex.commit(new CaptureRecord(id, timestamp, size, checksum));
+        return size;
+    }
+
+    public File getFile(CaptureRecord record) {
+        return new File(mDirectory, record.getName());
+    }
+
+    public CaptureRecord get(long id) {
+        return mIndex.get(id);
+    }
+
+    /**
+     * Captures taken in {@code [fromMillis, toMillis)}, oldest first.
+     */
+    public List<CaptureRecord> query(long fromMillis, long toMillis) {
+        return mIndex.query(fromMillis, toMillis);
+    }
+
+    public List<CaptureRecord> getAll() {
+        return mIndex.getAll();
+    }
+
+    public int size() {
+        return mIndex.size();
+    }
+
+    public boolean delete(long id) throws IOException {
+        final CaptureRecord record = mIndex.get(id);
+        if (record == null) return false;
+        mIndex.delete(id);
+        return getFile(record).delete();
+    }
+
+    /**
+     * Re-reads the file of {@code record} and compares it with the indexed size and checksum.
+     */
+    public boolean verify(CaptureRecord record) throws IOException {
+        final File file = getFile(record);
+        return file.length() == record.getSize() && checksum(file) == record.getChecksum();
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Pending writes committed when the store was opened.
+     */
+    public int getRecoveredCount() {
+        return mRecoveredCount;
+    }
+
+    /**
+     * Pending writes rolled back when the store was opened.
+     */
+    public int getAbortedCount() {
+        return mAbortedCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIndex.close();
+    }
+
+    /**
+     * CRC32 of the remaining bytes, without moving the buffer position. Direct buffers are
+     * read through a small per-thread scratch array instead of a full heap copy.
+     */
+    static int checksum(ByteBuffer data) {
+        final CRC32 crc = new CRC32();
+        if (data.hasArray()) {
+            crc.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            return (int) crc.getValue();
+        }
+        final byte[] scratch = sChecksumScratch.get();
+        final ByteBuffer source = data.duplicate();
+        while (source.hasRemaining()) {
+            final int length = Math.min(scratch.length, source.remaining());
+            source.get(scratch, 0, length);
+            crc.update(scratch, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+
+    static int checksum(File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] scratch = sChecksumScratch.get();
+        final FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = inputStream.read(scratch)) > 0) {
+                crc.update(scratch, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,78 @@
+package com.wzq.camerademo.camera.store;
+
+import com.wzq.camerademo.camera.io.CaptureWriter;
+import com.wzq.camerademo.camera.io.ImageFileWriter;
+import com.wzq.camerademo.camera.io.LocalFileCaptureWriter;
+import com.wzq.camerademo.camera.startup.StartupTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link CaptureStore} opened on a background thread, since opening one replays the
+ * index and finishes the writes a crash interrupted. Naming and writing wait for it, which
+ * only happens on the threads that handle captures, and usually not at all as captures come
+ * well after the store has opened. If it cannot be opened, captures are written to the
+ * directory without an index.
+ */
+public class DeferredCaptureStore implements CaptureWriter, CaptureNamer {
+    private final StartupTask<CaptureStore> mOpenTask;
+    private final CaptureWriter mFallbackWriter;
+    private final AtomicLong mFallbackCaptureId = new AtomicLong();
+
+    public DeferredCaptureStore(final File directory, final ImageFileWriter fileWriter) {
+        mOpenTask = new StartupTask<>(new Callable<CaptureStore>() {
+            @Override
+            public CaptureStore call() throws IOException {
+                try {
+                    return new CaptureStore(directory, fileWriter);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    throw e;
+                }
+            }
+        });
+        mFallbackWriter = new LocalFileCaptureWriter(directory, fileWriter);
+    }
+
+    /**
+     * Opens the store on {@code executor}; without this it opens on first use.
+     */
+    public void open(Executor executor) {
+        mOpenTask.start(executor);
+    }
+
+    /**
+     * The store, waiting for it to open; null if it could not be opened.
+     */
+    public CaptureStore get() {
+        try {
+            return mOpenTask.get();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public boolean isOpen() {
+        return mOpenTask.isDone();
+    }
+
+    @Override
+    public String newCaptureName() {
+        final CaptureStore store = get();
+        if (store != null) {
+            return store.newCaptureName();
+        }
+        return CaptureStore.nameFor(mFallbackCaptureId.incrementAndGet(), System.currentTimeMillis());
+    }
+
+    @Override
+    public long write(String name, ByteBuffer data) throws IOException {
+        final CaptureStore store = get();
+        return store != null ? store.write(name, data) : mFallbackWriter.write(name, data);
+    }
+}
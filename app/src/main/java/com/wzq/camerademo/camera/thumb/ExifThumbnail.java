@@ -0,0 +1,136 @@
+package com.wzq.camerademo.camera.thumb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Finds the thumbnail that cameras embed in the EXIF block of a JPEG. The block sits at
+ * the start of the file and is at most 64KB, so getting a thumbnail this way reads a small
+ * fraction of a capture and decodes nothing.
+ */
+public final class ExifThumbnail {
+    // SOI plus an APP0 in front of the APP1, which itself is at most 64KB
+    static final int MAX_HEADER_BYTES = 128 * 1024;
+
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+    private static final int IFD_ENTRY_SIZE = 12;
+
+    private ExifThumbnail() {
+    }
+
+    /**
+     * @return the embedded JPEG thumbnail, or null if the file has none
+     */
+    public static byte[] read(File jpeg) throws IOException {
+        final byte[] header = new byte[(int) Math.min(MAX_HEADER_BYTES, jpeg.length())];
+        final InputStream input = new FileInputStream(jpeg);
+        int length = 0;
+        try {
+            int read;
+            while (length < header.length && (read = input.read(header, length, header.length - length)) > 0) {
+                length += read;
+            }
+        } finally {
+            input.close();
+        }
+        return find(header, length);
+    }
+
+    /**
+     * Looks for the thumbnail in the first {@code length} bytes of a JPEG.
+     *
+     * @return a copy of the thumbnail, or null if there is none or the EXIF block is broken
+     */
+    public static byte[] find(byte[] data, int length) {
+        if (length < 4 || u8(data, 0) != 0xFF || u8(data, 1) != 0xD8) return null;
+        int position = 2;
+        while (position + 4 <= length) {
+            if (u8(data, position) != 0xFF) return null;
+            final int marker = u8(data, position + 1);
+            if (marker == 0xFF) {
+                // fill byte before the marker
+                position++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) return null;
+            final int segmentLength = u16(data, position + 2, false);
+            final int end = Math.min(position + 2 + segmentLength, length);
+            if (marker == MARKER_APP1 && isExif(data, position + 4, end)) {
+                final byte[] thumbnail = findInTiff(data, position + 10, end);
+                if (thumbnail != null) return thumbnail;
+            }
+            position += 2 + segmentLength;
+        }
+        return null;
+    }
+
+    private static boolean isExif(byte[] data, int start, int end) {
+        return start + 6 <= end && data[start] == 'E' && data[start + 1] == 'x' && data[start + 2] == 'i'
+                && data[start + 3] == 'f' && data[start + 4] == 0 && data[start + 5] == 0;
+    }
+
+    /**
+     * Reads the thumbnail location from IFD1, the directory following the one of the main
+     * image. Offsets in the TIFF structure count from {@code start}.
+     */
+    private static byte[] findInTiff(byte[] data, int start, int end) {
+        if (start + 8 > end) return null;
+        final boolean littleEndian;
+        if (data[start] == 'I' && data[start + 1] == 'I') {
+            littleEndian = true;
+        } else if (data[start] == 'M' && data[start + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return null;
+        }
+        if (u16(data, start + 2, littleEndian) != 42) return null;
+        final long ifd0 = u32(data, start + 4, littleEndian);
+        if (ifd0 < 8 || start + ifd0 + 2 > end) return null;
+        final int ifd0Entries = u16(data, (int) (start + ifd0), littleEndian);
+        final long next = start + ifd0 + 2 + (long) ifd0Entries * IFD_ENTRY_SIZE;
+        if (next + 4 > end) return null;
+        final long ifd1 = u32(data, (int) next, littleEndian);
+        if (ifd1 < 8 || start + ifd1 + 2 > end) return null;
+        final int entries = u16(data, (int) (start + ifd1), littleEndian);
+        long offset = 0;
+        long thumbnailLength = 0;
+        for (int i = 0; i < entries; i++) {
+            final long entry = start + ifd1 + 2 + (long) i * IFD_ENTRY_SIZE;
+            if (entry + IFD_ENTRY_SIZE > end) return null;
+            final int tag = u16(data, (int) entry, littleEndian);
+            if (tag == TAG_THUMBNAIL_OFFSET) {
+                offset = u32(data, (int) entry + 8, littleEndian);
+            } else if (tag == TAG_THUMBNAIL_LENGTH) {
+                thumbnailLength = u32(data, (int) entry + 8, littleEndian);
+            }
+        }
+        if (offset <= 0 || thumbnailLength < 4 || start + offset + thumbnailLength > end) return null;
+        final int from = (int) (start + offset);
+        if (u8(data, from) != 0xFF || u8(data, from + 1) != 0xD8) return null;
+        final byte[] thumbnail = new byte[(int) thumbnailLength];
+        System.arraycopy(data, from, thumbnail, 0, thumbnail.length);
+        return thumbnail;
+    }
+
+    private static int u8(byte[] data, int offset) {
+        return data[offset] & 0xFF;
+    }
+
+    private static int u16(byte[] data, int offset, boolean littleEndian) {
+        return littleEndian
+                ? u8(data, offset) | u8(data, offset + 1) << 8
+                : u8(data, offset) << 8 | u8(data, offset + 1);
+    }
+
+    private static long u32(byte[] data, int offset, boolean littleEndian) {
+        final long high = u16(data, littleEndian ? offset + 2 : offset, littleEndian);
+        final long low = u16(data, littleEndian ? offset : offset + 2, littleEndian);
+        return high << 16 | low;
+    }
+}
@@ -0,0 +1,357 @@
+package com.wzq.camerademo.camera.thumb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thumbnails of captures in two tiers: decoded ones in memory and encoded ones as small
+ * files in a directory, each tier least recently used first out once over its byte budget.
+ * A thumbnail in neither tier is made from the capture by the {@link ThumbnailCodec},
+ * which is the only time the full capture is read.
+ *
+ * <p>The disk tier outlives the process; when it is first used its files are ordered by
+ * modification time, which a disk hit updates. Listing them waits until then, so creating
+ * the cache does no more than make the directory. Keys are capture file names.
+ */
+public class ThumbnailCache<T> {
+    static final String FILE_SUFFIX = ".thumb";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final ThumbnailCodec<T> mCodec;
+    private final int mMaxSize;
+    private final long mMemoryBudget;
+    private final long mDiskBudget;
+
+    // access ordered, eldest first
+    private final LinkedHashMap<String, T> mMemory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> mDisk = new LinkedHashMap<>(16, 0.75f, true);
+    private long mMemoryBytes;
+    private long mDiskBytes;
+    private boolean mDiskIndexLoaded;
+
+    private long mMemoryHits;
+    private long mDiskHits;
+    private long mMisses;
+    private long mMemoryEvictions;
+    private long mDiskEvictions;
+
+    /**
+     * @param maxSize longer side of the thumbnails in pixels
+     */
+    public ThumbnailCache(File directory, int maxSize, long memoryBudgetBytes, long diskBudgetBytes,
+                          ThumbnailCodec<T> codec) throws IOException {
+        if (maxSize <= 0 || memoryBudgetBytes < 0 || diskBudgetBytes <= 0) {
+            throw new IllegalArgumentException("bad thumbnail cache size");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("cannot create " + directory);
+        }
+        mDirectory = directory;
+        mMaxSize = maxSize;
+        mMemoryBudget = memoryBudgetBytes;
+        mDiskBudget = diskBudgetBytes;
+        mCodec = codec;
+    }
+
+    /**
+     * Lists the disk tier the first time it is needed; call holding the lock.
+     */
+    private void loadDiskIndex() {
+        if (mDiskIndexLoaded) return;
+        mDiskIndexLoaded = true;
+        final File[] files = mDirectory.listFiles();
+        if (files == null) return;
+        final long[] modified = new long[files.length];
+        final Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(modified[a], modified[b]);
+            }
+        });
+        for (Integer i : order) {
+            final String name = files[i].getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                files[i].delete();
+            } else if (name.endsWith(FILE_SUFFIX)) {
+                final long length = files[i].length();
+                mDisk.put(name.substring(0, name.length() - FILE_SUFFIX.length()), length);
+                mDiskBytes += length;
+            }
+        }
+        evictDisk(null);
+    }
+
+    /**
+     * The thumbnail if it is in memory; never blocks, for binding views on the main thread.
+     */
+    public synchronized T getIfCached(String key) {
+        final T thumbnail = mMemory.get(key);
+        if (thumbnail != null) {
+            mMemoryHits++;
+        }
+        return thumbnail;
+    }
+
+    /**
+     * The thumbnail of the capture in {@code source}, from memory, from disk or made from
+     * the capture, in that order. Blocks, so call it off the main thread.
+     */
+    public T get(String key, File source) throws IOException {
+        final T cached = getIfCached(key);
+        if (cached != null) return cached;
+        byte[] encoded = readDisk(key);
+        T thumbnail = null;
+        if (encoded != null) {
+            try {
+                thumbnail = mCodec.decode(encoded);
+                synchronized (this) {
+                    mDiskHits++;
+                }
+            } catch (IOException e) {
+                // torn by a crash before it reached the disk, make it again
+                e.printStackTrace();
+                remove(key);
+            }
+        }
+        if (thumbnail == null) {
+            synchronized (this) {
+                mMisses++;
+            }
+            encoded = generate(key, source);
+            thumbnail = mCodec.decode(encoded);
+        }
+        putMemory(key, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Makes the thumbnail of {@code source} and keeps it on disk, without decoding it, so
+     * it is ready when a gallery asks for it.
+     *
+     * @return false if it was already there
+     */
+    public boolean prepare(String key, File source) throws IOException {
+        synchronized (this) {
+            loadDiskIndex();
+            if (mDisk.containsKey(key)) return false;
+        }
+        generate(key, source);
+        return true;
+    }
+
+    public synchronized boolean contains(String key) {
+        loadDiskIndex();
+        return mMemory.containsKey(key) || mDisk.containsKey(key);
+    }
+
+    /**
+     * Drops the thumbnail from both tiers, e.g. when its capture is deleted.
+     */
+    public void remove(String key) {
+        synchronized (this) {
+            final T thumbnail = mMemory.remove(key);
+            if (thumbnail != null) {
+                mMemoryBytes -= mCodec.sizeOf(thumbnail);
+            }
+            loadDiskIndex();
+            final Long length = mDisk.remove(key);
+            if (length != null) {
+                mDiskBytes -= length;
+            }
+        }
+        fileFor(key).delete();
+    }
+
+    /**
+     * Empties the memory tier, e.g. when the system runs low on memory.
+     */
+    public synchronized void clearMemory() {
+        mMemory.clear();
+        mMemoryBytes = 0;
+    }
+
+    private byte[] generate(String key, File source) throws IOException {
+        final byte[] encoded = mCodec.encode(source, mMaxSize);
+        writeDisk(key, encoded);
+        return encoded;
+    }
+
+    private byte[] readDisk(String key) throws IOException {
+        synchronized (this) {
+            loadDiskIndex();
+            if (mDisk.get(key) == null) return null;
+        }
+        final File file = fileFor(key);
+        final byte[] encoded;
+        try {
+            encoded = readFully(file);
+        } catch (FileNotFoundException e) {
+            remove(key);
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return encoded;
+    }
+
+    private void writeDisk(String key, byte[] encoded) throws IOException {
+        final File file = fileFor(key);
+        final File temp = File.createTempFile("thumb", TEMP_SUFFIX, mDirectory);
+        try {
+            final FileOutputStream output = new FileOutputStream(temp);
+            try {
+                output.write(encoded);
+            } finally {
+                output.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("cannot rename " + temp + " to " + file);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        synchronized (this) {
+            loadDiskIndex();
+            final Long previous = mDisk.put(key, (long) encoded.length);
+            mDiskBytes += encoded.length - (previous != null ? previous : 0);
+            evictDisk(key);
+        }
+    }
+
+    private synchronized void putMemory(String key, T thumbnail) {
+        final int size = mCodec.sizeOf(thumbnail);
+        if (size > mMemoryBudget) return;
+        final T previous = mMemory.put(key, thumbnail);
+        mMemoryBytes += size - (previous != null ? mCodec.sizeOf(previous) : 0);
+        final Iterator<Map.Entry<String, T>> eldest = mMemory.entrySet().iterator();
+        while (mMemoryBytes > mMemoryBudget && eldest.hasNext()) {
+            final Map.Entry<String, T> entry = eldest.next();
+            mMemoryBytes -= mCodec.sizeOf(entry.getValue());
+            eldest.remove();
+            mMemoryEvictions++;
+        }
+    }
+
+    /**
+     * @param keep key to leave in place, the one just written
+     */
+    private void evictDisk(String keep) {
+        final Iterator<Map.Entry<String, Long>> eldest = mDisk.entrySet().iterator();
+        while (mDiskBytes > mDiskBudget && eldest.hasNext()) {
+            final Map.Entry<String, Long> entry = eldest.next();
+            if (entry.getKey().equals(keep)) continue;
+            mDiskBytes -= entry.getValue();
+            eldest.remove();
+            fileFor(entry.getKey()).delete();
+            mDiskEvictions++;
+        }
+    }
+
+    private File fileFor(String key) {
+        if (key.indexOf(File.separatorChar) >= 0 || key.indexOf('/') >= 0) {
+            throw new IllegalArgumentException("not a file name: " + key);
+        }
+        return new File(mDirectory, key + FILE_SUFFIX);
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        final InputStream input = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream((int) file.length());
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Largest power of two to subsample a {@code width} x {@code height} image by while its
+     * longer side stays at least {@code maxSize}, as {@code BitmapFactory.Options#inSampleSize}
+     * takes it.
+     */
+    public static int sampleSizeFor(int width, int height, int maxSize) {
+        final int longer = Math.max(width, height);
+        int sampleSize = 1;
+        while (longer / (sampleSize * 2) >= maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized long getMemoryBytes() {
+        return mMemoryBytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        loadDiskIndex();
+        return mDiskBytes;
+    }
+
+    public synchronized int getMemoryCount() {
+        return mMemory.size();
+    }
+
+    public synchronized int getDiskCount() {
+        loadDiskIndex();
+        return mDisk.size();
+    }
+
+    public synchronized long getMemoryHitCount() {
+        return mMemoryHits;
+    }
+
+    public synchronized long getDiskHitCount() {
+        return mDiskHits;
+    }
+
+    /**
+     * Thumbnails {@link #get} had to make from the capture; {@link #prepare} is not a miss.
+     */
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getMemoryEvictionCount() {
+        return mMemoryEvictions;
+    }
+
+    public synchronized long getDiskEvictionCount() {
+        return mDiskEvictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ThumbnailCache{memory " + mMemory.size() + "/" + mMemoryBytes + "B, disk " + mDisk.size() + "/"
+                + mDiskBytes + "B, hits " + mMemoryHits + "+" + mDiskHits + ", misses " + mMisses
+                + ", evictions " + mMemoryEvictions + "+" + mDiskEvictions + "}";
+    }
+}
@@ -0,0 +1,24 @@
+package com.wzq.camerademo.camera.thumb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Makes and decodes the thumbnails of a {@link ThumbnailCache}. {@code T} is the decoded
+ * form held in memory, a {@code Bitmap} on the device.
+ */
+public interface ThumbnailCodec<T> {
+
+    /**
+     * Encoded thumbnail of the capture in {@code source}, its longer side about
+     * {@code maxSize}. Called on a background thread.
+     */
+    byte[] encode(File source, int maxSize) throws IOException;
+
+    T decode(byte[] thumbnail) throws IOException;
+
+    /**
+     * Memory the decoded thumbnail takes up, in bytes.
+     */
+    int sizeOf(T thumbnail);
+}
@@ -0,0 +1,164 @@
+package com.wzq.camerademo.camera.thumb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the work of a {@link ThumbnailCache} on background threads: thumbnails of new
+ * captures are made on a low priority thread as they are persisted, and thumbnails a
+ * gallery asks for are loaded on a thread of their own, so a shooting burst does not hold
+ * up scrolling.
+ */
+public class ThumbnailGenerator<T> {
+
+    public interface Callback<T> {
+
+        /**
+         * @param thumbnail null if it could not be made
+         */
+        void onThumbnailLoaded(String name, T thumbnail);
+    }
+
+    private final ThumbnailCache<T> mCache;
+    private final File mCaptureDirectory;
+    private final ThreadPoolExecutor mGenerateExecutor;
+    private final ThreadPoolExecutor mLoadExecutor;
+    private final AtomicInteger mGenerated = new AtomicInteger();
+    private final AtomicInteger mSkipped = new AtomicInteger();
+    private final AtomicInteger mFailed = new AtomicInteger();
+
+    /**
+     * @param captureDirectory where the captures named by the keys are
+     * @param queueCapacity    captures that may wait for a thumbnail; beyond that they get
+     *                         one when first loaded instead
+     */
+    public ThumbnailGenerator(ThumbnailCache<T> cache, File captureDirectory, int queueCapacity) {
+        mCache = cache;
+        mCaptureDirectory = captureDirectory;
+        mGenerateExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity), new NamedThreadFactory("ThumbnailThread", Thread.MIN_PRIORITY));
+        mLoadExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("ThumbnailLoadThread", Thread.NORM_PRIORITY - 1));
+    }
+
+    /**
+     * Queues making the thumbnail of a capture that has just been persisted.
+     *
+     * @return false if the queue was full
+     */
+    public boolean submit(final String name) {
+        try {
+            mGenerateExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (mCache.prepare(name, new File(mCaptureDirectory, name))) {
+                            mGenerated.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        mFailed.incrementAndGet();
+                        e.printStackTrace();
+                    } catch (RuntimeException e) {
+                        mFailed.incrementAndGet();
+                        e.printStackTrace();
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            mSkipped.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Delivers the thumbnail of {@code name}, right away on the calling thread if it is in
+     * memory and from the load thread otherwise.
+     */
+    public void load(final String name, final Callback<T> callback) {
+        final T cached = mCache.getIfCached(name);
+        if (cached != null) {
+            callback.onThumbnailLoaded(name, cached);
+            return;
+        }
+        try {
+            mLoadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    T thumbnail = null;
+                    try {
+                        thumbnail = mCache.get(name, new File(mCaptureDirectory, name));
+                    } catch (IOException e) {
+                        mFailed.incrementAndGet();
+                        e.printStackTrace();
+                    } catch (RuntimeException e) {
+                        mFailed.incrementAndGet();
+                        e.printStackTrace();
+                    }
+                    callback.onThumbnailLoaded(name, thumbnail);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            callback.onThumbnailLoaded(name, null);
+        }
+    }
+
+    public ThumbnailCache<T> getCache() {
+        return mCache;
+    }
+
+    /**
+     * Thumbnails made in the background for new captures.
+     */
+    public int getGeneratedCount() {
+        return mGenerated.get();
+    }
+
+    /**
+     * New captures not queued because the queue was full.
+     */
+    public int getSkippedCount() {
+        return mSkipped.get();
+    }
+
+    public int getFailedCount() {
+        return mFailed.get();
+    }
+
+    /**
+     * Stops taking work; what is queued is still done.
+     */
+    public void shutdown() {
+        mGenerateExecutor.shutdown();
+        mLoadExecutor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return mGenerateExecutor.awaitTermination(timeout, unit)
+                && mLoadExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final int mPriority;
+
+        NamedThreadFactory(String name, int priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, mName);
+            thread.setPriority(mPriority);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.wzq.camerademo.camera.upload;
+
+/**
+ * One capture of a batch upload, read whole.
+ */
+public final class BatchItem {
+    private final String mName;
+    private final byte[] mData;
+    private final String mChecksum;
+
+    BatchItem(String name, byte[] data, String checksum) {
+        mName = name;
+        mData = data;
+        mChecksum = checksum;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * SHA-256 of the data, in hex.
+     */
+    public String getChecksum() {
+        return mChecksum;
+    }
+}
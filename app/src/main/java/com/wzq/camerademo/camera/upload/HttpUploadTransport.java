@@ -0,0 +1,164 @@
+package com.wzq.camerademo.camera.upload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+
+/**
+ * {@link UploadTransport} over plain HTTP with {@link HttpURLConnection}:
+ * <ul>
+ * <li>{@code POST /uploads} with {@code Upload-Name}, {@code Upload-Length} and
+ * {@code Upload-Checksum} starts an upload and answers its id in {@code Upload-Id};</li>
+ * <li>{@code HEAD /uploads/<id>} answers {@code Upload-Offset}, or 404;</li>
+ * <li>{@code PUT /uploads/<id>} with {@code Upload-Offset} and {@code Upload-Crc32} stores
+ * a chunk;</li>
+ * <li>{@code POST /uploads/<id>/finish} checks and completes an upload;</li>
+ * <li>{@code POST /batch} with {@code Upload-Count} carries whole files, each as name
+ * (UTF), SHA-256 (UTF), length (4) and data.</li>
+ * </ul>
+ * 5xx, 408 and 429 answers are retried; other 4xx answers reject the request.
+ */
+public class HttpUploadTransport implements UploadTransport {
+    private final static int DEFAULT_TIMEOUT_MS = 15000;
+
+    private final String mBaseUrl;
+    private final int mTimeoutMs;
+
+    public HttpUploadTransport(String baseUrl) {
+        this(baseUrl, DEFAULT_TIMEOUT_MS);
+    }
+
+    public HttpUploadTransport(String baseUrl, int timeoutMs) {
+        mBaseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        mTimeoutMs = timeoutMs;
+    }
+
+    @Override
+    public String begin(String name, long size, String checksum) throws IOException {
+        final HttpURLConnection connection = open("/uploads", "POST");
+        try {
+            connection.setRequestProperty("Upload-Name", URLEncoder.encode(name, "UTF-8"));
+            connection.setRequestProperty("Upload-Length", Long.toString(size));
+            connection.setRequestProperty("Upload-Checksum", checksum);
+            send(connection, new byte[0], 0);
+            check(connection);
+            final String uploadId = connection.getHeaderField("Upload-Id");
+            if (uploadId == null) {
+                throw new IOException("no Upload-Id in answer to " + name);
+            }
+            return uploadId;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public long getOffset(String uploadId) throws IOException {
+        final HttpURLConnection connection = open("/uploads/" + uploadId, "HEAD");
+        try {
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) return -1;
+            check(connection);
+            final String offset = connection.getHeaderField("Upload-Offset");
+            try {
+                return Long.parseLong(offset);
+            } catch (NumberFormatException e) {
+                throw new IOException("bad Upload-Offset " + offset);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void sendChunk(String uploadId, long offset, byte[] data, int length, long crc32) throws IOException {
+        final HttpURLConnection connection = open("/uploads/" + uploadId, "PUT");
+        try {
+            connection.setRequestProperty("Upload-Offset", Long.toString(offset));
+            connection.setRequestProperty("Upload-Crc32", Long.toString(crc32));
+            send(connection, data, length);
+            check(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void finish(String uploadId) throws IOException {
+        final HttpURLConnection connection = open("/uploads/" + uploadId + "/finish", "POST");
+        try {
+            send(connection, new byte[0], 0);
+            check(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public void sendBatch(List<BatchItem> items) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream body = new DataOutputStream(bytes);
+        for (BatchItem item : items) {
+            body.writeUTF(item.getName());
+            body.writeUTF(item.getChecksum());
+            body.writeInt(item.getData().length);
+            body.write(item.getData());
+        }
+        final HttpURLConnection connection = open("/batch", "POST");
+        try {
+            connection.setRequestProperty("Upload-Count", Integer.toString(items.size()));
+            send(connection, bytes.toByteArray(), bytes.size());
+            check(connection);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(String path, String method) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(mBaseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(mTimeoutMs);
+        connection.setReadTimeout(mTimeoutMs);
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    private static void send(HttpURLConnection connection, byte[] data, int length) throws IOException {
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(length);
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        final OutputStream output = connection.getOutputStream();
+        try {
+            output.write(data, 0, length);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void check(HttpURLConnection connection) throws IOException {
+        final int code = connection.getResponseCode();
+        // drain the body so the connection can be kept alive
+        final InputStream input = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (input != null) {
+            try {
+                final byte[] buffer = new byte[1024];
+                while (input.read(buffer) > 0) {
+                    // discard
+                }
+            } finally {
+                input.close();
+            }
+        }
+        if (code >= 200 && code < 300) return;
+        final String message = connection.getRequestMethod() + " " + connection.getURL().getPath() + ": " + code;
+        if (code >= 400 && code < 500 && code != 408 && code != 429) {
+            throw new UploadRejectedException(message);
+        }
+        throw new IOException(message);
+    }
+}
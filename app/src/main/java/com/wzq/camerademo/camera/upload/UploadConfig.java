@@ -0,0 +1,98 @@
+package com.wzq.camerademo.camera.upload;
+
+/**
+ * How an {@link UploadEngine} splits captures into requests and how hard it retries.
+ */
+public final class UploadConfig {
+    private int mChunkSize = 256 * 1024;
+    private long mBatchThreshold = 128 * 1024;
+    private long mMaxBatchBytes = 1024 * 1024;
+    private int mMaxBatchFiles = 16;
+    private int mMaxConcurrentTransfers = 2;
+    private long mInitialBackoffMs = 1000;
+    private long mMaxBackoffMs = 5 * 60 * 1000;
+    private int mMaxAttempts = 10;
+
+    /**
+     * Bytes per request of a chunked upload, and what a failed request has to send again.
+     */
+    public UploadConfig setChunkSize(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        mChunkSize = bytes;
+        return this;
+    }
+
+    /**
+     * Captures smaller than {@code threshold} go in batches of up to {@code maxFiles} files
+     * and {@code maxBytes} bytes; larger ones are uploaded in chunks.
+     */
+    public UploadConfig setBatching(long threshold, long maxBytes, int maxFiles) {
+        if (maxBytes < threshold || maxFiles < 1) {
+            throw new IllegalArgumentException("bad batch limits");
+        }
+        mBatchThreshold = threshold;
+        mMaxBatchBytes = maxBytes;
+        mMaxBatchFiles = maxFiles;
+        return this;
+    }
+
+    /**
+     * Requests in flight at once, each a batch or a chunked upload.
+     */
+    public UploadConfig setMaxConcurrentTransfers(int transfers) {
+        if (transfers < 1) {
+            throw new IllegalArgumentException("need at least one transfer");
+        }
+        mMaxConcurrentTransfers = transfers;
+        return this;
+    }
+
+    /**
+     * A failed transfer is retried after {@code initialMs}, doubled for every failure in a
+     * row up to {@code maxMs}, and given up after {@code maxAttempts} until the engine is
+     * started again.
+     */
+    public UploadConfig setRetry(long initialMs, long maxMs, int maxAttempts) {
+        if (initialMs < 0 || maxMs < initialMs || maxAttempts < 1) {
+            throw new IllegalArgumentException("bad retry policy");
+        }
+        mInitialBackoffMs = initialMs;
+        mMaxBackoffMs = maxMs;
+        mMaxAttempts = maxAttempts;
+        return this;
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    public long getBatchThreshold() {
+        return mBatchThreshold;
+    }
+
+    public long getMaxBatchBytes() {
+        return mMaxBatchBytes;
+    }
+
+    public int getMaxBatchFiles() {
+        return mMaxBatchFiles;
+    }
+
+    public int getMaxConcurrentTransfers() {
+        return mMaxConcurrentTransfers;
+    }
+
+    public long getInitialBackoffMs() {
+        return mInitialBackoffMs;
+    }
+
+    public long getMaxBackoffMs() {
+        return mMaxBackoffMs;
+    }
+
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+}
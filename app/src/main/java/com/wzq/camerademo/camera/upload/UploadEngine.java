@@ -0,0 +1,571 @@
+package com.wzq.camerademo.camera.upload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Ships the captures of a directory to a server through an {@link UploadTransport}.
+ *
+ * <p>Captures below {@link UploadConfig#getBatchThreshold()} are sent whole, several to a
+ * request. Larger ones are sent in chunks, each with a CRC32 the server checks, and the
+ * server checks the SHA-256 of the whole file at the end. At most
+ * {@link UploadConfig#getMaxConcurrentTransfers()} batches or chunked uploads are in flight;
+ * a failed one is retried after an exponential backoff with jitter.
+ *
+ * <p>Progress is kept in an {@link UploadJournal}: finished captures are not sent again,
+ * and a chunked upload interrupted by a failure or a restart carries on from the last chunk
+ * the server confirmed.
+ */
+public class UploadEngine {
+    private final static String CAPTURE_SUFFIX = ".jpg";
+
+    private final File mDirectory;
+    private final UploadJournal mJournal;
+    private final UploadTransport mTransport;
+    private final UploadConfig mConfig;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final Random mRandom = new Random();
+    private volatile UploadListener mListener;
+
+    // guarded by this
+    private final ArrayDeque<String> mReady = new ArrayDeque<>();
+    // ready, in flight or waiting for a retry
+    private final Set<String> mQueued = new HashSet<>();
+    private final Map<String, Integer> mAttempts = new HashMap<>();
+    private int mInFlight;
+    private int mWaiting;
+    private boolean mStarted;
+    private boolean mShutdown;
+
+    private final AtomicLong mUploadedFiles = new AtomicLong();
+    private final AtomicLong mUploadedBytes = new AtomicLong();
+    private final AtomicLong mSentBytes = new AtomicLong();
+    private final AtomicLong mBatches = new AtomicLong();
+    private final AtomicLong mChunks = new AtomicLong();
+    private final AtomicLong mRetries = new AtomicLong();
+    private final AtomicLong mGivenUp = new AtomicLong();
+
+    public UploadEngine(File directory, UploadJournal journal, UploadTransport transport, UploadConfig config) {
+        mDirectory = directory;
+        mJournal = journal;
+        mTransport = transport;
+        mConfig = config;
+        mExecutor = new ScheduledThreadPoolExecutor(config.getMaxConcurrentTransfers(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "UploadThread");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        // retries still waiting when the engine is shut down are left for the next start
+        mExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    public void setListener(UploadListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Queues every capture the journal has not seen finished, including the ones given up
+     * on before, and starts sending.
+     */
+    public void start() {
+        synchronized (this) {
+            if (mShutdown) {
+                throw new IllegalStateException("engine shut down");
+            }
+            mStarted = true;
+            mAttempts.clear();
+            for (UploadEntry entry : mJournal.getAll()) {
+                if (!entry.isDone()) {
+                    enqueue(entry.getName());
+                }
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * Adds the captures of the directory the journal does not know yet and forgets the
+     * ones that were deleted.
+     *
+     * @return the number of captures added
+     */
+    public int scan() throws IOException {
+        final String[] names = mDirectory.list();
+        final Set<String> present = new HashSet<>();
+        int added = 0;
+        if (names != null) {
+            for (String name : names) {
+                if (!name.endsWith(CAPTURE_SUFFIX) || !new File(mDirectory, name).isFile()) continue;
+                present.add(name);
+                if (mJournal.get(name) == null && add(name)) {
+                    added++;
+                }
+            }
+        }
+        for (UploadEntry entry : mJournal.getAll()) {
+            if (!present.contains(entry.getName()) && !isQueued(entry.getName())) {
+                mJournal.remove(entry.getName());
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Queues a capture that has just been written to the directory. Its checksum is
+     * computed here, on the calling thread.
+     *
+     * @return false if it was already uploaded or queued
+     */
+    public boolean add(String name) throws IOException {
+        return queue(name, null);
+    }
+
+    /**
+     * Queues a capture that has just been written to the directory from {@code data}, whose
+     * remaining bytes are checksummed instead of the file being read back. {@code data} is
+     * left as it is and only read until this returns; a pooled buffer must be held with a
+     * reference of the caller's own until then, not released by another holder meanwhile.
+     *
+     * @return false if it was already uploaded or queued
+     */
+    public boolean add(String name, ByteBuffer data) throws IOException {
+        if (data == null) {
+            throw new IllegalArgumentException("no data for " + name);
+        }
+        return queue(name, data);
+    }
+
+    private boolean queue(String name, ByteBuffer data) throws IOException {
+        final UploadEntry known = mJournal.get(name);
+        if (known != null && (known.isDone() || isQueued(name))) return false;
+        if (known == null) {
+            if (data != null) {
+                mJournal.add(name, data.remaining(), sha256(data));
+            } else {
+                final File file = new File(mDirectory, name);
+                mJournal.add(name, file.length(), sha256(file));
+            }
+        }
+        synchronized (this) {
+            if (!enqueue(name)) return false;
+        }
+        dispatch();
+        return true;
+    }
+
+    private synchronized boolean isQueued(String name) {
+        return mQueued.contains(name);
+    }
+
+    // guarded by this
+    private boolean enqueue(String name) {
+        if (!mQueued.add(name)) return false;
+        mReady.addLast(name);
+        return true;
+    }
+
+    private void dispatch() {
+        final List<Runnable> transfers = new ArrayList<>();
+        synchronized (this) {
+            if (!mStarted || mShutdown) return;
+            while (mInFlight < mConfig.getMaxConcurrentTransfers() && !mReady.isEmpty()) {
+                final String name = mReady.pollFirst();
+                final UploadEntry entry = mJournal.get(name);
+                if (entry == null || entry.isDone()) {
+                    mQueued.remove(name);
+                    continue;
+                }
+                if (entry.getSize() >= mConfig.getBatchThreshold()) {
+                    transfers.add(new ChunkedTransfer(entry));
+                } else {
+                    transfers.add(new BatchTransfer(takeBatch(entry)));
+                }
+                mInFlight++;
+            }
+            notifyAll();
+        }
+        for (Runnable transfer : transfers) {
+            mExecutor.execute(transfer);
+        }
+    }
+
+    // guarded by this
+    private List<UploadEntry> takeBatch(UploadEntry first) {
+        final List<UploadEntry> batch = new ArrayList<>();
+        batch.add(first);
+        long bytes = first.getSize();
+        final Iterator<String> ready = mReady.iterator();
+        while (ready.hasNext() && batch.size() < mConfig.getMaxBatchFiles()) {
+            final UploadEntry entry = mJournal.get(ready.next());
+            if (entry == null || entry.getSize() >= mConfig.getBatchThreshold()
+                    || bytes + entry.getSize() > mConfig.getMaxBatchBytes()) {
+                continue;
+            }
+            ready.remove();
+            batch.add(entry);
+            bytes += entry.getSize();
+        }
+        return batch;
+    }
+
+    private void onUploaded(UploadEntry entry) {
+        synchronized (this) {
+            mQueued.remove(entry.getName());
+            mAttempts.remove(entry.getName());
+        }
+        mUploadedFiles.incrementAndGet();
+        mUploadedBytes.addAndGet(entry.getSize());
+        final UploadListener listener = mListener;
+        if (listener != null) {
+            listener.onUploaded(entry.getName(), entry.getSize());
+        }
+    }
+
+    /**
+     * Forgets a capture that was deleted before it could be sent.
+     */
+    private void onMissing(UploadEntry entry) {
+        synchronized (this) {
+            mQueued.remove(entry.getName());
+            mAttempts.remove(entry.getName());
+        }
+        try {
+            mJournal.remove(entry.getName());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void onFailed(final String name, IOException error, boolean giveUp) {
+        long retryInMs = -1;
+        synchronized (this) {
+            final Integer previous = mAttempts.get(name);
+            final int attempts = previous != null ? previous + 1 : 1;
+            if (giveUp || attempts >= mConfig.getMaxAttempts() || mShutdown) {
+                mQueued.remove(name);
+                mAttempts.remove(name);
+            } else {
+                mAttempts.put(name, attempts);
+                retryInMs = backoffMs(attempts);
+                mWaiting++;
+            }
+        }
+        if (retryInMs >= 0) {
+            mRetries.incrementAndGet();
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (UploadEngine.this) {
+                        mWaiting--;
+                        mReady.addLast(name);
+                    }
+                    dispatch();
+                }
+            }, retryInMs, TimeUnit.MILLISECONDS);
+        } else {
+            mGivenUp.incrementAndGet();
+        }
+        final UploadListener listener = mListener;
+        if (listener != null) {
+            listener.onUploadFailed(name, error, retryInMs);
+        }
+    }
+
+    /**
+     * Between half and all of the exponential delay, so captures that failed together
+     * are not all retried at the same moment.
+     */
+    private long backoffMs(int attempts) {
+        final long delay = Math.min(mConfig.getMaxBackoffMs(),
+                mConfig.getInitialBackoffMs() << Math.min(attempts - 1, 30));
+        final long half = delay / 2;
+        synchronized (mRandom) {
+            return half + (long) (mRandom.nextDouble() * (delay - half));
+        }
+    }
+
+    private void onTransferEnded() {
+        synchronized (this) {
+            mInFlight--;
+            notifyAll();
+        }
+        dispatch();
+    }
+
+    private class ChunkedTransfer implements Runnable {
+        private final UploadEntry mEntry;
+
+        ChunkedTransfer(UploadEntry entry) {
+            mEntry = entry;
+        }
+
+        @Override
+        public void run() {
+            final String name = mEntry.getName();
+            try {
+                send();
+                mJournal.done(name);
+                onUploaded(mEntry);
+            } catch (FileNotFoundException e) {
+                onMissing(mEntry);
+            } catch (UploadRejectedException e) {
+                // whatever the server has of it is no good, start over
+                try {
+                    mJournal.reset(name);
+                } catch (IOException resetError) {
+                    resetError.printStackTrace();
+                }
+                onFailed(name, e, false);
+            } catch (IOException e) {
+                onFailed(name, e, false);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                onFailed(name, new IOException(e), false);
+            } finally {
+                onTransferEnded();
+            }
+        }
+
+        private void send() throws IOException {
+            final String name = mEntry.getName();
+            final long size = mEntry.getSize();
+            final RandomAccessFile file = new RandomAccessFile(new File(mDirectory, name), "r");
+            try {
+                // the journal may be behind the latest state, the server is not
+                final UploadEntry entry = mJournal.get(name);
+                String uploadId = entry != null ? entry.getUploadId() : null;
+                long offset = 0;
+                if (uploadId != null) {
+                    offset = mTransport.getOffset(uploadId);
+                    if (offset < 0 || offset > size) {
+                        mJournal.reset(name);
+                        uploadId = null;
+                        offset = 0;
+                    }
+                }
+                if (uploadId == null) {
+                    uploadId = mTransport.begin(name, size, mEntry.getChecksum());
+                    mJournal.start(name, uploadId);
+                }
+                final byte[] buffer = new byte[(int) Math.min(mConfig.getChunkSize(), Math.max(size, 1))];
+                final CRC32 crc = new CRC32();
+                while (offset < size) {
+                    final int length = (int) Math.min(buffer.length, size - offset);
+                    file.seek(offset);
+                    file.readFully(buffer, 0, length);
+                    crc.reset();
+                    crc.update(buffer, 0, length);
+                    mTransport.sendChunk(uploadId, offset, buffer, length, crc.getValue());
+                    offset += length;
+                    mSentBytes.addAndGet(length);
+                    mChunks.incrementAndGet();
+                    mJournal.setOffset(name, offset);
+                }
+                mTransport.finish(uploadId);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private class BatchTransfer implements Runnable {
+        private final List<UploadEntry> mEntries;
+
+        BatchTransfer(List<UploadEntry> entries) {
+            mEntries = entries;
+        }
+
+        @Override
+        public void run() {
+            final List<UploadEntry> sent = new ArrayList<>();
+            final List<BatchItem> items = new ArrayList<>();
+            try {
+                for (UploadEntry entry : mEntries) {
+                    try {
+                        items.add(new BatchItem(entry.getName(), readFully(entry), entry.getChecksum()));
+                        sent.add(entry);
+                    } catch (FileNotFoundException e) {
+                        onMissing(entry);
+                    } catch (IOException e) {
+                        // only this capture is unreadable, the rest of the batch still goes
+                        onFailed(entry.getName(), e, false);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        onFailed(entry.getName(), new IOException(e), false);
+                    }
+                }
+                if (!items.isEmpty()) {
+                    mTransport.sendBatch(items);
+                    mBatches.incrementAndGet();
+                    for (BatchItem item : items) {
+                        mSentBytes.addAndGet(item.getData().length);
+                    }
+                }
+                for (UploadEntry entry : sent) {
+                    mJournal.done(entry.getName());
+                    onUploaded(entry);
+                }
+            } catch (UploadRejectedException e) {
+                for (UploadEntry entry : sent) {
+                    onFailed(entry.getName(), e, true);
+                }
+            } catch (IOException e) {
+                for (UploadEntry entry : sent) {
+                    onFailed(entry.getName(), e, false);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                for (UploadEntry entry : sent) {
+                    onFailed(entry.getName(), new IOException(e), false);
+                }
+            } finally {
+                onTransferEnded();
+            }
+        }
+
+        private byte[] readFully(UploadEntry entry) throws IOException {
+            final RandomAccessFile file = new RandomAccessFile(new File(mDirectory, entry.getName()), "r");
+            try {
+                final byte[] data = new byte[(int) entry.getSize()];
+                file.readFully(data);
+                return data;
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    static String sha256(ByteBuffer data) throws IOException {
+        final MessageDigest digest = newDigest();
+        digest.update(data.duplicate());
+        return toHex(digest.digest());
+    }
+
+    static String sha256(File file) throws IOException {
+        final MessageDigest digest = newDigest();
+        final InputStream input = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        final char[] digits = "0123456789abcdef".toCharArray();
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = digits[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Waits until nothing is ready, in flight or waiting for a retry.
+     *
+     * @return false on timeout
+     */
+    public synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (mInFlight > 0 || mWaiting > 0 || !mReady.isEmpty()) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    public long getUploadedCount() {
+        return mUploadedFiles.get();
+    }
+
+    public long getUploadedBytes() {
+        return mUploadedBytes.get();
+    }
+
+    /**
+     * Bytes sent in chunks and batches, including the ones sent again after a failure.
+     */
+    public long getSentBytes() {
+        return mSentBytes.get();
+    }
+
+    public long getBatchCount() {
+        return mBatches.get();
+    }
+
+    public long getChunkCount() {
+        return mChunks.get();
+    }
+
+    public long getRetryCount() {
+        return mRetries.get();
+    }
+
+    /**
+     * Captures given up on until the next {@link #start()}.
+     */
+    public long getGivenUpCount() {
+        return mGivenUp.get();
+    }
+
+    public UploadJournal getJournal() {
+        return mJournal;
+    }
+
+    /**
+     * Lets the transfers in flight finish and drops the waiting retries; they are sent after
+     * the next start. The journal stays open.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            mShutdown = true;
+            mReady.clear();
+            mWaiting = 0;
+            notifyAll();
+        }
+        mExecutor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return mExecutor.awaitTermination(timeout, unit);
+    }
+}
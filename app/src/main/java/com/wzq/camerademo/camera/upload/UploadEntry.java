@@ -0,0 +1,72 @@
+package com.wzq.camerademo.camera.upload;
+
+/**
+ * Upload state of one capture as the {@link UploadJournal} last recorded it.
+ */
+public final class UploadEntry {
+    private final String mName;
+    private final long mSize;
+    private final String mChecksum;
+    private final String mUploadId;
+    private final long mOffset;
+    private final boolean mDone;
+
+    UploadEntry(String name, long size, String checksum, String uploadId, long offset, boolean done) {
+        mName = name;
+        mSize = size;
+        mChecksum = checksum;
+        mUploadId = uploadId;
+        mOffset = offset;
+        mDone = done;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     * SHA-256 of the whole file, in hex.
+     */
+    public String getChecksum() {
+        return mChecksum;
+    }
+
+    /**
+     * The server's id of a chunked upload once it has been started, otherwise null.
+     */
+    public String getUploadId() {
+        return mUploadId;
+    }
+
+    /**
+     * Bytes of a chunked upload the server has confirmed.
+     */
+    public long getOffset() {
+        return mOffset;
+    }
+
+    public boolean isDone() {
+        return mDone;
+    }
+
+    UploadEntry withUpload(String uploadId, long offset) {
+        return new UploadEntry(mName, mSize, mChecksum, uploadId, offset, false);
+    }
+
+    UploadEntry withOffset(long offset) {
+        return new UploadEntry(mName, mSize, mChecksum, mUploadId, offset, false);
+    }
+
+    UploadEntry asDone() {
+        return new UploadEntry(mName, mSize, mChecksum, null, mSize, true);
+    }
+
+    @Override
+    public String toString() {
+        return mName + " " + (mDone ? "done" : mOffset + "/" + mSize + (mUploadId != null ? " as " + mUploadId : ""));
+    }
+}
@@ -0,0 +1,282 @@
+package com.wzq.camerademo.camera.upload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the uploads of an {@link UploadEngine}, so that after a restart
+ * finished captures are not sent again and a chunked upload carries on where it stopped.
+ *
+ * <p>Every record is forced to disk and carries its own CRC; on open a torn or corrupt
+ * tail is cut off, like the {@code CaptureIndex} does. Once most of the log describes
+ * states that have been superseded, it is rewritten with only the current ones.
+ *
+ * <p>Record layout, big endian: length(4) payload(length) crc(4), where the payload is
+ * type(1) name(UTF) and the fields of the type.
+ */
+public class UploadJournal implements Closeable {
+    static final int TYPE_ADD = 1;
+    static final int TYPE_START = 2;
+    static final int TYPE_OFFSET = 3;
+    static final int TYPE_DONE = 4;
+    static final int TYPE_REMOVE = 5;
+    static final int TYPE_RESET = 6;
+
+    private static final int MAX_PAYLOAD = 64 * 1024;
+    private static final int MIN_COMPACT_RECORDS = 256;
+
+    private final File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private final CRC32 mCrc = new CRC32();
+    private final LinkedHashMap<String, UploadEntry> mEntries = new LinkedHashMap<>();
+    private int mRecords;
+    private long mDiscardedBytes;
+
+    public UploadJournal(File file) throws IOException {
+        mFile = file;
+        open();
+        try {
+            replay();
+        } catch (IOException e) {
+            mRandomAccessFile.close();
+            throw e;
+        }
+    }
+
+    private void open() throws IOException {
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+    }
+
+    private void replay() throws IOException {
+        final long length = mChannel.size();
+        final ByteBuffer header = ByteBuffer.allocate(4);
+        long offset = 0;
+        mChannel.position(0);
+        while (offset + 8 <= length) {
+            header.clear();
+            readFully(header);
+            final int payloadLength = header.getInt(0);
+            if (payloadLength <= 0 || payloadLength > MAX_PAYLOAD || offset + 8 + payloadLength > length) break;
+            final ByteBuffer record = ByteBuffer.allocate(payloadLength + 4);
+            readFully(record);
+            mCrc.reset();
+            mCrc.update(record.array(), 0, payloadLength);
+            if ((int) mCrc.getValue() != record.getInt(payloadLength)) break;
+            try {
+                apply(new DataInputStream(new ByteArrayInputStream(record.array(), 0, payloadLength)));
+            } catch (EOFException e) {
+                break;
+            }
+            mRecords++;
+            offset += 8 + payloadLength;
+        }
+        if (offset < length) {
+            // torn or corrupt tail from a crash in the middle of an append
+            mDiscardedBytes = length - offset;
+            mChannel.truncate(offset);
+            mChannel.force(true);
+        }
+        mChannel.position(offset);
+        if (mRecords >= MIN_COMPACT_RECORDS && mRecords > 3 * mEntries.size()) {
+            compact();
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer) < 0) break;
+        }
+    }
+
+    private void apply(DataInputStream input) throws IOException {
+        final int type = input.readByte();
+        final String name = input.readUTF();
+        final UploadEntry entry = mEntries.get(name);
+        switch (type) {
+            case TYPE_ADD:
+                mEntries.put(name, new UploadEntry(name, input.readLong(), input.readUTF(), null, 0, false));
+                break;
+            case TYPE_START:
+                if (entry != null) {
+                    mEntries.put(name, entry.withUpload(input.readUTF(), 0));
+                }
+                break;
+            case TYPE_OFFSET:
+                if (entry != null) {
+                    mEntries.put(name, entry.withOffset(input.readLong()));
+                }
+                break;
+            case TYPE_DONE:
+                if (entry != null) {
+                    mEntries.put(name, entry.asDone());
+                }
+                break;
+            case TYPE_RESET:
+                if (entry != null) {
+                    mEntries.put(name, entry.withUpload(null, 0));
+                }
+                break;
+            case TYPE_REMOVE:
+                mEntries.remove(name);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @param number written unless null, before {@code text}
+     * @param text   written unless null
+     */
+    private byte[] record(int type, String name, Long number, String text) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0);
+        output.writeByte(type);
+        output.writeUTF(name);
+        if (number != null) {
+            output.writeLong(number);
+        }
+        if (text != null) {
+            output.writeUTF(text);
+        }
+        output.writeInt(0);
+        final byte[] record = bytes.toByteArray();
+        final int payloadLength = record.length - 8;
+        ByteBuffer.wrap(record).putInt(0, payloadLength);
+        mCrc.reset();
+        mCrc.update(record, 4, payloadLength);
+        ByteBuffer.wrap(record).putInt(record.length - 4, (int) mCrc.getValue());
+        return record;
+    }
+
+    private void append(byte[] record) throws IOException {
+        final long position = mChannel.position();
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                mChannel.write(buffer);
+            }
+            mChannel.force(false);
+        } catch (IOException e) {
+            // never leave a half record behind that later appends would follow
+            mChannel.truncate(position);
+            mChannel.position(position);
+            throw e;
+        }
+        apply(new DataInputStream(new ByteArrayInputStream(record, 4, record.length - 8)));
+        mRecords++;
+    }
+
+    /**
+     * Records a capture to upload, replacing whatever was recorded under its name.
+     */
+    public synchronized UploadEntry add(String name, long size, String checksum) throws IOException {
+        append(record(TYPE_ADD, name, size, checksum));
+        return mEntries.get(name);
+    }
+
+    /**
+     * Records that the server has started a chunked upload of {@code name} as
+     * {@code uploadId}.
+     */
+    public synchronized void start(String name, String uploadId) throws IOException {
+        append(record(TYPE_START, name, null, uploadId));
+    }
+
+    public synchronized void setOffset(String name, long offset) throws IOException {
+        append(record(TYPE_OFFSET, name, offset, null));
+    }
+
+    public synchronized void done(String name) throws IOException {
+        append(record(TYPE_DONE, name, null, null));
+    }
+
+    /**
+     * Drops a chunked upload the server no longer knows or refused, so the next attempt
+     * starts over.
+     */
+    public synchronized void reset(String name) throws IOException {
+        append(record(TYPE_RESET, name, null, null));
+    }
+
+    public synchronized void remove(String name) throws IOException {
+        if (mEntries.containsKey(name)) {
+            append(record(TYPE_REMOVE, name, null, null));
+        }
+    }
+
+    public synchronized UploadEntry get(String name) {
+        return mEntries.get(name);
+    }
+
+    /**
+     * Every recorded capture, in the order they were added.
+     */
+    public synchronized List<UploadEntry> getAll() {
+        return new ArrayList<>(mEntries.values());
+    }
+
+    /**
+     * Bytes cut off a torn or corrupt tail when the journal was opened.
+     */
+    public synchronized long getDiscardedBytes() {
+        return mDiscardedBytes;
+    }
+
+    /**
+     * Rewrites the log with one set of records per capture and swaps it in.
+     */
+    public synchronized void compact() throws IOException {
+        final File temp = new File(mFile.getPath() + ".tmp");
+        final RandomAccessFile output = new RandomAccessFile(temp, "rw");
+        int records = 0;
+        try {
+            output.setLength(0);
+            for (UploadEntry entry : mEntries.values()) {
+                output.write(record(TYPE_ADD, entry.getName(), entry.getSize(), entry.getChecksum()));
+                records++;
+                if (entry.isDone()) {
+                    output.write(record(TYPE_DONE, entry.getName(), null, null));
+                    records++;
+                } else if (entry.getUploadId() != null) {
+                    output.write(record(TYPE_START, entry.getName(), null, entry.getUploadId()));
+                    output.write(record(TYPE_OFFSET, entry.getName(), entry.getOffset(), null));
+                    records += 2;
+                }
+            }
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        mRandomAccessFile.close();
+        if (!temp.renameTo(mFile)) {
+            open();
+            mChannel.position(mChannel.size());
+            throw new IOException("cannot rename " + temp + " to " + mFile);
+        }
+        open();
+        mChannel.position(mChannel.size());
+        mRecords = records;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mRandomAccessFile.close();
+    }
+}
@@ -0,0 +1,18 @@
+package com.wzq.camerademo.camera.upload;
+
+import java.io.IOException;
+
+public interface UploadListener {
+
+    /**
+     * Called on a transfer thread once the server has the whole capture.
+     */
+    void onUploaded(String name, long size);
+
+    /**
+     * Called on a transfer thread when a transfer failed.
+     *
+     * @param retryInMs when it is tried again, or -1 if it was given up
+     */
+    void onUploadFailed(String name, IOException error, long retryInMs);
+}
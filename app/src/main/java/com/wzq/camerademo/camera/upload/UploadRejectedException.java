@@ -0,0 +1,14 @@
+package com.wzq.camerademo.camera.upload;
+
+import java.io.IOException;
+
+/**
+ * The server refused a request in a way that sending it again will not fix, e.g. a
+ * checksum that does not match what it received.
+ */
+public class UploadRejectedException extends IOException {
+
+    public UploadRejectedException(String message) {
+        super(message);
+    }
+}
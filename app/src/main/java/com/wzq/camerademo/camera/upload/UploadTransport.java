@@ -0,0 +1,44 @@
+package com.wzq.camerademo.camera.upload;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Talks to the upload server for an {@link UploadEngine}, which may call it from several
+ * threads at once. An {@link IOException} is retried later, an
+ * {@link UploadRejectedException} is not: a chunked upload starts over, a batch is given up.
+ */
+public interface UploadTransport {
+
+    /**
+     * Starts a chunked upload.
+     *
+     * @param checksum SHA-256 of the whole file, in hex
+     * @return the server's id for the upload
+     */
+    String begin(String name, long size, String checksum) throws IOException;
+
+    /**
+     * @return bytes of the upload the server has, or -1 if it does not know the id, e.g.
+     * because it expired
+     */
+    long getOffset(String uploadId) throws IOException;
+
+    /**
+     * Sends {@code length} bytes of {@code data} to be stored at {@code offset}.
+     *
+     * @param crc32 of the bytes sent, checked by the server before it stores them
+     */
+    void sendChunk(String uploadId, long offset, byte[] data, int length, long crc32) throws IOException;
+
+    /**
+     * Completes an upload once every byte is sent; the server checks the file against the
+     * checksum given to {@link #begin}.
+     */
+    void finish(String uploadId) throws IOException;
+
+    /**
+     * Uploads small captures whole, in one request.
+     */
+    void sendBatch(List<BatchItem> items) throws IOException;
+}
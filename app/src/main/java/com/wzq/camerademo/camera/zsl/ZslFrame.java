@@ -0,0 +1,45 @@
+package com.wzq.camerademo.camera.zsl;
+
+import com.wzq.camerademo.camera.backend.BackendImage;
+import com.wzq.camerademo.camera.backend.FrameResult;
+
+/**
+ * A full resolution image of a recent frame with the result the camera reported for it.
+ */
+public class ZslFrame {
+    private final BackendImage mImage;
+    private final FrameResult mResult;
+    private final long mBytes;
+
+    ZslFrame(BackendImage image, FrameResult result) {
+        mImage = image;
+        mResult = result;
+        mBytes = ZslRingBuffer.sizeOf(image);
+    }
+
+    public BackendImage getImage() {
+        return mImage;
+    }
+
+    public FrameResult getResult() {
+        return mResult;
+    }
+
+    public long getTimestamp() {
+        return mResult.getTimestamp();
+    }
+
+    /**
+     * Bytes the image takes up in its stream.
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Gives the image back to its stream.
+     */
+    public void close() {
+        mImage.close();
+    }
+}
@@ -0,0 +1,242 @@
+package com.wzq.camerademo.camera.zsl;
+
+import com.wzq.camerademo.camera.backend.BackendImage;
+import com.wzq.camerademo.camera.backend.FrameResult;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * The most recent full resolution frames of the preview, for zero shutter lag capture.
+ *
+ * <p>Images and results arrive separately and are paired by sensor timestamp; a frame only
+ * enters the ring once it has both. The oldest frames are evicted, and their images given
+ * back to the stream, whenever the ring holds more than its capacity or its byte budget.
+ * All methods may be called from any thread.
+ */
+public class ZslRingBuffer {
+    public enum Selection {
+        /**
+         * The frame whose timestamp is closest to the shutter.
+         */
+        CLOSEST,
+        /**
+         * The sharpest frame near the shutter, the closest one among equally sharp frames.
+         */
+        SHARPEST
+    }
+
+    // a result or image whose counterpart has not turned up after this many is dropped
+    private static final int PENDING_LIMIT = 8;
+
+    private final int mCapacity;
+    private final long mMaxBytes;
+    private final ArrayDeque<ZslFrame> mFrames = new ArrayDeque<>();
+    private final ArrayDeque<BackendImage> mPendingImages = new ArrayDeque<>();
+    private final ArrayDeque<FrameResult> mPendingResults = new ArrayDeque<>();
+    private long mBytes;
+    private long mStaleTimestamp = Long.MIN_VALUE;
+    private long mLatestTimestamp = Long.MIN_VALUE;
+    private long mEvictedCount;
+    private long mUnpairedCount;
+
+    /**
+     * @param capacity most frames held at once; the image stream needs more slots than that,
+     *                 see {@link #getMaxImages()}
+     * @param maxBytes most image bytes held at once
+     */
+    public ZslRingBuffer(int capacity, long maxBytes) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        mCapacity = capacity;
+        mMaxBytes = maxBytes;
+    }
+
+    static long sizeOf(BackendImage image) {
+        long bytes = 0;
+        for (int i = 0; i < image.getPlaneCount(); i++) {
+            bytes += image.getPlaneBuffer(i).capacity();
+        }
+        return bytes;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Most images held open at once: a full ring plus the images still waiting for their
+     * results. The stream feeding the ring needs at least one slot more than this, for the
+     * image being delivered, and one more for each frame taken and not closed yet.
+     */
+    public int getMaxImages() {
+        return mCapacity + PENDING_LIMIT;
+    }
+
+    public synchronized int size() {
+        return mFrames.size();
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Frames pushed out by newer ones.
+     */
+    public synchronized long getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    /**
+     * Images and results dropped because their counterpart never arrived.
+     */
+    public synchronized long getUnpairedCount() {
+        return mUnpairedCount;
+    }
+
+    /**
+     * Takes ownership of {@code image}.
+     */
+    public synchronized void addImage(BackendImage image) {
+        final long timestamp = image.getTimestamp();
+        if (timestamp <= mStaleTimestamp) {
+            image.close();
+            return;
+        }
+        final Iterator<FrameResult> results = mPendingResults.iterator();
+        while (results.hasNext()) {
+            final FrameResult result = results.next();
+            if (result.getTimestamp() == timestamp) {
+                results.remove();
+                push(new ZslFrame(image, result));
+                return;
+            }
+        }
+        mPendingImages.add(image);
+        if (mPendingImages.size() > PENDING_LIMIT) {
+            mPendingImages.poll().close();
+            mUnpairedCount++;
+        }
+    }
+
+    public synchronized void addResult(FrameResult result) {
+        final long timestamp = result.getTimestamp();
+        if (timestamp <= mStaleTimestamp) return;
+        final Iterator<BackendImage> images = mPendingImages.iterator();
+        while (images.hasNext()) {
+            final BackendImage image = images.next();
+            if (image.getTimestamp() == timestamp) {
+                images.remove();
+                push(new ZslFrame(image, result));
+                return;
+            }
+        }
+        mPendingResults.add(result);
+        if (mPendingResults.size() > PENDING_LIMIT) {
+            mPendingResults.poll();
+            mUnpairedCount++;
+        }
+    }
+
+    private void push(ZslFrame frame) {
+        mFrames.add(frame);
+        mBytes += frame.getBytes();
+        mLatestTimestamp = Math.max(mLatestTimestamp, frame.getTimestamp());
+        while (mFrames.size() > mCapacity || (mBytes > mMaxBytes && !mFrames.isEmpty())) {
+            final ZslFrame evicted = mFrames.poll();
+            mBytes -= evicted.getBytes();
+            evicted.close();
+            mEvictedCount++;
+        }
+    }
+
+    /**
+     * Takes back the image with {@code timestamp} if it is still waiting for its result, for
+     * an image that turned out to be a still rather than a preview frame.
+     *
+     * @return null if there is no such image; otherwise the caller owns it
+     */
+    public synchronized BackendImage takeImage(long timestamp) {
+        final Iterator<BackendImage> images = mPendingImages.iterator();
+        while (images.hasNext()) {
+            final BackendImage image = images.next();
+            if (image.getTimestamp() == timestamp) {
+                images.remove();
+                return image;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the frame that best matches a shutter at {@code shutterTimestamp}, in the clock
+     * of the sensor timestamps. A shutter later than every frame picks from the newest ones.
+     *
+     * @param windowNanos how far from the shutter a frame may be to count as sharpest; the
+     *                    closest frame is taken if none is that close
+     * @return null if the ring is empty; otherwise the caller owns the frame and has to close it
+     */
+    public synchronized ZslFrame take(long shutterTimestamp, Selection selection, long windowNanos) {
+        ZslFrame closest = null;
+        ZslFrame sharpest = null;
+        for (ZslFrame frame : mFrames) {
+            final long distance = Math.abs(frame.getTimestamp() - shutterTimestamp);
+            if (closest == null || distance < Math.abs(closest.getTimestamp() - shutterTimestamp)) {
+                closest = frame;
+            }
+            if (distance > windowNanos) continue;
+            if (sharpest == null) {
+                sharpest = frame;
+                continue;
+            }
+            final float sharpness = frame.getResult().getSharpness();
+            final float bestSharpness = sharpest.getResult().getSharpness();
+            if (sharpness > bestSharpness || (sharpness == bestSharpness
+                    && distance < Math.abs(sharpest.getTimestamp() - shutterTimestamp))) {
+                sharpest = frame;
+            }
+        }
+        final ZslFrame selected = selection == Selection.SHARPEST && sharpest != null ? sharpest : closest;
+        if (selected != null) {
+            mFrames.remove(selected);
+            mBytes -= selected.getBytes();
+        }
+        return selected;
+    }
+
+    /**
+     * Timestamp of the newest frame that entered the ring, Long.MIN_VALUE before the first.
+     */
+    public synchronized long getLatestTimestamp() {
+        return mLatestTimestamp;
+    }
+
+    /**
+     * Gives every image back to its stream. Images and results of frames up to the newest
+     * one seen so far are dropped when they arrive late, so nothing of a closed session
+     * enters the ring afterwards.
+     */
+    public synchronized void clear() {
+        mStaleTimestamp = Math.max(mStaleTimestamp, mLatestTimestamp);
+        for (ZslFrame frame : mFrames) {
+            frame.close();
+        }
+        mFrames.clear();
+        mBytes = 0;
+        for (BackendImage image : mPendingImages) {
+            mStaleTimestamp = Math.max(mStaleTimestamp, image.getTimestamp());
+            image.close();
+        }
+        mPendingImages.clear();
+        for (FrameResult result : mPendingResults) {
+            mStaleTimestamp = Math.max(mStaleTimestamp, result.getTimestamp());
+        }
+        mPendingResults.clear();
+    }
+}
@@ -0,0 +1,173 @@
+package com.wzq.camerademo.camera.analysis;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LatestFrameDispatcherTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private LatestFrameDispatcher mDispatcher;
+
+    @After
+    public void tearDown() {
+        if (mDispatcher != null) {
+            mDispatcher.stop();
+        }
+    }
+
+    @Test
+    public void slowAnalyzer_dropsStaleFramesWithoutBlockingProducer() throws Exception {
+        final List<Long> analyzed = Collections.synchronizedList(new ArrayList<Long>());
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        mDispatcher = new LatestFrameDispatcher("analysis", new FrameAnalyzer() {
+            @Override
+            public void analyze(YuvFrame frame) {
+                maxConcurrent.set(Math.max(maxConcurrent.get(), concurrent.incrementAndGet()));
+                analyzed.add(frame.getSequence());
+                assertEquals(frame.getSequence() & 0xff, frame.getY(3, 2));
+                sleep(5);
+                concurrent.decrementAndGet();
+            }
+        });
+        mDispatcher.start();
+
+        SyntheticFrameSource source = new SyntheticFrameSource(mDispatcher);
+        long start = System.nanoTime();
+        source.produce(300);
+        long producerMs = (System.nanoTime() - start) / 1000000;
+        // let the analyzer pick up the final frame
+        sleep(50);
+        mDispatcher.stop();
+
+        assertEquals(300, mDispatcher.getPublishedCount());
+        assertTrue(mDispatcher.getDroppedCount() > 0);
+        assertEquals(300, mDispatcher.getAnalyzedCount() + mDispatcher.getDroppedCount());
+        assertEquals(1, maxConcurrent.get());
+        assertEquals(Long.valueOf(299), analyzed.get(analyzed.size() - 1));
+        for (int i = 1; i < analyzed.size(); i++) {
+            assertTrue(analyzed.get(i) > analyzed.get(i - 1));
+        }
+        // 300 frames at 5 ms each would take 1.5 s if the producer were ever blocked
+        assertTrue("producer took " + producerMs + "ms", producerMs < 1000);
+    }
+
+    @Test
+    public void steadyStream_allocatesNoPlanesPerFrame() {
+        mDispatcher = new LatestFrameDispatcher("analysis", new FrameAnalyzer() {
+            @Override
+            public void analyze(YuvFrame frame) {
+            }
+        });
+        mDispatcher.start();
+        new SyntheticFrameSource(mDispatcher).produce(1000);
+
+        // three pooled frames with three planes each, allocated once
+        assertTrue(mDispatcher.getAllocationCount() <= 9);
+    }
+
+    @Test
+    public void fastAnalyzer_seesEveryFrame() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(20);
+        mDispatcher = new LatestFrameDispatcher("analysis", new FrameAnalyzer() {
+            @Override
+            public void analyze(YuvFrame frame) {
+                latch.countDown();
+            }
+        });
+        mDispatcher.start();
+        SyntheticFrameSource source = new SyntheticFrameSource(mDispatcher);
+        for (int i = 0; i < 20; i++) {
+            source.produce(1);
+            sleep(5);
+        }
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(0, mDispatcher.getDroppedCount());
+    }
+
+    @Test
+    public void throwingAnalyzer_keepsThreadAlive() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        mDispatcher = new LatestFrameDispatcher("analysis", new FrameAnalyzer() {
+            @Override
+            public void analyze(YuvFrame frame) {
+                latch.countDown();
+                throw new IllegalStateException("analyzer bug");
+            }
+        });
+        mDispatcher.start();
+        SyntheticFrameSource source = new SyntheticFrameSource(mDispatcher);
+        for (int i = 0; i < 3; i++) {
+            source.produce(1);
+            sleep(20);
+        }
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void publishWhileStopped_recyclesFrame() {
+        mDispatcher = new LatestFrameDispatcher("analysis", new FrameAnalyzer() {
+            @Override
+            public void analyze(YuvFrame frame) {
+                fail("not started");
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            YuvFrame frame = mDispatcher.obtainFrame();
+            assertNotNull(frame);
+            mDispatcher.publish(frame);
+        }
+        assertEquals(10, mDispatcher.getDroppedCount());
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stands in for the camera: produces semi-planar YUV_420_888 frames whose luma is the
+     * frame number, copied from direct buffers like {@code Image.Plane} hands them out.
+     */
+    static class SyntheticFrameSource {
+        private final LatestFrameDispatcher mDispatcher;
+        private final ByteBuffer mY = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        private final ByteBuffer mUv = ByteBuffer.allocateDirect(WIDTH * HEIGHT / 2 - 1);
+        private long mFrames;
+
+        SyntheticFrameSource(LatestFrameDispatcher dispatcher) {
+            mDispatcher = dispatcher;
+        }
+
+        void produce(int count) {
+            for (int i = 0; i < count; i++) {
+                final byte luma = (byte) mFrames;
+                for (int p = 0; p < mY.capacity(); p++) {
+                    mY.put(p, luma);
+                }
+                YuvFrame frame = mDispatcher.obtainFrame();
+                assertNotNull(frame);
+                frame.setFormat(WIDTH, HEIGHT, mFrames * 33333333L);
+                frame.setPlane(YuvFrame.PLANE_Y, mY, WIDTH, 1);
+                frame.setPlane(YuvFrame.PLANE_U, mUv, WIDTH, 2);
+                frame.setPlane(YuvFrame.PLANE_V, mUv, WIDTH, 2);
+                mDispatcher.publish(frame);
+                mFrames++;
+            }
+        }
+    }
+}
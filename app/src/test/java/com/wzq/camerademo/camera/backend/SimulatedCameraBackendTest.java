@@ -0,0 +1,370 @@
+package com.wzq.camerademo.camera.backend;
+
+import com.wzq.camerademo.camera.analysis.FrameAnalyzer;
+import com.wzq.camerademo.camera.analysis.LatestFrameDispatcher;
+import com.wzq.camerademo.camera.analysis.YuvFrame;
+import com.wzq.camerademo.camera.io.ImageFileWriter;
+import com.wzq.camerademo.camera.io.OverflowPolicy;
+import com.wzq.camerademo.camera.io.PersistCallback;
+import com.wzq.camerademo.camera.io.PersistResult;
+import com.wzq.camerademo.camera.io.PersistenceQueue;
+import com.wzq.camerademo.camera.lifecycle.CameraController;
+import com.wzq.camerademo.camera.lifecycle.CameraState;
+import com.wzq.camerademo.camera.metrics.CameraMetrics;
+import com.wzq.camerademo.camera.pipeline.Burst;
+import com.wzq.camerademo.camera.pipeline.BurstCallback;
+import com.wzq.camerademo.camera.pipeline.ImageRouter;
+import com.wzq.camerademo.camera.store.CaptureRecord;
+import com.wzq.camerademo.camera.store.CaptureStore;
+import com.wzq.camerademo.camera.zsl.ZslRingBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the controller, the image router, the persistence queue and the capture store against
+ * the simulated camera, i.e. the whole capture path except camera2.
+ */
+public class SimulatedCameraBackendTest {
+    private static final int JPEG_BYTES = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private SimulatedCameraBackend mBackend;
+    private ExecutorService mControllerThread;
+    private CameraController mController;
+    private CaptureStore mStore;
+    private PersistenceQueue mPersistenceQueue;
+    private ImageRouter mRouter;
+    private final CameraMetrics mMetrics = new CameraMetrics();
+    private final BlockingQueue<PersistResult> mPersisted = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mBackend = new SimulatedCameraBackend();
+        mBackend.setFrameRate(200);
+        mBackend.setJpegBytes(JPEG_BYTES);
+        mControllerThread = Executors.newSingleThreadExecutor();
+        mController = new CameraController(mBackend, mControllerThread);
+        final ImageFileWriter fileWriter = new ImageFileWriter();
+        mStore = new CaptureStore(mFolder.getRoot(), fileWriter);
+        mPersistenceQueue = new PersistenceQueue(mStore, 1, 4, OverflowPolicy.BLOCK);
+        mRouter = new ImageRouter(fileWriter, mStore, mPersistenceQueue, new PersistCallback() {
+            @Override
+            public void onPersistCompleted(PersistResult result) {
+                mPersisted.add(result);
+            }
+        }, 4);
+        mController.setMetrics(mMetrics);
+        mRouter.setMetrics(mMetrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mController.close();
+        mControllerThread.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(2, TimeUnit.SECONDS);
+        assertTrue(mController.awaitState(CameraState.CLOSED, 2, TimeUnit.SECONDS));
+        mRouter.stop();
+        mPersistenceQueue.shutdown();
+        mPersistenceQueue.awaitTermination(5, TimeUnit.SECONDS);
+        mControllerThread.shutdown();
+        mBackend.release();
+        assertTrue(mBackend.awaitTermination(2, TimeUnit.SECONDS));
+        mStore.close();
+    }
+
+    @Test
+    public void queryCameras_listsBackAndFront() {
+        assertEquals(2, mBackend.queryCameras().size());
+        assertEquals("0", mBackend.queryCameras().get(0).getId());
+    }
+
+    @Test
+    public void openUnknownCamera_reportsOpenFailure() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(1);
+        mBackend.openDevice("7", new DeviceCallback() {
+            @Override
+            public void onOpened(BackendDevice device) {
+            }
+
+            @Override
+            public void onClosed(BackendDevice device) {
+            }
+
+            @Override
+            public void onDisconnected(BackendDevice device) {
+            }
+
+            @Override
+            public void onError(BackendDevice device, int error) {
+                assertNull(device);
+                assertEquals(ERROR_OPEN_FAILED, error);
+                failed.countDown();
+            }
+        });
+        assertTrue(failed.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void singleCapture_isPersistedThroughQueue() throws Exception {
+        startPreview(new SessionConfig(640, 480, 4000, 3000));
+
+        assertTrue(mController.capture(1, mRouter.getBurstCaptureCallback()));
+
+        final PersistResult result = mPersisted.poll(2, TimeUnit.SECONDS);
+        assertNotNull(result);
+        assertTrue(String.valueOf(result), result.isStored());
+        assertEquals(JPEG_BYTES, result.getBytes());
+        assertEquals(1, mStore.size());
+        assertTrue(mStore.verify(mStore.getAll().get(0)));
+        // the still can be on disk before the preview has delivered two frames on a busy machine
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (mMetrics.getFrameCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        for (CameraMetrics.Latency latency : new CameraMetrics.Latency[]{CameraMetrics.Latency.OPEN,
+                CameraMetrics.Latency.CONFIGURE, CameraMetrics.Latency.FIRST_FRAME,
+                CameraMetrics.Latency.SHUTTER_TO_IMAGE, CameraMetrics.Latency.IMAGE_TO_DISK}) {
+            assertEquals(latency.getKey(), 1, mMetrics.get(latency).getCount());
+        }
+        assertTrue(mMetrics.get(CameraMetrics.Latency.FRAME_INTERVAL).getCount() > 0);
+    }
+
+    @Test
+    public void zslCapture_persistsBufferedFrameWithoutCaptureRequest() throws Exception {
+        final ZslRingBuffer zslBuffer = new ZslRingBuffer(3, 10 * JPEG_BYTES);
+        mRouter.setZslBuffer(zslBuffer);
+        startPreview(new SessionConfig(640, 480, 4000, 3000).setMaxJpegImages(5).setZslEnabled(true)
+                .setFrameResultListener(mRouter));
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (zslBuffer.size() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(3, zslBuffer.size());
+
+        // the ring keeps turning over while it holds fewer images than the stream has slots
+        final long evicted = zslBuffer.getEvictedCount();
+        Thread.sleep(50);
+        assertTrue(zslBuffer.getEvictedCount() > evicted);
+        assertTrue(mRouter.captureZsl(System.nanoTime(), ZslRingBuffer.Selection.SHARPEST, 20000000L));
+
+        final PersistResult result = mPersisted.poll(2, TimeUnit.SECONDS);
+        assertNotNull(result);
+        assertTrue(String.valueOf(result), result.isStored());
+        assertEquals(0, mBackend.getStillCount());
+        assertEquals(CameraState.PREVIEWING, mController.getState());
+        assertTrue(mStore.verify(mStore.getAll().get(0)));
+    }
+
+    @Test
+    public void burst_persistsEveryFrameInOrder() throws Exception {
+        // fewer slots than the burst, so the stream stalls until the pipeline drains it
+        startPreview(new SessionConfig(640, 480, 4000, 3000).setMaxJpegImages(2));
+        final int count = 40;
+        final CountDownLatch done = new CountDownLatch(1);
+        final Burst burst = mRouter.beginBurst(count, new BurstCallback() {
+            @Override
+            public void onBurstCompleted(Burst burst) {
+                done.countDown();
+            }
+        });
+
+        assertTrue(mController.capture(count, mRouter.getBurstCaptureCallback()));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, burst.getFailedCount());
+        assertEquals(count, mStore.size());
+        long lastTimestamp = 0;
+        for (int i = 0; i < count; i++) {
+            assertTrue(burst.getFrame(i).getSensorTimestamp() > lastTimestamp);
+            lastTimestamp = burst.getFrame(i).getSensorTimestamp();
+        }
+        for (CaptureRecord record : mStore.getAll()) {
+            assertTrue(mStore.verify(record));
+        }
+        assertEquals(count, mBackend.getStillCount());
+    }
+
+    @Test
+    public void burstWithZsl_takesOnlyItsOwnStills() throws Exception {
+        final ZslRingBuffer zslBuffer = new ZslRingBuffer(3, 10 * JPEG_BYTES);
+        mRouter.setZslBuffer(zslBuffer);
+        startPreview(new SessionConfig(640, 480, 4000, 3000).setMaxJpegImages(zslBuffer.getMaxImages() + 1)
+                .setZslEnabled(true).setFrameResultListener(mRouter));
+        final long zslFramesBefore = mBackend.getZslFrameCount();
+        final int count = 10;
+        final CountDownLatch done = new CountDownLatch(1);
+        final Burst burst = mRouter.beginBurst(count, new BurstCallback() {
+            @Override
+            public void onBurstCompleted(Burst burst) {
+                done.countDown();
+            }
+        });
+
+        final List<Long> started = Collections.synchronizedList(new ArrayList<Long>());
+        final CaptureCallback routerCallback = mRouter.getBurstCaptureCallback();
+        assertTrue(mController.capture(count, new CaptureCallback() {
+            @Override
+            public void onCaptureStarted(long timestamp) {
+                started.add(timestamp);
+                routerCallback.onCaptureStarted(timestamp);
+            }
+
+            @Override
+            public void onCaptureFailed(int reason) {
+                routerCallback.onCaptureFailed(reason);
+            }
+
+            @Override
+            public void onCaptureSequenceCompleted() {
+                routerCallback.onCaptureSequenceCompleted();
+            }
+
+            @Override
+            public void onCaptureSequenceAborted() {
+                routerCallback.onCaptureSequenceAborted();
+            }
+        }));
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, burst.getFailedCount());
+        assertEquals(count, mStore.size());
+        assertEquals(count, mBackend.getStillCount());
+        // the preview frames in between went to the ZSL buffer, not the burst
+        assertTrue(mBackend.getZslFrameCount() - zslFramesBefore >= count - 1);
+        for (int i = 0; i < count; i++) {
+            assertTrue(started.contains(burst.getFrame(i).getSensorTimestamp()));
+        }
+        for (CaptureRecord record : mStore.getAll()) {
+            assertTrue(mStore.verify(record));
+        }
+    }
+
+    @Test
+    public void analysis_receivesFramesAtFrameRate() throws Exception {
+        final AtomicInteger frames = new AtomicInteger();
+        final List<Integer> widths = new ArrayList<>();
+        mRouter.setFrameDispatcher(new LatestFrameDispatcher("TestAnalysis", new FrameAnalyzer() {
+            @Override
+            public void analyze(YuvFrame frame) {
+                if (frames.incrementAndGet() == 1) {
+                    widths.add(frame.getWidth());
+                    widths.add(frame.getRowStride(YuvFrame.PLANE_Y));
+                    widths.add(frame.getPixelStride(YuvFrame.PLANE_U));
+                }
+            }
+        }));
+        startPreview(new SessionConfig(640, 480, 640, 480).setAnalysisSize(1000, 750));
+        final long framesBefore = mBackend.getFrameCount();
+        final long start = System.nanoTime();
+
+        Thread.sleep(500);
+
+        final long produced = mBackend.getFrameCount() - framesBefore;
+        final long elapsedMs = (System.nanoTime() - start) / 1000000;
+        // 200 fps for however long the sleep took, with room for a slow machine
+        assertTrue("produced " + produced + " in " + elapsedMs + "ms", produced > 50 && produced <= elapsedMs / 5 + 1);
+        assertTrue("analyzed " + frames.get(), frames.get() > 25);
+        assertEquals(1000, (int) widths.get(0));
+        assertEquals(1024, (int) widths.get(1));
+        assertEquals(2, (int) widths.get(2));
+    }
+
+    @Test
+    public void heldImages_stallStillsUntilReleased() throws Exception {
+        final BlockingQueue<BackendImage> held = new LinkedBlockingQueue<>();
+        final SessionConfig config = new SessionConfig(640, 480, 640, 480).setMaxJpegImages(2)
+                .setImageListener(new ImageListener() {
+                    @Override
+                    public void onImageAvailable(BackendImage image) {
+                        held.add(image);
+                    }
+                });
+        startPreview(config);
+        final CountDownLatch done = new CountDownLatch(1);
+        assertTrue(mController.capture(3, new CaptureCallback() {
+            @Override
+            public void onCaptureStarted(long timestamp) {
+            }
+
+            @Override
+            public void onCaptureFailed(int reason) {
+            }
+
+            @Override
+            public void onCaptureSequenceCompleted() {
+                done.countDown();
+            }
+
+            @Override
+            public void onCaptureSequenceAborted() {
+            }
+        }));
+
+        final BackendImage first = held.poll(2, TimeUnit.SECONDS);
+        assertNotNull(held.poll(2, TimeUnit.SECONDS));
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertTrue(mBackend.getStalledStills() > 0);
+        final ByteBuffer jpeg = first.getPlaneBuffer(0);
+        assertEquals((byte) 0xff, jpeg.get(0));
+        assertEquals((byte) 0xd8, jpeg.get(1));
+        assertEquals((byte) 0xd9, jpeg.get(jpeg.limit() - 1));
+
+        first.close();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertNotNull(held.poll(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void closeDuringBurst_abortsRemainingFrames() throws Exception {
+        mBackend.setCaptureLatencyMs(1000);
+        startPreview(new SessionConfig(640, 480, 640, 480));
+        final CountDownLatch done = new CountDownLatch(1);
+        final Burst burst = mRouter.beginBurst(5, new BurstCallback() {
+            @Override
+            public void onBurstCompleted(Burst burst) {
+                done.countDown();
+            }
+        });
+        assertTrue(mController.capture(5, mRouter.getBurstCaptureCallback()));
+
+        mController.close();
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(5, burst.getFailedCount());
+        assertEquals(0, mStore.size());
+    }
+
+    private void startPreview(SessionConfig config) throws Exception {
+        if (config.getImageListener() == null) {
+            config.setImageListener(mRouter);
+        }
+        mRouter.start();
+        mController.setSessionConfig(config);
+        mController.open("0");
+        assertTrue(mController.awaitState(CameraState.PREVIEWING, 2, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,124 @@
+package com.wzq.camerademo.camera.capture;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.wzq.camerademo.camera.capture.PrecaptureSequence.*;
+import static org.junit.Assert.*;
+
+public class PrecaptureSequenceTest {
+    private final List<String> mActions = new ArrayList<>();
+    private PrecaptureSequence mSequence;
+
+    @Before
+    public void setUp() {
+        mSequence = new PrecaptureSequence(new Callback() {
+            @Override
+            public void onTriggerFocus() {
+                mActions.add("focus");
+            }
+
+            @Override
+            public void onTriggerPrecapture() {
+                mActions.add("precapture");
+            }
+
+            @Override
+            public void onReadyToCapture(boolean converged) {
+                mActions.add(converged ? "capture" : "capture unconverged");
+            }
+        }, 10);
+    }
+
+    @Test
+    public void focusLocks_capturesWithoutPrecaptureWhenExposureConverged() {
+        mSequence.start(AF_STATE_PASSIVE_FOCUSED, AE_STATE_CONVERGED);
+        mSequence.onResult(AF_STATE_PASSIVE_FOCUSED, AE_STATE_CONVERGED);
+        mSequence.onResult(AF_STATE_ACTIVE_SCAN, AE_STATE_CONVERGED);
+        assertEquals(State.WAITING_FOCUS, mSequence.getState());
+        mSequence.onResult(AF_STATE_FOCUSED_LOCKED, AE_STATE_CONVERGED);
+
+        assertEquals(Arrays.asList("focus", "capture"), mActions);
+        assertEquals(State.READY, mSequence.getState());
+        assertTrue(mSequence.isFocusTriggered());
+        assertFalse(mSequence.isPrecaptureTriggered());
+    }
+
+    @Test
+    public void exposureSearching_runsPrecaptureUntilItEnds() {
+        mSequence.start(AF_STATE_PASSIVE_SCAN, AE_STATE_SEARCHING);
+        mSequence.onResult(AF_STATE_NOT_FOCUSED_LOCKED, AE_STATE_SEARCHING);
+        assertEquals(State.WAITING_PRECAPTURE_START, mSequence.getState());
+        // results still in flight from before the trigger
+        mSequence.onResult(AF_STATE_NOT_FOCUSED_LOCKED, AE_STATE_SEARCHING);
+        mSequence.onResult(AF_STATE_NOT_FOCUSED_LOCKED, AE_STATE_PRECAPTURE);
+        mSequence.onResult(AF_STATE_NOT_FOCUSED_LOCKED, AE_STATE_PRECAPTURE);
+        assertEquals(State.WAITING_PRECAPTURE_DONE, mSequence.getState());
+        mSequence.onResult(AF_STATE_NOT_FOCUSED_LOCKED, AE_STATE_CONVERGED);
+
+        assertEquals(Arrays.asList("focus", "precapture", "capture"), mActions);
+        assertTrue(mSequence.isPrecaptureTriggered());
+    }
+
+    @Test
+    public void flashRequired_waitsForPrecaptureToFinish() {
+        mSequence.start(STATE_UNKNOWN, AE_STATE_FLASH_REQUIRED);
+        assertEquals(Arrays.asList("precapture"), mActions);
+        mSequence.onResult(STATE_UNKNOWN, AE_STATE_FLASH_REQUIRED);
+        assertEquals(State.WAITING_PRECAPTURE_DONE, mSequence.getState());
+        mSequence.onResult(STATE_UNKNOWN, AE_STATE_FLASH_REQUIRED);
+
+        assertEquals(Arrays.asList("precapture", "capture"), mActions);
+        assertFalse(mSequence.isFocusTriggered());
+    }
+
+    @Test
+    public void precaptureStraightToConverged_captures() {
+        mSequence.start(STATE_UNKNOWN, AE_STATE_SEARCHING);
+        mSequence.onResult(STATE_UNKNOWN, AE_STATE_LOCKED);
+
+        assertEquals(Arrays.asList("precapture", "capture"), mActions);
+    }
+
+    @Test
+    public void fixedFocusWithoutAeState_capturesImmediately() {
+        mSequence.start(STATE_UNKNOWN, STATE_UNKNOWN);
+
+        assertEquals(Arrays.asList("capture"), mActions);
+        assertEquals(State.READY, mSequence.getState());
+    }
+
+    @Test
+    public void noConvergence_capturesAfterTimeout() {
+        mSequence.start(AF_STATE_INACTIVE, AE_STATE_CONVERGED);
+        for (int i = 0; i < 9; i++) {
+            mSequence.onResult(AF_STATE_ACTIVE_SCAN, AE_STATE_CONVERGED);
+        }
+        assertEquals(Arrays.asList("focus"), mActions);
+        mSequence.onResult(AF_STATE_ACTIVE_SCAN, AE_STATE_CONVERGED);
+
+        assertEquals(Arrays.asList("focus", "capture unconverged"), mActions);
+        mSequence.onResult(AF_STATE_FOCUSED_LOCKED, AE_STATE_CONVERGED);
+        assertEquals(2, mActions.size());
+    }
+
+    @Test
+    public void cancel_ignoresLaterResults() {
+        mSequence.start(AF_STATE_PASSIVE_FOCUSED, AE_STATE_CONVERGED);
+        mSequence.cancel();
+        mSequence.onResult(AF_STATE_FOCUSED_LOCKED, AE_STATE_CONVERGED);
+
+        assertEquals(Arrays.asList("focus"), mActions);
+        assertEquals(State.IDLE, mSequence.getState());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void start_twiceFails() {
+        mSequence.start(AF_STATE_PASSIVE_FOCUSED, AE_STATE_CONVERGED);
+        mSequence.start(AF_STATE_PASSIVE_FOCUSED, AE_STATE_CONVERGED);
+    }
+}
@@ -0,0 +1,205 @@
+package com.wzq.camerademo.camera.convert;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class YuvConverterTest {
+
+    @Test
+    public void toArgb8888_matchesFloatingPointReference() {
+        // every combination of luma and chroma on a coarse grid
+        final YuvPlanes planes = planar(64, 64, 0);
+        for (int row = 0; row < 64; row++) {
+            for (int col = 0; col < 64; col++) {
+                planes.getY().put(row * 64 + col, (byte) ((row * 64 + col) * 4));
+            }
+        }
+        for (int i = 0; i < 32 * 32; i++) {
+            planes.getU().put(i, (byte) (i * 8));
+            planes.getV().put(i, (byte) ((i / 32) * 8));
+        }
+        final ByteBuffer out = ByteBuffer.allocate(YuvPlanes.rgbaSize(64, 64));
+        new JavaYuvConverter().toArgb8888(planes, out);
+        out.order(ByteOrder.nativeOrder());
+
+        for (int row = 0; row < 64; row++) {
+            for (int col = 0; col < 64; col++) {
+                final int uv = (row / 2) * 32 + col / 2;
+                final int expected = reference(planes.getY().get(row * 64 + col) & 0xff,
+                        planes.getU().get(uv) & 0xff, planes.getV().get(uv) & 0xff);
+                final int actual = out.getInt((row * 64 + col) * 4);
+                assertEquals(0xff, actual >>> 24);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    final int difference = ((expected >> shift) & 0xff) - ((actual >> shift) & 0xff);
+                    assertTrue("pixel " + col + "," + row, Math.abs(difference) <= 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void toRgba_grayStaysGray() {
+        final YuvPlanes planes = planar(4, 2, 128);
+        planes.getY().put(0, (byte) 0).put(1, (byte) 77).put(2, (byte) 200).put(3, (byte) 255);
+        final ByteBuffer out = ByteBuffer.allocate(YuvPlanes.rgbaSize(4, 2));
+        new JavaYuvConverter().toRgba(planes, out);
+
+        final int[] expected = {0, 77, 200, 255};
+        for (int i = 0; i < 4; i++) {
+            assertEquals(expected[i], out.get(i * 4) & 0xff);
+            assertEquals(expected[i], out.get(i * 4 + 1) & 0xff);
+            assertEquals(expected[i], out.get(i * 4 + 2) & 0xff);
+            assertEquals(0xff, out.get(i * 4 + 3) & 0xff);
+        }
+    }
+
+    @Test
+    public void toNv21_dropsRowPaddingAndInterleavesVu() {
+        // 6x4 with 8 bytes per row and a planar (pixel stride 1) chroma layout
+        final YuvPlanes planes = new YuvPlanes().set(6, 4, ByteBuffer.allocateDirect(8 * 4), 8,
+                ByteBuffer.allocateDirect(5 * 2), ByteBuffer.allocateDirect(5 * 2), 5, 1);
+        for (int i = 0; i < 32; i++) {
+            planes.getY().put(i, (byte) i);
+        }
+        for (int i = 0; i < 10; i++) {
+            planes.getU().put(i, (byte) (100 + i));
+            planes.getV().put(i, (byte) (200 + i));
+        }
+        final ByteBuffer out = ByteBuffer.allocateDirect(YuvPlanes.nv21Size(6, 4));
+        new JavaYuvConverter().toNv21(planes, out);
+
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 6; col++) {
+                assertEquals(row * 8 + col, out.get(row * 6 + col));
+            }
+        }
+        final byte[] chroma = new byte[12];
+        out.position(24);
+        out.get(chroma);
+        assertArrayEquals(new byte[]{(byte) 200, 100, (byte) 201, 101, (byte) 202, 102,
+                (byte) 205, 105, (byte) 206, 106, (byte) 207, 107}, chroma);
+    }
+
+    @Test
+    public void toNv21_handlesOddSizes() {
+        final YuvPlanes planes = planar(5, 3, 0);
+        final ByteBuffer out = ByteBuffer.allocate(YuvPlanes.nv21Size(5, 3));
+        assertEquals(5 * 3 + 3 * 2 * 2, out.capacity());
+        new JavaYuvConverter().toNv21(planes, out);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toNv21_rejectsShortPlane() {
+        final YuvPlanes planes = new YuvPlanes().set(64, 48, ByteBuffer.allocate(64 * 47), 64,
+                ByteBuffer.allocate(32 * 24), ByteBuffer.allocate(32 * 24), 32, 1);
+        new JavaYuvConverter().toNv21(planes, ByteBuffer.allocate(YuvPlanes.nv21Size(64, 48)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toRgba_rejectsShortOutput() {
+        new JavaYuvConverter().toRgba(planar(16, 16, 0), ByteBuffer.allocate(16 * 16 * 4 - 1));
+    }
+
+    @Test
+    public void nativeConverter_matchesJavaReference() {
+        assumeTrue("native-lib not on java.library.path", NativeYuvConverter.isAvailable());
+        final YuvConverter java = new JavaYuvConverter();
+        final YuvConverter nativeConverter = new NativeYuvConverter();
+        for (int width : new int[]{2, 33, 640}) {
+            final int height = width == 2 ? 2 : width * 3 / 4 + 1;
+            for (YuvPlanes planes : new YuvPlanes[]{semiPlanar(width, height, 7), stridedPlanar(width, height, 7)}) {
+                final int nv21Size = YuvPlanes.nv21Size(width, height);
+                final int rgbaSize = YuvPlanes.rgbaSize(width, height);
+                assertSameOutput(java, nativeConverter, planes, nv21Size, 0);
+                assertSameOutput(java, nativeConverter, planes, rgbaSize, 1);
+                assertSameOutput(java, nativeConverter, planes, rgbaSize, 2);
+            }
+        }
+    }
+
+    private static void assertSameOutput(YuvConverter expected, YuvConverter actual, YuvPlanes planes,
+                                         int size, int mode) {
+        final ByteBuffer expectedOut = ByteBuffer.allocateDirect(size);
+        final ByteBuffer actualOut = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < 2; i++) {
+            final YuvConverter converter = i == 0 ? expected : actual;
+            final ByteBuffer out = i == 0 ? expectedOut : actualOut;
+            if (mode == 0) {
+                converter.toNv21(planes, out);
+            } else if (mode == 1) {
+                converter.toRgba(planes, out);
+            } else {
+                converter.toArgb8888(planes, out);
+            }
+        }
+        assertEquals("mode " + mode + " " + planes.getWidth() + "x" + planes.getHeight(), expectedOut, actualOut);
+    }
+
+    /**
+     * Floating point rendition of the full-range BT.601 matrix packed as 0x00RRGGBB.
+     */
+    private static int reference(int y, int u, int v) {
+        final double r = y + 1.402 * (v - 128);
+        final double g = y - 0.344136 * (u - 128) - 0.714136 * (v - 128);
+        final double b = y + 1.772 * (u - 128);
+        return (clampRound(r) << 16) | (clampRound(g) << 8) | clampRound(b);
+    }
+
+    private static int clampRound(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+    private static YuvPlanes planar(int width, int height, int fill) {
+        final int chromaWidth = (width + 1) / 2;
+        final int chromaSize = chromaWidth * ((height + 1) / 2);
+        final YuvPlanes planes = new YuvPlanes().set(width, height, ByteBuffer.allocate(width * height), width,
+                ByteBuffer.allocate(chromaSize), ByteBuffer.allocate(chromaSize), chromaWidth, 1);
+        for (int i = 0; i < chromaSize; i++) {
+            planes.getU().put(i, (byte) fill);
+            planes.getV().put(i, (byte) fill);
+        }
+        return planes;
+    }
+
+    /**
+     * The common camera layout: padded rows and one interleaved VU buffer, exposed as a V
+     * plane and a U plane starting one byte later.
+     */
+    static YuvPlanes semiPlanar(int width, int height, int seed) {
+        final int rowStride = (width + 63) & ~63;
+        final ByteBuffer y = ByteBuffer.allocateDirect(rowStride * height);
+        final int chromaRows = (height + 1) / 2;
+        final ByteBuffer vu = ByteBuffer.allocateDirect(rowStride * chromaRows);
+        fill(y, seed);
+        fill(vu, seed * 31);
+        vu.position(1);
+        final ByteBuffer u = vu.slice();
+        vu.position(0);
+        return new YuvPlanes().set(width, height, y, rowStride, u, vu, rowStride, 2);
+    }
+
+    private static YuvPlanes stridedPlanar(int width, int height, int seed) {
+        final int rowStride = width + 16;
+        final int chromaStride = (width + 1) / 2 + 8;
+        final int chromaSize = chromaStride * ((height + 1) / 2);
+        final YuvPlanes planes = new YuvPlanes().set(width, height, ByteBuffer.allocateDirect(rowStride * height),
+                rowStride, ByteBuffer.allocateDirect(chromaSize), ByteBuffer.allocateDirect(chromaSize), chromaStride, 1);
+        fill(planes.getY(), seed);
+        fill(planes.getU(), seed * 7);
+        fill(planes.getV(), seed * 13);
+        return planes;
+    }
+
+    private static void fill(ByteBuffer buffer, int seed) {
+        int state = seed;
+        for (int i = 0; i < buffer.capacity(); i++) {
+            state = state * 1103515245 + 12345;
+            buffer.put(i, (byte) (state >>> 16));
+        }
+    }
+}
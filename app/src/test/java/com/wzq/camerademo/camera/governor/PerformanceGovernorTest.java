@@ -0,0 +1,171 @@
+package com.wzq.camerademo.camera.governor;
+
+import com.wzq.camerademo.camera.info.StreamSize;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays the frame timings in {@code resources/traces} through the governor.
+ */
+public class PerformanceGovernorTest {
+    private static final List<FrameRateRange> FRAME_RATES = Arrays.asList(
+            new FrameRateRange(15, 30), new FrameRateRange(15, 24), new FrameRateRange(15, 20),
+            new FrameRateRange(10, 15));
+    private static final List<StreamSize> ANALYSIS_SIZES = Arrays.asList(
+            new StreamSize(1280, 960, 33333333L), new StreamSize(800, 600, 33333333L),
+            new StreamSize(320, 240, 33333333L));
+
+    @Test
+    public void replay_steadyFrameRateLeavesSettingsAlone() throws IOException {
+        final PerformanceGovernor governor = newGovernor();
+        trace("steady_30fps.txt").replay(governor);
+        assertEquals(0, governor.getEventCount());
+        assertEquals(new FrameRateRange(15, 30), governor.getFrameRateRange());
+    }
+
+    @Test
+    public void replay_throttlingLowersFrameRateUntilRecovered() throws IOException {
+        final PerformanceGovernor governor = newGovernor();
+        final List<GovernorEvent> events = new ArrayList<>();
+        governor.setListener(new GovernorListener() {
+            @Override
+            public void onGovernorEvent(GovernorEvent event) {
+                events.add(event);
+            }
+        });
+        trace("thermal_throttle.txt").replay(governor);
+        assertEquals(events.toString(), 2, events.size());
+        final GovernorEvent down = events.get(0);
+        assertEquals(GovernorEvent.Action.FRAME_RATE_DOWN, down.getAction());
+        assertEquals(GovernorEvent.Reason.FRAME_INTERVALS, down.getReason());
+        assertEquals(new FrameRateRange(15, 24), down.getFrameRateRange());
+        // within the 2.5s of missed frames that start at 11s
+        assertTrue(down.getTimestampNanos() >= 11000000000L && down.getTimestampNanos() <= 14000000000L);
+        assertEquals(GovernorEvent.Action.FRAME_RATE_UP, events.get(1).getAction());
+        assertEquals(GovernorEvent.Reason.RECOVERED, events.get(1).getReason());
+        assertEquals(new FrameRateRange(15, 30), governor.getFrameRateRange());
+        // the analysis size is not the problem
+        assertEquals(ANALYSIS_SIZES.get(0), governor.getAnalysisSize());
+    }
+
+    @Test
+    public void replay_analysisBacklogLowersAnalysisSizeFirst() throws IOException {
+        final PerformanceGovernor governor = newGovernor();
+        trace("analysis_backlog.txt").replay(governor);
+        final List<GovernorEvent> events = governor.getEvents();
+        assertEquals(events.toString(), 2, events.size());
+        assertEquals(GovernorEvent.Action.ANALYSIS_SIZE_DOWN, events.get(0).getAction());
+        assertEquals(GovernorEvent.Reason.ANALYSIS_BACKLOG, events.get(0).getReason());
+        assertEquals(ANALYSIS_SIZES.get(1), events.get(0).getAnalysisSize());
+        assertEquals(new FrameRateRange(15, 30), events.get(0).getFrameRateRange());
+        assertEquals(GovernorEvent.Action.ANALYSIS_SIZE_UP, events.get(1).getAction());
+        assertEquals(ANALYSIS_SIZES.get(0), governor.getAnalysisSize());
+    }
+
+    @Test
+    public void replay_lowLightFrameRateIsNotPressure() throws IOException {
+        final PerformanceGovernor governor = newGovernor();
+        trace("low_light_15fps.txt").replay(governor);
+        assertEquals(governor.getEvents().toString(), 0, governor.getEventCount());
+    }
+
+    @Test
+    public void stepUp_backsOffWhenItDoesNotHold() {
+        final PerformanceGovernor governor = new PerformanceGovernor(FRAME_RATES,
+                new ArrayList<StreamSize>(), new GovernorConfig());
+        long t = 0;
+        t = frames(governor, t, 3, true);
+        assertEquals(1, governor.getEventCount());
+        // settle window, then five good windows for the step up
+        t = frames(governor, t, 7, false);
+        assertEquals(2, governor.getEventCount());
+        assertEquals(5, governor.getStepUpWindows());
+        // pressure right after the step up: the next one has to wait twice as long
+        t = frames(governor, t, 3, true);
+        assertEquals(3, governor.getEventCount());
+        assertEquals(10, governor.getStepUpWindows());
+        t = frames(governor, t, 7, false);
+        assertEquals(3, governor.getEventCount());
+        frames(governor, t, 5, false);
+        assertEquals(4, governor.getEventCount());
+        assertEquals(GovernorEvent.Action.FRAME_RATE_UP, governor.getEvents().get(3).getAction());
+        // nothing left to take back
+        assertEquals(5, governor.getStepUpWindows());
+    }
+
+    @Test
+    public void stepDown_stopsAtLowestSettings() {
+        final PerformanceGovernor governor = new PerformanceGovernor(FRAME_RATES, ANALYSIS_SIZES,
+                new GovernorConfig());
+        frames(governor, 0, 60, true);
+        assertEquals(new FrameRateRange(10, 15), governor.getFrameRateRange());
+        assertEquals(ANALYSIS_SIZES.get(2), governor.getAnalysisSize());
+        // three frame rate steps and two analysis steps
+        assertEquals(5, governor.getEventCount());
+    }
+
+    @Test
+    public void closest_prefersHighestRangeNotAboveWanted() {
+        final List<FrameRateRange> available = Arrays.asList(new FrameRateRange(15, 15),
+                new FrameRateRange(7, 30), new FrameRateRange(15, 30), new FrameRateRange(30, 30),
+                new FrameRateRange(24, 24));
+        assertEquals(new FrameRateRange(15, 30), FrameRateRange.closest(available, new FrameRateRange(15, 30)));
+        assertEquals(new FrameRateRange(24, 24), FrameRateRange.closest(available, new FrameRateRange(15, 24)));
+        assertEquals(new FrameRateRange(15, 15), FrameRateRange.closest(available, new FrameRateRange(10, 15)));
+        assertEquals(new FrameRateRange(15, 15), FrameRateRange.closest(Arrays.asList(
+                new FrameRateRange(15, 15), new FrameRateRange(30, 30)), new FrameRateRange(5, 10)));
+        assertNull(FrameRateRange.closest(new ArrayList<FrameRateRange>(), new FrameRateRange(15, 30)));
+    }
+
+    @Test
+    public void trace_writeThenReadKeepsFrames() throws IOException {
+        final FrameTrace trace = new FrameTrace();
+        trace.add(1000000000L, 0);
+        trace.add(1033333000L, 2);
+        final StringWriter writer = new StringWriter();
+        trace.write(writer);
+        final FrameTrace read = FrameTrace.read(new StringReader(writer.toString()));
+        assertEquals(2, read.size());
+        assertEquals(1033333000L, read.getTimestampNanos(1));
+        assertEquals(2, read.getAnalysisDropped(1));
+    }
+
+    private static PerformanceGovernor newGovernor() {
+        return new PerformanceGovernor(FRAME_RATES, ANALYSIS_SIZES, new GovernorConfig());
+    }
+
+    /**
+     * Feeds {@code windows} seconds of 30fps frames, every fourth one late if
+     * {@code janky}.
+     */
+    private static long frames(PerformanceGovernor governor, long startNanos, int windows, boolean janky) {
+        long t = startNanos;
+        for (int i = 0; i < windows * 30; i++) {
+            governor.onFrame(t, 0);
+            t += janky && i % 4 == 0 ? 66666666L : 33333333L;
+        }
+        return t;
+    }
+
+    private static FrameTrace trace(String name) throws IOException {
+        final InputStream inputStream = PerformanceGovernorTest.class.getClassLoader().getResourceAsStream("traces/" + name);
+        assertNotNull("missing trace " + name, inputStream);
+        final InputStreamReader reader = new InputStreamReader(inputStream, "UTF-8");
+        try {
+            return FrameTrace.read(reader);
+        } finally {
+            reader.close();
+        }
+    }
+}
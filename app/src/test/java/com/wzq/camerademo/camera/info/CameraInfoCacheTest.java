@@ -0,0 +1,250 @@
+package com.wzq.camerademo.camera.info;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class CameraInfoCacheTest {
+    private static final String FINGERPRINT = "brand/device:10/QP1A/1234:user/release-keys";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void miss_queriesSourceAndWritesFile() throws IOException {
+        FakeSource source = new FakeSource(twoCameras());
+        CameraInfoCache cache = newCache(FINGERPRINT, source, null);
+
+        assertEquals(twoCameras(), cache.getCameras());
+        assertEquals(1, source.mQueries);
+        assertFalse(cache.isCacheHit());
+        assertTrue(cache.getFile().isFile());
+
+        // served from memory afterwards
+        cache.getCameras();
+        assertEquals(1, source.mQueries);
+    }
+
+    @Test
+    public void hit_skipsServiceQueries() throws IOException {
+        newCache(FINGERPRINT, new FakeSource(twoCameras()), null).getCameras();
+
+        FakeSource source = new FakeSource(twoCameras());
+        ManualExecutor executor = new ManualExecutor();
+        CameraInfoCache cache = newCache(FINGERPRINT, source, executor);
+
+        assertEquals(twoCameras(), cache.getCameras());
+        assertEquals("1", cache.getCamera(CameraInfo.LENS_FACING_FRONT).getId());
+        assertTrue(cache.isCacheHit());
+        assertEquals(0, source.mQueries);
+        assertEquals(0, cache.getSourceQueryCount());
+        // one refresh is queued for later, not run during startup
+        assertEquals(1, executor.mTasks.size());
+    }
+
+    @Test
+    public void backgroundRefresh_replacesChangedCameras() throws IOException {
+        newCache(FINGERPRINT, new FakeSource(twoCameras()), null).getCameras();
+
+        List<CameraInfo> changed = new ArrayList<>(twoCameras());
+        changed.add(camera("2", CameraInfo.LENS_FACING_EXTERNAL, 0));
+        FakeSource source = new FakeSource(changed);
+        ManualExecutor executor = new ManualExecutor();
+        CameraInfoCache cache = newCache(FINGERPRINT, source, executor);
+        assertEquals(2, cache.getCameras().size());
+
+        executor.runAll();
+        assertEquals(1, source.mQueries);
+        assertEquals(3, cache.getCameras().size());
+
+        CameraInfoCache reopened = newCache(FINGERPRINT, new FakeSource(twoCameras()), null);
+        assertEquals(changed, reopened.getCameras());
+        assertTrue(reopened.isCacheHit());
+    }
+
+    @Test
+    public void backgroundRefresh_leavesUnchangedFileAlone() throws IOException {
+        newCache(FINGERPRINT, new FakeSource(twoCameras()), null).getCameras();
+        File file = new File(mFolder.getRoot(), "camera_info.bin");
+        assertTrue(file.setLastModified(1000));
+
+        ManualExecutor executor = new ManualExecutor();
+        CameraInfoCache cache = newCache(FINGERPRINT, new FakeSource(twoCameras()), executor);
+        cache.getCameras();
+        executor.runAll();
+        assertEquals(1000, file.lastModified());
+    }
+
+    @Test
+    public void fingerprintChange_invalidatesCache() throws IOException {
+        newCache(FINGERPRINT, new FakeSource(twoCameras()), null).getCameras();
+
+        FakeSource source = new FakeSource(twoCameras());
+        CameraInfoCache cache = newCache(FINGERPRINT + ".ota", source, new ManualExecutor());
+        cache.getCameras();
+        assertFalse(cache.isCacheHit());
+        assertEquals(1, source.mQueries);
+
+        // rewritten for the new build
+        FakeSource next = new FakeSource(twoCameras());
+        assertEquals(2, newCache(FINGERPRINT + ".ota", next, new ManualExecutor()).getCameras().size());
+        assertEquals(0, next.mQueries);
+    }
+
+    @Test
+    public void corruptFile_fallsBackToSource() throws IOException {
+        newCache(FINGERPRINT, new FakeSource(twoCameras()), null).getCameras();
+        File file = new File(mFolder.getRoot(), "camera_info.bin");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(file.length() / 2);
+        randomAccessFile.write(0x7f);
+        randomAccessFile.close();
+
+        FakeSource source = new FakeSource(twoCameras());
+        CameraInfoCache cache = newCache(FINGERPRINT, source, null);
+        assertEquals(twoCameras(), cache.getCameras());
+        assertEquals(1, source.mQueries);
+    }
+
+    @Test
+    public void truncatedFile_fallsBackToSource() throws IOException {
+        newCache(FINGERPRINT, new FakeSource(twoCameras()), null).getCameras();
+        File file = new File(mFolder.getRoot(), "camera_info.bin");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(3);
+        randomAccessFile.close();
+
+        FakeSource source = new FakeSource(twoCameras());
+        newCache(FINGERPRINT, source, null).getCameras();
+        assertEquals(1, source.mQueries);
+    }
+
+    @Test
+    public void invalidate_forcesNextLoadToQuery() throws IOException {
+        FakeSource source = new FakeSource(twoCameras());
+        CameraInfoCache cache = newCache(FINGERPRINT, source, null);
+        cache.getCameras();
+        cache.invalidate();
+        assertFalse(cache.getFile().exists());
+
+        cache.getCameras();
+        assertEquals(2, source.mQueries);
+    }
+
+    @Test
+    public void physicalCameraIds_surviveRoundTrip() throws IOException {
+        CameraInfo plain = camera("0", CameraInfo.LENS_FACING_BACK, 90);
+        CameraInfo logical = new CameraInfo("3", CameraInfo.LENS_FACING_BACK, 90, 1,
+                new TreeMap<Integer, StreamSize[]>(), new String[]{"0", "2"});
+        List<CameraInfo> cameras = Arrays.asList(plain, logical);
+        newCache(FINGERPRINT, new FakeSource(cameras), null).getCameras();
+
+        CameraInfoCache cache = newCache(FINGERPRINT, new FakeSource(null), new ManualExecutor());
+        assertEquals(cameras, cache.getCameras());
+        assertTrue(cache.isCacheHit());
+        assertTrue(cache.getCameras().get(1).isLogicalMultiCamera());
+        assertArrayEquals(new String[]{"0", "2"}, cache.getCameras().get(1).getPhysicalCameraIds());
+    }
+
+    @Test
+    public void capabilitiesAndStalls_surviveRoundTrip() throws IOException {
+        Map<Integer, StreamSize[]> sizes = new TreeMap<>();
+        sizes.put(CameraInfo.FORMAT_JPEG, new StreamSize[]{new StreamSize(4000, 3000, 50000000L, 200000000L)});
+        CameraInfo reprocessing = new CameraInfo("0", CameraInfo.LENS_FACING_BACK, 90, 1, sizes, new String[0],
+                new int[]{0, CameraInfo.CAPABILITY_PRIVATE_REPROCESSING}, CameraInfo.TIMESTAMP_SOURCE_REALTIME);
+        List<CameraInfo> cameras = Arrays.asList(reprocessing, camera("1", CameraInfo.LENS_FACING_FRONT, 270));
+        newCache(FINGERPRINT, new FakeSource(cameras), null).getCameras();
+
+        List<CameraInfo> cached = newCache(FINGERPRINT, new FakeSource(null), new ManualExecutor()).getCameras();
+        assertEquals(cameras, cached);
+        assertTrue(cached.get(0).supportsZslTemplate());
+        assertFalse(cached.get(1).supportsZslTemplate());
+        assertEquals(CameraInfo.TIMESTAMP_SOURCE_REALTIME, cached.get(0).getTimestampSource());
+        assertEquals(200000000L, cached.get(0).getOutputSizes(CameraInfo.FORMAT_JPEG)[0].getStallDurationNanos());
+    }
+
+    @Test
+    public void fpsRanges_surviveRoundTrip() throws IOException {
+        Map<Integer, StreamSize[]> sizes = new TreeMap<>();
+        sizes.put(CameraInfo.FORMAT_PREVIEW, new StreamSize[]{new StreamSize(1920, 1080, 33333333L)});
+        int[][] ranges = {{15, 30}, {30, 30}, {60, 60}};
+        CameraInfo back = new CameraInfo("0", CameraInfo.LENS_FACING_BACK, 90, 1, sizes, new String[0], new int[0],
+                CameraInfo.TIMESTAMP_SOURCE_UNKNOWN, ranges);
+        List<CameraInfo> cameras = Arrays.asList(back, camera("1", CameraInfo.LENS_FACING_FRONT, 270));
+        newCache(FINGERPRINT, new FakeSource(cameras), null).getCameras();
+
+        List<CameraInfo> cached = newCache(FINGERPRINT, new FakeSource(null), new ManualExecutor()).getCameras();
+        assertEquals(cameras, cached);
+        assertArrayEquals(ranges, cached.get(0).getFpsRanges());
+        assertEquals(0, cached.get(1).getFpsRanges().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void sourceFailure_isReported() throws IOException {
+        FakeSource source = new FakeSource(null);
+        newCache(FINGERPRINT, source, null).getCameras();
+    }
+
+    private CameraInfoCache newCache(String fingerprint, CameraInfoSource source, Executor executor) {
+        return new CameraInfoCache(new File(mFolder.getRoot(), "camera_info.bin"), fingerprint, source, executor);
+    }
+
+    private static List<CameraInfo> twoCameras() {
+        return Arrays.asList(camera("0", CameraInfo.LENS_FACING_BACK, 90), camera("1", CameraInfo.LENS_FACING_FRONT, 270));
+    }
+
+    private static CameraInfo camera(String id, int facing, int orientation) {
+        Map<Integer, StreamSize[]> sizes = new TreeMap<>();
+        sizes.put(CameraInfo.FORMAT_JPEG, new StreamSize[]{
+                new StreamSize(4000, 3000, 50000000L), new StreamSize(1920, 1080, 33333333L)});
+        sizes.put(CameraInfo.FORMAT_PREVIEW, new StreamSize[]{
+                new StreamSize(1920, 1080, 33333333L), new StreamSize(1280, 720, 16666666L)});
+        return new CameraInfo(id, facing, orientation, 1, sizes);
+    }
+
+    private static class FakeSource implements CameraInfoSource {
+        private final List<CameraInfo> mCameras;
+        int mQueries;
+
+        FakeSource(List<CameraInfo> cameras) {
+            mCameras = cameras;
+        }
+
+        @Override
+        public List<CameraInfo> queryCameras() throws IOException {
+            mQueries++;
+            if (mCameras == null) {
+                throw new IOException("camera service unavailable");
+            }
+            return mCameras;
+        }
+    }
+
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            for (Runnable task : mTasks) {
+                task.run();
+            }
+            mTasks.clear();
+        }
+    }
+}
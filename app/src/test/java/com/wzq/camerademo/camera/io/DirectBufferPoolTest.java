@@ -0,0 +1,187 @@
+package com.wzq.camerademo.camera.io;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class DirectBufferPoolTest {
+    @Test
+    public void acquire_roundsUpToPowerOfTwoAndLimitsToSize() {
+        DirectBufferPool pool = new DirectBufferPool();
+        ByteBuffer buffer = pool.acquire(5000);
+        assertTrue(buffer.isDirect());
+        assertEquals(8192, buffer.capacity());
+        assertEquals(5000, buffer.limit());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void release_reusesBufferForSameSizeClass() {
+        DirectBufferPool pool = new DirectBufferPool();
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer buffer = pool.acquire(3 * 1024 * 1024 + i);
+            pool.release(buffer);
+        }
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(99, pool.getHitCount());
+        assertEquals(4 * 1024 * 1024, pool.getAllocatedBytes());
+    }
+
+    @Test
+    public void release_dropsBuffersBeyondPerClassLimit() {
+        DirectBufferPool pool = new DirectBufferPool(2);
+        ByteBuffer a = pool.acquire(4096);
+        ByteBuffer b = pool.acquire(4096);
+        ByteBuffer c = pool.acquire(4096);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        pool.acquire(4096);
+        pool.acquire(4096);
+        pool.acquire(4096);
+        assertEquals(4, pool.getAllocationCount());
+    }
+
+    @Test
+    public void release_rejectsForeignBuffers() {
+        DirectBufferPool pool = new DirectBufferPool();
+        for (ByteBuffer foreign : new ByteBuffer[]{ByteBuffer.allocate(4096), ByteBuffer.allocateDirect(5000)}) {
+            try {
+                pool.release(foreign);
+                fail("released " + foreign);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        pool.acquire(4096);
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(0, pool.getHitCount());
+    }
+
+    @Test
+    public void retain_keepsBufferOutUntilLastRelease() {
+        DirectBufferPool pool = new DirectBufferPool();
+        ByteBuffer buffer = pool.acquire(4096);
+        pool.retain(buffer);
+        pool.release(buffer);
+        assertEquals(1, pool.getOutstandingCount());
+        assertNotSame(buffer, pool.acquire(4096));
+        pool.release(buffer);
+        assertEquals(1, pool.getOutstandingCount());
+        assertSame(buffer, pool.acquire(4096));
+        assertNotSame(buffer, pool.acquire(4096));
+    }
+
+    @Test
+    public void release_rejectsReleaseTooMany() {
+        CountingAllocator allocator = new CountingAllocator();
+        DirectBufferPool pool = new DirectBufferPool(2, allocator);
+        ByteBuffer buffer = pool.acquire(4096);
+        pool.retain(buffer);
+        pool.release(buffer);
+        pool.release(buffer);
+        try {
+            pool.release(buffer);
+            fail("released twice");
+        } catch (IllegalArgumentException expected) {
+        }
+        // pooled once, so clear frees it once
+        pool.clear();
+        assertEquals(1, allocator.mFreed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void retain_rejectsBufferNotOutstanding() {
+        DirectBufferPool pool = new DirectBufferPool();
+        ByteBuffer buffer = pool.acquire(4096);
+        pool.release(buffer);
+        pool.retain(buffer);
+    }
+
+    @Test
+    public void release_freesBuffersThePoolCannotKeep() {
+        CountingAllocator allocator = new CountingAllocator();
+        DirectBufferPool pool = new DirectBufferPool(1, allocator);
+        ByteBuffer a = pool.acquire(4096);
+        ByteBuffer b = pool.acquire(4096);
+        ByteBuffer c = pool.acquire(100000);
+        assertEquals(3, pool.getOutstandingCount());
+        assertEquals(2 * 4096 + 131072, pool.getPeakBytes());
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertEquals(1, allocator.mFreed);
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(4096 + 131072, pool.getLiveBytes());
+        pool.clear();
+        assertEquals(3, allocator.mFreed);
+        assertEquals(0, pool.getLiveBytes());
+        assertEquals(2 * 4096 + 131072, pool.getPeakBytes());
+    }
+
+    @Test
+    public void hitRate_countsAcquiresServedFromPool() {
+        DirectBufferPool pool = new DirectBufferPool();
+        for (int i = 0; i < 4; i++) {
+            pool.release(pool.acquire(5000));
+        }
+        assertEquals(0.75f, pool.getHitRate(), 1e-6);
+    }
+
+    @Test
+    public void nativeAllocator_givesBackEveryByte() {
+        assumeTrue("native-lib not on java.library.path", NativeBufferAllocator.isAvailable());
+        final long before = NativeBufferAllocator.getNativeBytes();
+        NativeBufferAllocator allocator = new NativeBufferAllocator();
+        DirectBufferPool pool = new DirectBufferPool(2, allocator);
+        ByteBuffer[] buffers = new ByteBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(3 * 1024 * 1024);
+            assertTrue(buffers[i].isDirect());
+            buffers[i].putInt(3 * 1024 * 1024 - 4, i);
+        }
+        assertEquals(before + 4 * 4 * 1024 * 1024, NativeBufferAllocator.getNativeBytes());
+        for (int i = 0; i < buffers.length; i++) {
+            assertEquals(i, buffers[i].getInt(3 * 1024 * 1024 - 4));
+            pool.release(buffers[i]);
+        }
+        assertEquals(2, allocator.getLiveCount());
+        pool.clear();
+        assertEquals(0, allocator.getLiveCount());
+        assertEquals(before, NativeBufferAllocator.getNativeBytes());
+    }
+
+    @Test
+    public void nativeAllocator_rejectsForeignBuffers() {
+        assumeTrue("native-lib not on java.library.path", NativeBufferAllocator.isAvailable());
+        try {
+            new NativeBufferAllocator().free(ByteBuffer.allocateDirect(4096));
+            fail("freed a buffer it did not allocate");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void sizeClass_isCeilLog2WithFloor() {
+        assertEquals(12, DirectBufferPool.sizeClass(0));
+        assertEquals(12, DirectBufferPool.sizeClass(4096));
+        assertEquals(13, DirectBufferPool.sizeClass(4097));
+        assertEquals(22, DirectBufferPool.sizeClass(4 * 1024 * 1024));
+    }
+
+    private static class CountingAllocator implements BufferAllocator {
+        int mFreed;
+
+        @Override
+        public ByteBuffer allocate(int capacity) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+
+        @Override
+        public void free(ByteBuffer buffer) {
+            mFreed++;
+        }
+    }
+}
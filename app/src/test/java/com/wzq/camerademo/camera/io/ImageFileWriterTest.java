@@ -0,0 +1,127 @@
+package com.wzq.camerademo.camera.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ImageFileWriterTest {
+    private final static int FRAME_SIZE = 4 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void write_streamsWholeDirectBuffer() throws IOException {
+        ImageFileWriter writer = new ImageFileWriter();
+        ByteBuffer frame = syntheticFrame(FRAME_SIZE);
+        File file = mFolder.newFile("frame.jpg");
+
+        assertEquals(FRAME_SIZE, writer.write(frame, file));
+        assertFalse(frame.hasRemaining());
+        assertEquals(FRAME_SIZE, file.length());
+        frame.rewind();
+        assertArrayEquals(toArray(frame), readFile(file));
+    }
+
+    @Test
+    public void write_replacesExistingContents() throws IOException {
+        ImageFileWriter writer = new ImageFileWriter();
+        File file = mFolder.newFile("frame.jpg");
+        writer.write(syntheticFrame(8192), file);
+        writer.write(syntheticFrame(100), file);
+        assertEquals(100, file.length());
+    }
+
+    @Test
+    public void write_doesNotCopyFrameOntoHeap() throws IOException {
+        ImageFileWriter writer = new ImageFileWriter();
+        ByteBuffer frame = syntheticFrame(FRAME_SIZE);
+        File file = mFolder.newFile("frame.jpg");
+        // warm up so class loading is not counted
+        writer.write(frame.duplicate(), file);
+
+        final int frames = 20;
+        long before = allocatedBytes();
+        for (int i = 0; i < frames; i++) {
+            writer.write(frame.duplicate(), file);
+        }
+        long perFrame = (allocatedBytes() - before) / frames;
+        assertTrue("heap bytes per frame " + perFrame, perFrame < FRAME_SIZE / 64);
+    }
+
+    @Test
+    public void copy_reusesPooledBufferAcrossFrames() throws IOException {
+        ImageFileWriter writer = new ImageFileWriter(new DirectBufferPool());
+        ByteBuffer frame = syntheticFrame(FRAME_SIZE - 1000);
+        File file = mFolder.newFile("frame.jpg");
+
+        for (int i = 0; i < 50; i++) {
+            ByteBuffer copy = writer.copy(frame);
+            assertEquals(frame.remaining(), copy.remaining());
+            writer.write(copy, file);
+            writer.recycle(copy);
+        }
+        assertEquals(0, frame.position());
+        assertEquals(1, writer.getBufferPool().getAllocationCount());
+        assertEquals(49, writer.getBufferPool().getHitCount());
+        assertArrayEquals(toArray(frame), readFile(file));
+    }
+
+    @Test
+    public void write_sustainsBurstThroughput() throws IOException {
+        ImageFileWriter writer = new ImageFileWriter();
+        ByteBuffer frame = syntheticFrame(FRAME_SIZE);
+        final int frames = 32;
+        long start = System.nanoTime();
+        long total = 0;
+        for (int i = 0; i < frames; i++) {
+            total += writer.write(frame.duplicate(), new File(mFolder.getRoot(), "burst" + i + ".jpg"));
+        }
+        long elapsedNs = System.nanoTime() - start;
+        double mbPerSecond = total / (1024.0 * 1024.0) / (elapsedNs / 1e9);
+        assertEquals((long) frames * FRAME_SIZE, total);
+        assertTrue("throughput " + mbPerSecond + " MB/s", mbPerSecond > 10);
+    }
+
+    static ByteBuffer syntheticFrame(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) (i * 31 + (i >> 8)));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += in.read(bytes, offset, bytes.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
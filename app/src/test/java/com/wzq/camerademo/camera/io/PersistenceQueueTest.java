@@ -0,0 +1,292 @@
+package com.wzq.camerademo.camera.io;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PersistenceQueueTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private PersistenceQueue mQueue;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (mQueue != null) {
+            mQueue.shutdown();
+            assertTrue(mQueue.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void submit_writesEveryCaptureAndRecyclesBuffers() throws Exception {
+        DirectBufferPool pool = new DirectBufferPool(8);
+        ImageFileWriter fileWriter = new ImageFileWriter(pool);
+        LocalFileCaptureWriter writer = new LocalFileCaptureWriter(mFolder.getRoot(), fileWriter);
+        mQueue = new PersistenceQueue(writer, 2, 4, OverflowPolicy.BLOCK, null, pool);
+        RecordingCallback callback = new RecordingCallback(20);
+
+        ByteBuffer frame = ImageFileWriterTest.syntheticFrame(256 * 1024);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(mQueue.submit("capture" + i + ".jpg", fileWriter.copy(frame), callback));
+        }
+
+        assertTrue(callback.await());
+        assertEquals(20, mQueue.getWrittenCount());
+        assertEquals(0, mQueue.getQueueDepth());
+        assertTrue(mQueue.getMaxQueueDepth() <= 4);
+        assertEquals(20, mQueue.getWriteLatency().getCount());
+        assertTrue(mQueue.getWriteLatency().getMaxNanos() > 0);
+        // at most capacity + the producer's copy are alive at once
+        assertTrue(pool.getAllocationCount() <= 5);
+        for (PersistResult result : callback.mResults) {
+            assertEquals(PersistResult.Status.WRITTEN, result.getStatus());
+            assertEquals(256 * 1024, result.getBytes());
+            assertEquals(256 * 1024, writer.fileFor(result.getName()).length());
+        }
+    }
+
+    @Test
+    public void dropPolicy_rejectsWhenFull() throws Exception {
+        GatedWriter writer = new GatedWriter(new LocalFileCaptureWriter(mFolder.getRoot()));
+        mQueue = new PersistenceQueue(writer, 1, 2, OverflowPolicy.DROP);
+        RecordingCallback callback = new RecordingCallback(3);
+
+        assertTrue(mQueue.submit("a", ByteBuffer.allocate(10), callback));
+        assertTrue(mQueue.submit("b", ByteBuffer.allocate(10), callback));
+        assertEquals(2, mQueue.getQueueDepth());
+        assertFalse(mQueue.submit("c", ByteBuffer.allocate(10), callback));
+        assertEquals(1, mQueue.getDroppedCount());
+
+        writer.mGate.countDown();
+        assertTrue(callback.await());
+        assertEquals(PersistResult.Status.DROPPED, callback.find("c").getStatus());
+        assertEquals(PersistResult.Status.WRITTEN, callback.find("b").getStatus());
+    }
+
+    @Test
+    public void sources_takeTurns() throws Exception {
+        GatedWriter writer = new GatedWriter(new LocalFileCaptureWriter(mFolder.getRoot()));
+        mQueue = new PersistenceQueue(writer, 1, 8, OverflowPolicy.DROP);
+        RecordingCallback callback = new RecordingCallback(7);
+
+        // a burst from the back camera, the first one already taken by the I/O thread
+        for (int i = 0; i < 5; i++) {
+            assertTrue(mQueue.submit("back", "b" + i, ByteBuffer.allocate(10), callback));
+        }
+        assertTrue(mQueue.submit("front", "f0", ByteBuffer.allocate(10), callback));
+        assertTrue(mQueue.submit("front", "f1", ByteBuffer.allocate(10), callback));
+
+        writer.mGate.countDown();
+        assertTrue(callback.await());
+        List<String> order = new ArrayList<>();
+        for (PersistResult result : callback.mResults) {
+            order.add(result.getName());
+        }
+        assertEquals(Arrays.asList("b0", "b1", "f0", "b2", "f1", "b3", "b4"), order);
+    }
+
+    @Test
+    public void saturatedQueue_givesFreedSlotsToSourcesInTurn() throws Exception {
+        final GatedWriter writer = new GatedWriter(new OrderWriter());
+        mQueue = new PersistenceQueue(writer, 1, 1, OverflowPolicy.BLOCK);
+        final RecordingCallback callback = new RecordingCallback(3);
+        assertTrue(mQueue.submit("back", "b0", ByteBuffer.allocate(10), callback));
+
+        // three burst frames of the back camera wait for the only slot, then two stills of
+        // the front camera
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            final String name = "b" + i;
+            threads.add(start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        assertEquals(PersistResult.Status.WRITTEN,
+                                mQueue.write("back", name, ByteBuffer.allocate(10)).getStatus());
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }, i));
+        }
+        for (int i = 0; i < 2; i++) {
+            final String name = "f" + i;
+            threads.add(start(new Runnable() {
+                @Override
+                public void run() {
+                    mQueue.submit("front", name, ByteBuffer.allocate(10), callback);
+                }
+            }, 4 + i));
+        }
+        assertEquals(5, mQueue.getWaitingCount());
+
+        writer.mGate.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertTrue(callback.await());
+        assertEquals(0, mQueue.getQueueDepth());
+        assertEquals(6, mQueue.getWrittenCount());
+        assertEquals(Arrays.asList("b0", "b1", "f0", "b2", "f1", "b3"), ((OrderWriter) writer.mDelegate).mOrder);
+    }
+
+    /**
+     * Starts {@code task} and waits until the queue has {@code waiting} waiters, so they
+     * line up in the order they were started.
+     */
+    private Thread start(Runnable task, int waiting) throws InterruptedException {
+        final Thread thread = new Thread(task);
+        thread.start();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (mQueue.getWaitingCount() < waiting && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        return thread;
+    }
+
+    @Test
+    public void spillPolicy_writesOverflowToSpillWriter() throws Exception {
+        File primary = mFolder.newFolder("primary");
+        File spill = mFolder.newFolder("spill");
+        GatedWriter writer = new GatedWriter(new LocalFileCaptureWriter(primary));
+        mQueue = new PersistenceQueue(writer, 1, 1, OverflowPolicy.SPILL,
+                new LocalFileCaptureWriter(spill), null);
+        RecordingCallback callback = new RecordingCallback(2);
+
+        assertTrue(mQueue.submit("a", ByteBuffer.allocate(10), callback));
+        assertTrue(mQueue.submit("b", ByteBuffer.allocate(20), callback));
+        assertEquals(1, mQueue.getSpilledCount());
+        assertEquals(20, new File(spill, "b").length());
+
+        writer.mGate.countDown();
+        assertTrue(callback.await());
+        assertEquals(PersistResult.Status.SPILLED, callback.find("b").getStatus());
+        assertTrue(callback.find("b").isStored());
+        assertEquals(10, new File(primary, "a").length());
+    }
+
+    @Test
+    public void blockPolicy_waitsForFreeSlot() throws Exception {
+        final GatedWriter writer = new GatedWriter(new LocalFileCaptureWriter(mFolder.getRoot()));
+        mQueue = new PersistenceQueue(writer, 1, 1, OverflowPolicy.BLOCK);
+        RecordingCallback callback = new RecordingCallback(2);
+        mQueue.submit("a", ByteBuffer.allocate(10), callback);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) {
+                }
+                writer.mGate.countDown();
+            }
+        }).start();
+        long start = System.nanoTime();
+        assertTrue(mQueue.submit("b", ByteBuffer.allocate(10), callback));
+        long blockedMs = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("blocked " + blockedMs + "ms", blockedMs >= 150);
+        assertTrue(callback.await());
+        assertEquals(0, mQueue.getDroppedCount());
+        assertEquals(2, mQueue.getWrittenCount());
+    }
+
+    @Test
+    public void failingWriter_reportsFailureAndFreesSlot() throws Exception {
+        CaptureWriter broken = new CaptureWriter() {
+            @Override
+            public long write(String name, ByteBuffer data) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        mQueue = new PersistenceQueue(broken, 1, 1, OverflowPolicy.BLOCK);
+        RecordingCallback callback = new RecordingCallback(3);
+        for (int i = 0; i < 3; i++) {
+            mQueue.submit("f" + i, ByteBuffer.allocate(1), callback);
+        }
+        assertTrue(callback.await());
+        assertEquals(3, mQueue.getFailedCount());
+        assertEquals("disk full", callback.find("f2").getError().getMessage());
+    }
+
+    @Test
+    public void submit_afterShutdownFails() {
+        mQueue = new PersistenceQueue(new LocalFileCaptureWriter(mFolder.getRoot()), 1, 1, OverflowPolicy.BLOCK);
+        mQueue.shutdown();
+        RecordingCallback callback = new RecordingCallback(1);
+        assertFalse(mQueue.submit("late", ByteBuffer.allocate(1), callback));
+        assertEquals(PersistResult.Status.FAILED, callback.find("late").getStatus());
+        assertEquals(0, mQueue.getQueueDepth());
+    }
+
+    private static class GatedWriter implements CaptureWriter {
+        final CountDownLatch mGate = new CountDownLatch(1);
+        final CaptureWriter mDelegate;
+
+        GatedWriter(CaptureWriter delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public long write(String name, ByteBuffer data) throws IOException {
+            try {
+                mGate.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return mDelegate.write(name, data);
+        }
+    }
+
+    private static class OrderWriter implements CaptureWriter {
+        final List<String> mOrder = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public long write(String name, ByteBuffer data) {
+            mOrder.add(name);
+            return data.remaining();
+        }
+    }
+
+    private static class RecordingCallback implements PersistCallback {
+        final List<PersistResult> mResults = Collections.synchronizedList(new ArrayList<PersistResult>());
+        private final CountDownLatch mLatch;
+
+        RecordingCallback(int expected) {
+            mLatch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onPersistCompleted(PersistResult result) {
+            mResults.add(result);
+            mLatch.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return mLatch.await(5, TimeUnit.SECONDS);
+        }
+
+        PersistResult find(String name) {
+            synchronized (mResults) {
+                for (PersistResult result : mResults) {
+                    if (result.getName().equals(name)) return result;
+                }
+            }
+            return null;
+        }
+    }
+}
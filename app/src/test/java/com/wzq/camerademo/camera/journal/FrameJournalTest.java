@@ -0,0 +1,171 @@
+package com.wzq.camerademo.camera.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class FrameJournalTest {
+    private static final long FRAME_NANOS = 16666666L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void append_rowsReadBack() throws IOException {
+        File file = mFolder.newFile("frames.journal");
+        FrameJournal journal = new FrameJournal(file, 8);
+        FrameRecord record = new FrameRecord();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(journal.append(frame(record, i)));
+        }
+
+        FrameJournalReader reader = new FrameJournalReader(file);
+        assertEquals(3, reader.getCount());
+        FrameRecord read = new FrameRecord();
+        assertTrue(reader.read(2, read));
+        assertEquals(2, read.getFrameNumber());
+        assertEquals(2 * FRAME_NANOS, read.getSensorTimestamp());
+        assertEquals(2 * FRAME_NANOS + 30000000, read.getResultTime());
+        assertEquals(10000000, read.getExposureTime());
+        assertEquals(FRAME_NANOS, read.getFrameDuration());
+        assertEquals(400, read.getSensitivity());
+        assertEquals(2, read.getAfState());
+        assertEquals(2, read.getAeState());
+        assertEquals(FrameRecord.STATE_UNKNOWN, read.getAwbState());
+        assertTrue(read.isLensMoving());
+        assertFalse(reader.read(3, read));
+        reader.close();
+        journal.close();
+        assertFalse(journal.append(record));
+    }
+
+    @Test
+    public void fullRing_keepsNewestRows() throws IOException {
+        File file = mFolder.newFile("frames.journal");
+        FrameJournal journal = new FrameJournal(file, 4);
+        FrameRecord record = new FrameRecord();
+        for (int i = 0; i < 10; i++) {
+            journal.append(frame(record, i));
+        }
+        journal.close();
+
+        FrameJournalReader reader = new FrameJournalReader(file);
+        assertEquals(10, reader.getCount());
+        assertEquals(6, reader.getFirstIndex());
+        FrameRecord read = new FrameRecord();
+        assertFalse(reader.read(5, read));
+        assertTrue(reader.read(6, read));
+        assertEquals(6, read.getFrameNumber());
+        assertEquals(4, reader.summarize().getRows());
+        reader.close();
+    }
+
+    @Test
+    public void reopen_carriesOnOrStartsOverForOtherCapacity() throws IOException {
+        File file = mFolder.newFile("frames.journal");
+        FrameJournal journal = new FrameJournal(file, 4);
+        FrameRecord record = new FrameRecord();
+        journal.append(frame(record, 0));
+        journal.append(frame(record, 1));
+        journal.close();
+
+        journal = new FrameJournal(file, 4);
+        assertEquals(2, journal.getCount());
+        journal.append(frame(record, 2));
+        journal.close();
+        FrameJournalReader reader = new FrameJournalReader(file);
+        assertEquals(3, reader.summarize().getRows());
+        reader.close();
+
+        journal = new FrameJournal(file, 16);
+        assertEquals(0, journal.getCount());
+        journal.close();
+    }
+
+    @Test
+    public void tornRow_isSkipped() throws IOException {
+        File file = mFolder.newFile("frames.journal");
+        FrameJournal journal = new FrameJournal(file, 4);
+        FrameRecord record = new FrameRecord();
+        for (int i = 0; i < 3; i++) {
+            journal.append(frame(record, i));
+        }
+        journal.close();
+        // a crash before the sequence of the middle row was written
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(FrameJournal.HEADER_SIZE + FrameJournal.ROW_SIZE + FrameJournal.SEQUENCE);
+        randomAccessFile.writeLong(0);
+        randomAccessFile.close();
+
+        FrameJournalReader reader = new FrameJournalReader(file);
+        FrameJournalReader.Summary summary = reader.summarize();
+        assertEquals(2, summary.getRows());
+        assertEquals(1, summary.getSkippedRows());
+        reader.close();
+    }
+
+    @Test
+    public void summary_findsDropsAndExposureHunting() throws IOException {
+        File file = mFolder.newFile("frames.journal");
+        FrameJournal journal = new FrameJournal(file, 64);
+        FrameRecord record = new FrameRecord();
+        for (int i = 0; i < 10; i++) {
+            // frames 4 and 5 never reached the app, frame 8 came late from the sensor
+            if (i == 4 || i == 5) continue;
+            long timestamp = i * FRAME_NANOS + (i >= 8 ? 2 * FRAME_NANOS : 0);
+            frame(record, i).setSensorTimestamp(timestamp).setResultTime(timestamp + 30000000)
+                    .setExposureTime(i % 2 == 0 ? 10000000 : 20000000)
+                    .setAeState(i < 7 ? 1 : 2);
+            journal.append(record);
+        }
+        journal.close();
+
+        FrameJournalReader reader = new FrameJournalReader(file);
+        FrameJournalReader.Summary summary = reader.summarize();
+        assertEquals(8, summary.getRows());
+        assertEquals(2, summary.getMissingFrames());
+        assertEquals(2, summary.getLateFrames());
+        assertEquals(3 * FRAME_NANOS, summary.getMaxFrameIntervalNanos());
+        assertEquals(7, summary.getExposureChanges());
+        assertEquals(1, summary.getAeStateChanges());
+        assertEquals(30000000, summary.getMeanResultLatencyNanos());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reader.writeCsv(new PrintStream(out, true));
+        String[] lines = out.toString().split("\n");
+        assertEquals(9, lines.length);
+        assertTrue(lines[0].startsWith("frameNumber,"));
+        assertTrue(lines[1].startsWith("0,0,30000000,10000000,"));
+        reader.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void reader_rejectsOtherFiles() throws IOException {
+        File file = mFolder.newFile("capture.jpg");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(1024);
+        randomAccessFile.close();
+        new FrameJournalReader(file);
+    }
+
+    private static FrameRecord frame(FrameRecord record, int i) {
+        return record.setFrameNumber(i)
+                .setSensorTimestamp(i * FRAME_NANOS)
+                .setResultTime(i * FRAME_NANOS + 30000000)
+                .setExposureTime(10000000)
+                .setFrameDuration(FRAME_NANOS)
+                .setSensitivity(400)
+                .setAfState(2)
+                .setAeState(2)
+                .setAwbState(FrameRecord.STATE_UNKNOWN)
+                .setLensMoving(true);
+    }
+}
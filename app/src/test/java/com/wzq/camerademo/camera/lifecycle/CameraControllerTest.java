@@ -0,0 +1,404 @@
+package com.wzq.camerademo.camera.lifecycle;
+
+import com.wzq.camerademo.camera.backend.CaptureCallback;
+import com.wzq.camerademo.camera.backend.SessionConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CameraControllerTest {
+    private static final String BACK = "0";
+    private static final String FRONT = "1";
+
+    private final List<CameraState> mStates = Collections.synchronizedList(new ArrayList<CameraState>());
+    private final List<Integer> mErrors = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<Throwable> mFailures = Collections.synchronizedList(new ArrayList<Throwable>());
+    private final AtomicInteger mPreviewStarts = new AtomicInteger();
+    private ExecutorService mThread;
+    private FakeCameraBackend mBackend;
+    private CameraController mController;
+
+    @Before
+    public void setUp() {
+        mThread = Executors.newSingleThreadExecutor();
+        mBackend = new FakeCameraBackend();
+        // surfaces illegal transitions, which would otherwise die quietly in the executor
+        mController = new CameraController(mBackend, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                mThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            command.run();
+                        } catch (Throwable e) {
+                            mFailures.add(e);
+                        }
+                    }
+                });
+            }
+        });
+        mController.setSessionConfig(new SessionConfig(640, 480, 640, 480));
+        mController.setListener(new CameraStateListener() {
+            @Override
+            public void onStateChanged(CameraState oldState, CameraState newState) {
+                mStates.add(newState);
+            }
+
+            @Override
+            public void onPreviewStarted(String cameraId) {
+                mPreviewStarts.incrementAndGet();
+            }
+
+            @Override
+            public void onCameraError(String cameraId, int error) {
+                mErrors.add(error);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mThread.shutdown();
+        mThread.awaitTermination(5, TimeUnit.SECONDS);
+        mBackend.shutdown();
+        assertTrue(mFailures.toString(), mFailures.isEmpty());
+    }
+
+    @Test
+    public void open_goesThroughEveryStateToPreview() throws Exception {
+        mController.open(BACK);
+        await(CameraState.PREVIEWING);
+        awaitPreviewStarts(1);
+
+        assertEquals(Arrays.asList(CameraState.OPENING, CameraState.OPENED, CameraState.CONFIGURING,
+                CameraState.PREVIEWING), snapshot(mStates));
+        assertEquals(1, mBackend.getLiveDevices());
+        assertEquals(1, mBackend.getLiveSessions());
+    }
+
+    @Test
+    public void openBeforeOutputs_configuresOnceAvailable() throws Exception {
+        mController.setOutputsAvailable(false);
+        mController.open(BACK);
+        await(CameraState.OPENED);
+        drain();
+        assertEquals(CameraState.OPENED, mController.getState());
+        assertEquals(0, mBackend.getLiveSessions());
+
+        mController.setOutputsAvailable(true);
+        await(CameraState.PREVIEWING);
+        awaitPreviewStarts(1);
+        assertEquals(Arrays.asList(CameraState.OPENING, CameraState.OPENED, CameraState.CONFIGURING,
+                CameraState.PREVIEWING), snapshot(mStates));
+    }
+
+    @Test
+    public void close_reachesClosedOnlyAfterDeviceClosed() throws Exception {
+        mBackend.setCloseDelayMs(50);
+        mController.open(BACK);
+        await(CameraState.PREVIEWING);
+
+        mController.close();
+        await(CameraState.CLOSING);
+        assertEquals(1, mBackend.getLiveDevices());
+        await(CameraState.CLOSED);
+        assertEquals(0, mBackend.getLiveDevices());
+        assertEquals(0, mBackend.getLiveSessions());
+    }
+
+    @Test
+    public void closeWhileOpening_closesDeviceWhenItArrives() throws Exception {
+        mController.open(BACK);
+        mController.close();
+        drain();
+        await(CameraState.CLOSED);
+        // the listener hears of CLOSED in the same task that set it
+        drain();
+
+        assertEquals(Arrays.asList(CameraState.OPENING, CameraState.CLOSING, CameraState.CLOSED), snapshot(mStates));
+        assertEquals(0, mBackend.getLiveDevices());
+    }
+
+    @Test
+    public void capture_returnsToPreviewWhenSequenceEnds() throws Exception {
+        assertFalse(mController.capture(1, new RecordingCaptureCallback()));
+
+        mController.open(BACK);
+        await(CameraState.PREVIEWING);
+        final RecordingCaptureCallback callback = new RecordingCaptureCallback();
+        assertTrue(mController.capture(3, callback));
+        assertTrue(callback.mDone.await(2, TimeUnit.SECONDS));
+        await(CameraState.PREVIEWING);
+
+        assertEquals(1, callback.mCompleted.get());
+        assertTrue(mStates.contains(CameraState.CAPTURING));
+    }
+
+    @Test
+    public void reconfigure_replacesSessionOnOpenDevice() throws Exception {
+        mController.open(BACK);
+        await(CameraState.PREVIEWING);
+        awaitPreviewStarts(1);
+
+        mController.setSessionConfig(new SessionConfig(640, 480, 640, 480).setRecordingEnabled(true));
+        mController.reconfigure();
+        drain();
+        await(CameraState.PREVIEWING);
+        awaitPreviewStarts(2);
+
+        assertEquals(Arrays.asList(CameraState.OPENING, CameraState.OPENED, CameraState.CONFIGURING,
+                CameraState.PREVIEWING, CameraState.CONFIGURING, CameraState.PREVIEWING), snapshot(mStates));
+        assertEquals(1, mBackend.getOpenCount());
+        assertEquals(1, mBackend.getLiveSessions());
+    }
+
+    @Test
+    public void reconfigureWhileCapturing_waitsForSequenceToEnd() throws Exception {
+        mController.open(BACK);
+        await(CameraState.PREVIEWING);
+        final RecordingCaptureCallback callback = new RecordingCaptureCallback();
+        assertTrue(mController.capture(2, callback));
+        mController.reconfigure();
+
+        assertTrue(callback.mDone.await(2, TimeUnit.SECONDS));
+        assertEquals(1, callback.mCompleted.get());
+        awaitPreviewStarts(2);
+        assertEquals(Arrays.asList(CameraState.OPENING, CameraState.OPENED, CameraState.CONFIGURING,
+                CameraState.PREVIEWING, CameraState.CAPTURING, CameraState.PREVIEWING, CameraState.CONFIGURING,
+                CameraState.PREVIEWING), snapshot(mStates));
+    }
+
+    @Test
+    public void captureThenClose_abortsSequence() throws Exception {
+        mController.open(BACK);
+        await(CameraState.PREVIEWING);
+        final RecordingCaptureCallback callback = new RecordingCaptureCallback();
+        assertTrue(mController.capture(1, callback));
+        mController.close();
+
+        assertTrue(callback.mDone.await(2, TimeUnit.SECONDS));
+        await(CameraState.CLOSED);
+        assertEquals(1, callback.mCompleted.get() + callback.mAborted.get());
+    }
+
+    @Test
+    public void switch_overlappedOpensNextDeviceBeforeOldOneIsClosed() throws Exception {
+        mController.setOverlapOpenEnabled(true);
+        mController.open(BACK);
+        await(CameraState.PREVIEWING);
+        mBackend.setCloseDelayMs(50);
+        mBackend.setRecordEvents(true);
+
+        mController.open(FRONT);
+        drain();
+        await(CameraState.PREVIEWING);
+
+        // the front camera opened while the back one was closing, but its session waited
+        assertEquals(Arrays.asList("opened " + FRONT, "closed " + BACK, "session " + FRONT), mBackend.getEvents());
+        assertEquals(2, mBackend.getMaxLiveDevices());
+        assertEquals(1, mBackend.getLiveDevices());
+        assertTrue(mStates.contains(CameraState.CLOSING));
+        assertFalse(mStates.contains(CameraState.CLOSED));
+    }
+
+    @Test
+    public void switch_sequentialClosesBeforeOpening() throws Exception {
+        mController.open(BACK);
+        await(CameraState.PREVIEWING);
+        mBackend.setRecordEvents(true);
+
+        mController.open(FRONT);
+        drain();
+        await(CameraState.PREVIEWING);
+
+        assertTrue(mStates.contains(CameraState.CLOSED));
+        assertEquals(Arrays.asList("closed " + BACK, "opened " + FRONT, "session " + FRONT), mBackend.getEvents());
+        assertEquals(1, mBackend.getMaxLiveDevices());
+    }
+
+    @Test
+    public void frameRateRange_appliedBeforePreviewAndToRunningPreview() throws Exception {
+        mBackend.setRecordEvents(true);
+        mController.setFrameRateRange(15, 30);
+        mController.open(BACK);
+        await(CameraState.PREVIEWING);
+
+        mController.setFrameRateRange(15, 24);
+        drain();
+
+        assertEquals(Arrays.asList("opened " + BACK, "session " + BACK, "fps 15-30", "fps 15-24 previewing"),
+                mBackend.getEvents());
+        assertTrue(mErrors.isEmpty());
+    }
+
+    @Test
+    public void disconnect_reportsErrorAndCloses() throws Exception {
+        mController.open(BACK);
+        await(CameraState.PREVIEWING);
+
+        mBackend.getLastDevice().disconnect();
+        await(CameraState.CLOSED);
+
+        assertEquals(Collections.singletonList(CameraController.ERROR_DISCONNECTED), snapshot(mErrors));
+        assertEquals(0, mBackend.getLiveDevices());
+    }
+
+    @Test
+    public void openFailure_returnsToClosedAndCanRetry() throws Exception {
+        mBackend.failNextOpen(1, false);
+        mController.open(BACK);
+        awaitErrors(1);
+        await(CameraState.CLOSED);
+        mBackend.failNextOpen(4, true);
+        mController.open(BACK);
+        awaitErrors(2);
+        await(CameraState.CLOSED);
+
+        assertEquals(Arrays.asList(1, 4), snapshot(mErrors));
+        assertEquals(0, mBackend.getLiveDevices());
+        mController.open(BACK);
+        await(CameraState.PREVIEWING);
+    }
+
+    @Test
+    public void openWhileClosing_opensOnceClosed() throws Exception {
+        mBackend.setCloseDelayMs(20);
+        mController.open(BACK);
+        await(CameraState.PREVIEWING);
+        mController.close();
+        mController.open(FRONT);
+        drain();
+
+        await(CameraState.PREVIEWING);
+        assertTrue(mStates.contains(CameraState.CLOSED));
+        assertEquals(1, mBackend.getLiveDevices());
+    }
+
+    @Test
+    public void thousandsOfCycles_keepThreadsAndMemoryFlat() throws Exception {
+        // warm up so lazily started threads and JIT buffers are in the baseline
+        cycle(50);
+        final int threadsBefore = Thread.activeCount();
+        final long heapBefore = usedHeap();
+
+        cycle(3000);
+
+        final int threadsAfter = Thread.activeCount();
+        final long heapAfter = usedHeap();
+        assertEquals(0, mBackend.getLiveDevices());
+        assertEquals(0, mBackend.getLiveSessions());
+        assertTrue("threads " + threadsBefore + " -> " + threadsAfter, threadsAfter <= threadsBefore);
+        // 3000 leaked devices would hold 750 MB
+        assertTrue("heap " + heapBefore + " -> " + heapAfter, heapAfter - heapBefore < 16 * 1024 * 1024);
+        assertTrue(mBackend.getMaxLiveDevices() <= 2);
+    }
+
+    /**
+     * Each iteration opens, switches with and without overlap, captures and closes.
+     */
+    private void cycle(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            mController.setOverlapOpenEnabled(i % 2 == 0);
+            mController.open(BACK);
+            if (i % 3 == 0) {
+                await(CameraState.PREVIEWING);
+                mController.capture(1, new RecordingCaptureCallback());
+            }
+            mController.open(FRONT);
+            if (i % 5 == 0) {
+                await(CameraState.PREVIEWING);
+            }
+            mController.close();
+            drain();
+            await(CameraState.CLOSED);
+        }
+    }
+
+    /**
+     * Waits for the requests posted so far to have run, so awaiting a state does not return
+     * early on the state from before them.
+     */
+    private void drain() throws Exception {
+        mThread.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(2, TimeUnit.SECONDS);
+    }
+
+    private void await(CameraState state) throws InterruptedException {
+        assertTrue("stuck in " + mController.getState() + " waiting for " + state,
+                mController.awaitState(state, 2, TimeUnit.SECONDS));
+    }
+
+    private void awaitPreviewStarts(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (mPreviewStarts.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, mPreviewStarts.get());
+    }
+
+    private void awaitErrors(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (mErrors.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static <T> List<T> snapshot(List<T> list) {
+        synchronized (list) {
+            return new ArrayList<>(list);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static class RecordingCaptureCallback implements CaptureCallback {
+        final AtomicInteger mCompleted = new AtomicInteger();
+        final AtomicInteger mAborted = new AtomicInteger();
+        final CountDownLatch mDone = new CountDownLatch(1);
+
+        @Override
+        public void onCaptureStarted(long timestamp) {
+        }
+
+        @Override
+        public void onCaptureFailed(int reason) {
+        }
+
+        @Override
+        public void onCaptureSequenceCompleted() {
+            mCompleted.incrementAndGet();
+            mDone.countDown();
+        }
+
+        @Override
+        public void onCaptureSequenceAborted() {
+            mAborted.incrementAndGet();
+            mDone.countDown();
+        }
+    }
+}
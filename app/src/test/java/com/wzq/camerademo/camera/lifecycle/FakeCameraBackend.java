@@ -0,0 +1,281 @@
+package com.wzq.camerademo.camera.lifecycle;
+
+import com.wzq.camerademo.camera.backend.BackendDevice;
+import com.wzq.camerademo.camera.backend.BackendSession;
+import com.wzq.camerademo.camera.backend.CameraBackend;
+import com.wzq.camerademo.camera.backend.CaptureCallback;
+import com.wzq.camerademo.camera.backend.DeviceCallback;
+import com.wzq.camerademo.camera.backend.PreviewCallback;
+import com.wzq.camerademo.camera.backend.SessionCallback;
+import com.wzq.camerademo.camera.backend.SessionConfig;
+import com.wzq.camerademo.camera.info.CameraInfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Backend whose devices live on a single "HAL" thread. Every device holds a buffer standing
+ * in for the native resources of a real one, so a controller that leaks devices also leaks
+ * memory.
+ */
+class FakeCameraBackend implements CameraBackend {
+    private static final int DEVICE_FOOTPRINT = 256 * 1024;
+
+    private final ScheduledExecutorService mHal = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "FakeHal");
+        }
+    });
+    private final AtomicInteger mLiveDevices = new AtomicInteger();
+    private final AtomicInteger mMaxLiveDevices = new AtomicInteger();
+    private final AtomicInteger mLiveSessions = new AtomicInteger();
+    private final AtomicInteger mOpenCount = new AtomicInteger();
+    private final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+    private volatile long mCloseDelayMs;
+    private volatile int mFailNextOpen;
+    private volatile boolean mFailNextOpenWithDevice;
+    private volatile boolean mRecordEvents;
+    private volatile FakeDevice mLastDevice;
+
+    void setCloseDelayMs(long delayMs) {
+        mCloseDelayMs = delayMs;
+    }
+
+    /**
+     * Makes the next open fail with {@code error}, reported with the device or without one.
+     */
+    void failNextOpen(int error, boolean withDevice) {
+        mFailNextOpenWithDevice = withDevice;
+        mFailNextOpen = error;
+    }
+
+    void setRecordEvents(boolean record) {
+        mRecordEvents = record;
+    }
+
+    List<String> getEvents() {
+        synchronized (mEvents) {
+            return new ArrayList<>(mEvents);
+        }
+    }
+
+    int getLiveDevices() {
+        return mLiveDevices.get();
+    }
+
+    int getMaxLiveDevices() {
+        return mMaxLiveDevices.get();
+    }
+
+    int getLiveSessions() {
+        return mLiveSessions.get();
+    }
+
+    FakeDevice getLastDevice() {
+        return mLastDevice;
+    }
+
+    int getOpenCount() {
+        return mOpenCount.get();
+    }
+
+    void shutdown() throws InterruptedException {
+        mHal.shutdown();
+        mHal.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private void event(String event) {
+        if (mRecordEvents) {
+            mEvents.add(event);
+        }
+    }
+
+    @Override
+    public List<CameraInfo> queryCameras() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void release() {
+    }
+
+    @Override
+    public void openDevice(final String cameraId, final DeviceCallback callback) {
+        mOpenCount.incrementAndGet();
+        final int error = mFailNextOpen;
+        final boolean withDevice = mFailNextOpenWithDevice;
+        mFailNextOpen = 0;
+        mHal.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (error != 0 && !withDevice) {
+                    callback.onError(null, error);
+                    return;
+                }
+                final FakeDevice device = new FakeDevice(cameraId, callback);
+                mLastDevice = device;
+                mMaxLiveDevices.set(Math.max(mMaxLiveDevices.get(), mLiveDevices.incrementAndGet()));
+                event("opened " + cameraId);
+                if (error != 0) {
+                    callback.onError(device, error);
+                } else {
+                    callback.onOpened(device);
+                }
+            }
+        });
+    }
+
+    class FakeDevice implements BackendDevice {
+        private final String mId;
+        private final DeviceCallback mCallback;
+        private final byte[] mFootprint = new byte[DEVICE_FOOTPRINT];
+        private boolean mClosed;
+        private FakeSession mSession;
+
+        FakeDevice(String id, DeviceCallback callback) {
+            mId = id;
+            mCallback = callback;
+        }
+
+        @Override
+        public String getId() {
+            return mId;
+        }
+
+        @Override
+        public void createSession(SessionConfig config, final SessionCallback callback) throws IOException {
+            mHal.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (FakeDevice.this) {
+                        if (mClosed) {
+                            callback.onConfigureFailed(FakeDevice.this);
+                            return;
+                        }
+                        if (mSession != null) {
+                            mSession.close();
+                        }
+                        mSession = new FakeSession(FakeDevice.this);
+                        mLiveSessions.incrementAndGet();
+                    }
+                    event("session " + mId);
+                    callback.onConfigured(mSession);
+                }
+            });
+        }
+
+        /**
+         * Drops the device like a higher priority client taking the camera would.
+         */
+        void disconnect() {
+            mHal.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onDisconnected(FakeDevice.this);
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (mClosed) return;
+                mClosed = true;
+                if (mSession != null) {
+                    mSession.close();
+                }
+            }
+            // later opens are not held up by a slow close, as on devices that overlap them
+            mHal.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mLiveDevices.decrementAndGet();
+                    event("closed " + mId);
+                    mCallback.onClosed(FakeDevice.this);
+                }
+            }, mCloseDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    class FakeSession implements BackendSession {
+        private final FakeDevice mDevice;
+        private boolean mClosed;
+        private boolean mPreviewing;
+
+        FakeSession(FakeDevice device) {
+            mDevice = device;
+        }
+
+        @Override
+        public BackendDevice getDevice() {
+            return mDevice;
+        }
+
+        @Override
+        public void startPreview(final PreviewCallback callback) throws IOException {
+            synchronized (this) {
+                if (mClosed) throw new IOException("session closed");
+            }
+            synchronized (this) {
+                mPreviewing = true;
+            }
+            mHal.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 3; i++) {
+                        if (isClosed()) return;
+                        callback.onPreviewFrame(i * 33333333L);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void setFrameRateRange(int minFps, int maxFps) throws IOException {
+            final boolean previewing;
+            synchronized (this) {
+                if (mClosed) throw new IOException("session closed");
+                previewing = mPreviewing;
+            }
+            event("fps " + minFps + "-" + maxFps + (previewing ? " previewing" : ""));
+        }
+
+        @Override
+        public void capture(final int count, final CaptureCallback callback) throws IOException {
+            synchronized (this) {
+                if (mClosed) throw new IOException("session closed");
+            }
+            mHal.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (isClosed()) {
+                        callback.onCaptureSequenceAborted();
+                    } else {
+                        callback.onCaptureSequenceCompleted();
+                    }
+                }
+            });
+        }
+
+        synchronized boolean isClosed() {
+            return mClosed;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (mClosed) return;
+                mClosed = true;
+            }
+            mLiveSessions.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.wzq.camerademo.camera.metrics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class CameraMetricsTest {
+    private static final long FRAME = 33333333L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void previewFrames_giveFpsAndJank() {
+        final CameraMetrics metrics = new CameraMetrics();
+        long timestamp = 1000;
+        for (int i = 0; i < 100; i++) {
+            metrics.onPreviewFrame(timestamp);
+            // every 10th frame comes two intervals late
+            timestamp += i % 10 == 9 ? 3 * FRAME : FRAME;
+        }
+
+        assertEquals(100, metrics.getFrameCount());
+        assertEquals(9, metrics.getJankCount());
+        assertEquals(99, metrics.get(CameraMetrics.Latency.FRAME_INTERVAL).getCount());
+        assertTrue(String.valueOf(metrics.getPreviewFps()), metrics.getPreviewFps() > 20 && metrics.getPreviewFps() < 30);
+        assertTrue(metrics.get(CameraMetrics.Latency.FRAME_INTERVAL).getValueAtPercentile(50) < FRAME * 33 / 32);
+    }
+
+    @Test
+    public void previewStopped_doesNotCountGapAsInterval() {
+        final CameraMetrics metrics = new CameraMetrics();
+        metrics.onPreviewFrame(FRAME);
+        metrics.onPreviewFrame(2 * FRAME);
+        metrics.onPreviewStopped();
+        assertEquals(0, metrics.getPreviewFps(), 0);
+
+        metrics.onPreviewFrame(100 * FRAME);
+        metrics.onPreviewFrame(101 * FRAME);
+
+        assertEquals(2, metrics.get(CameraMetrics.Latency.FRAME_INTERVAL).getCount());
+        assertEquals(0, metrics.getJankCount());
+        assertEquals(30, metrics.getPreviewFps(), 0.1);
+    }
+
+    @Test
+    public void stills_areTimedFromShutter() throws InterruptedException {
+        final CameraMetrics metrics = new CameraMetrics();
+        metrics.onStillImage();
+        assertEquals(0, metrics.get(CameraMetrics.Latency.SHUTTER_TO_IMAGE).getCount());
+
+        metrics.markShutter();
+        Thread.sleep(20);
+        metrics.onStillImage();
+        metrics.onStillImage();
+
+        final LatencyHistogram shutterToImage = metrics.get(CameraMetrics.Latency.SHUTTER_TO_IMAGE);
+        assertEquals(2, shutterToImage.getCount());
+        assertTrue(shutterToImage.getValueAtPercentile(0) >= 19000000);
+    }
+
+    @Test
+    public void snapshotWriter_replacesFileWithJson() throws IOException {
+        final CameraMetrics metrics = new CameraMetrics();
+        metrics.record(CameraMetrics.Latency.OPEN, 120000000);
+        final File file = new File(mFolder.getRoot(), "metrics.json");
+        final MetricsSnapshotWriter writer = new MetricsSnapshotWriter(metrics, file);
+
+        writer.writeSnapshot();
+        metrics.record(CameraMetrics.Latency.OPEN, 80000000);
+        writer.writeSnapshot();
+
+        final String json = read(file);
+        assertTrue(json, json.startsWith("{\"timestamp\":"));
+        assertTrue(json, json.contains("\"open\":{\"count\":2,\"meanUs\":100000,"));
+        assertTrue(json, json.contains("\"imageToDisk\":{\"count\":0,"));
+        assertTrue(json.endsWith("}}"));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void snapshotWriter_writesPeriodicallyAndOnStop() throws Exception {
+        final CameraMetrics metrics = new CameraMetrics();
+        final File file = new File(mFolder.getRoot(), "metrics.json");
+        final MetricsSnapshotWriter writer = new MetricsSnapshotWriter(metrics, file);
+
+        writer.start(10);
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (!file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(file.exists());
+        metrics.onPreviewFrame(FRAME);
+        writer.stop();
+
+        assertTrue(read(file).contains("\"frames\":1,"));
+    }
+
+    private static String read(File file) throws IOException {
+        final byte[] bytes = new byte[(int) file.length()];
+        final FileInputStream input = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += input.read(bytes, offset, bytes.length - offset);
+            }
+        } finally {
+            input.close();
+        }
+        return new String(bytes, Charset.forName("UTF-8"));
+    }
+}
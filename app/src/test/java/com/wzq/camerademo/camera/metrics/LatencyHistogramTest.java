@@ -0,0 +1,90 @@
+package com.wzq.camerademo.camera.metrics;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverEveryValueWithinThreePercent() {
+        final Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            final long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            final int bucket = LatencyHistogram.bucketOf(value);
+            final long highest = LatencyHistogram.highestValueOf(bucket);
+            assertTrue(value + " above bucket end " + highest, value <= highest);
+            assertTrue(value + " too far from " + highest, highest - value <= value / 32);
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+        }
+        assertEquals(LatencyHistogram.bucketOf(Long.MAX_VALUE), LatencyHistogram.bucketOf(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void percentiles_matchUniformSamples() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long ms = 1; ms <= 1000; ms++) {
+            histogram.record(ms * 1000000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500000, histogram.getMeanNanos());
+        assertEquals(1000000000, histogram.getMaxNanos());
+        assertNear(500000000, histogram.getValueAtPercentile(50));
+        assertNear(990000000, histogram.getValueAtPercentile(99));
+        assertEquals(1000000000, histogram.getValueAtPercentile(100));
+        assertNear(1000000, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void empty_reportsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMeanNanos());
+    }
+
+    @Test
+    public void concurrentRecords_areAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threads = 4;
+        final int samples = 200000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long offset = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < samples; i++) {
+                        histogram.record(1000 + (i % 1000) * 1000 + offset);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(threads * samples, histogram.getCount());
+        assertEquals(1000000 + threads - 1, histogram.getMaxNanos());
+        assertNear(500000, histogram.getValueAtPercentile(50));
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue("expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 32);
+    }
+}
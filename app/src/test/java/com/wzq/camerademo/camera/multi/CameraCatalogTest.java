@@ -0,0 +1,61 @@
+package com.wzq.camerademo.camera.multi;
+
+import com.wzq.camerademo.camera.info.CameraInfo;
+import com.wzq.camerademo.camera.info.StreamSize;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class CameraCatalogTest {
+
+    @Test
+    public void catalog_keepsEveryCameraAndDefaultsToFirstPerFacing() {
+        CameraCatalog catalog = new CameraCatalog(Arrays.asList(
+                camera("0", CameraInfo.LENS_FACING_BACK),
+                camera("1", CameraInfo.LENS_FACING_FRONT),
+                camera("2", CameraInfo.LENS_FACING_BACK),
+                camera("3", CameraInfo.LENS_FACING_FRONT)));
+
+        assertEquals(4, catalog.size());
+        assertEquals("0", catalog.getDefault(CameraInfo.LENS_FACING_BACK).getId());
+        assertEquals("1", catalog.getDefault(CameraInfo.LENS_FACING_FRONT).getId());
+        assertEquals(2, catalog.getCameras(CameraInfo.LENS_FACING_BACK).size());
+        assertNull(catalog.getDefault(CameraInfo.LENS_FACING_EXTERNAL));
+        assertEquals("3", catalog.get("3").getId());
+        assertNull(catalog.get("9"));
+    }
+
+    @Test
+    public void companion_isOtherFacingMainCamera() {
+        CameraCatalog catalog = new CameraCatalog(Arrays.asList(
+                camera("0", CameraInfo.LENS_FACING_BACK),
+                camera("1", CameraInfo.LENS_FACING_FRONT)));
+
+        assertEquals("1", catalog.getCompanion(catalog.get("0")).getId());
+        assertEquals("0", catalog.getCompanion(catalog.get("1")).getId());
+    }
+
+    @Test
+    public void companion_skipsCamerasSharingASensor() {
+        CameraInfo logical = new CameraInfo("2", CameraInfo.LENS_FACING_BACK, 90, 1,
+                new TreeMap<Integer, StreamSize[]>(), new String[]{"0", "3"});
+        CameraCatalog catalog = new CameraCatalog(Arrays.asList(
+                logical,
+                camera("0", CameraInfo.LENS_FACING_BACK),
+                camera("3", CameraInfo.LENS_FACING_BACK),
+                camera("4", CameraInfo.LENS_FACING_BACK)));
+
+        assertTrue(logical.sharesSensorWith(catalog.get("3")));
+        assertEquals("4", catalog.getCompanion(logical).getId());
+        assertNull(new CameraCatalog(Arrays.asList(logical, camera("0", CameraInfo.LENS_FACING_BACK)))
+                .getCompanion(logical));
+    }
+
+    private static CameraInfo camera(String id, int facing) {
+        return new CameraInfo(id, facing, 90, 1, new TreeMap<Integer, StreamSize[]>());
+    }
+}
@@ -0,0 +1,70 @@
+package com.wzq.camerademo.camera.multi;
+
+import com.wzq.camerademo.camera.info.StreamSize;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StreamBudgetTest {
+    private static final StreamSize P1080 = new StreamSize(1920, 1080, 33333333L);
+    private static final StreamSize P720 = new StreamSize(1280, 720, 33333333L);
+    private static final StreamSize P480 = new StreamSize(640, 480, 33333333L);
+
+    @Test
+    public void withinBudget_keepsRequestedSizes() {
+        List<DeviceStreams> devices = Arrays.asList(
+                new DeviceStreams("0").addStream("preview", Arrays.asList(P1080, P720), 30),
+                new DeviceStreams("1").addStream("preview", Arrays.asList(P720, P480), 30));
+        StreamAllocation allocation = new StreamBudget(1920L * 1080 * 30 + 1280L * 720 * 30).allocate(devices);
+
+        assertTrue(allocation.isWithinBudget());
+        assertEquals(0, allocation.getStepCount());
+        assertEquals(P1080, allocation.getSize("0", "preview"));
+        assertEquals(P720, allocation.getSize("1", "preview"));
+        assertFalse(allocation.isDowngraded("0", "preview"));
+    }
+
+    @Test
+    public void overBudget_stepsDownCostliestCameraFirst() {
+        List<DeviceStreams> devices = Arrays.asList(
+                new DeviceStreams("0")
+                        .addStream("preview", Arrays.asList(P1080, P720, P480), 30)
+                        .addStream("analysis", Arrays.asList(P720, P480), 30),
+                new DeviceStreams("1").addStream("preview", Arrays.asList(P1080, P720, P480), 30));
+        StreamAllocation allocation = new StreamBudget(1920L * 1080 * 30 + 1280L * 720 * 30).allocate(devices);
+
+        assertTrue(allocation.isWithinBudget());
+        assertTrue(allocation.getPixelsPerSecond() <= 1920L * 1080 * 30 + 1280L * 720 * 30);
+        // the back camera streams twice, so it steps down first, then the two take turns
+        assertEquals(P720, allocation.getSize("0", "preview"));
+        assertTrue(allocation.isDowngraded("0", "preview"));
+        assertEquals(P720, allocation.getSize("0", "analysis"));
+        assertFalse(allocation.isDowngraded("0", "analysis"));
+        assertEquals(P720, allocation.getSize("1", "preview"));
+        assertEquals(2, allocation.getStepCount());
+        assertEquals(1280L * 720 * 30 * 2, allocation.getPixelsPerSecond("0"));
+    }
+
+    @Test
+    public void unreachableBudget_reportsOverBudgetAtSmallestSizes() {
+        List<DeviceStreams> devices = Arrays.asList(
+                new DeviceStreams("0").addStream("preview", Arrays.asList(P1080, P480), 30),
+                new DeviceStreams("1").addStream("preview", Arrays.asList(P720, P480), 30));
+        StreamAllocation allocation = new StreamBudget(640L * 480 * 30).allocate(devices);
+
+        assertFalse(allocation.isWithinBudget());
+        assertEquals(P480, allocation.getSize("0", "preview"));
+        assertEquals(P480, allocation.getSize("1", "preview"));
+        assertNull(allocation.getSize("2", "preview"));
+        assertNull(allocation.getSize("0", "record"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addStream_rejectsEmptyLadder() {
+        new DeviceStreams("0").addStream("preview", Arrays.<StreamSize>asList(), 30);
+    }
+}
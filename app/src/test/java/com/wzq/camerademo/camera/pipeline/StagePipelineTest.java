@@ -0,0 +1,175 @@
+package com.wzq.camerademo.camera.pipeline;
+
+import com.wzq.camerademo.camera.io.LocalFileCaptureWriter;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StagePipelineTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private StagePipeline mPipeline;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (mPipeline != null) {
+            mPipeline.shutdown();
+            assertTrue(mPipeline.awaitTermination(5000));
+        }
+    }
+
+    @Test
+    public void burst_persistsEveryFrameAndReportsLatency() throws Exception {
+        final AtomicInteger released = new AtomicInteger();
+        mPipeline = new StagePipeline("test", 2,
+                new FrameStage[]{new JpegVerifyStage(), new PersistStage(new LocalFileCaptureWriter(mFolder.getRoot()))},
+                new FrameStage() {
+                    @Override
+                    public void process(BurstFrame frame) {
+                        released.incrementAndGet();
+                    }
+                });
+        final LatchCallback callback = new LatchCallback();
+        final Burst burst = new Burst(1, 8, callback);
+
+        BurstFrame frame;
+        while ((frame = burst.nextFrame()) != null) {
+            frame.setName("burst_" + frame.getIndex() + ".jpg");
+            frame.setData(syntheticJpeg(64 * 1024 + frame.getIndex()));
+            frame.markAcquired();
+            mPipeline.put(frame);
+        }
+
+        assertTrue(callback.mLatch.await(5, TimeUnit.SECONDS));
+        assertSame(burst, callback.mBurst);
+        assertEquals(0, burst.getFailedCount());
+        assertEquals(8, released.get());
+        long[] latencies = burst.getFrameLatenciesNanos();
+        assertEquals(8, latencies.length);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(latencies[i] > 0);
+            BurstFrame done = burst.getFrame(i);
+            assertTrue(done.getEncodedAtNanos() >= done.getAcquiredAtNanos());
+            assertTrue(done.getPersistedAtNanos() >= done.getEncodedAtNanos());
+            assertEquals(64 * 1024 + i, new File(mFolder.getRoot(), done.getName()).length());
+        }
+    }
+
+    @Test
+    public void slowStage_appliesBackPressureToProducer() throws Exception {
+        final CountDownLatch gate = new CountDownLatch(1);
+        mPipeline = new StagePipeline("test", 1, new FrameStage[]{
+                new FrameStage() {
+                    @Override
+                    public void process(BurstFrame frame) throws Exception {
+                        gate.await();
+                    }
+                }}, null);
+        final Burst burst = new Burst(1, 4, null);
+
+        // one frame is held by the worker, one sits in the queue, the third must wait
+        assertTrue(mPipeline.offer(burst.nextFrame(), 1, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertTrue(mPipeline.offer(burst.nextFrame(), 1, TimeUnit.SECONDS));
+        assertFalse(mPipeline.offer(burst.nextFrame(), 100, TimeUnit.MILLISECONDS));
+        assertEquals(1, mPipeline.getMaxQueueDepth(0));
+
+        gate.countDown();
+    }
+
+    @Test
+    public void failedStage_skipsRemainingStagesButCompletesBurst() throws Exception {
+        final AtomicInteger persisted = new AtomicInteger();
+        mPipeline = new StagePipeline("test", 4, new FrameStage[]{
+                new JpegVerifyStage(),
+                new FrameStage() {
+                    @Override
+                    public void process(BurstFrame frame) {
+                        persisted.incrementAndGet();
+                    }
+                }}, null);
+        final LatchCallback callback = new LatchCallback();
+        final Burst burst = new Burst(2, 3, callback);
+
+        BurstFrame good = burst.nextFrame();
+        good.setData(syntheticJpeg(1024));
+        mPipeline.put(good);
+        BurstFrame truncated = burst.nextFrame();
+        ByteBuffer data = syntheticJpeg(1024);
+        data.limit(512);
+        truncated.setData(data);
+        mPipeline.put(truncated);
+        burst.failNextFrame(new IOException("capture failed"));
+
+        assertTrue(callback.mLatch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, burst.getFailedCount());
+        assertEquals(1, persisted.get());
+        assertTrue(truncated.getError() instanceof IOException);
+    }
+
+    @Test
+    public void abortPending_completesUnacquiredFrames() {
+        final LatchCallback callback = new LatchCallback();
+        final Burst burst = new Burst(3, 5, callback);
+        burst.nextFrame();
+        burst.abortPending(new IOException("aborted"));
+        assertFalse(burst.hasPendingFrames());
+        assertNull(burst.nextFrame());
+        assertFalse(burst.isCompleted());
+        assertEquals(4, burst.getFailedCount());
+    }
+
+    @Test
+    public void isCompleteJpeg_checksMarkers() {
+        assertTrue(JpegVerifyStage.isCompleteJpeg(syntheticJpeg(100)));
+        ByteBuffer padded = ByteBuffer.allocate(110);
+        padded.put(syntheticJpeg(100));
+        padded.rewind();
+        assertTrue(JpegVerifyStage.isCompleteJpeg(padded));
+        assertFalse(JpegVerifyStage.isCompleteJpeg(ByteBuffer.allocate(100)));
+        assertFalse(JpegVerifyStage.isCompleteJpeg(null));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void put_afterShutdownIsRejected() throws Exception {
+        mPipeline = new StagePipeline("test", 1, new FrameStage[]{new JpegVerifyStage()}, null);
+        mPipeline.shutdown();
+        mPipeline.put(new Burst(1, 1, null).nextFrame());
+    }
+
+    static ByteBuffer syntheticJpeg(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) (i % 251));
+        }
+        buffer.put(0, (byte) 0xff);
+        buffer.put(1, (byte) 0xd8);
+        buffer.put(size - 2, (byte) 0xff);
+        buffer.put(size - 1, (byte) 0xd9);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static class LatchCallback implements BurstCallback {
+        final CountDownLatch mLatch = new CountDownLatch(1);
+        volatile Burst mBurst;
+
+        @Override
+        public void onBurstCompleted(Burst burst) {
+            mBurst = burst;
+            mLatch.countDown();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.wzq.camerademo.camera.process;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StillPostProcessorTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final ForkJoinPool mPool = new ForkJoinPool(2);
+    private final FakeCodec mCodec = new FakeCodec();
+
+    @After
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Test
+    public void submit_writesEveryVariantInOrientationAtSubmit() throws Exception {
+        final File output = new File(mFolder.getRoot(), "processed");
+        final StillPostProcessor processor = new StillPostProcessor(new TiledProcessor(mPool), mCodec,
+                mFolder.getRoot(), output, 4);
+        processor.setVariants(Arrays.asList(new ProcessSpec("full"), new ProcessSpec("small").setDownscale(2)));
+        processor.setOrientation(90, false);
+        assertTrue(processor.submit("IMG_1.jpg"));
+        processor.setOrientation(0, false);
+        assertTrue(processor.submit("IMG_2.jpg"));
+        processor.shutdown();
+        assertTrue(processor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(2, processor.getProcessedCount());
+        assertEquals(0, processor.getFailedCount());
+        assertEquals("4x8", mCodec.mWritten.get(new File(output, "IMG_1_full.jpg")));
+        assertEquals("2x4", mCodec.mWritten.get(new File(output, "IMG_1_small.jpg")));
+        assertEquals("8x4", mCodec.mWritten.get(new File(output, "IMG_2_full.jpg")));
+        assertEquals(4, mCodec.mWritten.size());
+    }
+
+    @Test
+    public void submit_withoutVariantsDoesNothing() throws Exception {
+        final StillPostProcessor processor = new StillPostProcessor(new TiledProcessor(mPool), mCodec,
+                mFolder.getRoot(), mFolder.getRoot(), 4);
+        processor.setVariants(Collections.<ProcessSpec>emptyList());
+        assertFalse(processor.submit("IMG_1.jpg"));
+        processor.shutdown();
+        assertTrue(processor.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(mCodec.mWritten.isEmpty());
+    }
+
+    /**
+     * Every capture decodes to 8x4 and writes record the size.
+     */
+    private static class FakeCodec implements ImageCodec {
+        final Map<File, String> mWritten = new ConcurrentHashMap<>();
+
+        @Override
+        public ArgbImage decode(File file, int[] pixels) throws IOException {
+            return ArgbImage.reuse(pixels, 8, 4);
+        }
+
+        @Override
+        public void encode(ArgbImage image, File file) throws IOException {
+            mWritten.put(file, image.getWidth() + "x" + image.getHeight());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.wzq.camerademo.camera.process;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class TiledProcessorTest {
+    private ForkJoinPool mPool;
+
+    @Before
+    public void setUp() {
+        mPool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Test
+    public void rotate_turnsImageClockwise() {
+        // 3x2, row by row: a b c / d e f
+        final ArgbImage src = new ArgbImage(new int[]{1, 2, 3, 4, 5, 6}, 3, 2);
+        assertPixels(new int[]{4, 1, 5, 2, 6, 3}, process(src, new ProcessSpec("r").setRotation(90)));
+        assertPixels(new int[]{6, 5, 4, 3, 2, 1}, process(src, new ProcessSpec("r").setRotation(180)));
+        assertPixels(new int[]{3, 6, 2, 5, 1, 4}, process(src, new ProcessSpec("r").setRotation(270)));
+        assertPixels(new int[]{3, 2, 1, 6, 5, 4}, process(src, new ProcessSpec("m").setMirrored(true)));
+        // a front camera capture: rotated, then flipped like the preview
+        assertPixels(new int[]{1, 4, 2, 5, 3, 6},
+                process(src, new ProcessSpec("f").setRotation(90).setMirrored(true)));
+    }
+
+    @Test
+    public void downscale_averagesBlocks() {
+        final ArgbImage src = new ArgbImage(new int[]{
+                0xff000000, 0xff040404, 0xff100000, 0xff100000, 0xff7f7f7f,
+                0xff080808, 0xff0c0c0c, 0xff000010, 0xff000010, 0xff7f7f7f,
+                0xff7f7f7f, 0xff7f7f7f, 0xff7f7f7f, 0xff7f7f7f, 0xff7f7f7f}, 5, 3);
+        final ArgbImage dst = process(src, new ProcessSpec("s").setDownscale(2));
+        // the odd column and row are dropped
+        assertEquals(2, dst.getWidth());
+        assertEquals(1, dst.getHeight());
+        assertPixels(new int[]{0xff060606, 0xff080008}, dst);
+    }
+
+    @Test
+    public void sharpen_leavesFlatAreasAndBoostsEdges() {
+        final int[] pixels = new int[8 * 8];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i % 8 < 4 ? 0xff404040 : 0xffc0c0c0;
+        }
+        final ArgbImage dst = process(new ArgbImage(pixels, 8, 8), new ProcessSpec("s").setSharpenAmount(0.5f));
+        assertEquals(0xff404040, dst.getPixel(1, 4));
+        assertEquals(0xffc0c0c0, dst.getPixel(6, 4));
+        // half of the 0x80 step pushed out on either side
+        assertEquals(0xff000000, dst.getPixel(3, 4));
+        assertEquals(0xffffffff, dst.getPixel(4, 4));
+    }
+
+    @Test
+    public void tiles_matchWholeImageReference() {
+        final int width = 203;
+        final int height = 151;
+        final int[] pixels = new int[width * height];
+        final Random random = new Random(20);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        final ArgbImage src = new ArgbImage(pixels, width, height);
+        final ProcessSpec[] specs = {
+                new ProcessSpec("a").setRotation(90).setSharpenAmount(0.75f),
+                new ProcessSpec("b").setRotation(270).setMirrored(true).setDownscale(2).setSharpenAmount(0.5f),
+                new ProcessSpec("c").setRotation(180).setDownscale(4)};
+        for (ProcessSpec spec : specs) {
+            final ArgbImage reference = reference(src, spec);
+            // tiles that do not divide the image evenly, and a single tile
+            for (int tileSize : new int[]{16, 37, 256}) {
+                final ArgbImage dst = newOutput(src, spec);
+                new TiledProcessor(mPool, tileSize).process(src, spec, dst);
+                for (int y = 0; y < dst.getHeight(); y++) {
+                    for (int x = 0; x < dst.getWidth(); x++) {
+                        assertEquals(spec + " tile " + tileSize + " at " + x + "," + y,
+                                reference.getPixel(x, y), dst.getPixel(x, y));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void tileBuffers_reusedAcrossImages() {
+        final ArgbImage src = new ArgbImage(new int[512 * 384], 512, 384);
+        final ProcessSpec spec = new ProcessSpec("s").setRotation(90).setSharpenAmount(0.5f);
+        final TiledProcessor processor = new TiledProcessor(mPool, 32);
+        final ArgbImage dst = newOutput(src, spec);
+        for (int i = 0; i < 5; i++) {
+            processor.process(src, spec, dst);
+        }
+        // at most one buffer per worker and the calling thread, for 5 * 192 tiles
+        assertTrue(processor.getBufferPool().getAllocationCount() <= mPool.getParallelism() + 1);
+        assertEquals(5 * 192, processor.getBufferPool().getAllocationCount() + processor.getBufferPool().getHitCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void process_rejectsWrongOutputSize() {
+        final ArgbImage src = new ArgbImage(new int[6], 3, 2);
+        new TiledProcessor(mPool).process(src, new ProcessSpec("r").setRotation(90), new ArgbImage(new int[6], 3, 2));
+    }
+
+    private ArgbImage process(ArgbImage src, ProcessSpec spec) {
+        final ArgbImage dst = newOutput(src, spec);
+        new TiledProcessor(mPool, 8).process(src, spec, dst);
+        return dst;
+    }
+
+    private static ArgbImage newOutput(ArgbImage src, ProcessSpec spec) {
+        final int width = spec.getOutputWidth(src.getWidth(), src.getHeight());
+        final int height = spec.getOutputHeight(src.getWidth(), src.getHeight());
+        return new ArgbImage(new int[width * height], width, height);
+    }
+
+    /**
+     * The same steps one after the other on whole images.
+     */
+    private static ArgbImage reference(ArgbImage src, ProcessSpec spec) {
+        final int factor = spec.getDownscale();
+        final int scaledWidth = src.getWidth() / factor;
+        final int scaledHeight = src.getHeight() / factor;
+        final int[] scaled = new int[scaledWidth * scaledHeight];
+        for (int y = 0; y < scaledHeight; y++) {
+            for (int x = 0; x < scaledWidth; x++) {
+                final int[] sum = new int[4];
+                for (int j = 0; j < factor; j++) {
+                    for (int i = 0; i < factor; i++) {
+                        final int pixel = src.getPixel(x * factor + i, y * factor + j);
+                        for (int c = 0; c < 4; c++) {
+                            sum[c] += (pixel >>> (24 - 8 * c)) & 0xff;
+                        }
+                    }
+                }
+                int pixel = 0;
+                for (int c = 0; c < 4; c++) {
+                    pixel |= (sum[c] / (factor * factor)) << (24 - 8 * c);
+                }
+                scaled[y * scaledWidth + x] = pixel;
+            }
+        }
+        ArgbImage image = new ArgbImage(scaled, scaledWidth, scaledHeight);
+        for (int turns = spec.getRotation() / 90; turns > 0; turns--) {
+            final int[] rotated = new int[scaled.length];
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    rotated[x * image.getHeight() + (image.getHeight() - 1 - y)] = image.getPixel(x, y);
+                }
+            }
+            image = new ArgbImage(rotated, image.getHeight(), image.getWidth());
+        }
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        if (spec.isMirrored()) {
+            final int[] mirrored = new int[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    mirrored[y * width + x] = image.getPixel(width - 1 - x, y);
+                }
+            }
+            image = new ArgbImage(mirrored, width, height);
+        }
+        if (spec.getSharpenAmount() == 0) return image;
+        final int amount = Math.round(spec.getSharpenAmount() * 256);
+        final int[] sharpened = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int center = image.getPixel(x, y);
+                int pixel = center & 0xff000000;
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    final int c = (center >> shift) & 0xff;
+                    final int laplacian = 4 * c
+                            - ((image.getPixel(x, Math.max(0, y - 1)) >> shift) & 0xff)
+                            - ((image.getPixel(x, Math.min(height - 1, y + 1)) >> shift) & 0xff)
+                            - ((image.getPixel(Math.max(0, x - 1), y) >> shift) & 0xff)
+                            - ((image.getPixel(Math.min(width - 1, x + 1), y) >> shift) & 0xff);
+                    pixel |= Math.max(0, Math.min(255, c + ((amount * laplacian) >> 8))) << shift;
+                }
+                sharpened[y * width + x] = pixel;
+            }
+        }
+        return new ArgbImage(sharpened, width, height);
+    }
+
+    private static void assertPixels(int[] expected, ArgbImage image) {
+        final int[] actual = new int[image.getWidth() * image.getHeight()];
+        System.arraycopy(image.getPixels(), 0, actual, 0, actual.length);
+        assertArrayEquals(expected, actual);
+    }
+}
@@ -0,0 +1,91 @@
+package com.wzq.camerademo.camera.record;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static com.wzq.camerademo.camera.record.SegmentedRecordingTest.CONFIG;
+import static com.wzq.camerademo.camera.record.SegmentedRecordingTest.FRAME_US;
+import static com.wzq.camerademo.camera.record.SegmentedRecordingTest.GOP;
+import static com.wzq.camerademo.camera.record.SegmentedRecordingTest.SAMPLE_SIZE;
+import static com.wzq.camerademo.camera.record.SegmentedRecordingTest.expected;
+import static com.wzq.camerademo.camera.record.SegmentedRecordingTest.read;
+import static com.wzq.camerademo.camera.record.SegmentedRecordingTest.write;
+import static org.junit.Assert.*;
+
+public class PreRollBufferTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void window_isCoveredFromAKeyFrame() throws Exception {
+        final PreRollBuffer<byte[]> preRoll = new PreRollBuffer<>(2000000, Long.MAX_VALUE);
+        preRoll.start(CONFIG);
+        write(preRoll, 0, 150);
+
+        // the 2s before frame 149 start in the group of frame 60
+        assertEquals(3 * GOP, preRoll.getSampleCount());
+        assertEquals(89 * FRAME_US, preRoll.getDurationUs());
+        assertEquals(3 * GOP * SAMPLE_SIZE, preRoll.getBytes());
+
+        final File file = mFolder.newFile("pre-roll.es");
+        assertEquals(3 * GOP, preRoll.save(new ElementaryStreamMuxer(file)));
+        assertArrayEquals(expected(60, 150), read(file));
+        // saving does not take the samples out
+        assertEquals(3 * GOP, preRoll.getSampleCount());
+    }
+
+    @Test
+    public void byteLimit_shortensWindowButKeepsNewestGroup() throws Exception {
+        final PreRollBuffer<byte[]> preRoll = new PreRollBuffer<>(10000000, GOP * SAMPLE_SIZE + 1);
+        preRoll.start(CONFIG);
+        write(preRoll, 0, 150);
+
+        assertEquals(GOP, preRoll.getSampleCount());
+        assertEquals((GOP - 1) * FRAME_US, preRoll.getDurationUs());
+        final File file = mFolder.newFile("pre-roll.es");
+        preRoll.save(new ElementaryStreamMuxer(file));
+        assertArrayEquals(expected(120, 150), read(file));
+    }
+
+    @Test
+    public void framesBeforeFirstKeyFrame_areDropped() throws Exception {
+        final PreRollBuffer<byte[]> preRoll = new PreRollBuffer<>(2000000, Long.MAX_VALUE);
+        preRoll.start(CONFIG);
+        write(preRoll, 20, 45);
+
+        assertEquals(10, preRoll.getDroppedSamples());
+        assertEquals(15, preRoll.getSampleCount());
+    }
+
+    @Test
+    public void start_dropsPreviousRecording() throws Exception {
+        final PreRollBuffer<byte[]> preRoll = new PreRollBuffer<>(2000000, Long.MAX_VALUE);
+        preRoll.start(CONFIG);
+        write(preRoll, 0, 60);
+        preRoll.stop();
+        assertEquals(60, preRoll.getSampleCount());
+
+        preRoll.start(CONFIG);
+        assertEquals(0, preRoll.getSampleCount());
+        assertEquals(0, preRoll.save(new ElementaryStreamMuxer(mFolder.newFile("empty.es"))));
+    }
+
+    @Test
+    public void tee_feedsSegmentsAndPreRoll() throws Exception {
+        final SegmentedRecording<byte[]> recording =
+                SegmentedRecordingTest.open(mFolder.newFolder("video"), SegmentQuota.unlimited());
+        final PreRollBuffer<byte[]> preRoll = new PreRollBuffer<>(1000000, Long.MAX_VALUE);
+        final SampleTee<byte[]> tee = new SampleTee<>(recording, preRoll);
+        tee.start(CONFIG);
+        write(tee, 0, 90);
+        tee.stop();
+
+        assertEquals(90, recording.getSegments().get(0).getFrames() + recording.getSegments().get(1).getFrames());
+        final File file = mFolder.newFile("pre-roll.es");
+        preRoll.save(new ElementaryStreamMuxer(file));
+        assertArrayEquals(expected(30, 90), read(file));
+    }
+}
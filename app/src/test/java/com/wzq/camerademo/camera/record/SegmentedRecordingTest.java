@@ -0,0 +1,234 @@
+package com.wzq.camerademo.camera.record;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SegmentedRecordingTest {
+    static final long FRAME_US = 33333;
+    static final int GOP = 30;
+    static final int SAMPLE_SIZE = 100;
+    static final byte[] CONFIG = {0, 0, 1, 0x67};
+    private static final long SEGMENT_US = 2000000;
+    private static final int SEGMENT_BYTES = CONFIG.length + 2 * GOP * SAMPLE_SIZE;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void segments_startAtKeyFramesAndHoldTheWholeStream() throws Exception {
+        final File dir = mFolder.newFolder("video");
+        final SegmentedRecording<byte[]> recording = open(dir, SegmentQuota.unlimited());
+        recording.start(CONFIG);
+        write(recording, 0, 150);
+        recording.stop();
+
+        final List<Segment> segments = recording.getSegments();
+        assertEquals(3, segments.size());
+        assertEquals("segment-000000.es", segments.get(0).getName());
+        assertEquals("segment-000002.es", segments.get(2).getName());
+        final int[] firstFrames = {0, 60, 120};
+        final int[] frameCounts = {60, 60, 30};
+        for (int i = 0; i < segments.size(); i++) {
+            final Segment segment = segments.get(i);
+            assertEquals(firstFrames[i] * FRAME_US, segment.getStartTimeUs());
+            assertEquals(frameCounts[i], segment.getFrames());
+            assertArrayEquals(expected(firstFrames[i], firstFrames[i] + frameCounts[i]), read(recording.getFile(segment)));
+            assertEquals(recording.getFile(segment).length(), segment.getBytes());
+        }
+        assertEquals(60 * FRAME_US, segments.get(0).getDurationUs());
+        assertEquals(29 * FRAME_US, segments.get(2).getDurationUs());
+        assertEquals(2 * SEGMENT_BYTES + CONFIG.length + GOP * SAMPLE_SIZE, recording.getTotalBytes());
+        assertFalse(new File(dir, "segment-000002.es" + SegmentedRecording.PART_SUFFIX).exists());
+    }
+
+    @Test
+    public void framesBeforeFirstKeyFrame_areSkipped() throws Exception {
+        final SegmentedRecording<byte[]> recording = open(mFolder.newFolder("video"), SegmentQuota.unlimited());
+        recording.start(CONFIG);
+        write(recording, 10, 90);
+        recording.stop();
+
+        assertEquals(20, recording.getSkippedFrames());
+        final List<Segment> segments = recording.getSegments();
+        assertEquals(1, segments.size());
+        assertEquals(30 * FRAME_US, segments.get(0).getStartTimeUs());
+        assertArrayEquals(expected(30, 90), read(recording.getFile(segments.get(0))));
+    }
+
+    @Test
+    public void manifest_isReadBackOnOpen() throws Exception {
+        final File dir = mFolder.newFolder("video");
+        final SegmentedRecording<byte[]> first = open(dir, SegmentQuota.unlimited());
+        first.start(CONFIG);
+        write(first, 0, 150);
+        first.stop();
+
+        final SegmentedRecording<byte[]> second = open(dir, SegmentQuota.unlimited());
+        assertEquals(describe(first.getSegments()), describe(second.getSegments()));
+        assertEquals(first.getTotalBytes(), second.getTotalBytes());
+        assertEquals(0, second.getRecoveredCount());
+        assertEquals(0, second.getDiscardedCount());
+
+        // numbering goes on after the existing segments
+        second.start(CONFIG);
+        write(second, 0, 30);
+        second.stop();
+        assertEquals("segment-000003.es", second.getSegments().get(3).getName());
+    }
+
+    @Test
+    public void reopenAfterCrash_dropsPartialAndMissingAndKeepsOrphans() throws Exception {
+        final File dir = mFolder.newFolder("video");
+        final SegmentedRecording<byte[]> crashed = open(dir, SegmentQuota.unlimited());
+        crashed.start(CONFIG);
+        // three segments finished, the fourth still being written when the process dies
+        write(crashed, 0, 200);
+        assertEquals(3, crashed.getSegments().size());
+        assertTrue(new File(dir, "segment-000003.es" + SegmentedRecording.PART_SUFFIX).exists());
+        // renamed into place but never listed, and a listed one that is gone
+        writeFile(new File(dir, "segment-000007.es"), expected(0, 30));
+        assertTrue(new File(dir, "segment-000000.es").delete());
+
+        final SegmentedRecording<byte[]> recovered = open(dir, SegmentQuota.unlimited());
+
+        assertEquals(Arrays.asList("segment-000001.es", "segment-000002.es", "segment-000007.es"),
+                names(recovered.getSegments()));
+        assertEquals(1, recovered.getDiscardedCount());
+        assertEquals(1, recovered.getRecoveredCount());
+        assertEquals(-1, recovered.getSegments().get(2).getDurationUs());
+        assertFalse(new File(dir, "segment-000003.es" + SegmentedRecording.PART_SUFFIX).exists());
+        assertEquals(2 * SEGMENT_BYTES + CONFIG.length + GOP * SAMPLE_SIZE, recovered.getTotalBytes());
+        // the manifest was rewritten
+        assertEquals(names(recovered.getSegments()), names(open(dir, SegmentQuota.unlimited()).getSegments()));
+
+        recovered.start(CONFIG);
+        write(recovered, 0, 30);
+        recovered.stop();
+        assertEquals("segment-000008.es", recovered.getSegments().get(3).getName());
+    }
+
+    @Test
+    public void byteQuota_evictsOldestSegments() throws Exception {
+        final File dir = mFolder.newFolder("video");
+        final SegmentedRecording<byte[]> recording = open(dir, new SegmentQuota(2 * SEGMENT_BYTES + 1, 0));
+        recording.start(CONFIG);
+        write(recording, 0, 300);
+        recording.stop();
+
+        assertEquals(Arrays.asList("segment-000003.es", "segment-000004.es"), names(recording.getSegments()));
+        assertEquals(3, recording.getEvictedCount());
+        assertEquals(2 * SEGMENT_BYTES, recording.getTotalBytes());
+        assertFalse(new File(dir, "segment-000000.es").exists());
+        assertFalse(new File(dir, "segment-000002.es").exists());
+        assertEquals(names(recording.getSegments()), names(open(dir, SegmentQuota.unlimited()).getSegments()));
+    }
+
+    @Test
+    public void countQuota_alwaysKeepsNewestSegment() throws Exception {
+        final SegmentedRecording<byte[]> recording = open(mFolder.newFolder("video"), new SegmentQuota(1, 1));
+        recording.start(CONFIG);
+        write(recording, 0, 150);
+        recording.stop();
+
+        // every segment is over the byte quota on its own, the newest stays anyway
+        assertEquals(Arrays.asList("segment-000002.es"), names(recording.getSegments()));
+        assertEquals(2, recording.getEvictedCount());
+    }
+
+    static SegmentedRecording<byte[]> open(File dir, SegmentQuota quota) throws IOException {
+        return new SegmentedRecording<>(dir, "es", SEGMENT_US, quota, new SegmentedRecording.MuxerFactory<byte[]>() {
+            @Override
+            public SampleMuxer<byte[]> create(File file) throws IOException {
+                return new ElementaryStreamMuxer(file);
+            }
+        });
+    }
+
+    /**
+     * Writes frames {@code from} until {@code to} of a 30 fps stream with a key frame every
+     * second. Each sample sits behind a few bytes of padding, as in a codec buffer.
+     */
+    static void write(SampleMuxer<byte[]> muxer, int from, int to) throws IOException {
+        final SampleInfo info = new SampleInfo();
+        for (int i = from; i < to; i++) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(SAMPLE_SIZE + 8);
+            buffer.position(4);
+            buffer.put(sample(i));
+            buffer.clear();
+            info.set(4, SAMPLE_SIZE, i * FRAME_US, i % GOP == 0 ? VideoEncoder.FLAG_KEY_FRAME : 0);
+            muxer.writeSample(buffer, info);
+        }
+    }
+
+    static byte[] sample(int frame) {
+        final byte[] sample = new byte[SAMPLE_SIZE];
+        Arrays.fill(sample, (byte) frame);
+        sample[0] = (byte) (frame >> 8);
+        return sample;
+    }
+
+    /**
+     * The elementary stream of frames {@code from} until {@code to}.
+     */
+    static byte[] expected(int from, int to) {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(CONFIG, 0, CONFIG.length);
+        for (int i = from; i < to; i++) {
+            stream.write(sample(i), 0, SAMPLE_SIZE);
+        }
+        return stream.toByteArray();
+    }
+
+    static byte[] read(File file) throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final InputStream input = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                stream.write(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return stream.toByteArray();
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        final FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static List<String> names(List<Segment> segments) {
+        final String[] names = new String[segments.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = segments.get(i).getName();
+        }
+        return Arrays.asList(names);
+    }
+
+    private static String describe(List<Segment> segments) {
+        final StringBuilder builder = new StringBuilder();
+        for (Segment segment : segments) {
+            builder.append(segment.toLine()).append('\n');
+        }
+        return builder.toString();
+    }
+}
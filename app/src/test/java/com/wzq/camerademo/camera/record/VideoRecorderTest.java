@@ -0,0 +1,311 @@
+package com.wzq.camerademo.camera.record;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class VideoRecorderTest {
+    private static final long FRAME_US = 33333;
+
+    @Test
+    public void samples_areMuxedInOrderWithoutCodecConfig() throws Exception {
+        final FakeEncoder encoder = new FakeEncoder();
+        final FakeMuxer muxer = new FakeMuxer();
+        final VideoRecorder<String> recorder = new VideoRecorder<>(encoder, muxer, new VideoConfig(640, 480), 4);
+        recorder.start();
+        encoder.output(0, 30, VideoEncoder.FLAG_CODEC_CONFIG);
+        for (int i = 0; i < 10; i++) {
+            encoder.output(i * FRAME_US, 1000 + i, i % 5 == 0 ? VideoEncoder.FLAG_KEY_FRAME : 0);
+        }
+
+        assertTrue(recorder.stop(2, TimeUnit.SECONDS));
+
+        assertEquals("video/test", muxer.mFormat);
+        assertEquals(10, muxer.mSamples.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * FRAME_US, muxer.mSamples.get(i).mTimeUs);
+            assertEquals(1000 + i, muxer.mSamples.get(i).mData.length);
+            assertEquals((byte) (i * FRAME_US), muxer.mSamples.get(i).mData[0]);
+        }
+        assertTrue(muxer.mSamples.get(5).mKeyFrame);
+        assertEquals(10, recorder.getFrameCount());
+        assertEquals(2, recorder.getKeyFrameCount());
+        assertEquals(0, recorder.getDroppedFrameCount());
+        assertEquals(9 * FRAME_US, recorder.getDurationUs());
+        assertEquals(10 * 1000 + 45, recorder.getBytes());
+        assertTrue(muxer.mStopped);
+        assertTrue(encoder.mReleased);
+        assertTrue(encoder.mHeld.isEmpty());
+        assertNull(recorder.getError());
+    }
+
+    @Test
+    public void slowMuxer_doesNotHoldEncoderBuffers() throws Exception {
+        final FakeEncoder encoder = new FakeEncoder();
+        final FakeMuxer muxer = new FakeMuxer();
+        muxer.mGate = new CountDownLatch(1);
+        final VideoRecorder<String> recorder = new VideoRecorder<>(encoder, muxer, new VideoConfig(640, 480), 8);
+        recorder.start();
+        for (int i = 0; i < 6; i++) {
+            encoder.output(i * FRAME_US, 4096, 0);
+        }
+
+        // the muxer is stuck on the first sample, yet the encoder has all its buffers back
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (encoder.mReleasedCount < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(6, encoder.mReleasedCount);
+        assertTrue(recorder.getMaxQueueDepth() >= 4);
+        muxer.mGate.countDown();
+
+        assertTrue(recorder.stop(2, TimeUnit.SECONDS));
+        assertEquals(6, muxer.mSamples.size());
+    }
+
+    @Test
+    public void fullQueue_stallsEncoderInsteadOfGrowing() throws Exception {
+        final FakeEncoder encoder = new FakeEncoder();
+        final FakeMuxer muxer = new FakeMuxer();
+        muxer.mGate = new CountDownLatch(1);
+        final VideoRecorder<String> recorder = new VideoRecorder<>(encoder, muxer, new VideoConfig(640, 480), 2);
+        recorder.start();
+        for (int i = 0; i < 8; i++) {
+            encoder.output(i * FRAME_US, 4096, 0);
+        }
+        Thread.sleep(100);
+
+        // one being written, two queued, one waiting to be queued and the rest still in the encoder
+        assertTrue("released " + encoder.mReleasedCount, encoder.mReleasedCount <= 4);
+        assertEquals(2, recorder.getMaxQueueDepth());
+        muxer.mGate.countDown();
+        assertTrue(recorder.stop(2, TimeUnit.SECONDS));
+        assertEquals(8, muxer.mSamples.size());
+        // buffers went around the pool instead of being allocated per sample
+        assertTrue(recorder.getBufferPool().getAllocationCount() <= 4);
+    }
+
+    @Test
+    public void timestampGaps_countAsDroppedFrames() throws Exception {
+        final FakeEncoder encoder = new FakeEncoder();
+        final VideoRecorder<String> recorder = new VideoRecorder<>(encoder, new FakeMuxer(), new VideoConfig(640, 480), 4);
+        recorder.start();
+        final long[] times = {0, FRAME_US, 2 * FRAME_US, 5 * FRAME_US, 6 * FRAME_US + FRAME_US / 3, 8 * FRAME_US};
+        for (long time : times) {
+            encoder.output(time, 100, 0);
+        }
+
+        assertTrue(recorder.stop(2, TimeUnit.SECONDS));
+        // two missing before the fourth frame, a late frame, then one missing
+        assertEquals(3, recorder.getDroppedFrameCount());
+    }
+
+    @Test
+    public void muxerFailure_isReportedAndEncoderStillDrained() throws Exception {
+        final FakeEncoder encoder = new FakeEncoder();
+        final FakeMuxer muxer = new FakeMuxer();
+        muxer.mFailAt = 2;
+        final VideoRecorder<String> recorder = new VideoRecorder<>(encoder, muxer, new VideoConfig(640, 480), 4);
+        recorder.start();
+        for (int i = 0; i < 10; i++) {
+            encoder.output(i * FRAME_US, 100, 0);
+        }
+
+        assertFalse(recorder.stop(2, TimeUnit.SECONDS));
+        assertTrue(recorder.getError() instanceof IOException);
+        assertEquals(2, muxer.mSamples.size());
+        // every sample and the end of stream went back to the encoder
+        assertEquals(11, encoder.mReleasedCount);
+        assertTrue(encoder.mHeld.isEmpty());
+        assertTrue(muxer.mStopped);
+        assertTrue(encoder.mReleased);
+    }
+
+    @Test
+    public void missingEndOfStream_stopGivesUpAfterTimeout() throws Exception {
+        final FakeEncoder encoder = new FakeEncoder();
+        encoder.mIgnoreEndOfStream = true;
+        final FakeMuxer muxer = new FakeMuxer();
+        final VideoRecorder<String> recorder = new VideoRecorder<>(encoder, muxer, new VideoConfig(640, 480), 4);
+        recorder.start();
+        encoder.output(0, 100, VideoEncoder.FLAG_KEY_FRAME);
+
+        assertFalse(recorder.stop(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, muxer.mSamples.size());
+        assertTrue(muxer.mStopped);
+        assertTrue(encoder.mReleased);
+    }
+
+    @Test
+    public void controls_reachEncoder() {
+        final FakeEncoder encoder = new FakeEncoder();
+        final VideoRecorder<String> recorder = new VideoRecorder<>(encoder, new FakeMuxer(), new VideoConfig(640, 480), 4);
+
+        recorder.setBitRate(2000000);
+        recorder.requestKeyFrame();
+
+        assertEquals(2000000, encoder.mBitRate);
+        assertEquals(1, encoder.mKeyFrameRequests);
+    }
+
+    @Test
+    public void defaultBitRate_scalesWithSizeAndFrameRate() {
+        final VideoConfig config = new VideoConfig(1920, 1080);
+        assertEquals(12441600, config.getBitRate());
+        assertEquals(2 * 12441600, config.setFrameRate(60).getBitRate());
+        assertEquals(5000000, config.setBitRate(5000000).getBitRate());
+    }
+
+    /**
+     * Hands out the samples queued by the test in order, like a codec with a buffer per
+     * sample, after announcing its format.
+     */
+    private static class FakeEncoder implements VideoEncoder<String> {
+        private final LinkedBlockingQueue<SampleInfo> mPending = new LinkedBlockingQueue<>();
+        final Map<Integer, ByteBuffer> mHeld = Collections.synchronizedMap(new HashMap<Integer, ByteBuffer>());
+        private boolean mFormatSent;
+        private int mNextIndex;
+        volatile int mReleasedCount;
+        volatile boolean mReleased;
+        volatile boolean mIgnoreEndOfStream;
+        int mBitRate;
+        int mKeyFrameRequests;
+
+        void output(long timeUs, int size, int flags) {
+            final SampleInfo info = new SampleInfo();
+            info.set(0, size, timeUs, flags);
+            mPending.add(info);
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public int dequeueOutputBuffer(SampleInfo info, long timeoutUs) {
+            if (!mFormatSent) {
+                mFormatSent = true;
+                return INFO_OUTPUT_FORMAT_CHANGED;
+            }
+            final SampleInfo next;
+            try {
+                next = mPending.poll(timeoutUs, TimeUnit.MICROSECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            if (next == null) return INFO_TRY_AGAIN_LATER;
+            // the data starts after a header, as with codecs that reserve room in front
+            final int offset = 16;
+            final ByteBuffer buffer = ByteBuffer.allocate(offset + next.getSize() + 8);
+            for (int i = 0; i < next.getSize(); i++) {
+                buffer.put(offset + i, (byte) next.getPresentationTimeUs());
+            }
+            info.set(offset, next.getSize(), next.getPresentationTimeUs(), next.getFlags());
+            final int index = mNextIndex++;
+            mHeld.put(index, buffer);
+            return index;
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            return mHeld.get(index);
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index) {
+            assertNotNull("released twice", mHeld.remove(index));
+            mReleasedCount++;
+        }
+
+        @Override
+        public String getOutputFormat() {
+            return "video/test";
+        }
+
+        @Override
+        public void signalEndOfInputStream() {
+            if (!mIgnoreEndOfStream) {
+                output(0, 0, FLAG_END_OF_STREAM);
+            }
+        }
+
+        @Override
+        public void setBitRate(int bitRate) {
+            mBitRate = bitRate;
+        }
+
+        @Override
+        public void requestKeyFrame() {
+            mKeyFrameRequests++;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void release() {
+            mReleased = true;
+        }
+    }
+
+    private static class FakeMuxer implements SampleMuxer<String> {
+        final List<Written> mSamples = Collections.synchronizedList(new ArrayList<Written>());
+        volatile String mFormat;
+        volatile boolean mStopped;
+        volatile CountDownLatch mGate;
+        int mFailAt = -1;
+
+        @Override
+        public void start(String format) {
+            mFormat = format;
+        }
+
+        @Override
+        public void writeSample(ByteBuffer data, SampleInfo info) throws IOException {
+            final CountDownLatch gate = mGate;
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (mSamples.size() == mFailAt) {
+                throw new IOException("disk full");
+            }
+            final byte[] bytes = new byte[info.getSize()];
+            data.position(info.getOffset());
+            data.get(bytes);
+            mSamples.add(new Written(bytes, info.getPresentationTimeUs(), info.isKeyFrame()));
+        }
+
+        @Override
+        public void stop() {
+            mStopped = true;
+        }
+    }
+
+    private static class Written {
+        final byte[] mData;
+        final long mTimeUs;
+        final boolean mKeyFrame;
+
+        Written(byte[] data, long timeUs, boolean keyFrame) {
+            mData = data;
+            mTimeUs = timeUs;
+            mKeyFrame = keyFrame;
+        }
+    }
+}
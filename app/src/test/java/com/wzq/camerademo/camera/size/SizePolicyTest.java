@@ -0,0 +1,157 @@
+package com.wzq.camerademo.camera.size;
+
+import com.wzq.camerademo.camera.info.StreamSize;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the policies against the stream configuration tables in {@code resources/sizes}.
+ */
+public class SizePolicyTest {
+    private static final String FULL_BACK = "full_12mp_back.txt";
+    private static final String LIMITED_FRONT = "limited_8mp_front.txt";
+    private static final String LEGACY_BACK = "legacy_5mp_back.txt";
+
+    @Test
+    public void preview_fullHdPhoneInLandscapeGets1080p() throws IOException {
+        // 2340x1080 display, 19.5:9
+        assertSize(1920, 1080, new PreviewSizePolicy().select(sizes(FULL_BACK, "preview"), 2340, 1080));
+    }
+
+    @Test
+    public void preview_smallViewGetsSmallestCoveringSize() throws IOException {
+        assertSize(1280, 720, new PreviewSizePolicy().select(sizes(FULL_BACK, "preview"), 1280, 720));
+        assertSize(1024, 768, new PreviewSizePolicy().select(sizes(FULL_BACK, "preview"), 1000, 750));
+    }
+
+    @Test
+    public void preview_fourByThreeViewKeepsAspect() throws IOException {
+        assertSize(1600, 1200, new PreviewSizePolicy().select(sizes(FULL_BACK, "preview"), 1600, 1200));
+        // 1920x1440 would cover the view but is over the default 1080p30 budget
+        assertSize(1600, 1200, new PreviewSizePolicy().select(sizes(FULL_BACK, "preview"), 1700, 1275));
+    }
+
+    @Test
+    public void preview_bandwidthBudgetCapsSize() throws IOException {
+        // 720p30 worth of pixels
+        PreviewSizePolicy policy = new PreviewSizePolicy(1280L * 720 * 30, 30);
+        assertSize(1280, 720, policy.select(sizes(FULL_BACK, "preview"), 2340, 1080));
+        // no 16:9 size fits VGA bandwidth, take the closest aspect ratio that does
+        policy = new PreviewSizePolicy(640L * 480 * 30, 30);
+        assertSize(640, 480, policy.select(sizes(FULL_BACK, "preview"), 2340, 1080));
+    }
+
+    @Test
+    public void preview_skipsSizesTooSlowForTargetFps() throws IOException {
+        // the front camera only does 20 fps at 3264x2448
+        PreviewSizePolicy policy = new PreviewSizePolicy(Long.MAX_VALUE / 100, 30);
+        assertSize(1440, 1080, policy.select(sizes(LIMITED_FRONT, "preview"), 4000, 3000));
+    }
+
+    @Test
+    public void preview_legacyDeviceWithoutDurations() throws IOException {
+        assertSize(1280, 720, new PreviewSizePolicy().select(sizes(LEGACY_BACK, "preview"), 2340, 1080));
+        // nothing covers the view, take the largest 4:3 size
+        assertSize(1024, 768, new PreviewSizePolicy().select(sizes(LEGACY_BACK, "preview"), 1440, 1080));
+    }
+
+    @Test
+    public void preview_fallsBackToSmallestWhenNothingFits() throws IOException {
+        PreviewSizePolicy policy = new PreviewSizePolicy(1000, 30);
+        assertSize(176, 144, policy.select(sizes(FULL_BACK, "preview"), 1920, 1080));
+        // the camera cannot stream anything at 60 fps
+        policy = new PreviewSizePolicy(PreviewSizePolicy.DEFAULT_MAX_PIXELS_PER_SECOND, 60);
+        assertSize(176, 144, policy.select(sizes(FULL_BACK, "preview"), 1920, 1080));
+        assertNull(policy.select(new StreamSize[0], 1920, 1080));
+    }
+
+    @Test
+    public void capture_maxResolutionUsesWholeSensor() throws IOException {
+        assertSize(4032, 3024, CaptureSizePolicy.maxResolution().select(sizes(FULL_BACK, "jpeg")));
+        assertSize(3264, 2448, CaptureSizePolicy.maxResolution().select(sizes(LIMITED_FRONT, "jpeg")));
+        assertSize(2592, 1944, CaptureSizePolicy.maxResolution().select(sizes(LEGACY_BACK, "jpeg")));
+    }
+
+    @Test
+    public void capture_maxResolutionWithAspect() throws IOException {
+        CaptureSizePolicy policy = CaptureSizePolicy.maxResolution().withAspectRatio(16, 9);
+        assertSize(4032, 2268, policy.select(sizes(FULL_BACK, "jpeg")));
+        assertSize(2592, 1458, policy.select(sizes(LEGACY_BACK, "jpeg")));
+        // no square sizes on the legacy camera, fall back to all sizes
+        assertSize(2592, 1944, CaptureSizePolicy.maxResolution().withAspectRatio(1, 1).select(sizes(LEGACY_BACK, "jpeg")));
+    }
+
+    @Test
+    public void capture_targetMegapixels() throws IOException {
+        assertSize(2592, 1944, CaptureSizePolicy.targetMegapixels(5).select(sizes(FULL_BACK, "jpeg")));
+        assertSize(1920, 1080, CaptureSizePolicy.targetMegapixels(2).select(sizes(FULL_BACK, "jpeg")));
+        assertSize(3840, 2160, CaptureSizePolicy.targetMegapixels(8).withAspectRatio(16, 9).select(sizes(FULL_BACK, "jpeg")));
+        // more than the sensor has
+        assertSize(4032, 3024, CaptureSizePolicy.targetMegapixels(48).select(sizes(FULL_BACK, "jpeg")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capture_rejectsNonPositiveTarget() {
+        CaptureSizePolicy.targetMegapixels(0);
+    }
+
+    @Test
+    public void ladder_halvesAreaKeepingAspect() throws IOException {
+        final List<StreamSize> ladder = SizeLadder.build(sizes(FULL_BACK, "preview"), 1920, 1440, 5);
+        assertEquals(4, ladder.size());
+        assertSize(1920, 1440, ladder.get(0));
+        // 1024x768 and 640x480 are more than half of the size before them
+        assertSize(1280, 960, ladder.get(1));
+        assertSize(800, 600, ladder.get(2));
+        assertSize(320, 240, ladder.get(3));
+        // nothing 16:9 below 720p
+        assertEquals(1, SizeLadder.build(sizes(FULL_BACK, "preview"), 1280, 720, 5).size());
+    }
+
+    @Test
+    public void ladder_stopsAtMaxSizes() throws IOException {
+        final List<StreamSize> ladder = SizeLadder.build(sizes(FULL_BACK, "preview"), 1920, 1440, 2);
+        assertEquals(2, ladder.size());
+        assertSize(1280, 960, ladder.get(1));
+    }
+
+    private static void assertSize(int width, int height, StreamSize size) {
+        assertNotNull(size);
+        assertEquals(width + "x" + height, size.toString());
+    }
+
+    /**
+     * Reads the sizes of one stream from a table of
+     * {@code <stream> <width>x<height> <min frame duration ns>} lines.
+     */
+    static StreamSize[] sizes(String table, String stream) throws IOException {
+        final InputStream inputStream = SizePolicyTest.class.getClassLoader().getResourceAsStream("sizes/" + table);
+        assertNotNull("missing table " + table, inputStream);
+        final List<StreamSize> sizes = new ArrayList<>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                final String[] fields = line.split("\\s+");
+                if (!fields[0].equals(stream)) continue;
+                final String[] dimensions = fields[1].split("x");
+                sizes.add(new StreamSize(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]),
+                        Long.parseLong(fields[2])));
+            }
+        } finally {
+            reader.close();
+        }
+        return sizes.toArray(new StreamSize[sizes.size()]);
+    }
+}
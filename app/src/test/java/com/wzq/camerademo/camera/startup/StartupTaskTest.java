@@ -0,0 +1,90 @@
+package com.wzq.camerademo.camera.startup;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StartupTaskTest {
+
+    @Test
+    public void start_runsInBackgroundOnce() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        final CountDownLatch release = new CountDownLatch(1);
+        StartupTask<String> task = new StartupTask<>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                runs.incrementAndGet();
+                thread.set(Thread.currentThread());
+                release.await();
+                return "cameras";
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            task.start(executor);
+            task.start(executor);
+            assertFalse(task.isDone());
+            assertEquals(0, task.getFinishNanos());
+
+            release.countDown();
+            assertEquals("cameras", task.get());
+            assertEquals("cameras", task.get());
+            assertEquals(1, runs.get());
+            assertNotSame(Thread.currentThread(), thread.get());
+            assertTrue(task.getFinishNanos() != 0);
+            assertTrue(task.getDurationNanos() >= 0);
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void get_withoutStart_runsOnCaller() throws Exception {
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        StartupTask<Integer> task = new StartupTask<>(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                thread.set(Thread.currentThread());
+                return 2;
+            }
+        });
+
+        assertEquals(Integer.valueOf(2), task.get());
+        assertSame(Thread.currentThread(), thread.get());
+        assertTrue(task.isDone());
+    }
+
+    @Test
+    public void get_rethrowsIOException() {
+        StartupTask<Void> task = new StartupTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                throw new IOException("camera service unavailable");
+            }
+        });
+        try {
+            task.get();
+            fail();
+        } catch (IOException e) {
+            assertEquals("camera service unavailable", e.getMessage());
+        }
+        // the failure stays the result
+        try {
+            task.get();
+            fail();
+        } catch (IOException e) {
+            assertEquals("camera service unavailable", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.wzq.camerademo.camera.startup;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StartupTraceTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void stages_countFromBeginAndBackgroundStagesAsZero() {
+        StartupTrace trace = new StartupTrace(1000 * MS);
+        assertTrue(trace.mark(StartupTrace.Stage.CAMERAS_LISTED, 400 * MS));
+        assertTrue(trace.mark(StartupTrace.Stage.SURFACE_READY, 1080 * MS));
+        assertTrue(trace.mark(StartupTrace.Stage.FIRST_FRAME, 1250 * MS));
+
+        assertEquals(0, trace.getStageNanos(StartupTrace.Stage.CAMERAS_LISTED));
+        assertEquals(80 * MS, trace.getStageNanos(StartupTrace.Stage.SURFACE_READY));
+        assertEquals(250 * MS, trace.getStageNanos(StartupTrace.Stage.FIRST_FRAME));
+        assertEquals(-1, trace.getStageNanos(StartupTrace.Stage.CAMERA_OPENED));
+        assertTrue(trace.isComplete());
+        assertEquals("{\"camerasListedUs\":0,\"surfaceReadyUs\":80000,\"firstFrameUs\":250000}", trace.toJson());
+        assertEquals("StartupTrace{camerasListed 0ms, surfaceReady 80ms, firstFrame 250ms}", trace.toString());
+    }
+
+    @Test
+    public void mark_keepsFirstValue() {
+        StartupTrace trace = new StartupTrace(0);
+        assertFalse(trace.isComplete());
+        assertTrue(trace.mark(StartupTrace.Stage.FIRST_FRAME, 300 * MS));
+        // the preview of a camera reopened later
+        assertFalse(trace.mark(StartupTrace.Stage.FIRST_FRAME, 9000 * MS));
+        assertEquals(300 * MS, trace.getStageNanos(StartupTrace.Stage.FIRST_FRAME));
+        assertEquals("{}", new StartupTrace(0).toJson());
+    }
+}
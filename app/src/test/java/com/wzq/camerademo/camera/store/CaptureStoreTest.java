@@ -0,0 +1,260 @@
+package com.wzq.camerademo.camera.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class CaptureStoreTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void write_commitsUnderFinalNameWithoutTempFile() throws IOException {
+        CaptureStore store = new CaptureStore(mFolder.getRoot());
+        String name = store.newCaptureName(1000L);
+        ByteBuffer data = frame(5000, 1);
+
+        assertEquals(5000, store.write(name, data.duplicate()));
+
+        assertEquals(1, store.size());
+        CaptureRecord record = store.getAll().get(0);
+        assertEquals(name, record.getName());
+        assertEquals(1000L, record.getTimestamp());
+        assertEquals(5000, record.getSize());
+        assertEquals(CaptureStore.checksum(data), record.getChecksum());
+        assertTrue(store.verify(record));
+        assertFalse(new File(mFolder.getRoot(), name + CaptureStore.TEMP_SUFFIX).exists());
+        store.close();
+    }
+
+    @Test
+    public void newCaptureName_isUniqueAcrossReopen() throws IOException {
+        Set<String> names = new HashSet<>();
+        for (int run = 0; run < 3; run++) {
+            CaptureStore store = new CaptureStore(mFolder.getRoot());
+            for (int i = 0; i < 10; i++) {
+                String name = store.newCaptureName(42L);
+                assertTrue(names.add(name));
+                store.write(name, frame(10, i));
+            }
+            store.close();
+        }
+        CaptureStore store = new CaptureStore(mFolder.getRoot());
+        assertEquals(30, store.size());
+        store.close();
+    }
+
+    @Test
+    public void parseName_roundTrips() {
+        assertArrayEquals(new long[]{7, 123456789L}, CaptureStore.parseName(CaptureStore.nameFor(7, 123456789L)));
+        assertNull(CaptureStore.parseName("file.jpg"));
+        assertNull(CaptureStore.parseName("IMG_x_1.jpg"));
+    }
+
+    @Test(expected = IOException.class)
+    public void write_rejectsForeignName() throws IOException {
+        new CaptureStore(mFolder.getRoot()).write("file.jpg", frame(10, 0));
+    }
+
+    @Test
+    public void query_returnsTimeRangeInOrder() throws IOException {
+        CaptureStore store = new CaptureStore(mFolder.getRoot());
+        long[] timestamps = {500, 100, 300, 300, 900, 700};
+        for (long timestamp : timestamps) {
+            store.write(store.newCaptureName(timestamp), frame(4, 0));
+        }
+
+        List<CaptureRecord> range = store.query(300, 700);
+        assertEquals(3, range.size());
+        assertEquals(300, range.get(0).getTimestamp());
+        assertEquals(300, range.get(1).getTimestamp());
+        assertTrue(range.get(0).getId() < range.get(1).getId());
+        assertEquals(500, range.get(2).getTimestamp());
+        assertEquals(0, store.query(1000, 2000).size());
+        assertEquals(6, store.query(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        store.close();
+    }
+
+    @Test
+    public void query_handlesThousandsOfCaptures() throws IOException {
+        CaptureStore store = new CaptureStore(mFolder.getRoot());
+        for (int i = 0; i < 5000; i++) {
+            store.write(store.newCaptureName(i * 10L), frame(1, i));
+        }
+        store.close();
+
+        store = new CaptureStore(mFolder.getRoot());
+        assertEquals(5000, store.size());
+        assertEquals(100, store.query(20000, 21000).size());
+        store.close();
+    }
+
+    @Test
+    public void delete_removesFileAndIndexEntry() throws IOException {
+        CaptureStore store = new CaptureStore(mFolder.getRoot());
+        String name = store.newCaptureName(10);
+        store.write(name, frame(10, 0));
+        long id = store.getAll().get(0).getId();
+
+        assertTrue(store.delete(id));
+        assertFalse(new File(mFolder.getRoot(), name).exists());
+        assertNull(store.get(id));
+        store.close();
+
+        store = new CaptureStore(mFolder.getRoot());
+        assertEquals(0, store.size());
+        store.close();
+    }
+
+    @Test
+    public void reopen_truncatesTornRecord() throws IOException {
+        CaptureStore store = new CaptureStore(mFolder.getRoot());
+        store.write(store.newCaptureName(1), frame(10, 0));
+        store.write(store.newCaptureName(2), frame(10, 1));
+        store.close();
+
+        File index = new File(mFolder.getRoot(), CaptureStore.INDEX_FILE_NAME);
+        long goodLength = index.length();
+        // a crash half way through appending the next record
+        RandomAccessFile file = new RandomAccessFile(index, "rw");
+        file.seek(goodLength);
+        file.write(new byte[]{0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0});
+        file.close();
+
+        store = new CaptureStore(mFolder.getRoot());
+        assertEquals(2, store.size());
+        assertEquals(goodLength, index.length());
+        store.write(store.newCaptureName(3), frame(10, 2));
+        store.close();
+
+        store = new CaptureStore(mFolder.getRoot());
+        assertEquals(3, store.size());
+        store.close();
+    }
+
+    @Test
+    public void reopen_stopsAtCorruptRecord() throws IOException {
+        CaptureStore store = new CaptureStore(mFolder.getRoot());
+        for (int i = 0; i < 3; i++) {
+            store.write(store.newCaptureName(i), frame(10, i));
+        }
+        store.close();
+
+        // flip a byte in the COMMIT record of the last capture
+        File index = new File(mFolder.getRoot(), CaptureStore.INDEX_FILE_NAME);
+        RandomAccessFile file = new RandomAccessFile(index, "rw");
+        file.seek(index.length() - 10);
+        file.write(0x5a);
+        file.close();
+
+        // the damaged COMMIT is cut off, but its BEGIN survived and the file is on disk,
+        // so the capture is committed again
+        store = new CaptureStore(mFolder.getRoot());
+        assertEquals(1, store.getRecoveredCount());
+        assertEquals(3, store.size());
+        assertTrue(store.verify(store.getAll().get(2)));
+        store.close();
+        store = new CaptureStore(mFolder.getRoot());
+        assertEquals(0, store.getRecoveredCount());
+        assertEquals(3, store.size());
+        store.close();
+    }
+
+    @Test
+    public void reopen_rollsBackCrashBeforeRename() throws IOException {
+        CaptureIndex index = new CaptureIndex(new File(mFolder.getRoot(), CaptureStore.INDEX_FILE_NAME));
+        index.begin(1, 100);
+        index.close();
+        String name = CaptureStore.nameFor(1, 100);
+        File temp = new File(mFolder.getRoot(), name + CaptureStore.TEMP_SUFFIX);
+        writeFile(temp, 50);
+
+        CaptureStore store = new CaptureStore(mFolder.getRoot());
+        assertEquals(0, store.size());
+        assertEquals(1, store.getAbortedCount());
+        assertFalse(temp.exists());
+        assertFalse(new File(mFolder.getRoot(), name).exists());
+        // the id is never handed out again
+        assertFalse(name.equals(store.newCaptureName(100)));
+        store.close();
+    }
+
+    @Test
+    public void reopen_commitsCrashAfterRename() throws IOException {
+        CaptureIndex index = new CaptureIndex(new File(mFolder.getRoot(), CaptureStore.INDEX_FILE_NAME));
+        index.begin(1, 100);
+        index.close();
+        File file = new File(mFolder.getRoot(), CaptureStore.nameFor(1, 100));
+        writeFile(file, 50);
+
+        CaptureStore store = new CaptureStore(mFolder.getRoot());
+        assertEquals(1, store.getRecoveredCount());
+        CaptureRecord record = store.get(1);
+        assertEquals(50, record.getSize());
+        assertTrue(store.verify(record));
+        store.close();
+    }
+
+    @Test
+    public void write_isSafeFromConcurrentWriters() throws Exception {
+        final CaptureStore store = new CaptureStore(mFolder.getRoot());
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            final int seed = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            store.write(store.newCaptureName(), frame(1000 + i, seed));
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(200, store.size());
+        for (CaptureRecord record : store.getAll()) {
+            assertTrue(store.verify(record));
+        }
+        store.close();
+    }
+
+    private static ByteBuffer frame(int size, int seed) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) (i * 13 + seed));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFile(File file, int size) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[size]);
+        } finally {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.wzq.camerademo.camera.store;
+
+import com.wzq.camerademo.camera.io.ImageFileWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class DeferredCaptureStoreTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void open_runsOnExecutorAndWritesAreIndexed() throws IOException {
+        final List<Runnable> tasks = new ArrayList<>();
+        DeferredCaptureStore store = new DeferredCaptureStore(mFolder.getRoot(), new ImageFileWriter());
+        store.open(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        assertFalse(store.isOpen());
+        assertFalse(new File(mFolder.getRoot(), CaptureStore.INDEX_FILE_NAME).exists());
+
+        tasks.get(0).run();
+        assertTrue(store.isOpen());
+        String name = store.newCaptureName();
+        store.write(name, ByteBuffer.allocateDirect(100));
+        assertEquals(name, store.get().getAll().get(0).getName());
+    }
+
+    @Test
+    public void unopenableStore_stillNamesCaptures() throws IOException {
+        File notADirectory = mFolder.newFile("captures");
+        DeferredCaptureStore store = new DeferredCaptureStore(notADirectory, new ImageFileWriter());
+
+        assertNull(store.get());
+        assertNotEquals(store.newCaptureName(), store.newCaptureName());
+    }
+}
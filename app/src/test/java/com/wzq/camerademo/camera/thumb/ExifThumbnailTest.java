@@ -0,0 +1,102 @@
+package com.wzq.camerademo.camera.thumb;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ExifThumbnailTest {
+    private static final byte[] THUMBNAIL = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, 4, 5, (byte) 0xFF, (byte) 0xD9};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void find_readsThumbnailInEitherByteOrder() {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            final byte[] jpeg = jpeg(order, THUMBNAIL);
+            assertArrayEquals(order.toString(), THUMBNAIL, ExifThumbnail.find(jpeg, jpeg.length));
+        }
+    }
+
+    @Test
+    public void read_onlyNeedsFileHeader() throws Exception {
+        final byte[] jpeg = jpeg(ByteOrder.BIG_ENDIAN, THUMBNAIL);
+        // a capture much larger than what is read of it
+        final byte[] file = Arrays.copyOf(jpeg, ExifThumbnail.MAX_HEADER_BYTES * 4);
+        final File capture = mFolder.newFile("IMG_1.jpg");
+        final FileOutputStream output = new FileOutputStream(capture);
+        try {
+            output.write(file);
+        } finally {
+            output.close();
+        }
+
+        assertArrayEquals(THUMBNAIL, ExifThumbnail.read(capture));
+    }
+
+    @Test
+    public void find_returnsNullWithoutThumbnail() {
+        assertNull(ExifThumbnail.find(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0, 2}, 6));
+        assertNull(ExifThumbnail.find(new byte[]{1, 2, 3, 4}, 4));
+        // IFD1 points at something that is not a JPEG
+        final byte[] notJpeg = jpeg(ByteOrder.LITTLE_ENDIAN, new byte[]{1, 2, 3, 4});
+        assertNull(ExifThumbnail.find(notJpeg, notJpeg.length));
+    }
+
+    @Test
+    public void find_survivesTruncatedAndCorruptHeaders() {
+        final byte[] jpeg = jpeg(ByteOrder.LITTLE_ENDIAN, THUMBNAIL);
+        for (int length = 0; length < jpeg.length; length++) {
+            final byte[] thumbnail = ExifThumbnail.find(jpeg, length);
+            assertTrue(thumbnail == null || Arrays.equals(THUMBNAIL, thumbnail));
+        }
+        for (int i = 2; i < jpeg.length; i++) {
+            final byte[] corrupt = jpeg.clone();
+            corrupt[i] = (byte) 0xFF;
+            ExifThumbnail.find(corrupt, corrupt.length);
+            corrupt[i] = (byte) 0x7F;
+            ExifThumbnail.find(corrupt, corrupt.length);
+        }
+    }
+
+    /**
+     * SOI, a JFIF APP0, an EXIF APP1 whose IFD1 holds {@code thumbnail}, then SOS.
+     */
+    private static byte[] jpeg(ByteOrder order, byte[] thumbnail) {
+        final int ifd0 = 8;
+        final int ifd1 = ifd0 + 2 + 12 + 4;
+        final int thumbnailOffset = ifd1 + 2 + 2 * 12 + 4;
+        final ByteBuffer tiff = ByteBuffer.allocate(thumbnailOffset + thumbnail.length).order(order);
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        tiff.putShort((short) 42).putInt(ifd0);
+        // IFD0: orientation, then the offset of IFD1
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) 1).putShort((short) 0);
+        tiff.putInt(ifd1);
+        // IFD1: where the thumbnail is and how long
+        tiff.putShort((short) 2);
+        tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(thumbnailOffset);
+        tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+        tiff.putInt(0);
+        tiff.put(thumbnail);
+
+        final byte[] exifHeader = {'E', 'x', 'i', 'f', 0, 0};
+        final ByteBuffer jpeg = ByteBuffer.allocate(2 + 18 + 4 + exifHeader.length + tiff.capacity() + 4);
+        jpeg.put((byte) 0xFF).put((byte) 0xD8);
+        jpeg.put((byte) 0xFF).put((byte) 0xE0).putShort((short) 16).put(new byte[]{'J', 'F', 'I', 'F', 0});
+        jpeg.put(new byte[9]);
+        jpeg.put((byte) 0xFF).put((byte) 0xE1).putShort((short) (2 + exifHeader.length + tiff.capacity()));
+        jpeg.put(exifHeader).put(tiff.array());
+        jpeg.put((byte) 0xFF).put((byte) 0xDA).putShort((short) 2);
+        return jpeg.array();
+    }
+}
@@ -0,0 +1,240 @@
+package com.wzq.camerademo.camera.thumb;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailCacheTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // every fake thumbnail is 100 bytes encoded and 1000 bytes decoded
+    private static final int ENCODED_SIZE = 100;
+    private static final int DECODED_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void get_comesFromMemoryThenDiskThenCapture() throws Exception {
+        final File captures = mFolder.newFolder("captures");
+        final FakeCodec codec = new FakeCodec();
+        final File directory = mFolder.newFolder("thumbnails");
+        ThumbnailCache<String> cache = new ThumbnailCache<>(directory, 256, 10 * DECODED_SIZE, 1 << 20, codec);
+
+        assertEquals(thumbnail("IMG_1.jpg"), cache.get("IMG_1.jpg", capture(captures, "IMG_1.jpg")));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, codec.mEncoded.get());
+        assertEquals(thumbnail("IMG_1.jpg"), cache.get("IMG_1.jpg", capture(captures, "IMG_1.jpg")));
+        assertEquals(1, cache.getMemoryHitCount());
+
+        // a new process has only the disk tier
+        cache = new ThumbnailCache<>(directory, 256, 10 * DECODED_SIZE, 1 << 20, codec);
+        assertNull(cache.getIfCached("IMG_1.jpg"));
+        assertTrue(cache.contains("IMG_1.jpg"));
+        assertEquals(thumbnail("IMG_1.jpg"), cache.get("IMG_1.jpg", new File(captures, "missing.jpg")));
+        assertEquals(1, cache.getDiskHitCount());
+        assertEquals(0, cache.getMissCount());
+        assertEquals(1, codec.mEncoded.get());
+        assertEquals(thumbnail("IMG_1.jpg"), cache.getIfCached("IMG_1.jpg"));
+    }
+
+    @Test
+    public void memoryTier_evictsLeastRecentlyUsedWithinBudget() throws Exception {
+        final File captures = mFolder.newFolder("captures");
+        final ThumbnailCache<String> cache = new ThumbnailCache<>(mFolder.newFolder("thumbnails"), 256,
+                3 * DECODED_SIZE, 1 << 20, new FakeCodec());
+        cache.get("a", capture(captures, "a"));
+        cache.get("b", capture(captures, "b"));
+        cache.get("c", capture(captures, "c"));
+        // touching a makes b the eldest
+        assertNotNull(cache.getIfCached("a"));
+        cache.get("d", capture(captures, "d"));
+
+        assertNull(cache.getIfCached("b"));
+        assertNotNull(cache.getIfCached("a"));
+        assertNotNull(cache.getIfCached("c"));
+        assertEquals(3 * DECODED_SIZE, cache.getMemoryBytes());
+        assertEquals(1, cache.getMemoryEvictionCount());
+        // still on disk
+        assertTrue(cache.contains("b"));
+    }
+
+    @Test
+    public void diskTier_evictsOldestFilesOverBudget() throws Exception {
+        final File captures = mFolder.newFolder("captures");
+        final File directory = mFolder.newFolder("thumbnails");
+        final ThumbnailCache<String> cache = new ThumbnailCache<>(directory, 256, 0, 3 * ENCODED_SIZE, new FakeCodec());
+        for (String name : new String[]{"a", "b", "c", "d", "e"}) {
+            assertTrue(cache.prepare(name, capture(captures, name)));
+        }
+        assertFalse(cache.prepare("e", capture(captures, "e")));
+
+        assertEquals(3, cache.getDiskCount());
+        assertEquals(3 * ENCODED_SIZE, cache.getDiskBytes());
+        assertEquals(2, cache.getDiskEvictionCount());
+        assertFalse(cache.contains("a"));
+        assertFalse(new File(directory, "a" + ThumbnailCache.FILE_SUFFIX).exists());
+        assertTrue(new File(directory, "e" + ThumbnailCache.FILE_SUFFIX).exists());
+        // nothing was decoded for prepare, and nobody asked for a thumbnail
+        assertEquals(0, cache.getMemoryCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void tornDiskEntry_isMadeAgain() throws Exception {
+        final File captures = mFolder.newFolder("captures");
+        final File directory = mFolder.newFolder("thumbnails");
+        final FakeCodec codec = new FakeCodec();
+        new ThumbnailCache<>(directory, 256, 0, 1 << 20, codec).prepare("a", capture(captures, "a"));
+        write(new File(directory, "a" + ThumbnailCache.FILE_SUFFIX), new byte[0]);
+        write(new File(directory, "thumb123.tmp"), new byte[10]);
+
+        final ThumbnailCache<String> cache = new ThumbnailCache<>(directory, 256, 1 << 20, 1 << 20, codec);
+        // the directory is only listed on first use, off the thread that made the cache
+        assertTrue(new File(directory, "thumb123.tmp").exists());
+        assertEquals(thumbnail("a"), cache.get("a", capture(captures, "a")));
+        assertFalse(new File(directory, "thumb123.tmp").exists());
+        assertEquals(2, codec.mEncoded.get());
+        assertEquals(ENCODED_SIZE, cache.getDiskBytes());
+    }
+
+    @Test
+    public void largeGallery_staysWithinBudgets() throws Exception {
+        final File captures = mFolder.newFolder("captures");
+        final FakeCodec codec = new FakeCodec();
+        final ThumbnailCache<String> cache = new ThumbnailCache<>(mFolder.newFolder("thumbnails"), 256,
+                200 * DECODED_SIZE, 1000L * ENCODED_SIZE, codec);
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            names.add("IMG_" + i + ".jpg");
+            assertTrue(cache.prepare(names.get(i), new File(captures, names.get(i))));
+        }
+        assertEquals(1000, cache.getDiskCount());
+
+        // scroll through the newest thousand, twice
+        final List<String> newest = names.subList(4000, 5000);
+        for (int pass = 0; pass < 2; pass++) {
+            for (String name : newest) {
+                assertEquals(thumbnail(name), cache.get(name, new File(captures, name)));
+                assertTrue(cache.getMemoryBytes() <= 200 * DECODED_SIZE);
+            }
+        }
+        assertEquals(5000, codec.mEncoded.get());
+        assertEquals(2000, cache.getDiskHitCount());
+        assertEquals(0, cache.getMissCount());
+        assertEquals(1000L * ENCODED_SIZE, cache.getDiskBytes());
+
+        // back up through the last screenful, all in memory
+        final List<String> recent = new ArrayList<>(newest.subList(900, 1000));
+        Collections.reverse(recent);
+        for (String name : recent) {
+            assertNotNull(cache.getIfCached(name));
+        }
+        assertEquals(100, cache.getMemoryHitCount());
+    }
+
+    @Test
+    public void generator_makesThumbnailsInBackgroundAndLoads() throws Exception {
+        final File captures = mFolder.newFolder("captures");
+        final ThumbnailCache<String> cache = new ThumbnailCache<>(mFolder.newFolder("thumbnails"), 256,
+                1 << 20, 1 << 20, new FakeCodec());
+        final ThumbnailGenerator<String> generator = new ThumbnailGenerator<>(cache, captures, 16);
+        capture(captures, "IMG_1.jpg");
+        assertTrue(generator.submit("IMG_1.jpg"));
+        assertTrue(generator.submit("IMG_missing.jpg"));
+
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final String[] result = new String[1];
+        generator.load("IMG_1.jpg", new ThumbnailGenerator.Callback<String>() {
+            @Override
+            public void onThumbnailLoaded(String name, String thumbnail) {
+                result[0] = thumbnail;
+                loaded.countDown();
+            }
+        });
+        assertTrue(loaded.await(2, TimeUnit.SECONDS));
+        assertEquals(thumbnail("IMG_1.jpg"), result[0]);
+
+        generator.shutdown();
+        assertTrue(generator.awaitTermination(2, TimeUnit.SECONDS));
+        assertEquals(1, generator.getFailedCount());
+        assertFalse(cache.contains("IMG_missing.jpg"));
+        assertEquals(1, cache.getDiskCount());
+    }
+
+    @Test
+    public void sampleSize_keepsLongerSideAtLeastMaxSize() {
+        assertEquals(1, ThumbnailCache.sampleSizeFor(256, 192, 256));
+        assertEquals(1, ThumbnailCache.sampleSizeFor(511, 300, 256));
+        assertEquals(2, ThumbnailCache.sampleSizeFor(512, 384, 256));
+        assertEquals(8, ThumbnailCache.sampleSizeFor(4032, 3024, 256));
+        assertEquals(16, ThumbnailCache.sampleSizeFor(4096, 3072, 256));
+        assertEquals(8, ThumbnailCache.sampleSizeFor(3024, 4032, 320));
+    }
+
+    private static String thumbnail(String name) {
+        final StringBuilder builder = new StringBuilder(name);
+        while (builder.length() < ENCODED_SIZE) {
+            builder.append('.');
+        }
+        return builder.toString();
+    }
+
+    private static File capture(File directory, String name) throws IOException {
+        final File file = new File(directory, name);
+        write(file, new byte[]{(byte) 0xFF, (byte) 0xD8});
+        return file;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        final FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Thumbnails are the capture name padded to {@link #ENCODED_SIZE}. Captures that do not
+     * exist fail unless their name starts with {@code IMG_}, so the large gallery test needs
+     * no files.
+     */
+    private static class FakeCodec implements ThumbnailCodec<String> {
+        final AtomicInteger mEncoded = new AtomicInteger();
+
+        @Override
+        public byte[] encode(File source, int maxSize) throws IOException {
+            if (!source.exists() && (!source.getName().startsWith("IMG_") || source.getName().contains("missing"))) {
+                throw new IOException("no capture " + source);
+            }
+            mEncoded.incrementAndGet();
+            return thumbnail(source.getName()).getBytes(UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] thumbnail) throws IOException {
+            if (thumbnail.length != ENCODED_SIZE) {
+                throw new IOException("torn thumbnail");
+            }
+            return new String(thumbnail, UTF_8);
+        }
+
+        @Override
+        public int sizeOf(String thumbnail) {
+            return DECODED_SIZE;
+        }
+    }
+}
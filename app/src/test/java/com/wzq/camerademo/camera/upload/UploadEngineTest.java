@@ -0,0 +1,218 @@
+package com.wzq.camerademo.camera.upload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UploadEngineTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final Random mRandom = new Random(21);
+    private UploadTestServer mServer;
+    private File mCaptures;
+    private File mJournalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new UploadTestServer();
+        mCaptures = mFolder.newFolder("captures");
+        mJournalFile = new File(mFolder.getRoot(), "uploads.journal");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mServer.stop();
+    }
+
+    @Test
+    public void smallCaptures_sentInBatches() throws Exception {
+        final byte[][] files = new byte[20][];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = capture("IMG_" + i + ".jpg", 10 * 1024);
+        }
+        final UploadEngine engine = newEngine(new UploadConfig().setBatching(64 * 1024, 1024 * 1024, 8));
+        assertEquals(20, engine.scan());
+        engine.start();
+        finish(engine);
+
+        for (int i = 0; i < files.length; i++) {
+            assertArrayEquals(files[i], mServer.getFile("IMG_" + i + ".jpg"));
+        }
+        assertEquals(20, engine.getUploadedCount());
+        assertEquals(0, engine.getChunkCount());
+        assertTrue(engine.getBatchCount() >= 3);
+        assertTrue(engine.getBatchCount() < 20);
+        assertEquals(engine.getBatchCount(), mServer.getBatchCount());
+    }
+
+    @Test
+    public void largeCapture_sentInChunks() throws Exception {
+        final byte[] data = capture("IMG_1.jpg", 1024 * 1024 + 123);
+        final UploadEngine engine = newEngine(new UploadConfig().setChunkSize(64 * 1024));
+        engine.scan();
+        engine.start();
+        finish(engine);
+
+        assertArrayEquals(data, mServer.getFile("IMG_1.jpg"));
+        assertEquals(17, engine.getChunkCount());
+        assertEquals(data.length, engine.getSentBytes());
+        assertTrue(engine.getJournal().get("IMG_1.jpg").isDone());
+    }
+
+    @Test
+    public void addWithData_checksumsBufferInsteadOfFile() throws Exception {
+        final byte[] data = capture("IMG_1.jpg", 300 * 1024);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        final UploadEngine engine = newEngine(new UploadConfig().setChunkSize(64 * 1024));
+        engine.start();
+        assertTrue(engine.add("IMG_1.jpg", buffer));
+        finish(engine);
+
+        assertEquals(0, buffer.position());
+        assertArrayEquals(data, mServer.getFile("IMG_1.jpg"));
+    }
+
+    @Test
+    public void failedRequests_retriedWithBackoff() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            capture("IMG_L" + i + ".jpg", 300 * 1024);
+        }
+        for (int i = 0; i < 12; i++) {
+            capture("IMG_S" + i + ".jpg", 8 * 1024);
+        }
+        mServer.setFailureRate(0.3);
+        final UploadEngine engine = newEngine(new UploadConfig()
+                .setChunkSize(64 * 1024)
+                .setRetry(5, 50, 50));
+        engine.scan();
+        engine.start();
+        finish(engine);
+
+        assertEquals(16, mServer.getFileCount());
+        assertEquals(16, engine.getUploadedCount());
+        assertEquals(0, engine.getGivenUpCount());
+        assertTrue(engine.getRetryCount() > 0);
+    }
+
+    @Test
+    public void unreadableCapture_restOfBatchStillSent() throws Exception {
+        final UploadEngine engine = newEngine(new UploadConfig()
+                .setBatching(64 * 1024, 1024 * 1024, 8)
+                .setRetry(10, 10, 1));
+        for (int i = 0; i < 6; i++) {
+            capture("IMG_" + i + ".jpg", 8 * 1024);
+            assertTrue(engine.add("IMG_" + i + ".jpg"));
+        }
+        // shorter than the journal says, so reading it fails part way
+        final RandomAccessFile truncated = new RandomAccessFile(new File(mCaptures, "IMG_1.jpg"), "rw");
+        try {
+            truncated.setLength(4 * 1024);
+        } finally {
+            truncated.close();
+        }
+        engine.start();
+        finish(engine);
+
+        assertEquals(5, engine.getUploadedCount());
+        assertEquals(1, engine.getGivenUpCount());
+        assertNull(mServer.getFile("IMG_1.jpg"));
+    }
+
+    @Test
+    public void restart_resumesFromLastConfirmedChunk() throws Exception {
+        final byte[] data = capture("IMG_1.jpg", 640 * 1024);
+        mServer.setChunksBeforeOutage(4);
+        final UploadConfig config = new UploadConfig().setChunkSize(64 * 1024).setRetry(5, 50, 1);
+        UploadJournal journal = new UploadJournal(mJournalFile);
+        UploadEngine engine = new UploadEngine(mCaptures, journal, new HttpUploadTransport(mServer.getUrl()), config);
+        engine.scan();
+        engine.start();
+        assertTrue(engine.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(1, engine.getGivenUpCount());
+        engine.shutdown();
+        assertTrue(engine.awaitTermination(5, TimeUnit.SECONDS));
+        journal.close();
+
+        mServer.setChunksBeforeOutage(-1);
+        journal = new UploadJournal(mJournalFile);
+        assertEquals(4 * 64 * 1024, journal.get("IMG_1.jpg").getOffset());
+        engine = new UploadEngine(mCaptures, journal, new HttpUploadTransport(mServer.getUrl()), config);
+        assertEquals(0, engine.scan());
+        engine.start();
+        assertTrue(engine.awaitIdle(10, TimeUnit.SECONDS));
+
+        assertArrayEquals(data, mServer.getFile("IMG_1.jpg"));
+        assertEquals(6, engine.getChunkCount());
+        // the confirmed prefix was not sent again, to the same upload
+        assertEquals(data.length, mServer.getChunkBytes("IMG_1.jpg"));
+        assertEquals(1, mServer.getBeginCount());
+        engine.shutdown();
+        assertTrue(engine.awaitTermination(5, TimeUnit.SECONDS));
+        journal.close();
+
+        // nothing left to send after another restart
+        journal = new UploadJournal(mJournalFile);
+        engine = new UploadEngine(mCaptures, journal, new HttpUploadTransport(mServer.getUrl()), config);
+        assertEquals(0, engine.scan());
+        assertFalse(engine.add("IMG_1.jpg"));
+        engine.start();
+        finish(engine);
+        assertEquals(0, engine.getSentBytes());
+    }
+
+    @Test
+    public void transfers_boundedByMaxConcurrent() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            capture("IMG_" + i + ".jpg", 256 * 1024);
+        }
+        mServer.setLatencyMs(20);
+        final UploadEngine engine = newEngine(new UploadConfig()
+                .setChunkSize(64 * 1024)
+                .setMaxConcurrentTransfers(2));
+        engine.scan();
+        engine.start();
+        finish(engine);
+
+        assertEquals(6, mServer.getFileCount());
+        assertTrue(mServer.getMaxActiveRequests() <= 2);
+        assertTrue(mServer.getMaxActiveRequests() > 1);
+    }
+
+    private UploadEngine newEngine(UploadConfig config) throws IOException {
+        return new UploadEngine(mCaptures, new UploadJournal(mJournalFile),
+                new HttpUploadTransport(mServer.getUrl()), config);
+    }
+
+    private void finish(UploadEngine engine) throws Exception {
+        assertTrue(engine.awaitIdle(20, TimeUnit.SECONDS));
+        engine.shutdown();
+        assertTrue(engine.awaitTermination(5, TimeUnit.SECONDS));
+        engine.getJournal().close();
+    }
+
+    private byte[] capture(String name, int size) throws IOException {
+        final byte[] data = new byte[size];
+        mRandom.nextBytes(data);
+        final FileOutputStream output = new FileOutputStream(new File(mCaptures, name));
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+        return data;
+    }
+}
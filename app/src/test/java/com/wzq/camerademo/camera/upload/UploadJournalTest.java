@@ -0,0 +1,79 @@
+package com.wzq.camerademo.camera.upload;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class UploadJournalTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void reopen_restoresStateAndCutsTornTail() throws Exception {
+        final File file = new File(mFolder.getRoot(), "uploads.journal");
+        UploadJournal journal = new UploadJournal(file);
+        journal.add("IMG_1.jpg", 1000, "aa");
+        journal.add("IMG_2.jpg", 2000, "bb");
+        journal.add("IMG_3.jpg", 3000, "cc");
+        journal.start("IMG_2.jpg", "u7");
+        journal.setOffset("IMG_2.jpg", 512);
+        journal.done("IMG_1.jpg");
+        journal.remove("IMG_3.jpg");
+        journal.close();
+        final long length = file.length();
+
+        // a record cut short by a crash
+        final RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            raw.seek(length);
+            raw.writeInt(40);
+            raw.write(new byte[] {UploadJournal.TYPE_DONE, 0, 9});
+        } finally {
+            raw.close();
+        }
+
+        journal = new UploadJournal(file);
+        assertEquals(7, journal.getDiscardedBytes());
+        assertEquals(length, file.length());
+        assertEquals(2, journal.getAll().size());
+        assertTrue(journal.get("IMG_1.jpg").isDone());
+        final UploadEntry entry = journal.get("IMG_2.jpg");
+        assertEquals(2000, entry.getSize());
+        assertEquals("bb", entry.getChecksum());
+        assertEquals("u7", entry.getUploadId());
+        assertEquals(512, entry.getOffset());
+        assertFalse(entry.isDone());
+        assertNull(journal.get("IMG_3.jpg"));
+
+        journal.reset("IMG_2.jpg");
+        journal.close();
+        journal = new UploadJournal(file);
+        assertNull(journal.get("IMG_2.jpg").getUploadId());
+        assertEquals(0, journal.get("IMG_2.jpg").getOffset());
+        journal.close();
+    }
+
+    @Test
+    public void compact_keepsOnlyCurrentState() throws Exception {
+        final File file = new File(mFolder.getRoot(), "uploads.journal");
+        UploadJournal journal = new UploadJournal(file);
+        journal.add("IMG_1.jpg", 1 << 20, "aa");
+        journal.start("IMG_1.jpg", "u1");
+        for (int offset = 1024; offset <= 512 * 1024; offset += 1024) {
+            journal.setOffset("IMG_1.jpg", offset);
+        }
+        journal.close();
+        final long before = file.length();
+
+        journal = new UploadJournal(file);
+        assertTrue(file.length() < before / 10);
+        assertEquals(512 * 1024, journal.get("IMG_1.jpg").getOffset());
+        assertEquals("u1", journal.get("IMG_1.jpg").getUploadId());
+        journal.close();
+    }
+}
@@ -0,0 +1,288 @@
+package com.wzq.camerademo.camera.upload;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * In-process stand-in for the upload server, speaking the protocol of
+ * {@link HttpUploadTransport}, with latency and failures to inject.
+ */
+class UploadTestServer {
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Random mRandom = new Random(21);
+
+    // guarded by this
+    private final Map<String, Upload> mUploads = new HashMap<>();
+    private final Map<String, byte[]> mFiles = new HashMap<>();
+    private final Map<String, Long> mChunkBytes = new HashMap<>();
+    private int mNextId;
+    private int mBegins;
+    private int mBatches;
+    private long mLatencyMs;
+    private double mFailureRate;
+    private int mChunksBeforeOutage = -1;
+    private int mChunks;
+
+    private final AtomicInteger mActive = new AtomicInteger();
+    private final AtomicInteger mMaxActive = new AtomicInteger();
+
+    private static class Upload {
+        final String mName;
+        final long mLength;
+        final String mChecksum;
+        final ByteArrayOutputStream mData = new ByteArrayOutputStream();
+
+        Upload(String name, long length, String checksum) {
+            mName = name;
+            mLength = length;
+            mChecksum = checksum;
+        }
+    }
+
+    UploadTestServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    respond(exchange, 500);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    synchronized void setLatencyMs(long latencyMs) {
+        mLatencyMs = latencyMs;
+    }
+
+    /**
+     * Answers this share of the requests with 503, picked at random but the same every run.
+     */
+    synchronized void setFailureRate(double rate) {
+        mFailureRate = rate;
+    }
+
+    /**
+     * Accepts {@code chunks} more chunks and answers 503 to every chunk after them; -1 to
+     * accept them all again.
+     */
+    synchronized void setChunksBeforeOutage(int chunks) {
+        mChunksBeforeOutage = chunks;
+        mChunks = 0;
+    }
+
+    synchronized byte[] getFile(String name) {
+        return mFiles.get(name);
+    }
+
+    synchronized int getFileCount() {
+        return mFiles.size();
+    }
+
+    /**
+     * Bytes received in chunks for {@code name}, over all its uploads.
+     */
+    synchronized long getChunkBytes(String name) {
+        final Long bytes = mChunkBytes.get(name);
+        return bytes != null ? bytes : 0;
+    }
+
+    synchronized int getBeginCount() {
+        return mBegins;
+    }
+
+    synchronized int getBatchCount() {
+        return mBatches;
+    }
+
+    int getMaxActiveRequests() {
+        return mMaxActive.get();
+    }
+
+    void stop() throws InterruptedException {
+        mServer.stop(0);
+        mExecutor.shutdown();
+        mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        final long latencyMs;
+        final boolean fail;
+        synchronized (this) {
+            latencyMs = mLatencyMs;
+            fail = mFailureRate > 0 && mRandom.nextDouble() < mFailureRate;
+        }
+        final byte[] body = readBody(exchange.getRequestBody());
+        // counted before any response, which lets the client send its next request
+        final int active = mActive.incrementAndGet();
+        int max;
+        while (active > (max = mMaxActive.get()) && !mMaxActive.compareAndSet(max, active)) {
+            // retry
+        }
+        try {
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mActive.decrementAndGet();
+        }
+        if (fail) {
+            respond(exchange, 503);
+            return;
+        }
+        final String method = exchange.getRequestMethod();
+        final String path = exchange.getRequestURI().getPath();
+        final String[] parts = path.substring(1).split("/");
+        if (path.equals("/uploads") && method.equals("POST")) {
+            begin(exchange);
+        } else if (path.equals("/batch") && method.equals("POST")) {
+            batch(exchange, body);
+        } else if (parts.length == 2 && parts[0].equals("uploads") && method.equals("HEAD")) {
+            offset(exchange, parts[1]);
+        } else if (parts.length == 2 && parts[0].equals("uploads") && method.equals("PUT")) {
+            chunk(exchange, parts[1], body);
+        } else if (parts.length == 3 && parts[2].equals("finish") && method.equals("POST")) {
+            finish(exchange, parts[1]);
+        } else {
+            respond(exchange, 404);
+        }
+    }
+
+    private synchronized void begin(HttpExchange exchange) throws IOException {
+        final String name = URLDecoder.decode(exchange.getRequestHeaders().getFirst("Upload-Name"), "UTF-8");
+        final long length = Long.parseLong(exchange.getRequestHeaders().getFirst("Upload-Length"));
+        final String id = "u" + (++mNextId);
+        mUploads.put(id, new Upload(name, length, exchange.getRequestHeaders().getFirst("Upload-Checksum")));
+        mBegins++;
+        exchange.getResponseHeaders().set("Upload-Id", id);
+        respond(exchange, 201);
+    }
+
+    private synchronized void offset(HttpExchange exchange, String id) throws IOException {
+        final Upload upload = mUploads.get(id);
+        if (upload == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Upload-Offset", Integer.toString(upload.mData.size()));
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private synchronized void chunk(HttpExchange exchange, String id, byte[] body) throws IOException {
+        final Upload upload = mUploads.get(id);
+        if (upload == null) {
+            respond(exchange, 404);
+            return;
+        }
+        if (mChunksBeforeOutage >= 0 && mChunks++ >= mChunksBeforeOutage) {
+            respond(exchange, 503);
+            return;
+        }
+        final long offset = Long.parseLong(exchange.getRequestHeaders().getFirst("Upload-Offset"));
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+        if (crc.getValue() != Long.parseLong(exchange.getRequestHeaders().getFirst("Upload-Crc32"))) {
+            respond(exchange, 400);
+            return;
+        }
+        if (offset != upload.mData.size() || offset + body.length > upload.mLength) {
+            respond(exchange, 409);
+            return;
+        }
+        upload.mData.write(body);
+        mChunkBytes.put(upload.mName, getChunkBytes(upload.mName) + body.length);
+        respond(exchange, 204);
+    }
+
+    private synchronized void finish(HttpExchange exchange, String id) throws IOException {
+        final Upload upload = mUploads.get(id);
+        if (upload == null) {
+            respond(exchange, 404);
+            return;
+        }
+        final byte[] data = upload.mData.toByteArray();
+        if (data.length != upload.mLength || !sha256(data).equals(upload.mChecksum)) {
+            mUploads.remove(id);
+            respond(exchange, 422);
+            return;
+        }
+        mUploads.remove(id);
+        mFiles.put(upload.mName, data);
+        respond(exchange, 200);
+    }
+
+    private synchronized void batch(HttpExchange exchange, byte[] body) throws IOException {
+        final int count = Integer.parseInt(exchange.getRequestHeaders().getFirst("Upload-Count"));
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(body));
+        final Map<String, byte[]> files = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            final String name = input.readUTF();
+            final String checksum = input.readUTF();
+            final byte[] data = new byte[input.readInt()];
+            input.readFully(data);
+            if (!sha256(data).equals(checksum)) {
+                respond(exchange, 422);
+                return;
+            }
+            files.put(name, data);
+        }
+        mFiles.putAll(files);
+        mBatches++;
+        respond(exchange, 200);
+    }
+
+    private static String sha256(byte[] data) throws IOException {
+        try {
+            return UploadEngine.toHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[] readBody(InputStream input) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int code) throws IOException {
+        exchange.sendResponseHeaders(code, -1);
+    }
+}
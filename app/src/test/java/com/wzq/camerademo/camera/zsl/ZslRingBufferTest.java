@@ -0,0 +1,237 @@
+package com.wzq.camerademo.camera.zsl;
+
+import com.wzq.camerademo.camera.backend.BackendImage;
+import com.wzq.camerademo.camera.backend.FrameResult;
+import com.wzq.camerademo.camera.info.CameraInfo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ZslRingBufferTest {
+    private static final long FRAME = 33000000L;
+    private static final int JPEG_BYTES = 1000;
+
+    @Test
+    public void imageAndResult_arePairedInEitherOrder() {
+        final ZslRingBuffer buffer = new ZslRingBuffer(4, Long.MAX_VALUE);
+        final FakeImage first = new FakeImage(FRAME);
+        buffer.addImage(first);
+        assertEquals(0, buffer.size());
+        buffer.addResult(focused(FRAME));
+        buffer.addResult(focused(2 * FRAME));
+        buffer.addImage(new FakeImage(2 * FRAME));
+
+        assertEquals(2, buffer.size());
+        assertEquals(2 * JPEG_BYTES, buffer.getBytes());
+        final ZslFrame frame = buffer.take(FRAME, ZslRingBuffer.Selection.CLOSEST, 0);
+        assertSame(first, frame.getImage());
+        assertEquals(FRAME, frame.getResult().getTimestamp());
+        assertFalse(first.mClosed);
+    }
+
+    @Test
+    public void capacity_evictsAndClosesOldest() {
+        final ZslRingBuffer buffer = new ZslRingBuffer(3, Long.MAX_VALUE);
+        final FakeImage[] images = addFrames(buffer, 5);
+
+        assertEquals(3, buffer.size());
+        assertEquals(2, buffer.getEvictedCount());
+        assertTrue(images[0].mClosed);
+        assertTrue(images[1].mClosed);
+        assertFalse(images[2].mClosed);
+        assertEquals(5 * FRAME, buffer.getLatestTimestamp());
+    }
+
+    @Test
+    public void byteBudget_evictsBeforeCapacity() {
+        final ZslRingBuffer buffer = new ZslRingBuffer(10, 2 * JPEG_BYTES + JPEG_BYTES / 2);
+        final FakeImage[] images = addFrames(buffer, 4);
+
+        assertEquals(2, buffer.size());
+        assertEquals(2 * JPEG_BYTES, buffer.getBytes());
+        assertTrue(images[1].mClosed);
+        assertFalse(images[2].mClosed);
+    }
+
+    @Test
+    public void closest_picksNearestTimestampAndRemovesIt() {
+        final ZslRingBuffer buffer = new ZslRingBuffer(5, Long.MAX_VALUE);
+        addFrames(buffer, 5);
+
+        assertEquals(3 * FRAME, buffer.take(3 * FRAME + FRAME / 3, ZslRingBuffer.Selection.CLOSEST, 0).getTimestamp());
+        assertEquals(4 * FRAME, buffer.take(3 * FRAME + FRAME / 3, ZslRingBuffer.Selection.CLOSEST, 0).getTimestamp());
+        // a shutter after every frame gets the newest
+        assertEquals(5 * FRAME, buffer.take(100 * FRAME, ZslRingBuffer.Selection.CLOSEST, 0).getTimestamp());
+        assertEquals(2, buffer.size());
+        assertEquals(2 * JPEG_BYTES, buffer.getBytes());
+    }
+
+    @Test
+    public void sharpest_prefersFocusedFrameWithinWindow() {
+        final ZslRingBuffer buffer = new ZslRingBuffer(5, Long.MAX_VALUE);
+        add(buffer, FRAME, new FrameResult(FRAME, FrameResult.FOCUS_FOCUSED, false, true));
+        add(buffer, 2 * FRAME, new FrameResult(2 * FRAME, FrameResult.FOCUS_FOCUSED, false, false));
+        add(buffer, 3 * FRAME, new FrameResult(3 * FRAME, FrameResult.FOCUS_SCANNING, true, true));
+
+        // the closest frame is blurred, the one before it was still exposing
+        assertEquals(FRAME, buffer.take(3 * FRAME, ZslRingBuffer.Selection.SHARPEST, 3 * FRAME).getTimestamp());
+        // a narrow window leaves only the closer ones to choose from
+        assertEquals(2 * FRAME, buffer.take(3 * FRAME, ZslRingBuffer.Selection.SHARPEST, FRAME).getTimestamp());
+        // nothing within the window: fall back to the closest
+        assertEquals(3 * FRAME, buffer.take(10 * FRAME, ZslRingBuffer.Selection.SHARPEST, FRAME).getTimestamp());
+        assertNull(buffer.take(10 * FRAME, ZslRingBuffer.Selection.SHARPEST, FRAME));
+    }
+
+    @Test
+    public void sharpest_breaksTiesByDistance() {
+        final ZslRingBuffer buffer = new ZslRingBuffer(5, Long.MAX_VALUE);
+        addFrames(buffer, 4);
+
+        assertEquals(2 * FRAME, buffer.take(2 * FRAME + 1, ZslRingBuffer.Selection.SHARPEST, 10 * FRAME).getTimestamp());
+    }
+
+    @Test
+    public void unpairedImages_areClosedBeyondLimit() {
+        final ZslRingBuffer buffer = new ZslRingBuffer(4, Long.MAX_VALUE);
+        final FakeImage[] images = new FakeImage[10];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = new FakeImage((i + 1) * FRAME);
+            buffer.addImage(images[i]);
+        }
+
+        assertEquals(0, buffer.size());
+        assertEquals(2, buffer.getUnpairedCount());
+        assertTrue(images[1].mClosed);
+        assertFalse(images[2].mClosed);
+        buffer.addResult(focused(3 * FRAME));
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void laggingResults_neverHoldMoreThanMaxImages() {
+        final ZslRingBuffer buffer = new ZslRingBuffer(3, Long.MAX_VALUE);
+        final FakeImage[] full = addFrames(buffer, 3);
+        // results fall further and further behind the images of a full ring
+        final FakeImage[] images = new FakeImage[20];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = new FakeImage((4 + i) * FRAME);
+            buffer.addImage(images[i]);
+            if (i % 2 == 1) {
+                buffer.addResult(focused((4 + i / 2) * FRAME));
+            }
+            int open = 0;
+            for (FakeImage image : full) {
+                if (!image.mClosed) open++;
+            }
+            for (int j = 0; j <= i; j++) {
+                if (!images[j].mClosed) open++;
+            }
+            assertTrue("open " + open, open <= buffer.getMaxImages());
+        }
+        assertEquals(3, buffer.size());
+        assertTrue(buffer.getUnpairedCount() > 0);
+    }
+
+    @Test
+    public void clear_closesEverythingAndDropsLateArrivals() {
+        final ZslRingBuffer buffer = new ZslRingBuffer(4, Long.MAX_VALUE);
+        final FakeImage[] images = addFrames(buffer, 3);
+        final FakeImage pending = new FakeImage(4 * FRAME);
+        buffer.addImage(pending);
+        buffer.addResult(focused(5 * FRAME));
+
+        buffer.clear();
+
+        for (FakeImage image : images) {
+            assertTrue(image.mClosed);
+        }
+        assertTrue(pending.mClosed);
+        assertEquals(0, buffer.getBytes());
+        final FakeImage late = new FakeImage(5 * FRAME);
+        buffer.addImage(late);
+        assertTrue(late.mClosed);
+        assertEquals(0, buffer.size());
+        addFrames(buffer, 6);
+        assertEquals(1, buffer.size());
+    }
+
+    private static FakeImage[] addFrames(ZslRingBuffer buffer, int count) {
+        final FakeImage[] images = new FakeImage[count];
+        for (int i = 0; i < count; i++) {
+            final long timestamp = (i + 1) * FRAME;
+            images[i] = new FakeImage(timestamp);
+            if (timestamp > buffer.getLatestTimestamp()) {
+                buffer.addImage(images[i]);
+                buffer.addResult(focused(timestamp));
+            }
+        }
+        return images;
+    }
+
+    private static void add(ZslRingBuffer buffer, long timestamp, FrameResult result) {
+        buffer.addResult(result);
+        buffer.addImage(new FakeImage(timestamp));
+    }
+
+    private static FrameResult focused(long timestamp) {
+        return new FrameResult(timestamp, FrameResult.FOCUS_FOCUSED, false, true);
+    }
+
+    private static class FakeImage implements BackendImage {
+        private final long mTimestamp;
+        private final ByteBuffer mData = ByteBuffer.allocate(JPEG_BYTES);
+        boolean mClosed;
+
+        FakeImage(long timestamp) {
+            mTimestamp = timestamp;
+        }
+
+        @Override
+        public int getFormat() {
+            return CameraInfo.FORMAT_JPEG;
+        }
+
+        @Override
+        public int getWidth() {
+            return 4000;
+        }
+
+        @Override
+        public int getHeight() {
+            return 3000;
+        }
+
+        @Override
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        @Override
+        public int getPlaneCount() {
+            return 1;
+        }
+
+        @Override
+        public ByteBuffer getPlaneBuffer(int plane) {
+            return mData;
+        }
+
+        @Override
+        public int getRowStride(int plane) {
+            return 0;
+        }
+
+        @Override
+        public int getPixelStride(int plane) {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.wzq.camerademo.benchmark;
+
+import com.wzq.camerademo.camera.io.DirectBufferPool;
+import com.wzq.camerademo.camera.io.ImageFileWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ways to get a capture out of the {@code Image} buffer before it is closed: the heap
+ * array the original capture code used, a fresh direct buffer, and the pooled copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BufferCopyBenchmark {
+    @Param({"1048576", "4194304"})
+    public int size;
+
+    private ByteBuffer mSource;
+    private ImageFileWriter mFileWriter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mSource = SyntheticImages.jpeg(size, 2);
+        mFileWriter = new ImageFileWriter(new DirectBufferPool(4));
+    }
+
+    @Benchmark
+    public byte[] heapArrayCopy() {
+        final byte[] bytes = new byte[mSource.remaining()];
+        mSource.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Benchmark
+    public ByteBuffer directAllocateCopy() {
+        final ByteBuffer copy = ByteBuffer.allocateDirect(mSource.remaining());
+        copy.put(mSource.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    @Benchmark
+    public void pooledDirectCopy(Blackhole blackhole) {
+        final ByteBuffer copy = mFileWriter.copy(mSource);
+        blackhole.consume(copy);
+        mFileWriter.recycle(copy);
+    }
+}
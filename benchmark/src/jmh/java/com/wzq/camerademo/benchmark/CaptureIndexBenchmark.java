@@ -0,0 +1,89 @@
+package com.wzq.camerademo.benchmark;
+
+import com.wzq.camerademo.camera.store.CaptureIndex;
+import com.wzq.camerademo.camera.store.CaptureRecord;
+import com.wzq.camerademo.camera.store.CaptureStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Capture naming and the capture index: handing out names, parsing them back, range
+ * queries and replaying the log when the store is opened.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CaptureIndexBenchmark {
+    private static final long CAPTURE_INTERVAL_MILLIS = 1000;
+
+    @Param({"1000", "10000"})
+    public int captures;
+
+    private File mDirectory;
+    private File mIndexFile;
+    private CaptureIndex mIndex;
+    private long mQueryFrom;
+    private long mTimestamp;
+    private String mName;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDirectory = SyntheticImages.createTempDirectory("index-benchmark");
+        mIndexFile = new File(mDirectory, CaptureStore.INDEX_FILE_NAME);
+        mIndex = new CaptureIndex(mIndexFile);
+        for (int i = 1; i <= captures; i++) {
+            mIndex.begin(i, i * CAPTURE_INTERVAL_MILLIS);
+            mIndex.commit(new CaptureRecord(i, i * CAPTURE_INTERVAL_MILLIS, 3000000, i));
+        }
+        mQueryFrom = captures / 2 * CAPTURE_INTERVAL_MILLIS;
+        mName = CaptureStore.nameFor(captures, captures * CAPTURE_INTERVAL_MILLIS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mIndex.close();
+        SyntheticImages.deleteRecursively(mDirectory);
+    }
+
+    @Benchmark
+    public String nameFor() {
+        return CaptureStore.nameFor(captures, ++mTimestamp);
+    }
+
+    @Benchmark
+    public long[] parseName() {
+        return CaptureStore.parseName(mName);
+    }
+
+    /**
+     * A gallery page: the 100 captures starting in the middle of the index.
+     */
+    @Benchmark
+    public List<CaptureRecord> queryRange() {
+        return mIndex.query(mQueryFrom, mQueryFrom + 100 * CAPTURE_INTERVAL_MILLIS);
+    }
+
+    @Benchmark
+    public int replayOnOpen() throws IOException {
+        final CaptureIndex index = new CaptureIndex(mIndexFile);
+        try {
+            return index.size();
+        } finally {
+            index.close();
+        }
+    }
+}
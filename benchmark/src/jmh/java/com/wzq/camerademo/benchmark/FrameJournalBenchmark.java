@@ -0,0 +1,81 @@
+package com.wzq.camerademo.benchmark;
+
+import com.wzq.camerademo.camera.journal.FrameJournal;
+import com.wzq.camerademo.camera.journal.FrameJournalReader;
+import com.wzq.camerademo.camera.journal.FrameRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame journal: appending a row from the result callback, which has 16.6ms per
+ * frame at 60fps for everything it does, and summarizing a full ring in the reader.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameJournalBenchmark {
+    private static final long FRAME_NANOS = 16666666L;
+
+    // a minute and an hour at 60fps
+    @Param({"3600", "216000"})
+    public int capacity;
+
+    private File mDirectory;
+    private FrameJournal mJournal;
+    private FrameJournalReader mReader;
+    private final FrameRecord mRecord = new FrameRecord();
+    private long mFrameNumber;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDirectory = SyntheticImages.createTempDirectory("journal-benchmark");
+        final File file = new File(mDirectory, "frames.journal");
+        mJournal = new FrameJournal(file, capacity);
+        for (int i = 0; i < capacity; i++) {
+            append();
+        }
+        mReader = new FrameJournalReader(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mReader.close();
+        mJournal.close();
+        SyntheticImages.deleteRecursively(mDirectory);
+    }
+
+    @Benchmark
+    public boolean append() {
+        final long frameNumber = mFrameNumber++;
+        mRecord.setFrameNumber(frameNumber)
+                .setSensorTimestamp(frameNumber * FRAME_NANOS)
+                .setResultTime(frameNumber * FRAME_NANOS + 30000000)
+                .setExposureTime(10000000)
+                .setFrameDuration(FRAME_NANOS)
+                .setSensitivity(400)
+                .setAfState(2)
+                .setAeState(2)
+                .setAwbState(2)
+                .setLensMoving((frameNumber & 63) == 0);
+        return mJournal.append(mRecord);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public FrameJournalReader.Summary summarize() {
+        return mReader.summarize();
+    }
+}
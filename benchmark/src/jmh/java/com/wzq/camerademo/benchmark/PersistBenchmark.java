@@ -0,0 +1,103 @@
+package com.wzq.camerademo.benchmark;
+
+import com.wzq.camerademo.camera.io.DirectBufferPool;
+import com.wzq.camerademo.camera.io.ImageFileWriter;
+import com.wzq.camerademo.camera.io.LocalFileCaptureWriter;
+import com.wzq.camerademo.camera.store.CaptureRecord;
+import com.wzq.camerademo.camera.store.CaptureStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The JPEG persist path that used to live in {@code CaptureRunnable}: a capture buffer
+ * written to its file as the app does it today, plain and through the crash-safe store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PersistBenchmark {
+    @Param({"1048576", "4194304"})
+    public int jpegSize;
+
+    private File mDirectory;
+    private ByteBuffer mJpeg;
+    private ImageFileWriter mFileWriter;
+    private LocalFileCaptureWriter mLocalWriter;
+    private File mTarget;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDirectory = SyntheticImages.createTempDirectory("persist-benchmark");
+        mJpeg = SyntheticImages.jpeg(jpegSize, 1);
+        mFileWriter = new ImageFileWriter(new DirectBufferPool(4));
+        mLocalWriter = new LocalFileCaptureWriter(new File(mDirectory, "local"), mFileWriter);
+        mTarget = new File(mDirectory, "capture.jpg");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticImages.deleteRecursively(mDirectory);
+    }
+
+    @Benchmark
+    public long channelWrite() throws IOException {
+        return mFileWriter.write(mJpeg.duplicate(), mTarget);
+    }
+
+    @Benchmark
+    public long localCaptureWrite() throws IOException {
+        return mLocalWriter.write("capture.jpg", mJpeg.duplicate());
+    }
+
+    /**
+     * Index BEGIN, temp file with fsync, rename and COMMIT.
+     */
+    @Benchmark
+    public long captureStoreWrite(StoreState state) throws IOException {
+        return state.mStore.write(state.mStore.newCaptureName(), mJpeg.duplicate());
+    }
+
+    @State(Scope.Thread)
+    public static class StoreState {
+        private File mDirectory;
+        private CaptureStore mStore;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            mDirectory = SyntheticImages.createTempDirectory("store-benchmark");
+            mStore = new CaptureStore(mDirectory);
+        }
+
+        /**
+         * Drops the capture just written, so the directory does not grow by gigabytes over
+         * a run. Each write is fsync'd and takes milliseconds, which keeps the
+         * per-invocation overhead out of the noise.
+         */
+        @TearDown(Level.Invocation)
+        public void deleteCaptures() throws IOException {
+            for (CaptureRecord record : mStore.getAll()) {
+                mStore.delete(record.getId());
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            mStore.close();
+            SyntheticImages.deleteRecursively(mDirectory);
+        }
+    }
+}
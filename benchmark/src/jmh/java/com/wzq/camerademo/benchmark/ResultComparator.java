@@ -0,0 +1,129 @@
+package com.wzq.camerademo.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files and exits with status 1 if any benchmark got slower
+ * than the baseline by more than the threshold, after allowing for both error margins.
+ *
+ * <pre>ResultComparator baseline.json results.json [thresholdPercent]</pre>
+ */
+public class ResultComparator {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: ResultComparator <baseline.json> <results.json> [thresholdPercent]");
+            System.exit(2);
+        }
+        final double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        final Map<String, Score> baseline = read(new File(args[0]));
+        final Map<String, Score> current = read(new File(args[1]));
+
+        final List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            final Score now = entry.getValue();
+            final Score before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.println(String.format("%-90s %12.3f %s (new)", entry.getKey(), now.mValue, now.mUnit));
+                continue;
+            }
+            final double change = now.slowdownPercent(before);
+            final boolean regressed = change > threshold && now.isWorseBeyondError(before);
+            System.out.println(String.format("%-90s %12.3f -> %12.3f %s %+7.1f%%%s", entry.getKey(),
+                    before.mValue, now.mValue, now.mUnit, change, regressed ? "  REGRESSION" : ""));
+            if (regressed) {
+                regressions.add(entry.getKey());
+            }
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.println(String.format("%-90s (missing)", key));
+            }
+        }
+        if (!regressions.isEmpty()) {
+            System.err.println(regressions.size() + " benchmark(s) regressed by more than " + threshold + "%");
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Score> read(File file) throws IOException {
+        final Map<String, Score> scores = new TreeMap<>();
+        final Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            final JsonArray results = JsonParser.parseReader(reader).getAsJsonArray();
+            for (JsonElement element : results) {
+                final JsonObject result = element.getAsJsonObject();
+                final JsonObject metric = result.getAsJsonObject("primaryMetric");
+                final String mode = result.get("mode").getAsString();
+                scores.put(key(result, mode), new Score(metric.get("score").getAsDouble(),
+                        errorOf(metric), metric.get("scoreUnit").getAsString(), mode.equals("thrpt")));
+            }
+        } finally {
+            reader.close();
+        }
+        return scores;
+    }
+
+    private static String key(JsonObject result, String mode) {
+        final StringBuilder key = new StringBuilder(result.get("benchmark").getAsString());
+        final JsonObject params = result.getAsJsonObject("params");
+        if (params != null) {
+            final Map<String, String> sorted = new TreeMap<>();
+            for (Map.Entry<String, JsonElement> param : params.entrySet()) {
+                sorted.put(param.getKey(), param.getValue().getAsString());
+            }
+            key.append(sorted);
+        }
+        return key.append(' ').append(mode).toString();
+    }
+
+    private static double errorOf(JsonObject metric) {
+        final JsonElement error = metric.get("scoreError");
+        // a single iteration reports "NaN"
+        if (error == null || !error.isJsonPrimitive() || !error.getAsJsonPrimitive().isNumber()) {
+            return 0;
+        }
+        final double value = error.getAsDouble();
+        return Double.isNaN(value) ? 0 : value;
+    }
+
+    private static class Score {
+        final double mValue;
+        final double mError;
+        final String mUnit;
+        final boolean mHigherIsBetter;
+
+        Score(double value, double error, String unit, boolean higherIsBetter) {
+            mValue = value;
+            mError = error;
+            mUnit = unit;
+            mHigherIsBetter = higherIsBetter;
+        }
+
+        /**
+         * How much slower this score is than {@code baseline}, in percent; negative if faster.
+         */
+        double slowdownPercent(Score baseline) {
+            final double ratio = mHigherIsBetter ? baseline.mValue / mValue : mValue / baseline.mValue;
+            return (ratio - 1) * 100;
+        }
+
+        boolean isWorseBeyondError(Score baseline) {
+            final double margin = mError + baseline.mError;
+            return mHigherIsBetter ? mValue + margin < baseline.mValue : mValue - margin > baseline.mValue;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.wzq.camerademo.benchmark;
+
+import com.wzq.camerademo.camera.backend.SessionConfig;
+import com.wzq.camerademo.camera.backend.SimulatedCameraBackend;
+import com.wzq.camerademo.camera.io.DirectBufferPool;
+import com.wzq.camerademo.camera.io.ImageFileWriter;
+import com.wzq.camerademo.camera.io.OverflowPolicy;
+import com.wzq.camerademo.camera.io.PersistCallback;
+import com.wzq.camerademo.camera.io.PersistResult;
+import com.wzq.camerademo.camera.io.PersistenceQueue;
+import com.wzq.camerademo.camera.lifecycle.CameraController;
+import com.wzq.camerademo.camera.lifecycle.CameraState;
+import com.wzq.camerademo.camera.pipeline.Burst;
+import com.wzq.camerademo.camera.pipeline.BurstCallback;
+import com.wzq.camerademo.camera.pipeline.ImageRouter;
+import com.wzq.camerademo.camera.store.CaptureRecord;
+import com.wzq.camerademo.camera.store.CaptureStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A whole burst from capture request to the last frame committed in the store, with the
+ * simulated camera in place of camera2. The sensor runs far faster than a real one, so the
+ * time is that of the app side: copies, JPEG checks, fsyncs and the hand-offs between them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SimulatedBurstBenchmark {
+    @Param({"10", "30"})
+    public int burstSize;
+
+    @Param({"1048576"})
+    public int jpegSize;
+
+    private File mDirectory;
+    private SimulatedCameraBackend mBackend;
+    private ExecutorService mControllerThread;
+    private CameraController mController;
+    private CaptureStore mStore;
+    private PersistenceQueue mPersistenceQueue;
+    private ImageRouter mRouter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        mDirectory = SyntheticImages.createTempDirectory("burst-benchmark");
+        mBackend = new SimulatedCameraBackend();
+        mBackend.setFrameRate(1000);
+        mBackend.setJpegBytes(jpegSize);
+        final ImageFileWriter fileWriter = new ImageFileWriter(new DirectBufferPool(8));
+        mStore = new CaptureStore(mDirectory, fileWriter);
+        mPersistenceQueue = new PersistenceQueue(mStore, 1, 4, OverflowPolicy.BLOCK);
+        mRouter = new ImageRouter(fileWriter, mStore, mPersistenceQueue, new PersistCallback() {
+            @Override
+            public void onPersistCompleted(PersistResult result) {
+            }
+        }, 4);
+        mRouter.start();
+        mControllerThread = Executors.newSingleThreadExecutor();
+        mController = new CameraController(mBackend, mControllerThread);
+        mController.setSessionConfig(new SessionConfig(1280, 720, 4000, 3000).setMaxJpegImages(4)
+                .setImageListener(mRouter));
+        mController.open("0");
+        if (!mController.awaitState(CameraState.PREVIEWING, 5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("simulated camera did not start, " + mController.getState());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mController.close();
+        mController.awaitState(CameraState.CLOSED, 5, TimeUnit.SECONDS);
+        mRouter.stop();
+        mPersistenceQueue.shutdown();
+        mPersistenceQueue.awaitTermination(5, TimeUnit.SECONDS);
+        mControllerThread.shutdown();
+        mBackend.release();
+        mStore.close();
+        SyntheticImages.deleteRecursively(mDirectory);
+    }
+
+    /**
+     * Drops the burst just written, so the directory does not grow over a run.
+     */
+    @TearDown(Level.Invocation)
+    public void deleteCaptures() throws IOException {
+        for (CaptureRecord record : mStore.getAll()) {
+            mStore.delete(record.getId());
+        }
+    }
+
+    @Benchmark
+    public int burst() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Burst burst = mRouter.beginBurst(burstSize, new BurstCallback() {
+            @Override
+            public void onBurstCompleted(Burst burst) {
+                done.countDown();
+            }
+        });
+        // the controller is back to PREVIEWING shortly after the previous sequence completed
+        while (!mController.capture(burstSize, mRouter.getBurstCaptureCallback())) {
+            mController.awaitState(CameraState.PREVIEWING, 1, TimeUnit.SECONDS);
+        }
+        if (!done.await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("burst did not complete");
+        }
+        return burst.getFailedCount();
+    }
+}
@@ -0,0 +1,91 @@
+package com.wzq.camerademo.benchmark;
+
+import com.wzq.camerademo.camera.convert.YuvPlanes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Camera-like buffers and scratch directories for the benchmarks.
+ */
+final class SyntheticImages {
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * Direct buffer shaped like an {@code ImageReader} JPEG plane: SOI, pseudo-random
+     * payload, EOI.
+     */
+    static ByteBuffer jpeg(int size, int seed) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        fill(buffer, seed);
+        buffer.put(0, (byte) 0xff).put(1, (byte) 0xd8);
+        buffer.put(size - 2, (byte) 0xff).put(size - 1, (byte) 0xd9);
+        return buffer;
+    }
+
+    /**
+     * The usual YUV_420_888 layout from camera HALs: rows padded to 64 bytes and one
+     * interleaved VU buffer exposed as a V plane and a U plane one byte further.
+     */
+    static YuvPlanes semiPlanarYuv(int width, int height) {
+        final int rowStride = (width + 63) & ~63;
+        final ByteBuffer y = ByteBuffer.allocateDirect(rowStride * height);
+        final ByteBuffer vu = ByteBuffer.allocateDirect(rowStride * ((height + 1) / 2));
+        fill(y, 1);
+        fill(vu, 2);
+        vu.position(1);
+        final ByteBuffer u = vu.slice();
+        vu.position(0);
+        return new YuvPlanes().set(width, height, y, rowStride, u, vu, rowStride, 2);
+    }
+
+    /**
+     * Opaque pseudo-random {@code 0xAARRGGBB} pixels, as a decoded capture.
+     */
+    static int[] argb(int width, int height) {
+        final int[] pixels = new int[width * height];
+        int state = 3;
+        for (int i = 0; i < pixels.length; i++) {
+            state = state * 1103515245 + 12345;
+            pixels[i] = 0xff000000 | (state >>> 8);
+        }
+        return pixels;
+    }
+
+    /**
+     * Parses "WIDTHxHEIGHT".
+     */
+    static int[] parseSize(String size) {
+        final int separator = size.indexOf('x');
+        return new int[]{Integer.parseInt(size.substring(0, separator)), Integer.parseInt(size.substring(separator + 1))};
+    }
+
+    private static void fill(ByteBuffer buffer, int seed) {
+        int state = seed;
+        for (int i = 0; i < buffer.capacity(); i++) {
+            state = state * 1103515245 + 12345;
+            buffer.put(i, (byte) (state >>> 16));
+        }
+    }
+
+    static File createTempDirectory(String prefix) throws IOException {
+        final File directory = File.createTempFile(prefix, "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("cannot create " + directory);
+        }
+        return directory;
+    }
+
+    static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
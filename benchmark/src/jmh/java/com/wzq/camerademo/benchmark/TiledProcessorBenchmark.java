@@ -0,0 +1,78 @@
+package com.wzq.camerademo.benchmark;
+
+import com.wzq.camerademo.camera.process.ArgbImage;
+import com.wzq.camerademo.camera.process.ProcessSpec;
+import com.wzq.camerademo.camera.process.TiledProcessor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Post-processing of a 12MP capture on 1 to 8 fork-join workers. The speedup levels off
+ * at the number of cores of the machine running it, and earlier for the passes that are
+ * bound by memory bandwidth rather than arithmetic.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TiledProcessorBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"4032x3024"})
+    public String resolution;
+
+    private ForkJoinPool mPool;
+    private TiledProcessor mProcessor;
+    private ArgbImage mSource;
+    private ArgbImage mUpright;
+    private ArgbImage mQuarter;
+    private final ProcessSpec mRotate = new ProcessSpec("upright").setRotation(90);
+    private final ProcessSpec mRotateSharpen = new ProcessSpec("sharp").setRotation(90).setSharpenAmount(0.5f);
+    private final ProcessSpec mDownscale = new ProcessSpec("small").setDownscale(4).setRotation(90)
+            .setSharpenAmount(0.5f);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final int[] size = SyntheticImages.parseSize(resolution);
+        mPool = new ForkJoinPool(threads);
+        mProcessor = new TiledProcessor(mPool);
+        mSource = new ArgbImage(SyntheticImages.argb(size[0], size[1]), size[0], size[1]);
+        mUpright = new ArgbImage(new int[size[0] * size[1]], size[1], size[0]);
+        mQuarter = new ArgbImage(new int[size[0] * size[1] / 16], size[1] / 4, size[0] / 4);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public ArgbImage rotate() {
+        mProcessor.process(mSource, mRotate, mUpright);
+        return mUpright;
+    }
+
+    @Benchmark
+    public ArgbImage rotateAndSharpen() {
+        mProcessor.process(mSource, mRotateSharpen, mUpright);
+        return mUpright;
+    }
+
+    @Benchmark
+    public ArgbImage downscaleAndSharpen() {
+        mProcessor.process(mSource, mDownscale, mQuarter);
+        return mQuarter;
+    }
+}
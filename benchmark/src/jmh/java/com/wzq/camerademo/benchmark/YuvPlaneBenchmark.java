@@ -0,0 +1,71 @@
+package com.wzq.camerademo.benchmark;
+
+import com.wzq.camerademo.camera.analysis.YuvFrame;
+import com.wzq.camerademo.camera.convert.JavaYuvConverter;
+import com.wzq.camerademo.camera.convert.YuvConverter;
+import com.wzq.camerademo.camera.convert.YuvPlanes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame work on the analysis stream: copying the planes out of the {@code Image} and
+ * converting them with the Java converter. The native converter needs a device and is
+ * covered by {@code YuvConverterBenchmark} in the app's instrumented tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YuvPlaneBenchmark {
+    @Param({"1280x720", "1920x1080"})
+    public String resolution;
+
+    private YuvPlanes mPlanes;
+    private YuvFrame mFrame;
+    private final YuvConverter mConverter = new JavaYuvConverter();
+    private ByteBuffer mNv21;
+    private ByteBuffer mRgba;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final int[] size = SyntheticImages.parseSize(resolution);
+        mPlanes = SyntheticImages.semiPlanarYuv(size[0], size[1]);
+        mFrame = new YuvFrame();
+        mNv21 = ByteBuffer.allocateDirect(YuvPlanes.nv21Size(size[0], size[1]));
+        mRgba = ByteBuffer.allocateDirect(YuvPlanes.rgbaSize(size[0], size[1]));
+    }
+
+    /**
+     * What the analysis listener does for every preview frame.
+     */
+    @Benchmark
+    public YuvFrame copyPlanes() {
+        mFrame.setFormat(mPlanes.getWidth(), mPlanes.getHeight(), 0);
+        mFrame.setPlane(YuvFrame.PLANE_Y, mPlanes.getY(), mPlanes.getYRowStride(), 1);
+        mFrame.setPlane(YuvFrame.PLANE_U, mPlanes.getU(), mPlanes.getUvRowStride(), mPlanes.getUvPixelStride());
+        mFrame.setPlane(YuvFrame.PLANE_V, mPlanes.getV(), mPlanes.getUvRowStride(), mPlanes.getUvPixelStride());
+        return mFrame;
+    }
+
+    @Benchmark
+    public ByteBuffer toNv21() {
+        mConverter.toNv21(mPlanes, mNv21);
+        return mNv21;
+    }
+
+    @Benchmark
+    public ByteBuffer toRgba() {
+        mConverter.toRgba(mPlanes, mRgba);
+        return mRgba;
+    }
+}